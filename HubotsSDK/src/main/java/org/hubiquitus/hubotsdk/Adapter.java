@@ -24,6 +24,9 @@ import org.hubiquitus.hapi.client.HClient;
 import org.hubiquitus.hapi.client.HMessageDelegate;
 import org.hubiquitus.hapi.hStructures.HMessage;
 import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.hubiquitus.hapi.metrics.HHistogram;
+import org.hubiquitus.hapi.metrics.HLatencyTracker;
+import org.hubiquitus.hapi.metrics.HMetricRegistry;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +36,11 @@ public abstract class Adapter {
 	protected HClient hclient;
 	protected String actor;
 	protected DefaultCamelContext camelContext;
+	protected HDispatchHandle inbox;
+	// time in ns spent by the adapter on each message. Null unless the metrics are enabled
+	HHistogram latency;
+	// latency tracing of the messages. Null unless the metrics are enabled
+	HLatencyTracker tracker;
 	
 	/**
 	 * Method used to set properties of the adapters. 
@@ -56,6 +64,48 @@ public abstract class Adapter {
 		this.camelContext = camelContext;				
 	}
 	
+	/**
+	 * Record the time spent on each message in the histogram adapter.(actor).(stage) of the registry
+	 * (stage is put for an inbox, onOutGoing for an outbox), and trace the latency of the messages (see HLatencyTracker)
+	 * @param metrics the registry. Null to disable
+	 */
+	public final void setMetrics(HMetricRegistry metrics) {
+		String stage = latencyStage();
+		latency = (metrics != null && stage != null) ? metrics.histogram("adapter." + actor + "." + stage) : null;
+		tracker = (metrics != null) ? new HLatencyTracker(metrics) : null;
+	}
+
+	/* name of the stage whose latency is recorded */
+	String latencyStage() {
+		return null;
+	}
+
+	/**
+	 * Set the handle of the inbox of the actor, used to queue the incoming messages
+	 * @param inbox
+	 */
+	public final void setInboxHandle(HDispatchHandle inbox) {
+		this.inbox = inbox;
+	}
+
+	/**
+	 * Queue a message in the inbox of the actor. The hubot sets the inbox handle before starting the adapters :
+	 * the message is dropped if it is not set, or if the inbox is stopped.
+	 * @param hubotStruct
+	 * @return false if the message was dropped
+	 */
+	protected final boolean putInInbox(HubotMessageStructure hubotStruct) {
+		if (inbox == null) {
+			logger.error("no inbox set for the adapter " + actor + ", message dropped");
+			return false;
+		}
+		if (!inbox.put(hubotStruct)) {
+			logger.error("inbox refused the message of the adapter " + actor + ", message dropped");
+			return false;
+		}
+		return true;
+	}
+
 	public final void setHClient(HClient hclient) {
 		this.hclient = hclient;				
 	}
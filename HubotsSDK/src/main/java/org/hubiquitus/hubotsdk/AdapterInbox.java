@@ -20,13 +20,27 @@
 package org.hubiquitus.hubotsdk;
 
 import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.metrics.HHistogram;
+import org.hubiquitus.hapi.metrics.HTraceStage;
 
 public abstract class AdapterInbox extends Adapter {
 	
 	// Method for input message 
 	public final void put(HMessage message) {	
-		HubotMessageStructure hubotStruct = new HubotMessageStructure(message, null);
-		ProducerTemplateSingleton.getProducerTemplate().sendBody("seda:inbox",hubotStruct);
+		HHistogram current = latency;
+		long start = (current != null) ? System.nanoTime() : 0;
+		if (tracker != null && message != null) {
+			tracker.mark(message, HTraceStage.INGEST);
+		}
+		putInInbox(new HubotMessageStructure(message, null));
+		if (current != null) {
+			current.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	String latencyStage() {
+		return "put";
 	}
 
 }
@@ -21,6 +21,8 @@ package org.hubiquitus.hubotsdk;
 
 import org.hubiquitus.hapi.client.HMessageDelegate;
 import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.metrics.HHistogram;
+import org.hubiquitus.hapi.metrics.HTraceStage;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -33,7 +35,20 @@ public abstract class AdapterOutbox extends Adapter {
 	// Method for output message and command
     @SuppressWarnings("unused")
 	public final void onOutGoing(HubotMessageStructure hubotStruct) {
+		HHistogram current = latency;
+		long start = (current != null) ? System.nanoTime() : 0;
+		if (tracker != null && hubotStruct.getMessage() != null) {
+			tracker.record(hubotStruct.getMessage(), HTraceStage.DISPATCH, HTraceStage.OUTBOX);
+		}
 		sendMessage(hubotStruct.getMessage(), hubotStruct.getCallback());
+		if (current != null) {
+			current.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	String latencyStage() {
+		return "onOutGoing";
 	}
 
 	public abstract void sendMessage(HMessage message, HMessageDelegate callback);
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk;
+
+/**
+ * Pre-resolved entry of a hubot queue (the inbox of the actor or an outbox).
+ * Handles are built once when the hubot is initialized, so dispatching a message is a map lookup plus an enqueue.
+ */
+public interface HDispatchHandle {
+
+	/**
+	 * Queue a message for its consumer (the actor or an adapter outbox)
+	 * @param hubotStruct message and its callback
+	 * @return false if the message was not queued (ie : the queue is stopped)
+	 */
+	boolean put(HubotMessageStructure hubotStruct);
+
+	/**
+	 * Queue a message for its consumer, only if it can be done without waiting
+	 * @param hubotStruct message and its callback
+	 * @return false if the queue is full
+	 */
+	boolean offer(HubotMessageStructure hubotStruct);
+
+	/**
+	 * @return number of messages waiting in the queue
+	 */
+	int size();
+}
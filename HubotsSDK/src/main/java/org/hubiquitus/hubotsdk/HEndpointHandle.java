@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.apache.camel.util.ServiceHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handle on a camel endpoint (ie : seda:inbox). The endpoint and its producer are resolved once,
+ * instead of resolving the uri for each message as ProducerTemplate.sendBody(uri, body) does.
+ */
+public class HEndpointHandle implements HDispatchHandle {
+
+	final Logger logger = LoggerFactory.getLogger(HEndpointHandle.class);
+
+	private final Endpoint endpoint;
+	private final Producer producer;
+
+	/**
+	 * @param context camel context in which the routes of the endpoint are defined
+	 * @param uri uri of the endpoint
+	 * @throws Exception if the producer of the endpoint can not be started
+	 */
+	public HEndpointHandle(CamelContext context, String uri) throws Exception {
+		this.endpoint = context.getEndpoint(uri);
+		this.producer = endpoint.createProducer();
+		ServiceHelper.startService(producer);
+	}
+
+	public boolean put(HubotMessageStructure hubotStruct) {
+		Exchange exchange = endpoint.createExchange();
+		exchange.getIn().setBody(hubotStruct);
+		try {
+			producer.process(exchange);
+		} catch (Exception e) {
+			exchange.setException(e);
+		}
+		if (exchange.getException() != null) {
+			logger.error("message: ", exchange.getException());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Queue directly in the seda queue. Other endpoints are synchronous : the message is put
+	 */
+	public boolean offer(HubotMessageStructure hubotStruct) {
+		if (!(endpoint instanceof SedaEndpoint)) {
+			return put(hubotStruct);
+		}
+		Exchange exchange = endpoint.createExchange();
+		exchange.getIn().setBody(hubotStruct);
+		return ((SedaEndpoint) endpoint).getQueue().offer(exchange);
+	}
+
+	/**
+	 * @return number of messages waiting in the seda queue. 0 for other endpoints
+	 */
+	public int size() {
+		return (endpoint instanceof SedaEndpoint) ? ((SedaEndpoint) endpoint).getQueue().size() : 0;
+	}
+
+	public Endpoint getEndpoint() {
+		return endpoint;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups the incoming messages of an inbox partition by batches. Only used by the consumer thread of the partition,
+ * so batches are processed on that thread, without lock.
+ * A batch is processed when it holds batchSize messages, when a message of priority ALERT or more is added,
+ * or batchLinger ms after its first message : the timer then only queues a signal in the inbox of the partition,
+ * and the consumer thread processes the batch when it takes the signal (see onTake).
+ */
+public class HInboxBatcher {
+
+	final Logger logger = LoggerFactory.getLogger(HInboxBatcher.class);
+
+	/**
+	 * Processes the batches
+	 */
+	public interface Processor {
+		/**
+		 * @param batch messages, in reception order. Never empty
+		 */
+		void process(List<HMessage> batch);
+	}
+
+	/* queued in the inbox when the linger of a batch expires */
+	private static class LingerSignal extends HubotMessageStructure {
+	}
+
+	private final int batchSize;
+	private final long batchLinger;
+	private final long lingerNanos;
+	private final HWheelTimer timer;
+	private final Processor processor;
+	private HDispatchHandle inbox = null;
+	private List<HMessage> pending;
+	private long firstNanos = 0;
+	/* signal of the current batch, read by the timer thread */
+	private volatile LingerSignal signal = null;
+	private HWheelTimer.Timeout lingerTimeout = null;
+
+	/**
+	 * @param batchSize maximum number of messages in a batch
+	 * @param batchLinger maximum time in ms a message waits for its batch
+	 * @param timer timer of the linger
+	 * @param processor processes the batches
+	 */
+	public HInboxBatcher(int batchSize, long batchLinger, HWheelTimer timer, Processor processor) {
+		this.batchSize = batchSize;
+		this.batchLinger = batchLinger;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(batchLinger);
+		this.timer = timer;
+		this.processor = processor;
+		this.pending = new ArrayList<HMessage>(batchSize);
+	}
+
+	/**
+	 * Set the inbox consumed by the thread using this batcher, in which the linger signals are queued.
+	 * Without inbox, a batch whose linger expired is processed with the next message taken
+	 * @param inbox inbox of the partition
+	 */
+	public void setInbox(HDispatchHandle inbox) {
+		this.inbox = inbox;
+	}
+
+	/**
+	 * Called by the consumer thread for each structure taken from the inbox, before processing it.
+	 * Processes the current batch if the structure is its linger signal, or if its linger expired.
+	 * @param hubotStruct structure taken from the inbox
+	 * @return true if the structure is a linger signal, which must not be processed further
+	 */
+	public boolean onTake(HubotMessageStructure hubotStruct) {
+		if (!pending.isEmpty() && (hubotStruct == signal || System.nanoTime() - firstNanos >= lingerNanos)) {
+			flush();
+		}
+		return hubotStruct instanceof LingerSignal;
+	}
+
+	/**
+	 * Add a message to the current batch. Processes the batch if it is full or if the message is urgent
+	 * @param message incoming message
+	 */
+	public void add(HMessage message) {
+		pending.add(message);
+		if (pending.size() >= batchSize || isUrgent(message)) {
+			flush();
+		} else if (pending.size() == 1) {
+			firstNanos = System.nanoTime();
+			final LingerSignal batchSignal = new LingerSignal();
+			signal = batchSignal;
+			lingerTimeout = timer.schedule(new Runnable() {
+				public void run() {
+					signal(batchSignal);
+				}
+			}, batchLinger);
+		}
+	}
+
+	/**
+	 * Process the current batch, if any. Called by the consumer thread, or once it is stopped (see Hubot.stop)
+	 */
+	public void flush() {
+		if (lingerTimeout != null) {
+			lingerTimeout.cancel();
+			lingerTimeout = null;
+		}
+		signal = null;
+		if (pending.isEmpty()) {
+			return;
+		}
+		List<HMessage> batch = pending;
+		pending = new ArrayList<HMessage>(batchSize);
+		try {
+			processor.process(batch);
+		} catch (Exception e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	/**
+	 * @return number of messages waiting in the current batch
+	 */
+	public int size() {
+		return pending.size();
+	}
+
+	/* timer thread : never waits for the inbox. If it is full, the consumer checks the linger on its next message */
+	private void signal(LingerSignal batchSignal) {
+		HDispatchHandle partition = inbox;
+		if (partition != null && batchSignal == signal) {
+			partition.offer(batchSignal);
+		}
+	}
+
+	private static boolean isUrgent(HMessage message) {
+		HMessagePriority priority = (message != null) ? message.getPriority() : null;
+		return priority != null && priority.value() >= HMessagePriority.ALERT.value();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inbox split in partitions, each consumed by its own thread : messages with the same partition key
+ * (convid, actor or publisher) always go to the same partition, so they are processed in order,
+ * while messages of different keys are processed in parallel.
+ * Messages without key go to the first partition : a warning is logged the first time, as they may overload it.
+ */
+public class HPartitionedInbox implements HDispatchHandle {
+
+	/** partition by conversation id */
+	public static final String KEY_CONVID = "convid";
+	/** partition by actor */
+	public static final String KEY_ACTOR = "actor";
+	/** partition by publisher */
+	public static final String KEY_PUBLISHER = "publisher";
+
+	final Logger logger = LoggerFactory.getLogger(HPartitionedInbox.class);
+
+	private final HDispatchHandle[] partitions;
+	private final String partitionKey;
+	private final AtomicBoolean unkeyedWarned = new AtomicBoolean(false);
+
+	/**
+	 * @param partitions handles of the partitions. Each one must be consumed by a single thread
+	 * @param partitionKey convid, actor or publisher
+	 */
+	public HPartitionedInbox(HDispatchHandle[] partitions, String partitionKey) {
+		if (!KEY_CONVID.equals(partitionKey) && !KEY_ACTOR.equals(partitionKey) && !KEY_PUBLISHER.equals(partitionKey)) {
+			throw new IllegalArgumentException("Unknown partition key " + partitionKey);
+		}
+		this.partitions = partitions;
+		this.partitionKey = partitionKey;
+	}
+
+	public boolean put(HubotMessageStructure hubotStruct) {
+		return partitions[partitionOf(hubotStruct.getMessage())].put(hubotStruct);
+	}
+
+	public boolean offer(HubotMessageStructure hubotStruct) {
+		return partitions[partitionOf(hubotStruct.getMessage())].offer(hubotStruct);
+	}
+
+	/**
+	 * @param message a message
+	 * @return index of the partition of the message
+	 */
+	public int partitionOf(HMessage message) {
+		String key = keyOf(message);
+		if (key == null) {
+			if (!unkeyedWarned.get() && unkeyedWarned.compareAndSet(false, true)) {
+				logger.warn("message without " + partitionKey + " queued in the first inbox partition, next ones are not logged");
+			}
+			return 0;
+		}
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return (hash & Integer.MAX_VALUE) % partitions.length;
+	}
+
+	public int size() {
+		int size = 0;
+		for (HDispatchHandle partition : partitions) {
+			size += partition.size();
+		}
+		return size;
+	}
+
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	private String keyOf(HMessage message) {
+		if (message == null) {
+			return null;
+		}
+		if (KEY_CONVID.equals(partitionKey)) {
+			return message.getConvid();
+		} else if (KEY_ACTOR.equals(partitionKey)) {
+			return message.getActor();
+		}
+		return message.getPublisher();
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.camel.Exchange;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.util.HPriorityLevels;
+
+/**
+ * Queue of a seda outbox : exchanges are consumed by priority of their hMessage (PANIC first),
+ * in arrival order for a same priority. Low priorities are not starved (see HPriorityLevels).
+ */
+public class HPriorityExchangeQueue extends AbstractQueue<Exchange> implements BlockingQueue<Exchange> {
+
+	private final HPriorityLevels<Exchange> levels = HPriorityLevels.forMessagePriorities();
+	private final int capacity;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	public HPriorityExchangeQueue() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param capacity maximum number of exchanges in the queue
+	 */
+	public HPriorityExchangeQueue(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param priority a message priority
+	 * @return number of exchanges of this priority waiting in the queue
+	 */
+	public int depth(HMessagePriority priority) {
+		lock.lock();
+		try {
+			return levels.size(priority.value());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static int levelOf(Exchange exchange) {
+		Object body = exchange.getIn().getBody();
+		HMessage message = null;
+		if (body instanceof HubotMessageStructure) {
+			message = ((HubotMessageStructure) body).getMessage();
+		} else if (body instanceof HMessage) {
+			message = (HMessage) body;
+		}
+		return HPriorityLevels.levelOf(message);
+	}
+
+	private void enqueue(Exchange exchange) {
+		levels.add(exchange, levelOf(exchange));
+		notEmpty.signal();
+	}
+
+	private Exchange dequeue() {
+		Exchange exchange = levels.poll();
+		if (exchange != null) {
+			notFull.signal();
+		}
+		return exchange;
+	}
+
+	public boolean offer(Exchange exchange) {
+		if (exchange == null) {
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try {
+			if (levels.size() >= capacity) {
+				return false;
+			}
+			enqueue(exchange);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void put(Exchange exchange) throws InterruptedException {
+		if (exchange == null) {
+			throw new NullPointerException();
+		}
+		lock.lockInterruptibly();
+		try {
+			while (levels.size() >= capacity) {
+				notFull.await();
+			}
+			enqueue(exchange);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean offer(Exchange exchange, long timeout, TimeUnit unit) throws InterruptedException {
+		if (exchange == null) {
+			throw new NullPointerException();
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (levels.size() >= capacity) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			enqueue(exchange);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Exchange poll() {
+		lock.lock();
+		try {
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Exchange take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (levels.size() == 0) {
+				notEmpty.await();
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Exchange poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (levels.size() == 0) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Exchange peek() {
+		lock.lock();
+		try {
+			return levels.peek();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		lock.lock();
+		try {
+			boolean removed = levels.remove(o);
+			if (removed) {
+				notFull.signal();
+			}
+			return removed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return levels.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return capacity - levels.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int drainTo(Collection<? super Exchange> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	public int drainTo(Collection<? super Exchange> c, int maxElements) {
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		lock.lock();
+		try {
+			int count = 0;
+			Exchange exchange;
+			while (count < maxElements && (exchange = dequeue()) != null) {
+				c.add(exchange);
+				count++;
+			}
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the queue, in consumption order of the priorities. Does not support remove
+	 */
+	@Override
+	public Iterator<Exchange> iterator() {
+		lock.lock();
+		try {
+			return levels.iterator();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
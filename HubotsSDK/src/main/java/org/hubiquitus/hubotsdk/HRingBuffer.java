@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded ring of messages consumed by a single thread, without camel nor locks (disruptor style).
+ * Producers claim a slot with an atomic increment of the tail and publish the message in it;
+ * the consumer thread takes the slots in order and calls the handler.
+ * When the ring is empty, the consumer spins a little then parks until a producer publishes;
+ * when the ring is full, producers wait for the consumer (back pressure).
+ * The ring is fifo : message priorities are not taken into account.
+ * Messages put once the ring is stopped are rejected.
+ */
+public class HRingBuffer implements HDispatchHandle {
+
+	final Logger logger = LoggerFactory.getLogger(HRingBuffer.class);
+
+	/** default number of slots of a ring */
+	public static final int DEFAULT_SIZE = 1024;
+
+	/** number of empty polls before the consumer yields, then parks */
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+
+	/**
+	 * Consumer of the ring
+	 */
+	public interface Handler {
+		/**
+		 * Called by the consumer thread for each message, in the order of the ring
+		 * @param hubotStruct message and its callback
+		 */
+		void onEvent(HubotMessageStructure hubotStruct);
+	}
+
+	private final String name;
+	private final AtomicReferenceArray<HubotMessageStructure> slots;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong(0);
+	private final AtomicLong head = new AtomicLong(0);
+	private final Handler handler;
+	private volatile boolean running = false;
+	private volatile Thread consumer = null;
+	/* set by the consumer before it parks, producers unpark it when set */
+	private volatile boolean consumerParked = false;
+	/* producers waiting for a free slot */
+	private final AtomicInteger waitingProducers = new AtomicInteger(0);
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * @param name name of the ring, used for the consumer thread
+	 * @param size number of slots. Rounded up to a power of two
+	 * @param handler consumer of the messages
+	 */
+	public HRingBuffer(String name, int size, Handler handler) {
+		int capacity = 1;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+		this.name = name;
+		this.slots = new AtomicReferenceArray<HubotMessageStructure>(capacity);
+		this.mask = capacity - 1;
+		this.handler = handler;
+	}
+
+	/**
+	 * Queue a message, waiting for a free slot if the ring is full
+	 * @return false if the ring is stopped : the message is not queued
+	 */
+	public boolean put(HubotMessageStructure hubotStruct) {
+		if (hubotStruct == null || !running) {
+			return false;
+		}
+		long sequence = tail.getAndIncrement();
+		if (sequence - head.get() > mask) {
+			awaitSlot(sequence);
+		}
+		publish(sequence, hubotStruct);
+		return true;
+	}
+
+	public boolean offer(HubotMessageStructure hubotStruct) {
+		if (hubotStruct == null || !running) {
+			return false;
+		}
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head.get() > mask) {
+				return false;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+		publish(sequence, hubotStruct);
+		return true;
+	}
+
+	private void publish(long sequence, HubotMessageStructure hubotStruct) {
+		slots.set((int) (sequence & mask), hubotStruct);
+		if (consumerParked) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Start the consumer thread
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		consumer = new Thread(new Runnable() {
+			public void run() {
+				consume();
+			}
+		}, "hubot-ring-" + name);
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Stop the consumer thread once it has consumed the messages already in the ring
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		consumer = null;
+	}
+
+	/**
+	 * @return number of messages claimed in the ring and not consumed yet
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	/* wait for the consumer to free the slot of a claimed sequence */
+	private void awaitSlot(long sequence) {
+		for (int tries = 0; tries < SPIN_TRIES + YIELD_TRIES; tries++) {
+			if (sequence - head.get() <= mask) {
+				return;
+			}
+			if (tries >= SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+		waitingProducers.incrementAndGet();
+		lock.lock();
+		try {
+			while (sequence - head.get() > mask) {
+				notFull.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+			waitingProducers.decrementAndGet();
+		}
+	}
+
+	private void consume() {
+		long sequence = head.get();
+		int tries = 0;
+		while (true) {
+			int index = (int) (sequence & mask);
+			HubotMessageStructure hubotStruct = slots.get(index);
+			if (hubotStruct == null) {
+				if (!running && tail.get() == sequence) {
+					return;
+				}
+				if (tries < SPIN_TRIES) {
+					tries++;
+				} else if (tries < SPIN_TRIES + YIELD_TRIES) {
+					Thread.yield();
+					tries++;
+				} else {
+					// producers check the flag after publishing, the slot is checked again after setting it
+					consumerParked = true;
+					if (slots.get(index) == null && (running || tail.get() != sequence)) {
+						LockSupport.park(this);
+					}
+					consumerParked = false;
+				}
+				continue;
+			}
+			tries = 0;
+			slots.lazySet(index, null);
+			head.set(++sequence);
+			if (waitingProducers.get() > 0) {
+				lock.lock();
+				try {
+					notFull.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+			try {
+				handler.onEvent(hubotStruct);
+			} catch (Exception e) {
+				logger.error("message: ", e);
+			}
+		}
+	}
+}
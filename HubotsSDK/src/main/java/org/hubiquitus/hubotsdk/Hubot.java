@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.camel.impl.DefaultCamelContext;
@@ -37,9 +38,16 @@ import org.hubiquitus.hapi.hStructures.ConnectionStatus;
 import org.hubiquitus.hapi.hStructures.HAckValue;
 import org.hubiquitus.hapi.hStructures.HMessage;
 import org.hubiquitus.hapi.hStructures.HMessageOptions;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
 import org.hubiquitus.hapi.hStructures.HOptions;
 import org.hubiquitus.hapi.hStructures.HStatus;
 import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.hubiquitus.hapi.metrics.HGauge;
+import org.hubiquitus.hapi.metrics.HHistogram;
+import org.hubiquitus.hapi.metrics.HLatencyTracker;
+import org.hubiquitus.hapi.metrics.HMetricRegistry;
+import org.hubiquitus.hapi.metrics.HTraceStage;
+import org.hubiquitus.hapi.util.HWheelTimer;
 import org.hubiquitus.hubotsdk.adapters.HChannelAdapterInbox;
 import org.hubiquitus.hubotsdk.adapters.HubotAdapterInbox;
 import org.hubiquitus.hubotsdk.adapters.HubotAdapterOutbox;
@@ -67,11 +75,24 @@ public abstract class Hubot {
 	private ArrayList<String> adapterOutboxActors = new ArrayList<String>();
 	private Map<String, Adapter> adapterInstances = new HashMap<String, Adapter>();
 	private HubotDispatcher hubotDispatcher;
+	private RouteGenerator routes;
+	private HDispatchHandle inboxHandle;
+	private Map<String, HDispatchHandle> outboxHandles = new HashMap<String, HDispatchHandle>();
+	private List<HRingBuffer> inboxRings = new ArrayList<HRingBuffer>();
+	private List<HRingBuffer> outboxRings = new ArrayList<HRingBuffer>();
 
 	
 	private HTopology topology;
 	
 	private MessagesDelegate messageDelegate = new MessagesDelegate();
+	/* one delegate per inbox partition, so that each one batches the messages of its partition */
+	private List<MessagesDelegate> partitionDelegates = new ArrayList<MessagesDelegate>();
+	
+	// null unless the metrics are enabled in the topology
+	private HMetricRegistry metrics = null;
+	private HHistogram inProcessDuration = null;
+	private HHistogram inProcessBatchDuration = null;
+	private HLatencyTracker tracker = null;
 	private StatusDelegate statusDelegate = new StatusDelegate();
 	
 	
@@ -110,7 +131,8 @@ public abstract class Hubot {
 			setStatus(HubotStatus.CREATED);
 			//Connecting to HNode
 			HOptions options = new HOptions();
-			options.setTransport("socketio");
+			options.setTransport(topology.getTransport());
+			options.setMetrics(topology.getMetrics());
 			JSONArray endpoints = new JSONArray();
 			endpoints.put(topology.getHserver());
 			options.setEndpoints(endpoints);
@@ -134,33 +156,147 @@ public abstract class Hubot {
 	
 	/**
 	 * Create the hubotAdapter and all adapters declared in the file. Call the <i>startAdapters</i> for 
-	 * start all adapters
-	 * Set the status status READY when its over
+	 * start all adapters once the queues of the actor are created.
+	 * Set the status status READY when its over. The hubot stays INITIALIZED if its queues can not be created
+	 * (ie : unknown inboxPartitionKey)
 	 */
 	protected final void initialized() {
 		setStatus(HubotStatus.INITIALIZED);
+		createMetrics();
 
 		//Create HubotAdapter (Mandatory)
 		createHubotAdapter();
 
 		//Create other adapters
 		createAdapters();
-		createRoutes();
+		try {
+			createRoutes();
+		} catch (Exception e) {
+			logger.error("hubot not ready, its queues can not be created : ", e);
+			return;
+		}
+		registerQueueMetrics();
 		startAdapters();
 		createDispatcher();
 		setStatus(HubotStatus.READY);
 	}
 	
-	private void createRoutes() {
-		
-		RouteGenerator routes = new RouteGenerator(adapterOutboxActors);
-		try {
-			camelContext.setRegistry(createRegistry());
+	/**
+	 * Create the queues between the adapters and the actor, and resolve their handles once :
+	 * seda routes by default, or rings bypassing camel if the dispatch of the topology is ring
+	 * @throws Exception if the routes or the handles can not be created
+	 */
+	private void createRoutes() throws Exception {
+		createMessagesDelegates();
+		camelContext.setRegistry(createRegistry());
+		if ("ring".equals(topology.getDispatch())) {
+			createRings();
+		} else {
+			int partitions = topology.getInboxConcurrency();
+			routes = new RouteGenerator(adapterOutboxActors, partitions);
 			camelContext.addRoutes(routes);
-		} catch (Exception e) {
-			logger.error(e.toString());
+			if (partitions > 1) {
+				HDispatchHandle[] handles = new HDispatchHandle[partitions];
+				for (int i = 0; i < partitions; i++) {
+					handles[i] = new HEndpointHandle(camelContext, RouteGenerator.inboxPartitionUri(i));
+					partitionDelegates.get(i).setInbox(handles[i]);
+				}
+				inboxHandle = new HPartitionedInbox(handles, topology.getInboxPartitionKey());
+			} else {
+				inboxHandle = new HEndpointHandle(camelContext, "seda:inbox");
+				messageDelegate.setInbox(inboxHandle);
+			}
+			outboxHandles.put(HUBOT_ADAPTER_OUTBOX, new HEndpointHandle(camelContext, "seda:" + HUBOT_ADAPTER_OUTBOX));
+			for (String actor : adapterOutboxActors) {
+				outboxHandles.put(actor, new HEndpointHandle(camelContext, "seda:" + actor));
+			}
+		}
+		for (Adapter adapter : adapterInstances.values()) {
+			adapter.setInboxHandle(inboxHandle);
+		}
+	}
+	
+	private void createMetrics() {
+		if (topology.getMetrics()) {
+			metrics = new HMetricRegistry("hubot-" + topology.getActor());
+			inProcessDuration = metrics.histogram("actor.inProcessMessage");
+			inProcessBatchDuration = metrics.histogram("actor.inProcessBatch");
+			tracker = new HLatencyTracker(metrics);
+			metrics.registerJmx();
+		}
+	}
+	
+	/* depth of the inbox and outboxes, latency of the adapters */
+	private void registerQueueMetrics() {
+		if (metrics == null) {
+			return;
+		}
+		if (inboxHandle != null) {
+			metrics.gauge("inbox.depth", new HGauge() {
+				public long getValue() {
+					return inboxHandle.size();
+				}
+			});
+		}
+		for (Map.Entry<String, HDispatchHandle> entry : outboxHandles.entrySet()) {
+			final HDispatchHandle outbox = entry.getValue();
+			metrics.gauge("outbox." + entry.getKey() + ".depth", new HGauge() {
+				public long getValue() {
+					return outbox.size();
+				}
+			});
+		}
+		for (Adapter adapter : adapterInstances.values()) {
+			adapter.setMetrics(metrics);
+		}
+	}
+	
+	private void createMessagesDelegates() {
+		int partitions = Math.max(1, topology.getInboxConcurrency());
+		int batchSize = topology.getInboxBatchSize();
+		long batchLinger = topology.getInboxBatchLinger();
+		messageDelegate = new MessagesDelegate(batchSize, batchLinger);
+		partitionDelegates.add(messageDelegate);
+		for (int i = 1; i < partitions; i++) {
+			partitionDelegates.add(new MessagesDelegate(batchSize, batchLinger));
+		}
+	}
+	
+	private void createRings() {
+		int ringSize = topology.getRingSize();
+		int partitions = Math.max(1, topology.getInboxConcurrency());
+		HDispatchHandle[] inboxPartitions = new HDispatchHandle[partitions];
+		for (int i = 0; i < partitions; i++) {
+			final MessagesDelegate delegate = partitionDelegates.get(i);
+			HRingBuffer.Handler actorHandler = new HRingBuffer.Handler() {
+				public void onEvent(HubotMessageStructure hubotStruct) {
+					delegate.inProcess(hubotStruct);
+				}
+			};
+			HRingBuffer inboxRing = new HRingBuffer("inbox-" + i, ringSize, actorHandler);
+			delegate.setInbox(inboxRing);
+			inboxRings.add(inboxRing);
+			inboxPartitions[i] = inboxRing;
+		}
+		inboxHandle = (partitions > 1) ? new HPartitionedInbox(inboxPartitions, topology.getInboxPartitionKey()) : inboxPartitions[0];
+		ArrayList<String> outboxActors = new ArrayList<String>(adapterOutboxActors);
+		outboxActors.add(HUBOT_ADAPTER_OUTBOX);
+		for (String actor : outboxActors) {
+			final AdapterOutbox outbox = (AdapterOutbox) adapterInstances.get(actor);
+			HRingBuffer outboxRing = new HRingBuffer(actor, ringSize, new HRingBuffer.Handler() {
+				public void onEvent(HubotMessageStructure hubotStruct) {
+					outbox.onOutGoing(hubotStruct);
+				}
+			});
+			outboxRings.add(outboxRing);
+			outboxHandles.put(actor, outboxRing);
+		}
+		for (HRingBuffer ring : inboxRings) {
+			ring.start();
+		}
+		for (HRingBuffer ring : outboxRings) {
+			ring.start();
 		}
-		
 	}
 
 	private void createHubotAdapter() {
@@ -177,10 +313,7 @@ public abstract class Hubot {
 		hubotAdapterInbox.setProperties(topology);
 		hubotAdapterOutbox.setProperties(topology);
 		
-		//Launch the HubotAdapter and put him in adapterInstances 
-		hubotAdapterInbox.start();
-		hubotAdapterOutbox.start();
-		
+		//Put the HubotAdapter in adapterInstances : it is started with the others, once the inbox is created
 		adapterInstances.put(HUBOT_ADAPTER_OUTBOX,hubotAdapterOutbox); 
 		adapterInstances.put(HUBOT_ADAPTER_INBOX,hubotAdapterInbox); 
 		
@@ -227,9 +360,19 @@ public abstract class Hubot {
 	
 	private void startAdapters() {
 		if(adapterInstances != null) {
+			// channels are subscribed in one bulk request
+			List<HChannelAdapterInbox> channelAdapters = new ArrayList<HChannelAdapterInbox>();
 			for(String key : adapterInstances.keySet()) {
-				adapterInstances.get(key).start();
-			}   
+				Adapter adapter = adapterInstances.get(key);
+				if (adapter.getClass() == HChannelAdapterInbox.class) {
+					channelAdapters.add((HChannelAdapterInbox) adapter);
+				} else {
+					adapter.start();
+				}
+			}
+			if (!channelAdapters.isEmpty()) {
+				HChannelAdapterInbox.startAll(hClient, channelAdapters);
+			}
 		}
 		try {
 			camelContext.start();
@@ -239,7 +382,7 @@ public abstract class Hubot {
 	}
 	
 	private void createDispatcher(){
-		hubotDispatcher = new HubotDispatcher(adapterOutboxActors);
+		hubotDispatcher = new HubotDispatcher(outboxHandles, outboxHandles.get(HUBOT_ADAPTER_OUTBOX));
 	}
 	
 	/**
@@ -251,6 +394,9 @@ public abstract class Hubot {
 		JndiRegistry jndi = new JndiRegistry();
 
 		jndi.bind("actor", messageDelegate);
+		for (int i = 0; i < partitionDelegates.size(); i++) {
+			jndi.bind(RouteGenerator.inboxPartitionBean(i), partitionDelegates.get(i));
+		}
 		jndi.bind(HUBOT_ADAPTER_OUTBOX, adapterInstances.get(HUBOT_ADAPTER_OUTBOX));
 
 		
@@ -262,29 +408,117 @@ public abstract class Hubot {
 		return jndi;
 	}
 	
+	/**
+	 * Stop the hubot without losing the messages already received : the inbox adapters are stopped,
+	 * the inbox is drained and the lingering batches processed while the outboxes still run,
+	 * then the outboxes are drained and camel is stopped.
+	 */
 	protected final void stop() {
-		for(String key : adapterInstances.keySet()) {
-		  adapterInstances.get(key).stop();
+		for (Adapter adapter : adapterInstances.values()) {
+			if (!(adapter instanceof AdapterOutbox)) {
+				adapter.stop();
+			}
+		}
+		drainInbox();
+		for (MessagesDelegate delegate : partitionDelegates) {
+			delegate.flush();
+		}
+		for (HRingBuffer ring : outboxRings) {
+			ring.stop();
+		}
+		try {
+			camelContext.stop();
+		} catch (Exception e) {
+			logger.error(e.toString());
+		}
+		for (Adapter adapter : adapterInstances.values()) {
+			if (adapter instanceof AdapterOutbox) {
+				adapter.stop();
+			}
+		}
+	  	if (metrics != null) {
+	  		metrics.close();
 	  	}
-	  	try {
-		  camelContext.stop();
-	  	} catch (Exception e) {
-		  	logger.error(e.toString());
+	}
+
+	/* Stop the consumers of the inbox once they processed the messages already queued */
+	private void drainInbox() {
+		for (HRingBuffer ring : inboxRings) {
+			ring.stop();
+		}
+		if (routes != null) {
+			try {
+				camelContext.stopRoute(RouteGenerator.INBOX_ROUTE);
+				for (int i = 0; partitionDelegates.size() > 1 && i < partitionDelegates.size(); i++) {
+					camelContext.stopRoute(RouteGenerator.inboxPartitionRoute(i));
+				}
+			} catch (Exception e) {
+				logger.error(e.toString());
+			}
 		}
 	}
 		
 	protected class MessagesDelegate {
+		private HInboxBatcher batcher = null;
+		
+		public MessagesDelegate() {
+		}
+		
+		/**
+		 * @param batchSize above 1, the messages are given to inProcessBatch by batches of up to batchSize messages
+		 * @param batchLinger maximum time in ms a message waits for its batch
+		 */
+		public MessagesDelegate(int batchSize, long batchLinger) {
+			if (batchSize > 1) {
+				batcher = new HInboxBatcher(batchSize, batchLinger, HWheelTimer.getShared(), new HInboxBatcher.Processor() {
+					public void process(List<HMessage> batch) {
+						long start = (inProcessBatchDuration != null) ? System.nanoTime() : 0;
+						inProcessBatch(batch);
+						if (inProcessBatchDuration != null) {
+							inProcessBatchDuration.record(System.nanoTime() - start);
+						}
+					}
+				});
+			}
+		}
+		
+		/* Set the inbox consumed by the thread of this delegate, signalled when a batch lingered enough */
+		final void setInbox(HDispatchHandle inbox) {
+			if (batcher != null) {
+				batcher.setInbox(inbox);
+			}
+		}
+		
+		/* Deliver the batch being built, if any */
+		public final void flush() {
+			if (batcher != null) {
+				batcher.flush();
+			}
+		}
+		
 		/* Method use for incoming message/command */
 		public final void inProcess(Object obj) {
 			if (obj != null) {
 				if (obj instanceof HubotMessageStructure) {
 					try {
 						HubotMessageStructure hubotStruct = (HubotMessageStructure)obj; 
+						if (batcher != null && batcher.onTake(hubotStruct)) {
+							return;
+						}
 					 	HMessage message = hubotStruct.getMessage();
 						try {
 						 	HMessageDelegate callback = hubotStruct.getCallback();
+						 	if (tracker != null && message != null) {
+						 		tracker.record(message, HTraceStage.INGEST, HTraceStage.PROCESS);
+						 	}
 						 	if(callback != null){
 						 		callback.onMessage(message);
+						 	}else if (batcher != null) {
+						 		batcher.add(message);
+						 	}else if (inProcessDuration != null) {
+						 		long start = System.nanoTime();
+						 		inProcessMessage(message);
+						 		inProcessDuration.record(System.nanoTime() - start);
 						 	}else{
 						 		inProcessMessage(message);
 						 	}
@@ -299,15 +533,46 @@ public abstract class Hubot {
 		}
 	}
 	
+	/**
+	 * Process an incoming message. Called by a single thread, unless the inboxConcurrency of the topology
+	 * is above 1 : then it is called concurrently, and only the messages of a same partition key
+	 * (see inboxPartitionKey) are processed in order.
+	 * @param incomingMessage
+	 */
 	protected abstract void inProcessMessage(HMessage incomingMessage);
+	
+	/**
+	 * Process a batch of incoming messages. Only called when the inboxBatchSize of the topology is above 1 :
+	 * messages are then grouped by batches of up to inboxBatchSize messages, each one waiting at most
+	 * inboxBatchLinger ms (a message of priority ALERT or more is not delayed).
+	 * Override it to amortize the processing cost over several messages (ie : database writes).
+	 * Calls inProcessMessage for each message by default.
+	 * @param incomingMessages messages, in reception order
+	 */
+	protected void inProcessBatch(List<HMessage> incomingMessages) {
+		for (HMessage message : incomingMessages) {
+			inProcessMessage(message);
+		}
+	}
 
+	private boolean dispatch(HMessage hmessage, HMessageDelegate callback) {
+		if (tracker != null && hmessage != null) {
+			tracker.mark(hmessage, HTraceStage.DISPATCH);
+		}
+		if (hubotDispatcher.dispatcher(hmessage, callback)) {
+			return true;
+		}
+		logger.error("message not sent, its outbox is stopped : " + hmessage);
+		return false;
+	}
 
     /**
      * Send an HMessage to a specified adapter outbox.
      * @param hmessage
+     * @return false if the message was not queued in its outbox (ie : the hubot is stopped)
      */
-    protected final void send(HMessage hmessage){
-        hubotDispatcher.dispatcher(hmessage, null);
+    protected final boolean send(HMessage hmessage){
+        return dispatch(hmessage, null);
     }
 
 	/**
@@ -315,9 +580,10 @@ public abstract class Hubot {
 	 * @param hmessage a hmessage to send to a dedicated actor
      * @param callback the callback to call if an answer is sent by the actor called. Note, you must set a timer value
      * on the hMessage. if not the callback will be ingored
+     * @return false if the message was not queued in its outbox (ie : the hubot is stopped)
 	 */
-	protected final void send(HMessage hmessage, HMessageDelegate callback){
-		hubotDispatcher.dispatcher(hmessage, callback);
+	protected final boolean send(HMessage hmessage, HMessageDelegate callback){
+		return dispatch(hmessage, callback);
 	}
 
     /**
@@ -326,10 +592,11 @@ public abstract class Hubot {
      * @param callback the callback to call if an answer is sent by the actor called. Note, you must set a timer value
      * on the hMessage. if not the callback will be ingored
      * @param timeout the timeout value to use. (ms)
+     * @return false if the message was not queued in its outbox (ie : the hubot is stopped)
      */
-    protected final void send(HMessage hmessage, HMessageDelegate callback, long timeout){
+    protected final boolean send(HMessage hmessage, HMessageDelegate callback, long timeout){
         hmessage.setTimeout(timeout);
-        hubotDispatcher.dispatcher(hmessage, callback);
+        return dispatch(hmessage, callback);
     }
 
     private class FilterDelegate implements HMessageDelegate {
@@ -398,7 +665,32 @@ public abstract class Hubot {
 	protected final AdapterOutbox getAdapterOutbox(String actor) {
 		return (AdapterOutbox) adapterInstances.get(actor);
 	}
+
+	/**
+	 * Number of messages of a priority waiting in an outbox.
+	 * Outboxes deliver the messages by priority (the highest first), in sending order for a same priority
+	 * @param outboxActor actor of the outbox (hubotAdapterOutbox for the hubot itself)
+	 * @param priority priority of the messages
+	 * @return number of messages waiting. 0 if the outbox is unknown or if the dispatch is ring (fifo)
+	 */
+	protected final int getOutboxDepth(String outboxActor, HMessagePriority priority) {
+		HPriorityExchangeQueue queue = (routes == null) ? null : routes.getOutboxQueue(outboxActor);
+		return (queue == null) ? 0 : queue.depth(priority);
+	}
+	
 	
+	/**
+	 * Metrics of the hubot, when enabled in the topology ("metrics": true) : depth of the inbox and outboxes
+	 * (inbox.depth, outbox.(actor).depth), time spent by the adapters (adapter.(actor).put or onOutGoing)
+	 * and by inProcessMessage / inProcessBatch (actor.inProcessMessage, actor.inProcessBatch), in ns.
+	 * The latency tracing of the messages is recorded in the latency.(from stage).(to stage) histograms, broken down
+	 * by (type).(actor) for a bounded number of pairs (see HLatencyTracker) : dispatch to outbox and ingest to process here, the other stages in the metrics of the HClient.
+	 * They are also exposed in JMX. The metrics of the hAPI client are those of the HClient given to init (HClient.getMetrics).
+	 * @return the metrics. Null if disabled
+	 */
+	protected final HMetricRegistry getMetrics() {
+		return metrics;
+	}
 	
 	/**
 	 * Retrived the properties of this Bot
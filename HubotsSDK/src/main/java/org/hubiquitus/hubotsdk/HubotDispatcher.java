@@ -1,6 +1,8 @@
 package org.hubiquitus.hubotsdk;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.hubiquitus.hapi.client.HMessageDelegate;
 import org.hubiquitus.hapi.hStructures.HMessage;
@@ -12,32 +14,58 @@ public class HubotDispatcher {
 	final  Logger logger = LoggerFactory.getLogger(HubotDispatcher.class);
 	
 	private static final String HUBOT_ADAPTER_OUTBOX = "hubotAdapterOutbox";
-    // TODO vérifier la pertinence d'un ArrayList vs. une Map
-	private ArrayList<String> adapterOutboxActors;
+	private Map<String, HDispatchHandle> outboxes;
+	private HDispatchHandle hubotOutbox;
 	
+	/**
+	 * Dispatch through the seda routes of the outboxes (see RouteGenerator), resolved once
+	 * in the camel context of ProducerTemplateSingleton
+	 * @param adapterOutboxActors
+	 */
 	public HubotDispatcher(ArrayList<String> adapterOutboxActors){
-        this.adapterOutboxActors = adapterOutboxActors;
+		this(sedaHandles(adapterOutboxActors), sedaHandle(HUBOT_ADAPTER_OUTBOX));
 	}
 	
-	public  void dispatcher(HMessage msg, HMessageDelegate callback){
-		if (msg != null) {
-			HubotMessageStructure hubotStruct = new HubotMessageStructure(msg, callback);
-			String msgActor = msg.getActor();
-			if (!adapterOutboxActors.contains(msgActor)) {
-				put(HUBOT_ADAPTER_OUTBOX, hubotStruct);
-			} else {
-				put(msgActor, hubotStruct);
-			}
+	/**
+	 * @param outboxes handles of the adapter outboxes, by actor
+	 * @param hubotOutbox handle of the hubot outbox, for the messages which are not for an adapter outbox
+	 */
+	public HubotDispatcher(Map<String, HDispatchHandle> outboxes, HDispatchHandle hubotOutbox){
+		this.outboxes = outboxes;
+		this.hubotOutbox = hubotOutbox;
+	}
+	
+	/**
+	 * Queue a message in the outbox of its actor, or in the hubot outbox
+	 * @param msg
+	 * @param callback
+	 * @return false if the message was not queued (ie : the outbox is stopped)
+	 */
+	public boolean dispatcher(HMessage msg, HMessageDelegate callback){
+		if (msg == null) {
+			return false;
+		}
+		HubotMessageStructure hubotStruct = new HubotMessageStructure(msg, callback);
+		HDispatchHandle outbox = outboxes.get(msg.getActor());
+		if (outbox == null) {
+			outbox = hubotOutbox;
+		}
+		return outbox.put(hubotStruct);
+	}
+	
+	private static Map<String, HDispatchHandle> sedaHandles(ArrayList<String> actors) {
+		Map<String, HDispatchHandle> handles = new HashMap<String, HDispatchHandle>();
+		for (String actor : actors) {
+			handles.put(actor, sedaHandle(actor));
 		}
+		return handles;
 	}
 	
-	private void put(String adapterActor, HubotMessageStructure hubotStruct) {
-		String route = "seda:" + adapterActor;
+	private static HDispatchHandle sedaHandle(String actor) {
 		try {
-			ProducerTemplateSingleton.getProducerTemplate().sendBody(route,hubotStruct);
+			return new HEndpointHandle(ProducerTemplateSingleton.getContext(), "seda:" + actor);
 		} catch (Exception e) {
-			logger.debug("message: ", e);
+			throw new IllegalStateException("Can not resolve the outbox " + actor, e);
 		}
-				
 	}
 }
@@ -33,6 +33,10 @@ public class ProducerTemplateSingleton {
 		return producerTemplate;
 	}
 	
+	public static DefaultCamelContext getContext() {
+		return context;
+	}
+
 	public static void setContext(DefaultCamelContext context) {
 		ProducerTemplateSingleton.context = context;
 	}	
@@ -20,25 +20,79 @@
 package org.hubiquitus.hubotsdk;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
 
 public class RouteGenerator extends RouteBuilder {
 
+	/** id of the route of seda:inbox */
+	public static final String INBOX_ROUTE = "inbox";
+
 	private ArrayList<String> outboxList;
+	private int inboxPartitions;
+	private Map<String, HPriorityExchangeQueue> outboxQueues = new HashMap<String, HPriorityExchangeQueue>();
 
 	public RouteGenerator(ArrayList<String>  outboxList) {
+		this(outboxList, 1);
+	}
+
+	/**
+	 * @param outboxList actors of the adapter outboxes
+	 * @param inboxPartitions number of inbox partitions : above 1, routes seda:inbox-0 .. seda:inbox-(n-1)
+	 * are created, each one with its own consumer (see HPartitionedInbox)
+	 */
+	public RouteGenerator(ArrayList<String>  outboxList, int inboxPartitions) {
 		this.outboxList = outboxList;
+		this.inboxPartitions = inboxPartitions;
+	}
+
+	/**
+	 * @param partition index of an inbox partition
+	 * @return uri of the partition
+	 */
+	public static String inboxPartitionUri(int partition) {
+		return "seda:inbox-" + partition;
+	}
+
+	/**
+	 * @param partition index of an inbox partition
+	 * @return id of the route of the partition
+	 */
+	public static String inboxPartitionRoute(int partition) {
+		return "inbox-" + partition;
+	}
+
+	/**
+	 * @param partition index of an inbox partition
+	 * @return name of the bean processing the messages of the partition
+	 */
+	public static String inboxPartitionBean(int partition) {
+		return "actor-" + partition;
 	}
 
 	@Override
 	public void configure() throws Exception {
 
 		/* Create route for inboxQueue */
-		from("seda:inbox")
+		from("seda:inbox").routeId(INBOX_ROUTE)
 			.to("bean:actor?method=inProcess");
+		if (inboxPartitions > 1) {
+			for (int i = 0; i < inboxPartitions; i++) {
+				from(inboxPartitionUri(i)).routeId(inboxPartitionRoute(i))
+					.to("bean:" + inboxPartitionBean(i) + "?method=inProcess");
+			}
+		}
 
 
+		/* Outboxes are served by priority of the hMessages */
+		createOutboxEndpoint("hubotAdapterOutbox");
+		for(String key : outboxList) {
+			createOutboxEndpoint(key);
+		}
+
 		/* Create route for all outboxesQueue */
 		from("seda:hubotAdapterOutbox")
 			.to("bean:hubotAdapterOutbox?method=onOutGoing");
@@ -51,6 +105,19 @@ public class RouteGenerator extends RouteBuilder {
 		}
 	}
 
+	/**
+	 * @param actor actor of an outbox
+	 * @return the queue of this outbox. Null if unknown
+	 */
+	public HPriorityExchangeQueue getOutboxQueue(String actor) {
+		return outboxQueues.get(actor);
+	}
 
+	private void createOutboxEndpoint(String actor) throws Exception {
+		String uri = "seda:" + actor;
+		HPriorityExchangeQueue queue = new HPriorityExchangeQueue();
+		getContext().addEndpoint(uri, new SedaEndpoint(uri, getContext().getComponent("seda"), queue));
+		outboxQueues.put(actor, queue);
+	}
 
 }
@@ -19,11 +19,16 @@
 
 package org.hubiquitus.hubotsdk.adapters;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hubiquitus.hapi.client.HClient;
 import org.hubiquitus.hapi.client.HMessageDelegate;
 import org.hubiquitus.hapi.exceptions.MissingAttrException;
 import org.hubiquitus.hapi.hStructures.HMessage;
 import org.hubiquitus.hapi.hStructures.ResultStatus;
 import org.hubiquitus.hubotsdk.AdapterInbox;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +65,42 @@ public class HChannelAdapterInbox extends AdapterInbox {
         }
     }
 
+	/**
+	 * Start channel adapters sharing the same hclient : their channels are subscribed by a single bulk request,
+	 * instead of one round trip per adapter
+	 * @param hclient hclient of the adapters
+	 * @param adapters adapters to start
+	 */
+	public static void startAll(HClient hclient, List<HChannelAdapterInbox> adapters) {
+		final Logger log = LoggerFactory.getLogger(HChannelAdapterInbox.class);
+		List<String> actors = new ArrayList<String>(adapters.size());
+		for (HChannelAdapterInbox adapter : adapters) {
+			actors.add(adapter.getActor());
+		}
+		try {
+			hclient.subscribe(actors, new HMessageDelegate() {
+				@Override
+				public void onMessage(HMessage hMessage) {
+					if (hMessage.getPayloadAsHResult().getStatus() == ResultStatus.NO_ERROR) {
+						return;
+					}
+					JSONObject results = hMessage.getPayloadAsHResult().getResultAsJSONObject();
+					for (String actor : JSONObject.getNames(results)) {
+						try {
+							JSONObject result = results.getJSONObject(actor);
+							if (result.optInt("status") != ResultStatus.NO_ERROR.value())
+								log.error("Error on " + actor + " : " + result);
+						} catch (JSONException e) {
+							log.warn("message :", e);
+						}
+					}
+				}
+			});
+		} catch (MissingAttrException e) {
+			log.warn("error while starting : ", e);
+		}
+	}
+
 	@Override
 	public void stop() {
         try {
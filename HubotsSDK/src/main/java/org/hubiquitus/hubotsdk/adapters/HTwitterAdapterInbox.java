@@ -143,7 +143,7 @@ public class HTwitterAdapterInbox extends AdapterInbox{
 		//Construct the location 
 		HLocation location = new HLocation();
 		if(tweet.getGeoLocation() != null ) {
-			HGeo geo = new HGeo(tweet.getGeoLocation().getLatitude(), tweet.getGeoLocation().getLongitude());
+			HGeo geo = new HGeo(tweet.getGeoLocation().getLongitude(), tweet.getGeoLocation().getLatitude());
 			location.setPos(geo);
 			message.setLocation(location);
 		}
@@ -20,16 +20,24 @@
 package org.hubiquitus.hubotsdk.adapters;
 
 import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.filter.HConditionCompiler;
+import org.hubiquitus.hapi.filter.HMessageFilter;
 import org.hubiquitus.hapi.hStructures.HMessage;
 import org.hubiquitus.hubotsdk.AdapterInbox;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Puts the messages received by the hClient in the inbox of the actor.
+ * Properties : actor, the messages it published are ignored.
+ * filter, an hCondition : the messages which do not match it are dropped (see HConditionCompiler)
+ */
 public class HubotAdapterInbox extends AdapterInbox implements HMessageDelegate {
 	
 	final Logger logger = LoggerFactory.getLogger(HubotAdapterInbox.class);
 	private String actor;
+	private volatile HMessageFilter filter = null;
 
 	public HubotAdapterInbox() {
 		super();
@@ -42,6 +50,13 @@ public class HubotAdapterInbox extends AdapterInbox implements HMessageDelegate
 				if(properties.has("actor")){
 					this.actor = properties.getString("actor");
 				}
+				JSONObject condition = properties.optJSONObject("filter");
+				try {
+					this.filter = (condition != null && condition.length() > 0) ? HConditionCompiler.compile(condition) : null;
+				} catch (IllegalArgumentException e) {
+					this.filter = null;
+					logger.error("message: filter not applied, ", e);
+				}
 			} catch (Exception e) {
 				logger.debug("message: ",e);
 			}
@@ -58,6 +73,10 @@ public class HubotAdapterInbox extends AdapterInbox implements HMessageDelegate
 	}
 	
 	public void onMessage(HMessage message) {
+		HMessageFilter current = filter;
+		if (current != null && !current.accept(message)) {
+			return;
+		}
 		if(!message.getPublisher().equals(actor))
 			put(message);		
 	}
@@ -23,7 +23,6 @@ import org.hubiquitus.hapi.client.HMessageDelegate;
 import org.hubiquitus.hapi.hStructures.HMessage;
 import org.hubiquitus.hubotsdk.AdapterOutbox;
 import org.hubiquitus.hubotsdk.HubotMessageStructure;
-import org.hubiquitus.hubotsdk.ProducerTemplateSingleton;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +59,7 @@ public class HubotAdapterOutbox extends AdapterOutbox {
                     hclient.send(message, new HMessageDelegate() {
                     @Override
                     public void onMessage(HMessage message) {
-                        ProducerTemplateSingleton.getProducerTemplate().sendBody("seda:inbox",new HubotMessageStructure(message, callback));
+                        putInInbox(new HubotMessageStructure(message, callback));
                     }
                 });
             } else {
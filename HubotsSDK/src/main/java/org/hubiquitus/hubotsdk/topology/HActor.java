@@ -171,6 +171,30 @@ public class HActor extends JSONObject {
 		}
 	}
 	
+	/**
+	 * @return The transport used to reach the hserver (see HOptions.getTransport). socketio if undefined.
+	 * Use loopback to run the hubot against an in-process hNode.
+	 */
+	public String getTransport(){
+		return this.optString("transport", "socketio");
+	}
+	
+	/**
+	 * Set the transport used to reach the hserver
+	 * @param transport
+	 */
+	public void setTransport(String transport){
+		try {
+			if(transport == null){
+				this.remove("transport");
+			}else{
+				this.put("transport", transport);
+			}
+		} catch (JSONException e) {
+			logger.error("Can not set transport attribute : ", e); 
+		}
+	}
+	
 	/**
 	 * @return The filter to set on the current session when the connection with the hserver is established. see setFilter for details
 	 */
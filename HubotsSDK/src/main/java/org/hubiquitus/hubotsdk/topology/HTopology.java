@@ -45,6 +45,152 @@ public class HTopology extends HActor {
 		}
 	}
 
+	/**
+	 * @return How messages are queued between the adapters and the actor : camel (seda routes, messages
+	 * served by priority) or ring (lock-free rings bypassing camel, fifo). camel if undefined.
+	 */
+	public String getDispatch(){
+		return this.optString("dispatch", "camel");
+	}
+	
+	/**
+	 * Set how messages are queued between the adapters and the actor
+	 * @param dispatch camel or ring
+	 */
+	public void setDispatch(String dispatch){
+		try {
+			if(dispatch == null){
+				this.remove("dispatch");
+			}else{
+				this.put("dispatch", dispatch);
+			}
+		} catch (JSONException e) {
+			logger.error("Can not set dispatch attribute : ", e);
+		}
+	}
+	
+	/**
+	 * @return Number of slots of each ring when dispatch is ring. 1024 if undefined.
+	 */
+	public int getRingSize(){
+		return this.optInt("ringSize", 1024);
+	}
+	
+	/**
+	 * Set the number of slots of each ring. Rounded up to a power of two
+	 * @param ringSize
+	 */
+	public void setRingSize(int ringSize){
+		try {
+			this.put("ringSize", ringSize);
+		} catch (JSONException e) {
+			logger.error("Can not set ringSize attribute : ", e);
+		}
+	}
+
+	/**
+	 * @return Number of threads processing the incoming messages. 1 if undefined.
+	 * Above 1, the inbox is partitioned (see getInboxPartitionKey) : inProcessMessage is called concurrently,
+	 * in order for the messages of a same partition key.
+	 */
+	public int getInboxConcurrency(){
+		return this.optInt("inboxConcurrency", 1);
+	}
+	
+	/**
+	 * Set the number of threads processing the incoming messages
+	 * @param inboxConcurrency
+	 */
+	public void setInboxConcurrency(int inboxConcurrency){
+		try {
+			this.put("inboxConcurrency", inboxConcurrency);
+		} catch (JSONException e) {
+			logger.error("Can not set inboxConcurrency attribute : ", e);
+		}
+	}
+	
+	/**
+	 * @return Attribute of the messages whose ordering is kept when the inbox concurrency is above 1 :
+	 * convid, actor or publisher. convid if undefined.
+	 */
+	public String getInboxPartitionKey(){
+		return this.optString("inboxPartitionKey", "convid");
+	}
+	
+	/**
+	 * Set the attribute of the messages whose ordering is kept when the inbox concurrency is above 1
+	 * @param inboxPartitionKey convid, actor or publisher
+	 */
+	public void setInboxPartitionKey(String inboxPartitionKey){
+		try {
+			if(inboxPartitionKey == null){
+				this.remove("inboxPartitionKey");
+			}else{
+				this.put("inboxPartitionKey", inboxPartitionKey);
+			}
+		} catch (JSONException e) {
+			logger.error("Can not set inboxPartitionKey attribute : ", e);
+		}
+	}
+
+	/**
+	 * @return Maximum number of messages given at once to inProcessBatch. 1 if undefined : messages are then
+	 * given one by one to inProcessMessage.
+	 */
+	public int getInboxBatchSize(){
+		return this.optInt("inboxBatchSize", 1);
+	}
+	
+	/**
+	 * Set the maximum number of messages given at once to inProcessBatch
+	 * @param inboxBatchSize
+	 */
+	public void setInboxBatchSize(int inboxBatchSize){
+		try {
+			this.put("inboxBatchSize", inboxBatchSize);
+		} catch (JSONException e) {
+			logger.error("Can not set inboxBatchSize attribute : ", e);
+		}
+	}
+	
+	/**
+	 * @return Maximum time in ms a message waits for its batch when inboxBatchSize is above 1. 10 if undefined.
+	 */
+	public long getInboxBatchLinger(){
+		return this.optLong("inboxBatchLinger", 10);
+	}
+	
+	/**
+	 * Set the maximum time in ms a message waits for its batch
+	 * @param inboxBatchLinger
+	 */
+	public void setInboxBatchLinger(long inboxBatchLinger){
+		try {
+			this.put("inboxBatchLinger", inboxBatchLinger);
+		} catch (JSONException e) {
+			logger.error("Can not set inboxBatchLinger attribute : ", e);
+		}
+	}
+
+	/**
+	 * @return True to collect the metrics of the hubot and of its hAPI client, exposed in JMX. False if undefined.
+	 */
+	public boolean getMetrics(){
+		return this.optBoolean("metrics", false);
+	}
+	
+	/**
+	 * Enable the metrics of the hubot
+	 * @param metrics
+	 */
+	public void setMetrics(boolean metrics){
+		try {
+			this.put("metrics", metrics);
+		} catch (JSONException e) {
+			logger.error("Can not set metrics attribute : ", e);
+		}
+	}
+
     public JSONObject getProperties(){
         try {
             return getJSONObject("properties");
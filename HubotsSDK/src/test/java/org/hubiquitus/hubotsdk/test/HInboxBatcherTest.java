@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.hubiquitus.hubotsdk.HInboxBatcher;
+import org.hubiquitus.hubotsdk.HRingBuffer;
+import org.hubiquitus.hubotsdk.HubotMessageStructure;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Inbox batches : processed on the consumer thread of the partition, when full, urgent or after the linger.
+ */
+
+public class HInboxBatcherTest {
+
+	private static final HWheelTimer timer = HWheelTimer.getShared();
+
+	private HRingBuffer ring = null;
+
+	/* records the batches and the threads processing them */
+	private static class Batches implements HInboxBatcher.Processor {
+		final List<List<HMessage>> batches = Collections.synchronizedList(new ArrayList<List<HMessage>>());
+		final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+		// one permit per batch processed
+		final Semaphore processed = new Semaphore(0);
+
+		public void process(List<HMessage> batch) {
+			threads.add(Thread.currentThread().getName());
+			batches.add(batch);
+			processed.release();
+		}
+	}
+
+	/* partition consumed by a ring, as in the ring dispatch of the hubot */
+	private HInboxBatcher partition(String name, int batchSize, long batchLinger, Batches batches) {
+		final HInboxBatcher batcher = new HInboxBatcher(batchSize, batchLinger, timer, batches);
+		ring = new HRingBuffer(name, 16, new HRingBuffer.Handler() {
+			public void onEvent(HubotMessageStructure hubotStruct) {
+				if (!batcher.onTake(hubotStruct)) {
+					batcher.add(hubotStruct.getMessage());
+				}
+			}
+		});
+		batcher.setInbox(ring);
+		ring.start();
+		return batcher;
+	}
+
+	/* waits for the next batches to be processed */
+	private static void await(Batches batches, int count) throws InterruptedException {
+		Assert.assertTrue(batches.processed.tryAcquire(count, 5, TimeUnit.SECONDS));
+	}
+
+	/* waits until the timeouts scheduled before, up to delay, expired */
+	private static void awaitTimer(long delay) throws InterruptedException {
+		final CountDownLatch expired = new CountDownLatch(1);
+		timer.schedule(new Runnable() {
+			public void run() {
+				expired.countDown();
+			}
+		}, delay);
+		Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void stopRing() {
+		if (ring != null) {
+			ring.stop();
+		}
+	}
+
+	@Test
+	public void sizeTest() throws Exception {
+		Batches batches = new Batches();
+		HInboxBatcher batcher = partition("size", 3, 10000, batches);
+		for (int i = 0; i < 7; i++) {
+			ring.put(HubotTestFixtures.struct("message" + i, null));
+		}
+		await(batches, 2);
+		// once the consumer stopped, all the messages were taken : the last one waits in the batch
+		ring.stop();
+		Assert.assertEquals(2, batches.batches.size());
+		Assert.assertEquals(1, batcher.size());
+		Assert.assertEquals("message3", batches.batches.get(1).get(0).getPayloadAsString());
+		Assert.assertEquals("hubot-ring-size", batches.threads.get(0));
+	}
+
+	@Test
+	public void lingerTest() throws Exception {
+		Batches batches = new Batches();
+		partition("linger", 100, 20, batches);
+		ring.put(HubotTestFixtures.struct("first", null));
+		ring.put(HubotTestFixtures.struct("second", null));
+		await(batches, 1);
+		Assert.assertEquals(1, batches.batches.size());
+		Assert.assertEquals(2, batches.batches.get(0).size());
+		// processed by the consumer of the partition, not by the timer
+		Assert.assertEquals("hubot-ring-linger", batches.threads.get(0));
+
+		// a new batch gets its own linger
+		ring.put(HubotTestFixtures.struct("third", null));
+		await(batches, 1);
+		Assert.assertEquals(2, batches.batches.size());
+		Assert.assertEquals("third", batches.batches.get(1).get(0).getPayloadAsString());
+	}
+
+	@Test
+	public void urgentTest() throws Exception {
+		Batches batches = new Batches();
+		partition("urgent", 100, 10000, batches);
+		ring.put(HubotTestFixtures.struct("info", HMessagePriority.INFO));
+		ring.put(HubotTestFixtures.struct("alert", HMessagePriority.ALERT));
+		await(batches, 1);
+		Assert.assertEquals(1, batches.batches.size());
+		Assert.assertEquals("info", batches.batches.get(0).get(0).getPayloadAsString());
+		Assert.assertEquals("alert", batches.batches.get(0).get(1).getPayloadAsString());
+	}
+
+	@Test
+	public void lingerWithoutInboxTest() throws Exception {
+		Batches batches = new Batches();
+		HInboxBatcher batcher = new HInboxBatcher(100, 20, timer, batches);
+		batcher.add(HubotTestFixtures.struct("first", null).getMessage());
+		awaitTimer(40);
+		// no inbox to signal : the expired batch is processed when the next structure is taken
+		Assert.assertTrue(batches.batches.isEmpty());
+		HubotMessageStructure next = HubotTestFixtures.struct("second", null);
+		Assert.assertFalse(batcher.onTake(next));
+		Assert.assertEquals(1, batches.batches.size());
+		batcher.add(next.getMessage());
+		batcher.flush();
+		Assert.assertEquals(2, batches.batches.size());
+		Assert.assertEquals(0, batcher.size());
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.JndiRegistry;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hubotsdk.HDispatchHandle;
+import org.hubiquitus.hubotsdk.HEndpointHandle;
+import org.hubiquitus.hubotsdk.HPartitionedInbox;
+import org.hubiquitus.hubotsdk.HRingBuffer;
+import org.hubiquitus.hubotsdk.HubotMessageStructure;
+import org.hubiquitus.hubotsdk.RouteGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Partitioned inbox : messages of a key are processed in order, different keys in parallel (seda and ring dispatch).
+ */
+
+public class HPartitionedInboxTest {
+
+	private static final int PER_KEY = 50;
+
+	/* actor of a partition : records the sequence of each key */
+	public static class Actor implements HRingBuffer.Handler {
+		final Map<String, List<Integer>> received;
+		final CyclicBarrier bothRunning;
+		final CountDownLatch done;
+		volatile boolean parallel = true;
+
+		Actor(Map<String, List<Integer>> received, CyclicBarrier bothRunning, CountDownLatch done) {
+			this.received = received;
+			this.bothRunning = bothRunning;
+			this.done = done;
+		}
+
+		public void inProcess(HubotMessageStructure hubotStruct) {
+			HMessage message = hubotStruct.getMessage();
+			int sequence = Integer.parseInt(message.getPayloadAsString());
+			if (sequence == 0) {
+				// both keys must be in process at the same time
+				try {
+					bothRunning.await(5, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					parallel = false;
+				}
+			}
+			synchronized (received) {
+				List<Integer> sequences = received.get(message.getConvid());
+				if (sequences == null) {
+					sequences = new ArrayList<Integer>();
+					received.put(message.getConvid(), sequences);
+				}
+				sequences.add(sequence);
+			}
+			done.countDown();
+		}
+
+		public void onEvent(HubotMessageStructure hubotStruct) {
+			inProcess(hubotStruct);
+		}
+
+		public void onOutGoing(HubotMessageStructure hubotStruct) {
+		}
+	}
+
+	private static HubotMessageStructure struct(String convid, int sequence) {
+		HubotMessageStructure hubotStruct = HubotTestFixtures.struct(String.valueOf(sequence), null);
+		hubotStruct.getMessage().setConvid(convid);
+		return hubotStruct;
+	}
+
+	/* two keys landing in different partitions */
+	private static String[] keys(HPartitionedInbox inbox) throws Exception {
+		String first = "conv-0";
+		int firstPartition = inbox.partitionOf(struct(first, 0).getMessage());
+		for (int i = 1; i < 100; i++) {
+			String key = "conv-" + i;
+			if (inbox.partitionOf(struct(key, 0).getMessage()) != firstPartition) {
+				return new String[] { first, key };
+			}
+		}
+		throw new IllegalStateException("no key in another partition");
+	}
+
+	private static void sendAndCheck(HPartitionedInbox inbox, Actor actor) throws Exception {
+		String[] keys = keys(inbox);
+		for (int i = 0; i < PER_KEY; i++) {
+			inbox.put(struct(keys[0], i));
+			inbox.put(struct(keys[1], i));
+		}
+		Assert.assertTrue(actor.done.await(10, TimeUnit.SECONDS));
+		Assert.assertTrue("keys were not processed in parallel", actor.parallel);
+		for (String key : keys) {
+			List<Integer> sequences = actor.received.get(key);
+			Assert.assertEquals(PER_KEY, sequences.size());
+			for (int i = 0; i < PER_KEY; i++) {
+				Assert.assertEquals(Integer.valueOf(i), sequences.get(i));
+			}
+		}
+	}
+
+	private static Actor newActor() {
+		return new Actor(new HashMap<String, List<Integer>>(), new CyclicBarrier(2), new CountDownLatch(2 * PER_KEY));
+	}
+
+	@Test
+	public void sedaTest() throws Exception {
+		Actor actor = newActor();
+		DefaultCamelContext context = new DefaultCamelContext();
+		JndiRegistry registry = new JndiRegistry();
+		registry.bind("actor", actor);
+		registry.bind("hubotAdapterOutbox", actor);
+		for (int i = 0; i < 2; i++) {
+			registry.bind(RouteGenerator.inboxPartitionBean(i), actor);
+		}
+		context.setRegistry(registry);
+		context.addRoutes(new RouteGenerator(new ArrayList<String>(), 2));
+		context.start();
+		try {
+			HDispatchHandle[] partitions = new HDispatchHandle[2];
+			for (int i = 0; i < 2; i++) {
+				partitions[i] = new HEndpointHandle(context, RouteGenerator.inboxPartitionUri(i));
+			}
+			sendAndCheck(new HPartitionedInbox(partitions, HPartitionedInbox.KEY_CONVID), actor);
+		} finally {
+			context.stop();
+		}
+	}
+
+	@Test
+	public void ringTest() throws Exception {
+		Actor actor = newActor();
+		HRingBuffer[] partitions = new HRingBuffer[2];
+		for (int i = 0; i < 2; i++) {
+			partitions[i] = new HRingBuffer("partition-" + i, 16, actor);
+			partitions[i].start();
+		}
+		try {
+			sendAndCheck(new HPartitionedInbox(partitions, HPartitionedInbox.KEY_CONVID), actor);
+		} finally {
+			for (HRingBuffer partition : partitions) {
+				partition.stop();
+			}
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.util.HPriorityLevels;
+import org.hubiquitus.hubotsdk.HPriorityExchangeQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Seda queue of the outboxes : exchanges consumed by priority of their hMessage, bounded.
+ */
+
+public class HPriorityExchangeQueueTest {
+
+	private final CamelContext context = new DefaultCamelContext();
+
+	private Exchange exchange(String payload, HMessagePriority priority) {
+		HMessage message = new HMessage();
+		message.setPayload(payload);
+		message.setPriority(priority);
+		Exchange exchange = new DefaultExchange(context);
+		exchange.getIn().setBody(message);
+		return exchange;
+	}
+
+	private static String payload(Exchange exchange) {
+		return (exchange == null) ? null : ((HMessage) exchange.getIn().getBody()).getPayloadAsString();
+	}
+
+	@Test
+	public void priorityTest() throws Exception {
+		HPriorityExchangeQueue queue = new HPriorityExchangeQueue();
+		queue.offer(exchange("info1", HMessagePriority.INFO));
+		queue.offer(exchange("panic", HMessagePriority.PANIC));
+		queue.offer(exchange("info2", null));
+		queue.offer(exchange("trace", HMessagePriority.TRACE));
+		Assert.assertEquals(4, queue.size());
+		Assert.assertEquals(2, queue.depth(HMessagePriority.INFO));
+		Assert.assertEquals("panic", payload(queue.peek()));
+		Assert.assertEquals("panic", payload(queue.take()));
+		Assert.assertEquals("info1", payload(queue.poll()));
+		List<Exchange> drained = new ArrayList<Exchange>();
+		Assert.assertEquals(2, queue.drainTo(drained));
+		Assert.assertEquals("info2", payload(drained.get(0)));
+		Assert.assertEquals("trace", payload(drained.get(1)));
+		Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void starvationTest() throws Exception {
+		HPriorityExchangeQueue queue = new HPriorityExchangeQueue();
+		queue.offer(exchange("trace", HMessagePriority.TRACE));
+		for (int i = 0; i < HPriorityLevels.DEFAULT_MAX_SKIPS + 2; i++) {
+			queue.offer(exchange("panic" + i, HMessagePriority.PANIC));
+		}
+		for (int i = 0; i < HPriorityLevels.DEFAULT_MAX_SKIPS; i++) {
+			Assert.assertEquals("panic" + i, payload(queue.poll()));
+		}
+		// the trace exchange was skipped too many times : served before the remaining panics
+		Assert.assertEquals("trace", payload(queue.poll()));
+		Assert.assertEquals("panic" + HPriorityLevels.DEFAULT_MAX_SKIPS, payload(queue.poll()));
+	}
+
+	@Test
+	public void capacityTest() throws Exception {
+		final HPriorityExchangeQueue queue = new HPriorityExchangeQueue(2);
+		Assert.assertTrue(queue.offer(exchange("first", null)));
+		Exchange second = exchange("second", null);
+		Assert.assertTrue(queue.offer(second));
+		Assert.assertFalse(queue.offer(exchange("third", HMessagePriority.PANIC)));
+		Assert.assertFalse(queue.offer(exchange("third", null), 20, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, queue.remainingCapacity());
+
+		// put waits for room
+		final Thread producer = Thread.currentThread();
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				while (producer.getState() != Thread.State.WAITING) {
+					Thread.yield();
+				}
+				queue.poll();
+			}
+		});
+		consumer.start();
+		queue.put(exchange("third", null));
+		consumer.join();
+		Assert.assertEquals(2, queue.size());
+
+		Assert.assertTrue(queue.remove(second));
+		Assert.assertEquals("third", payload(queue.poll()));
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hubotsdk.HRingBuffer;
+import org.hubiquitus.hubotsdk.HubotMessageStructure;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Ring between the adapters and the actor : order, back pressure, idle consumer, stop.
+ */
+
+public class HRingBufferTest {
+
+	/* records the payloads in consumption order */
+	private static class Recorder implements HRingBuffer.Handler {
+		final List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+		volatile CountDownLatch done;
+		// when set, the consumer waits for it before its first event
+		volatile CountDownLatch gate = null;
+
+		Recorder(int expected) {
+			done = new CountDownLatch(expected);
+		}
+
+		public void onEvent(HubotMessageStructure hubotStruct) {
+			if (gate != null) {
+				try {
+					gate.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			String payload = hubotStruct.getMessage().getPayloadAsString();
+			if ("fail".equals(payload)) {
+				done.countDown();
+				throw new RuntimeException("handler failure");
+			}
+			payloads.add(payload);
+			done.countDown();
+		}
+	}
+
+	private static Thread consumerThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("hubot-ring-" + name)) {
+				return thread;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void orderTest() throws Exception {
+		Recorder recorder = new Recorder(100);
+		HRingBuffer ring = new HRingBuffer("order", 16, recorder);
+		ring.start();
+		for (int i = 0; i < 100; i++) {
+			ring.put(HubotTestFixtures.struct("m" + i, null));
+		}
+		Assert.assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		ring.stop();
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals("m" + i, recorder.payloads.get(i));
+		}
+	}
+
+	@Test
+	public void backPressureTest() throws Exception {
+		final int producers = 4;
+		final int perProducer = 50;
+		Recorder recorder = new Recorder(producers * perProducer);
+		recorder.gate = new CountDownLatch(1);
+		final HRingBuffer ring = new HRingBuffer("full", 2, recorder);
+		ring.start();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < perProducer; i++) {
+						ring.put(HubotTestFixtures.struct(producer + "-" + i, null));
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		// the consumer is held : all the producers end up waiting for a free slot
+		for (Thread thread : threads) {
+			HubotTestFixtures.awaitState(thread, Thread.State.WAITING);
+		}
+		recorder.gate.countDown();
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+		Assert.assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+		ring.stop();
+		Assert.assertEquals(producers * perProducer, recorder.payloads.size());
+		// each producer keeps its order
+		for (int p = 0; p < producers; p++) {
+			int next = 0;
+			for (String payload : recorder.payloads) {
+				if (payload.startsWith(p + "-")) {
+					Assert.assertEquals(p + "-" + next, payload);
+					next++;
+				}
+			}
+			Assert.assertEquals(perProducer, next);
+		}
+	}
+
+	@Test
+	public void idleTest() throws Exception {
+		Recorder recorder = new Recorder(1);
+		HRingBuffer ring = new HRingBuffer("idle", 4, recorder);
+		ring.start();
+		Thread consumer = consumerThread("idle");
+		Assert.assertNotNull(consumer);
+		// parked without timeout while the ring is empty
+		HubotTestFixtures.awaitState(consumer, Thread.State.WAITING);
+		ring.put(HubotTestFixtures.struct("wakeup", null));
+		Assert.assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("wakeup", recorder.payloads.get(0));
+		ring.stop();
+		Assert.assertFalse(consumer.isAlive());
+	}
+
+	@Test
+	public void handlerFailureTest() throws Exception {
+		Recorder recorder = new Recorder(3);
+		HRingBuffer ring = new HRingBuffer("failure", 4, recorder);
+		ring.start();
+		ring.put(HubotTestFixtures.struct("before", null));
+		ring.put(HubotTestFixtures.struct("fail", null));
+		ring.put(HubotTestFixtures.struct("after", null));
+		Assert.assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		ring.stop();
+		Assert.assertEquals(2, recorder.payloads.size());
+		Assert.assertEquals("after", recorder.payloads.get(1));
+	}
+
+	@Test
+	public void stopTest() throws Exception {
+		final Recorder recorder = new Recorder(10);
+		recorder.gate = new CountDownLatch(1);
+		HRingBuffer ring = new HRingBuffer("stop", 16, recorder);
+		ring.start();
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(ring.put(HubotTestFixtures.struct("m" + i, null)));
+		}
+		// the consumer is released once stop waits for it
+		final Thread stopping = Thread.currentThread();
+		new Thread(new Runnable() {
+			public void run() {
+				HubotTestFixtures.awaitState(stopping, Thread.State.WAITING);
+				recorder.gate.countDown();
+			}
+		}).start();
+		// the messages already in the ring are consumed before the consumer stops
+		ring.stop();
+		Assert.assertEquals(10, recorder.payloads.size());
+		Assert.assertEquals(0, ring.size());
+
+		// rejected : the caller is told
+		Assert.assertFalse(ring.put(HubotTestFixtures.struct("late", null)));
+		Assert.assertFalse(ring.offer(HubotTestFixtures.struct("late", null)));
+		Assert.assertEquals(0, ring.size());
+		Assert.assertEquals(10, recorder.payloads.size());
+	}
+}
+
+/**
+ * @endcond
+ */
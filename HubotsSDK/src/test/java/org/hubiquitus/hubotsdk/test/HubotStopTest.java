@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hubotsdk.test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.client.HClient;
+import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HOptions;
+import org.hubiquitus.hubotsdk.AdapterInbox;
+import org.hubiquitus.hubotsdk.Hubot;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Stop of a hubot (see config.txt) : the messages of the inbox and of the lingering batch are processed,
+ * and what they send still reaches the outboxes.
+ */
+
+public class HubotStopTest {
+
+	/* inbox adapter fed by the test */
+	public static class TestAdapterInbox extends AdapterInbox {
+		static volatile TestAdapterInbox instance = null;
+
+		@Override
+		public void setProperties(JSONObject properties) {
+		}
+
+		@Override
+		public void start() {
+			instance = this;
+		}
+
+		@Override
+		public void stop() {
+		}
+	}
+
+	/* answers each message of a batch to its publisher */
+	private static class EchoHubot extends Hubot {
+		final CountDownLatch ready = new CountDownLatch(1);
+		final CountDownLatch failed = new CountDownLatch(1);
+		volatile HClient client = null;
+
+		@Override
+		protected void init(HClient hClient) {
+			client = hClient;
+			initialized();
+			ready.countDown();
+		}
+
+		@Override
+		protected void inProcessMessage(HMessage incomingMessage) {
+		}
+
+		@Override
+		protected void inProcessBatch(List<HMessage> incomingMessages) {
+			try {
+				for (HMessage message : incomingMessages) {
+					HMessage answer = new HMessage();
+					answer.setActor(message.getPublisher());
+					answer.setType("string");
+					answer.setPayload(message.getPayload());
+					if (!send(answer)) {
+						failed.countDown();
+					}
+				}
+			} catch (MissingAttrException e) {
+				failed.countDown();
+			}
+		}
+
+		void startHubot() {
+			start();
+		}
+
+		void stopHubot() {
+			stop();
+		}
+	}
+
+	@Test
+	public void sendDuringStopTest() throws Exception {
+		final BlockingQueue<HMessage> received = new LinkedBlockingQueue<HMessage>();
+		HOptions options = new HOptions();
+		options.setTransport("loopback");
+		options.setDeliveryThreads(0);
+		HClient peer = new HClient();
+		peer.onMessage(new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+				received.add(message);
+			}
+		});
+		peer.connect("peer@stoptest/res", "password", options);
+
+		EchoHubot hubot = new EchoHubot();
+		hubot.startHubot();
+		Assert.assertTrue(hubot.ready.await(5, TimeUnit.SECONDS));
+
+		// lingers in the inbox or in the batch until the stop
+		HMessage message = new HMessage();
+		message.setPublisher("peer@stoptest");
+		message.setType("string");
+		message.setPayload("last");
+		TestAdapterInbox.instance.put(message);
+		Assert.assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+		hubot.stopHubot();
+		HMessage answer = received.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(answer);
+		Assert.assertEquals("last", answer.getPayloadAsString());
+		Assert.assertEquals(1, hubot.failed.getCount());
+
+		hubot.client.disconnect();
+		peer.disconnect();
+	}
+}
+
+/**
+ * @endcond
+ */
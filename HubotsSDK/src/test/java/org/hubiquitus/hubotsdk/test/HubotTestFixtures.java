@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hubiquitus.hubotsdk.test;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hubotsdk.HubotMessageStructure;
+import org.junit.Assert;
+
+/**
+ * @cond internal
+ * Messages and waits shared by the tests.
+ */
+
+final class HubotTestFixtures {
+
+	private static final long WAIT = 5000;
+
+	private HubotTestFixtures() {
+	}
+
+	/**
+	 * @param payload string payload of the message
+	 * @param priority priority of the message. Null for the default one
+	 */
+	static HubotMessageStructure struct(String payload, HMessagePriority priority) {
+		HMessage message = new HMessage();
+		message.setPayload(payload);
+		message.setPriority(priority);
+		return new HubotMessageStructure(message, null);
+	}
+
+	/**
+	 * Wait until a thread is in a state (ie : parked), failing after 5s
+	 */
+	static void awaitState(Thread thread, Thread.State state) {
+		long deadline = System.currentTimeMillis() + WAIT;
+		while (thread.getState() != state && System.currentTimeMillis() < deadline) {
+			Thread.yield();
+		}
+		Assert.assertEquals(state, thread.getState());
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.benchmarks;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.util.DateISO8601;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ISO 8601 formatting and parsing of the message dates.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateISO8601Benchmark {
+
+	private Calendar calendar;
+	private long millis;
+	private String text;
+
+	@Setup
+	public void setup() {
+		calendar = GregorianCalendar.getInstance();
+		millis = calendar.getTimeInMillis();
+		text = "2012-09-14T16:07:00.123Z";
+	}
+
+	@Benchmark
+	public String format() {
+		return DateISO8601.fromCalendar(calendar);
+	}
+
+	@Benchmark
+	public Calendar parse() {
+		return DateISO8601.toCalendar(text);
+	}
+
+	@Benchmark
+	public String formatMillis() {
+		return DateISO8601.format(millis);
+	}
+
+	@Benchmark
+	public long parseMillis() {
+		return DateISO8601.parse(text);
+	}
+
+	@Benchmark
+	public String now() {
+		return DateISO8601.now();
+	}
+}
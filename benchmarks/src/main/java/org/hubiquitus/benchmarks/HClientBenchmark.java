@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.client.HClient;
+import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.hStructures.ConnectionStatus;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessageOptions;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.hStructures.HOptions;
+import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HClient builders, and send through the loopback transport (in-process hNode) with and without correlation.
+ * Callbacks are run by the calling thread (deliveryThreads = 0).
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HClientBenchmark {
+
+	private HClient client;
+	private HMessageOptions messageOptions;
+	private JSONObject params;
+	private long received = 0;
+
+	private HMessageDelegate delegate = new HMessageDelegate() {
+		public void onMessage(HMessage message) {
+			received++;
+		}
+	};
+
+	@Setup
+	public void setup() throws Exception {
+		HOptions options = new HOptions();
+		options.setTransport("loopback");
+		options.setDeliveryThreads(0);
+		client = new HClient();
+		client.onMessage(delegate);
+		client.connect("bench@localhost/bench", "password", options);
+		if (client.status() != ConnectionStatus.CONNECTED) {
+			throw new IllegalStateException("loopback transport not connected : " + client.status());
+		}
+		// published messages come back through the subscription
+		client.subscribe("#channel@localhost", delegate);
+		messageOptions = new HMessageOptions();
+		messageOptions.setPriority(HMessagePriority.INFO);
+		messageOptions.setConvid("convid");
+		params = new JSONObject();
+		params.put("actor", "#channel@localhost");
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.disconnect();
+	}
+
+	@Benchmark
+	public HMessage buildMessage() throws MissingAttrException {
+		return client.buildMessage("#channel@localhost", "string", "payload", messageOptions);
+	}
+
+	@Benchmark
+	public HMessage buildCommand() throws MissingAttrException {
+		return client.buildCommand("hnode@localhost", "hsubscribe", params, null);
+	}
+
+	@Benchmark
+	public HMessage buildResult() throws MissingAttrException {
+		return client.buildResult("user@localhost", "msgid", ResultStatus.NO_ERROR, "result", null);
+	}
+
+	@Benchmark
+	public HMessage buildAlert() throws MissingAttrException {
+		return client.buildAlert("#channel@localhost", "alert", messageOptions);
+	}
+
+	@Benchmark
+	public HMessage buildMeasure() throws MissingAttrException {
+		return client.buildMeasure("#channel@localhost", "12", "degrees", messageOptions);
+	}
+
+	@Benchmark
+	public long sendAndReceive() throws MissingAttrException {
+		client.send(client.buildMessage("#channel@localhost", "string", "payload", null), null);
+		return received;
+	}
+
+	@Benchmark
+	public long sendWithCallback() throws MissingAttrException {
+		HMessage message = client.buildMessage("#channel@localhost", "string", "payload", null);
+		message.setTimeout(30000);
+		client.send(message, delegate);
+		return received;
+	}
+}
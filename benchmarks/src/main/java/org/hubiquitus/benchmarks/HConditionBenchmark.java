@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.benchmarks;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.filter.HConditionCompiler;
+import org.hubiquitus.hapi.filter.HMessageFilter;
+import org.hubiquitus.hapi.hStructures.HArrayOfValue;
+import org.hubiquitus.hapi.hStructures.HCondition;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HValue;
+import org.hubiquitus.hapi.hStructures.OperandNames;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building an hCondition filter : (publisher == x) and (actor in [a, b]) and not (type == y),
+ * and evaluating it on messages : compiled (HConditionCompiler) versus walking the condition tree for each message.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HConditionBenchmark {
+
+	private String text;
+	private HCondition condition;
+	private HMessageFilter filter;
+	private HMessage[] messages;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		condition = build();
+		text = condition.toString();
+		filter = HConditionCompiler.compile(condition);
+		String[] publishers = {"user@localhost", "other@localhost"};
+		String[] actors = {"#a@localhost", "#b@localhost", "#c@localhost"};
+		String[] types = {"hAlert", "hMeasure"};
+		messages = new HMessage[publishers.length * actors.length * types.length];
+		int i = 0;
+		for (String publisher : publishers) {
+			for (String actor : actors) {
+				for (String type : types) {
+					HMessage message = new HMessage();
+					message.setPublisher(publisher);
+					message.setActor(actor);
+					message.setType(type);
+					messages[i++] = message;
+				}
+			}
+		}
+	}
+
+	private HMessage nextMessage() {
+		HMessage message = messages[next];
+		next = (next + 1) % messages.length;
+		return message;
+	}
+
+	private HCondition build() {
+		HCondition publisher = new HCondition();
+		publisher.setValue(OperandNames.EQ, new HValue("publisher", "user@localhost"));
+
+		JSONArray actors = new JSONArray();
+		actors.put("#a@localhost");
+		actors.put("#b@localhost");
+		HCondition actor = new HCondition();
+		actor.setValueArray(OperandNames.IN, new HArrayOfValue("actor", actors));
+
+		HCondition type = new HCondition();
+		type.setValue(OperandNames.EQ, new HValue("type", "hAlert"));
+		HCondition notType = new HCondition();
+		notType.setCondition(OperandNames.NOT, type);
+
+		JSONArray and = new JSONArray();
+		and.put(publisher);
+		and.put(actor);
+		and.put(notType);
+		HCondition filter = new HCondition();
+		filter.setConditionArray(OperandNames.AND, and);
+		return filter;
+	}
+
+	@Benchmark
+	public HCondition buildCondition() {
+		return build();
+	}
+
+	@Benchmark
+	public String buildAndSerialize() {
+		return build().toString();
+	}
+
+	@Benchmark
+	public JSONArray parseAndRead() throws JSONException {
+		return new HCondition(text).getConditionArray(OperandNames.AND);
+	}
+
+	@Benchmark
+	public HMessageFilter compile() {
+		return HConditionCompiler.compile(condition);
+	}
+
+	@Benchmark
+	public boolean filterCompiled() {
+		return filter.accept(nextMessage());
+	}
+
+	@Benchmark
+	public boolean filterTreeWalk() {
+		return walk(condition, nextMessage());
+	}
+
+	/* reference : the condition is interpreted on each message */
+
+	private static boolean walk(JSONObject condition, HMessage message) {
+		Iterator<?> keys = condition.keys();
+		while (keys.hasNext()) {
+			String operand = (String) keys.next();
+			Object value = condition.opt(operand);
+			boolean result;
+			if (operand.equals("and") || operand.equals("or") || operand.equals("nor")) {
+				// in the order of the condition, stopping at the first operand which concludes
+				JSONArray conditions = (JSONArray) value;
+				boolean and = operand.equals("and");
+				result = and;
+				for (int i = 0; i < conditions.length() && result == and; i++) {
+					result = walk(conditions.optJSONObject(i), message);
+				}
+				if (operand.equals("nor")) {
+					result = !result;
+				}
+			} else if (operand.equals("not")) {
+				result = !walk((JSONObject) value, message);
+			} else {
+				JSONObject attributes = (JSONObject) value;
+				String name = (String) attributes.keys().next();
+				Object attribute = message;
+				for (String segment : name.split("\\.")) {
+					attribute = (attribute instanceof JSONObject) ? ((JSONObject) attribute).opt(segment) : null;
+				}
+				if (operand.equals("in") || operand.equals("nin")) {
+					JSONArray values = attributes.optJSONArray(name);
+					boolean found = false;
+					for (int i = 0; i < values.length() && !found; i++) {
+						found = String.valueOf(values.opt(i)).equals(String.valueOf(attribute));
+					}
+					result = operand.equals("in") ? found : !found;
+				} else {
+					boolean equal = String.valueOf(attributes.opt(name)).equals(String.valueOf(attribute));
+					result = operand.equals("eq") ? equal : !equal;
+				}
+			}
+			if (!result) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.filter.HConditionCompiler;
+import org.hubiquitus.hapi.filter.HGeoIndex;
+import org.hubiquitus.hapi.filter.HMessageFilter;
+import org.hubiquitus.hapi.hStructures.HGeo;
+import org.hubiquitus.hapi.hStructures.HLocation;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HPos;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching located messages against geo fences (100 m to 50 km around France) :
+ * HGeoIndex versus testing the geo filter of every fence.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HGeoIndexBenchmark {
+
+	@Param({"100", "10000"})
+	public int fences;
+
+	private HGeoIndex<Integer> index;
+	private List<HMessageFilter> filters;
+	private HMessage[] messages;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		Random random = new Random(42);
+		index = new HGeoIndex<Integer>();
+		filters = new ArrayList<HMessageFilter>(fences);
+		for (int i = 0; i < fences; i++) {
+			HPos pos = new HPos();
+			pos.setLat(43 + random.nextDouble() * 8);
+			pos.setLng(-4 + random.nextDouble() * 12);
+			pos.setRadius(100 + random.nextDouble() * random.nextDouble() * 50000);
+			index.add(i, pos);
+			filters.add(HConditionCompiler.compile(new JSONObject().put("geo", pos)));
+		}
+		messages = new HMessage[1024];
+		for (int i = 0; i < messages.length; i++) {
+			HLocation location = new HLocation();
+			location.setPos(new HGeo(-4 + random.nextDouble() * 12, 43 + random.nextDouble() * 8));
+			messages[i] = new HMessage();
+			messages[i].setLocation(location);
+		}
+	}
+
+	private HMessage nextMessage() {
+		HMessage message = messages[next];
+		next = (next + 1) & (messages.length - 1);
+		return message;
+	}
+
+	@Benchmark
+	public List<Integer> index() {
+		return index.match(nextMessage());
+	}
+
+	@Benchmark
+	public List<Integer> scan() {
+		HMessage message = nextMessage();
+		List<Integer> matches = new ArrayList<Integer>();
+		for (int i = 0; i < filters.size(); i++) {
+			if (filters.get(i).accept(message)) {
+				matches.add(i);
+			}
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.hStructures.HResult;
+import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.hubiquitus.hapi.transport.HMessageCodec;
+import org.joda.time.DateTime;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * HMessage getters and setters, copy from a JSONObject and wire encoding.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HMessageBenchmark {
+
+	private HMessage message;
+	private JSONObject json;
+	private String text;
+	private byte[] bytes;
+
+	@Setup
+	public void setup() throws Exception {
+		message = new HMessage();
+		message.setMsgid("5c6a9e40-1d2b-4f8e-9a3c-0f1e2d3c4b5a");
+		message.setActor("#channel@localhost");
+		message.setConvid("5c6a9e40-1d2b-4f8e-9a3c-0f1e2d3c4b5a");
+		message.setPublisher("user@localhost");
+		message.setType("hResult");
+		message.setPriority(HMessagePriority.INFO);
+		message.setTimeout(30000);
+		message.setPublished(new DateTime());
+		HResult result = new HResult();
+		result.setStatus(ResultStatus.NO_ERROR);
+		result.setResult("result");
+		message.setPayload(result);
+		text = message.toString();
+		json = new JSONObject(text);
+		bytes = HMessageCodec.encode(message);
+	}
+
+	@Benchmark
+	public void getters(Blackhole blackhole) {
+		blackhole.consume(message.getMsgid());
+		blackhole.consume(message.getActor());
+		blackhole.consume(message.getConvid());
+		blackhole.consume(message.getRef());
+		blackhole.consume(message.getType());
+		blackhole.consume(message.getPriority());
+		blackhole.consume(message.getTimeout());
+		blackhole.consume(message.getPublished());
+		blackhole.consume(message.getLocation());
+		blackhole.consume(message.getHeaders());
+	}
+
+	@Benchmark
+	public HMessage setters() throws MissingAttrException {
+		HMessage newMessage = new HMessage();
+		newMessage.setMsgid("5c6a9e40-1d2b-4f8e-9a3c-0f1e2d3c4b5a");
+		newMessage.setActor("#channel@localhost");
+		newMessage.setConvid("5c6a9e40-1d2b-4f8e-9a3c-0f1e2d3c4b5a");
+		newMessage.setPublisher("user@localhost");
+		newMessage.setType("string");
+		newMessage.setPriority(HMessagePriority.INFO);
+		newMessage.setTimeout(30000);
+		newMessage.setPayload("payload");
+		return newMessage;
+	}
+
+	@Benchmark
+	public HMessage copyFromJSONObject() throws JSONException {
+		return new HMessage(json);
+	}
+
+	@Benchmark
+	public HResult payloadAsHResult() throws JSONException {
+		return new HMessage(json).getPayloadAsHResult();
+	}
+
+	@Benchmark
+	public String encodeToString() {
+		return message.toString();
+	}
+
+	@Benchmark
+	public String encodeWithCodec() throws JSONException {
+		return HMessageCodec.encodeToString(message);
+	}
+
+	@Benchmark
+	public HMessage decodeFromString() throws JSONException {
+		return new HMessage(new JSONObject(text));
+	}
+
+	@Benchmark
+	public HMessage decodeWithCodec() throws JSONException {
+		return HMessageCodec.decode(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.JndiRegistry;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hubotsdk.AdapterInbox;
+import org.hubiquitus.hubotsdk.HDispatchHandle;
+import org.hubiquitus.hubotsdk.HRingBuffer;
+import org.hubiquitus.hubotsdk.HubotDispatcher;
+import org.hubiquitus.hubotsdk.HubotMessageStructure;
+import org.hubiquitus.hubotsdk.ProducerTemplateSingleton;
+import org.hubiquitus.hubotsdk.RouteGenerator;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips through the camel routes of a hubot, as built by Hubot.initialized :
+ * adapter inbox to the actor (seda:inbox), and actor to an outbox with HubotDispatcher.
+ * With dispatch=ring, the same paths go through the rings of the ring dispatch instead of camel.
+ * Each operation waits until the message is consumed at the end of the route.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HubotBenchmark {
+
+	private static final String OUTBOX = "benchAdapterOutbox";
+
+	@Param({"camel", "ring"})
+	public String dispatch;
+
+	private DefaultCamelContext camelContext;
+	private HRingBuffer[] rings = new HRingBuffer[0];
+	private HubotDispatcher dispatcher;
+	private AdapterInbox inbox;
+	private HMessage toHubotOutbox;
+	private HMessage toAdapterOutbox;
+
+	private final Counter actor = new Counter();
+	private final Counter hubotOutbox = new Counter();
+	private final Counter adapterOutbox = new Counter();
+
+	/**
+	 * Bean at the end of a route. Camel calls inProcess or onOutGoing.
+	 */
+	public static class Counter implements HRingBuffer.Handler {
+		private final AtomicLong count = new AtomicLong(0);
+
+		public void inProcess(Object obj) {
+			count.incrementAndGet();
+		}
+
+		public void onOutGoing(Object obj) {
+			count.incrementAndGet();
+		}
+
+		public void onEvent(HubotMessageStructure hubotStruct) {
+			count.incrementAndGet();
+		}
+
+		private void await(long expected) {
+			while (count.get() < expected) {
+				Thread.yield();
+			}
+		}
+	}
+
+	private static class BenchAdapterInbox extends AdapterInbox {
+		@Override
+		public void setProperties(JSONObject properties) {
+		}
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void stop() {
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		ArrayList<String> outboxes = new ArrayList<String>();
+		outboxes.add(OUTBOX);
+
+		JndiRegistry registry = new JndiRegistry();
+		registry.bind("actor", actor);
+		registry.bind("hubotAdapterOutbox", hubotOutbox);
+		registry.bind(OUTBOX, adapterOutbox);
+
+		camelContext = new DefaultCamelContext(registry);
+		ProducerTemplateSingleton.setContext(camelContext);
+		camelContext.addRoutes(new RouteGenerator(outboxes));
+		camelContext.start();
+
+		inbox = new BenchAdapterInbox();
+		inbox.setActor("benchAdapterInbox");
+		inbox.setCamelContext(camelContext);
+		if ("ring".equals(dispatch)) {
+			HRingBuffer inboxRing = new HRingBuffer("inbox", HRingBuffer.DEFAULT_SIZE, actor);
+			HRingBuffer hubotOutboxRing = new HRingBuffer("hubotAdapterOutbox", HRingBuffer.DEFAULT_SIZE, hubotOutbox);
+			HRingBuffer adapterOutboxRing = new HRingBuffer(OUTBOX, HRingBuffer.DEFAULT_SIZE, adapterOutbox);
+			rings = new HRingBuffer[] {inboxRing, hubotOutboxRing, adapterOutboxRing};
+			for (HRingBuffer ring : rings) {
+				ring.start();
+			}
+			Map<String, HDispatchHandle> handles = new HashMap<String, HDispatchHandle>();
+			handles.put(OUTBOX, adapterOutboxRing);
+			dispatcher = new HubotDispatcher(handles, hubotOutboxRing);
+			inbox.setInboxHandle(inboxRing);
+		} else {
+			dispatcher = new HubotDispatcher(outboxes);
+		}
+
+		toHubotOutbox = new HMessage();
+		toHubotOutbox.setActor("#channel@localhost");
+		toHubotOutbox.setPayload("payload");
+		toAdapterOutbox = new HMessage();
+		toAdapterOutbox.setActor(OUTBOX);
+		toAdapterOutbox.setPayload("payload");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		for (HRingBuffer ring : rings) {
+			ring.stop();
+		}
+		camelContext.stop();
+	}
+
+	@Benchmark
+	public void inboxToActor() {
+		long expected = actor.count.get() + 1;
+		inbox.put(toHubotOutbox);
+		actor.await(expected);
+	}
+
+	@Benchmark
+	public void dispatchToHubotOutbox() {
+		long expected = hubotOutbox.count.get() + 1;
+		dispatcher.dispatcher(toHubotOutbox, null);
+		hubotOutbox.await(expected);
+	}
+
+	@Benchmark
+	public void dispatchToAdapterOutbox() {
+		long expected = adapterOutbox.count.get() + 1;
+		dispatcher.dispatcher(toAdapterOutbox, null);
+		adapterOutbox.await(expected);
+	}
+}
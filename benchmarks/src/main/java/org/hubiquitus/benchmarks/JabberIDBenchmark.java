@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.structures.JabberID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JabberID parsing and formatting. The publisher jid is read on every send.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JabberIDBenchmark {
+
+	private JabberID jid;
+
+	@Setup
+	public void setup() throws Exception {
+		jid = new JabberID("user@localhost/resource");
+	}
+
+	@Benchmark
+	public JabberID parseFullJID() throws Exception {
+		return new JabberID("user@localhost/resource");
+	}
+
+	@Benchmark
+	public JabberID parseBareJID() throws Exception {
+		return new JabberID("user@localhost");
+	}
+
+	@Benchmark
+	public JabberID internFullJID() throws Exception {
+		return JabberID.intern("user@localhost/resource");
+	}
+
+	@Benchmark
+	public String getBareJID() {
+		return jid.getBareJID();
+	}
+
+	@Benchmark
+	public String getFullJID() {
+		return jid.getFullJID();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.client;
+
+import java.util.List;
+
+import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HResult;
+import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Aggregates the results of the commands of a bulk request (one command per actor, sent without waiting for the results).
+ * Once every command got its result, or its timeout error, the delegate is called once with an hResult :
+ * its status is NO_ERROR if all the commands succeeded, else the status of the first failed command in the order of the actors.
+ * Its result is a JSONObject giving the hResult of each actor.
+ */
+
+public class HBulkRequest {
+
+	final Logger logger = LoggerFactory.getLogger(HBulkRequest.class);
+
+	private final List<String> actors;
+	private final HResult[] results;
+	private final HMessageDelegate delegate;
+	private int remaining;
+
+	/**
+	 * @param actors actors of the commands, in sending order
+	 * @param delegate delegate called with the aggregated result
+	 */
+	public HBulkRequest(List<String> actors, HMessageDelegate delegate) {
+		this.actors = actors;
+		this.results = new HResult[actors.size()];
+		this.delegate = delegate;
+		this.remaining = actors.size();
+	}
+
+	/**
+	 * @return actors of the commands, in sending order
+	 */
+	public List<String> getActors() {
+		return actors;
+	}
+
+	/**
+	 * @param index index of the command in the actors
+	 * @return the delegate of this command
+	 */
+	public HMessageDelegate delegateFor(final int index) {
+		return new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+				onResult(index, message.getPayloadAsHResult());
+			}
+		};
+	}
+
+	/**
+	 * Call the delegate at once if there is no command
+	 */
+	public void completeIfEmpty() {
+		if (actors.isEmpty()) {
+			complete();
+		}
+	}
+
+	private void onResult(int index, HResult result) {
+		synchronized (this) {
+			if (results[index] != null) {
+				return;
+			}
+			results[index] = (result != null) ? result : new HResult();
+			if (--remaining > 0) {
+				return;
+			}
+		}
+		complete();
+	}
+
+	private void complete() {
+		ResultStatus status = ResultStatus.NO_ERROR;
+		JSONObject byActor = new JSONObject();
+		try {
+			for (int i = 0; i < results.length; i++) {
+				ResultStatus actorStatus = results[i].getStatus();
+				if (status == ResultStatus.NO_ERROR && actorStatus != ResultStatus.NO_ERROR) {
+					status = (actorStatus != null) ? actorStatus : ResultStatus.TECH_ERROR;
+				}
+				byActor.put(actors.get(i), results[i]);
+			}
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+		}
+		HResult hresult = new HResult();
+		hresult.setResult(byActor);
+		try {
+			hresult.setStatus(status);
+		} catch (MissingAttrException e) {
+			logger.error("message: ", e);
+		}
+		HMessage message = new HMessage();
+		message.setType("hResult");
+		message.setPayload(hresult);
+		delegate.onMessage(message);
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -19,12 +19,17 @@
 
 package org.hubiquitus.hapi.client;
 
-import java.util.Hashtable;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.filter.HConditionCompiler;
+import org.hubiquitus.hapi.filter.HMessageFilter;
 import org.hubiquitus.hapi.hStructures.ConnectionError;
 import org.hubiquitus.hapi.hStructures.ConnectionStatus;
 import org.hubiquitus.hapi.hStructures.HAck;
@@ -36,17 +41,22 @@ import org.hubiquitus.hapi.hStructures.HConvState;
 import org.hubiquitus.hapi.hStructures.HMeasure;
 import org.hubiquitus.hapi.hStructures.HMessage;
 import org.hubiquitus.hapi.hStructures.HMessageOptions;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
 import org.hubiquitus.hapi.hStructures.HOptions;
 import org.hubiquitus.hapi.hStructures.HResult;
 import org.hubiquitus.hapi.hStructures.HStatus;
 import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.hubiquitus.hapi.metrics.HMetricRegistry;
+import org.hubiquitus.hapi.metrics.HTraceStage;
 import org.hubiquitus.hapi.structures.JabberID;
 import org.hubiquitus.hapi.transport.HTransport;
 import org.hubiquitus.hapi.transport.HTransportDelegate;
 import org.hubiquitus.hapi.transport.HTransportOptions;
+import org.hubiquitus.hapi.transport.loopback.HTransportLoopback;
 import org.hubiquitus.hapi.transport.socketio.HTransportSocketio;
+import org.hubiquitus.hapi.transport.websocket.HTransportWebsocket;
 import org.hubiquitus.hapi.util.HUtil;
-import org.joda.time.DateTime;
+import org.hubiquitus.hapi.util.HWheelTimer;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -69,15 +79,39 @@ public class HClient {
 	private HOptions options = null;
 	private HTransportOptions transportOptions = null;
 	private HTransport transport;
+	// chooses the endpoint of each connection attempt. Null without endpoints in the options
+	private volatile HEndpointSelector endpointSelector = null;
+	private volatile String currentEndpoint = null;
+	private volatile long attemptStart = 0;
+	// state of the session restored after a reconnection, until the user disconnects
+	private final Set<String> subscriptions = Collections.synchronizedSet(new LinkedHashSet<String>());
+	private volatile HCondition sessionFilter = null;
 
 	private HStatusDelegate statusDelegate = null;
 	private HMessageDelegate messageDelegate = null;
+	// messages for the message delegate which do not match it are dropped
+	private volatile HMessageFilter localFilter = null;
 	// private HCommandDelegate commandDelegate = null;
 
-	private Hashtable<String, HMessageDelegate> messagesDelegates = new Hashtable<String, HMessageDelegate>();
-	private Hashtable<String, Timer> timeoutHashtable = new Hashtable<String, Timer>();
+	// one timer thread is shared by all the clients
+	private HCorrelationTable correlations = new HCorrelationTable(HWheelTimer.getShared());
+	private HCorrelationTable.TimeoutListener timeoutListener = new HCorrelationTable.TimeoutListener() {
+		public void onTimeout(String msgid, HMessageDelegate delegate) {
+			notifyResultError(msgid, ResultStatus.EXEC_TIMEOUT, "The response of message is time out!", delegate);
+		}
+	};
 
 	private TransportDelegate transportDelegate = new TransportDelegate();
+	private volatile HDeliveryExecutor deliveryExecutor = null;
+
+	// messages sent while connecting or reconnecting, until the user disconnects
+	private HOutboundQueue outbound = null;
+	private volatile boolean sessionRequested = false;
+	// set by the first CONNECTED reported by the transport after connect : the next ones are reconnections
+	private volatile boolean sessionEstablished = false;
+
+	// null unless the metrics are enabled in the options
+	private volatile HClientMetrics metrics = null;
 
     public HClient() {
 		transportOptions = new HTransportOptions();
@@ -96,12 +130,32 @@ public class HClient {
 		boolean connInProgress = false;
 		boolean disconInProgress = false;
 		this.options = new HOptions(options);
+		synchronized (this) {
+			if (this.deliveryExecutor == null) {
+				this.deliveryExecutor = new HDeliveryExecutor(this.options.getDeliveryThreads(),
+						this.options.getDeliveryQueueSize(), this.options.getDeliveryRejection());
+			}
+			if (this.outbound == null && this.options.getOutboundQueueSize() > 0) {
+				String spillDirectory = this.options.getOutboundSpillDirectory();
+				this.outbound = new HOutboundQueue(this.options.getOutboundQueueSize(), this.options.getOutboundOverflow(),
+						(spillDirectory != null) ? new File(spillDirectory) : null);
+			}
+			if (this.metrics == null && this.options.getMetrics()) {
+				this.metrics = new HClientMetrics(new HMetricRegistry("hclient-" + publisher), this);
+			}
+			if (this.metrics != null) {
+				// registered again after a disconnect
+				this.metrics.getRegistry().registerJmx();
+			}
+		}
 
 		// synchronize connection status updates to make sure, we have one
 		// connect at a time
 		synchronized (this) {
 			if (this.connectionStatus == ConnectionStatus.DISCONNECTED) {
 				shouldConnect = true;
+				sessionRequested = true;
+				sessionEstablished = false;
 
 				// update connection status
 				connectionStatus = ConnectionStatus.CONNECTING;
@@ -136,6 +190,16 @@ public class HClient {
 					this.transport = new HTransportSocketio();
 				}
 				this.transport.connect(transportDelegate, this.transportOptions);
+			} else if (options.getTransport().equals("websocket")) {
+				if (this.transport == null || (this.transport.getClass() != HTransportWebsocket.class)) {
+					this.transport = new HTransportWebsocket();
+				}
+				this.transport.connect(transportDelegate, this.transportOptions);
+			} else if (options.getTransport().equals("loopback")) {
+				if (this.transport == null || (this.transport.getClass() != HTransportLoopback.class)) {
+					this.transport = new HTransportLoopback();
+				}
+				this.transport.connect(transportDelegate, this.transportOptions);
 			} else {
 				// for the future transports.
 			}
@@ -169,8 +233,21 @@ public class HClient {
 		}
 
 		if (shouldDisconnect) {
+			sessionRequested = false;
+			sessionEstablished = false;
+			subscriptions.clear();
+			sessionFilter = null;
+			if (outbound != null) {
+				for (HMessage message : outbound.clear()) {
+					notifyNotSent(message, null, "Disconnected before the message was sent");
+				}
+			}
 			notifyStatus(ConnectionStatus.DISCONNECTING, ConnectionError.NO_ERROR, null);
 			transport.disconnect();
+			HClientMetrics current = this.metrics;
+			if (current != null) {
+				current.close();
+			}
 		} else if (connectInProgress) {
 			notifyStatus(ConnectionStatus.CONNECTING, ConnectionError.CONN_PROGRESS, "Can't disconnect while a connection is in progress");
 		} else {
@@ -204,17 +281,49 @@ public class HClient {
 		return this.connectionStatus;
 	}
 
+	/**
+	 * Metrics of the client, when enabled in the options (see HOptions.setMetrics) : message rates, pending requests,
+	 * timeouts, reconnections and outbound queue. They are also exposed in JMX (org.hubiquitus:type=metrics)
+	 * while the client is connected. Add a reporter to the registry to push them elsewhere :
+	 * reporters are stopped by disconnect().
+	 * @return the metrics of the client. Null if disabled
+	 */
+	public HMetricRegistry getMetrics() {
+		HClientMetrics current = this.metrics;
+		return (current != null) ? current.getRegistry() : null;
+	}
+
+	/**
+	 * @return number of messages sent with a timeout and still waiting for an answer
+	 */
+	public int pendingRequests() {
+		return correlations.size();
+	}
+
+	/**
+	 * @return number of messages sent with a timeout which did not get any answer in time
+	 */
+	public long timedOutRequests() {
+		return correlations.getTimeoutCount();
+	}
+
 	/**
 	 * The hAPI sends the hMessage to the hserver which transfer it to the specified actor.
 	 * The hserver will perform one of the following actions :
 	 *  (1). If the actor is a channel (ie : #channelName@domain) the hserver will perform a publish operation of the provided hMessage to the channel and send an hMessage with hResult payload containing the published message and cmd name set with hsend to acknowledge publishing only if a timeout value has been provided.
 	 *  (2). If the actor is either ‘session’ and payload type is ‘hCommand’ the server will handle it. In other cases, it will send an hMessage with a hResult error NOT_AUTHORIZED. Only if the timeout is provided.
 	 *  (3). If the actor is a jid, hserver will relay the message to the relevant actor.
+	 * If the outbound queue is enabled (see HOptions.setOutboundQueueSize), while the client is connecting or reconnecting the message waits in it and is sent once connected, highest priorities first.
 	 * @param message : The message to send. Mandatory.
 	 * @param messageDelegate : If provided, called by the hAPI when the first message refering to current message arrive . Not mandatory.
 	 */
 	public void send(final HMessage message, final HMessageDelegate messageDelegate) {
-		if (this.connectionStatus != ConnectionStatus.CONNECTED) {
+		boolean connected = (this.connectionStatus == ConnectionStatus.CONNECTED);
+		// while connecting or reconnecting, messages wait in the outbound queue
+		if (!connected && (outbound == null || !sessionRequested)) {
+			if (metrics != null) {
+				metrics.notSent.inc();
+			}
 			notifyResultError(message.getMsgid(), ResultStatus.NOT_CONNECTED, "Not conncected.", messageDelegate);
 			return;
 		}
@@ -226,36 +335,118 @@ public class HClient {
 			notifyResultError(message.getMsgid(), ResultStatus.MISSING_ATTR, "Actor not found in message", messageDelegate);
 			return;
 		}
-		message.setSent(new DateTime());
+		message.setSentMillis(System.currentTimeMillis());
 		message.setPublisher(transportOptions.getJid().getBareJID());
+		HClientMetrics current = this.metrics;
+		if (current != null) {
+			current.tracker.record(message, HTraceStage.OUTBOX, HTraceStage.SEND);
+		}
 		if (message.getTimeout() > 0) {
 			// hAPI will do correlation. If no answer within the
 			// timeout, a timeout error will be sent.
 			if (messageDelegate != null) {
 				message.setMsgid(UUID.randomUUID().toString());
-				messagesDelegates.put(message.getMsgid(), messageDelegate);
-
-                Timer timeoutTimer = new Timer();
-				timeoutTimer.schedule(new TimerTask() {
-
-					@Override
-					public void run() {
-						notifyResultError(message.getMsgid(), ResultStatus.EXEC_TIMEOUT, "The response of message is time out!", null);
-						messagesDelegates.remove(message.getMsgid());
-					}
-				}, message.getTimeout());
-				timeoutHashtable.put(message.getMsgid(), timeoutTimer);
+				correlations.register(message.getMsgid(), messageDelegate, message.getTimeout(), timeoutListener);
 			}else{
 				//when there is no callback, timeout has no sense. delete timeout.
 				message.setTimeout(0);
 			}
 		}
+		if (connected && (outbound == null || outbound.isIdle())) {
+			sendToTransport(message);
+			return;
+		}
+
+		HMessage dropped = outbound.offer(message, options.getTimeout());
+		if (dropped != null) {
+			notifyNotSent(dropped, (dropped == message) ? messageDelegate : null, "Outbound queue full, message not sent");
+		}
+		if (this.connectionStatus == ConnectionStatus.CONNECTED) {
+			replayOutbound();
+		}
+	}
+
+	/**
+	 * @return number of messages waiting for the connection to be sent
+	 */
+	public int queuedMessages() {
+		return (outbound != null) ? outbound.size() : 0;
+	}
+
+	/**
+	 * @param priority a message priority
+	 * @return number of messages of this priority waiting for the connection to be sent
+	 */
+	public int queuedMessages(HMessagePriority priority) {
+		return (outbound != null) ? outbound.size(priority) : 0;
+	}
+
+	/**
+	 * @return number of messages dropped because the outbound queue was full
+	 */
+	public long droppedMessages() {
+		return (outbound != null) ? outbound.getDroppedCount() : 0;
+	}
+
+	/**
+	 * Send the messages of the outbound queue, highest priority first, as long as the client is connected.
+	 * Messages whose sender already got a timeout error are not sent.
+	 */
+	private void replayOutbound() {
+		while (outbound.beginReplay()) {
+			boolean ended = false;
+			while (!ended && this.connectionStatus == ConnectionStatus.CONNECTED) {
+				HMessage message = outbound.poll();
+				if (message == null) {
+					// poll ended the replay
+					ended = true;
+				} else if (message.getTimeout() <= 0 || correlations.isPending(message.getMsgid())) {
+					sendToTransport(message);
+				}
+			}
+			if (ended) {
+				return;
+			}
+			outbound.endReplay();
+			// the connection may be back already : replay again if so
+			if (this.connectionStatus != ConnectionStatus.CONNECTED) {
+				return;
+			}
+		}
+	}
+
+	private void sendToTransport(HMessage message) {
+		HClientMetrics current = this.metrics;
+		long start = (current != null) ? System.nanoTime() : 0;
 		try {
 			transport.sendObject(message);
+			if (current != null) {
+				current.sendDuration.record(System.nanoTime() - start);
+				current.sent.inc();
+				current.tracker.record(message, HTraceStage.SEND, HTraceStage.EMIT);
+			}
 		} catch (Exception e) {
 			logger.error("message: ", e);
 		}
-		
+	}
+
+	/**
+	 * Notify the sender of a message that it was not sent
+	 * @param message the message not sent
+	 * @param messageDelegate delegate given with the message, if it is not registered for correlation
+	 * @param errorMsg the error message
+	 */
+	private void notifyNotSent(HMessage message, HMessageDelegate messageDelegate, String errorMsg) {
+		if (metrics != null) {
+			metrics.notSent.inc();
+		}
+		HMessageDelegate delegate = correlations.complete(message.getMsgid());
+		if (delegate == null) {
+			delegate = messageDelegate;
+		}
+		if (delegate != null) {
+			notifyResultError(message.getMsgid(), ResultStatus.NOT_CONNECTED, errorMsg, delegate);
+		}
 	}
 
 	/**
@@ -273,7 +464,12 @@ public class HClient {
 		}
 		HMessage cmdMessage = buildCommand(actor, "hsubscribe", null, null);
 		cmdMessage.setTimeout(options.getTimeout());
-		send(cmdMessage, messageDelegate);
+		final String channel = actor;
+		send(cmdMessage, onSuccess(messageDelegate, new Runnable() {
+			public void run() {
+				subscriptions.add(channel);
+			}
+		}));
 	}
 
 	/**
@@ -289,6 +485,8 @@ public class HClient {
 		if(messageDelegate == null){
 			throw new MissingAttrException("messageDelegate");
 		}
+		// not restored anymore, even if the result is lost
+		subscriptions.remove(actor);
 		HMessage cmdMessage = buildCommand(actor, "hunsubscribe", null, null);
 		cmdMessage.setTimeout(options.getTimeout());
 		send(cmdMessage, messageDelegate);
@@ -332,6 +530,101 @@ public class HClient {
 		this.getLastMessages(actor, -1, messageDelegate);
 	}
 
+	/**
+	 * Bulk version of subscribe : the hsubscribe commands of all the channels are sent at once, without waiting for the results
+	 * (and coalesced by the transport when batching is enabled).
+	 * Nominal response : a single hMessage with an hResult of status 0, whose result gives the hResult of each channel.
+	 * Otherwise its status is the one of the first channel in error. A channel given several times is sent once.
+	 * @param actors : The channel ids to subscribe to. Mandatory.
+	 * @param messageDelegate : A delegate notified once all the results are received. Mandatory.
+	 * @throws MissingAttrException raised if a mandatory attribute is not well provided
+	 */
+	@SuppressWarnings("unused")
+	public void subscribe(List<String> actors, HMessageDelegate messageDelegate) throws MissingAttrException {
+		HBulkRequest bulk = newBulk(actors, messageDelegate);
+		List<String> channels = bulk.getActors();
+		for (int i = 0; i < channels.size(); i++) {
+			final String channel = channels.get(i);
+			sendBulkCommand(channel, "hsubscribe", null, onSuccess(bulk.delegateFor(i), new Runnable() {
+				public void run() {
+					subscriptions.add(channel);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Bulk version of unsubscribe : the hunsubscribe commands of all the channels are sent at once.
+	 * @see public void subscribe(List<String> actors, HMessageDelegate messageDelegate) throws MissingAttrException
+	 * @param actors : The channels to unsubscribe from. Mandatory.
+	 * @param messageDelegate : A delegate notified once all the results are received. Mandatory.
+	 * @throws MissingAttrException raised if a mandatory attribute is not well provided
+	 */
+	@SuppressWarnings("unused")
+	public void unsubscribe(List<String> actors, HMessageDelegate messageDelegate) throws MissingAttrException {
+		HBulkRequest bulk = newBulk(actors, messageDelegate);
+		List<String> channels = bulk.getActors();
+		for (int i = 0; i < channels.size(); i++) {
+			subscriptions.remove(channels.get(i));
+			sendBulkCommand(channels.get(i), "hunsubscribe", null, bulk.delegateFor(i));
+		}
+	}
+
+	/**
+	 * Bulk version of getLastMessages : the hgetlastmessages commands of all the channels are sent at once.
+	 * The result of each channel is its hResult, having an array of hMessages if successful.
+	 * @see public void subscribe(List<String> actors, HMessageDelegate messageDelegate) throws MissingAttrException
+	 * @param actors : The channel ids of the messages. Mandatory.
+	 * @param nbLastMsg : The maximum number of messages to retrieve per channel. Not mandatory (-1).
+	 * @param messageDelegate : A delegate notified once all the results are received. Mandatory.
+	 * @throws MissingAttrException raised if a mandatory attribute is not well provided
+	 */
+	@SuppressWarnings("unused")
+	public void getLastMessages(List<String> actors, int nbLastMsg, HMessageDelegate messageDelegate) throws MissingAttrException {
+		HBulkRequest bulk = newBulk(actors, messageDelegate);
+		List<String> channels = bulk.getActors();
+		for (int i = 0; i < channels.size(); i++) {
+			// one params per command : the message keeps it as its payload
+			JSONObject params = new JSONObject();
+			try {
+				if (nbLastMsg > 0) {
+					params.put("nbLastMsg", nbLastMsg);
+				}
+			} catch (JSONException e) {
+				logger.error("message: ", e);
+			}
+			sendBulkCommand(channels.get(i), "hgetlastmessages", params, bulk.delegateFor(i));
+		}
+	}
+
+	/**
+	 * Check the parameters of a bulk request before sending any of its commands : every actor is checked as buildCommand does,
+	 * so that no command is sent when one of them is invalid.
+	 * Duplicate actors are removed (first occurrence kept) : the aggregated result has one entry per actor.
+	 */
+	private HBulkRequest newBulk(List<String> actors, HMessageDelegate messageDelegate) throws MissingAttrException {
+		if (messageDelegate == null) {
+			throw new MissingAttrException("messageDelegate");
+		}
+		if (actors == null) {
+			throw new MissingAttrException("actors");
+		}
+		for (String actor : actors) {
+			if (actor == null || actor.length() <= 0) {
+				throw new MissingAttrException("actors");
+			}
+		}
+		HBulkRequest bulk = new HBulkRequest(new ArrayList<String>(new LinkedHashSet<String>(actors)), messageDelegate);
+		bulk.completeIfEmpty();
+		return bulk;
+	}
+
+	private void sendBulkCommand(String actor, String cmd, JSONObject params, HMessageDelegate delegate) throws MissingAttrException {
+		HMessage cmdMessage = buildCommand(actor, cmd, params, null);
+		cmdMessage.setTimeout(options.getTimeout());
+		send(cmdMessage, delegate);
+	}
+
 	/**
 	 * Demands the server a list of the publisher’s subscriptions.
 	 * Nominal response : a hMessage with a hResult payload contains an array of channel id which are all active.
@@ -457,7 +750,78 @@ public class HClient {
 		}
 		HMessage cmdMessage = buildCommand("session", "hSetFilter", filter, null);
 		cmdMessage.setTimeout(options.getTimeout());
-		this.send(cmdMessage, messageDelegate);
+		final HCondition sessionFilter = (filter != null && filter.length() > 0) ? filter : null;
+		this.send(cmdMessage, onSuccess(messageDelegate, new Runnable() {
+			public void run() {
+				HClient.this.sessionFilter = sessionFilter;
+			}
+		}));
+	}
+
+	/**
+	 * @return a delegate running action when the result of a command is a success, before calling delegate
+	 */
+	private HMessageDelegate onSuccess(final HMessageDelegate delegate, final Runnable action) {
+		return new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+				HResult result = message.getPayloadAsHResult();
+				if (result != null && result.getStatus() == ResultStatus.NO_ERROR) {
+					action.run();
+				}
+				delegate.onMessage(message);
+			}
+		};
+	}
+
+	/**
+	 * Send again the session filter then the subscriptions, after a reconnection to a new session : in one burst, before the queued messages,
+	 * without waiting for the results. Failures are logged, NOT_AUTHORIZED included (ie : a subscription revoked while disconnected).
+	 */
+	private void restoreSession() {
+		List<String> channels;
+		synchronized (subscriptions) {
+			channels = new ArrayList<String>(subscriptions);
+		}
+		HCondition filter = this.sessionFilter;
+		try {
+			if (filter != null) {
+				sendRestore(buildCommand("session", "hSetFilter", filter, null));
+			}
+			for (String channel : channels) {
+				sendRestore(buildCommand(channel, "hsubscribe", null, null));
+			}
+		} catch (MissingAttrException e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	private void sendRestore(HMessage cmdMessage) {
+		cmdMessage.setMsgid(UUID.randomUUID().toString());
+		cmdMessage.setTimeout(options.getTimeout());
+		cmdMessage.setSentMillis(System.currentTimeMillis());
+		cmdMessage.setPublisher(transportOptions.getJid().getBareJID());
+		correlations.register(cmdMessage.getMsgid(), restoreDelegate, cmdMessage.getTimeout(), timeoutListener);
+		sendToTransport(cmdMessage);
+	}
+
+	private final HMessageDelegate restoreDelegate = new HMessageDelegate() {
+		public void onMessage(HMessage message) {
+			HResult result = message.getPayloadAsHResult();
+			if (result == null || result.getStatus() != ResultStatus.NO_ERROR) {
+				logger.warn("message: session not restored : " + message);
+			}
+		}
+	};
+
+	/**
+	 * Set a filter applied by the client to the incoming messages : those which do not match it are dropped
+	 * before reaching the message delegate (see onMessage). Results of the commands and messages sent with
+	 * a delegate are not filtered. Unlike setFilter, the filter is compiled and evaluated locally (see HConditionCompiler).
+	 * @param filter the filter. Null to remove it
+	 * @throws IllegalArgumentException if the filter is invalid
+	 */
+	public void setLocalFilter(HCondition filter) {
+		this.localFilter = (filter != null && filter.length() > 0) ? HConditionCompiler.compile(filter) : null;
 	}
 
 	/* Builder */
@@ -489,7 +853,7 @@ public class HClient {
 			hmessage.setPriority(options.getPriority());
 			//override relevance if relevanceOffset is set.
 			if (options.getRelevanceOffset() != null) {
-				hmessage.setRelevance((new DateTime()).plusMillis(options.getRelevanceOffset()));
+				hmessage.setRelevanceMillis(System.currentTimeMillis() + options.getRelevanceOffset());
 			}else{
 				hmessage.setRelevance(options.getRelevance());
 			}
@@ -770,30 +1134,69 @@ public class HClient {
 	 * @throws Exception : in case jid is malformatted, it throws an exception
 	 */
 	private void fillHTransportOptions(String publisher, String password, HOptions options) throws Exception {
-		JabberID jid = new JabberID(publisher);
+		JabberID jid = JabberID.intern(publisher);
 
 		this.transportOptions.setJid(jid);
 		this.transportOptions.setPassword(password);
+		this.transportOptions.setBatchSize(options.getBatchSize());
+		this.transportOptions.setBatchWindow(options.getBatchWindow());
+		this.transportOptions.setSessionsPerConnection(options.getSessionsPerConnection());
 
 		// by default we user server host rather than publish host if defined
 
-		// for endpoints, pick one randomly and fill htransport options
-		if (options.getEndpoints().length() > 0) {
-			int endpointIndex = HUtil.pickIndex(options.getEndpoints());
+		// for endpoints, let the selector choose one and fill htransport options
+		List<String> endpoints = new ArrayList<String>();
+		for (int i = 0; i < options.getEndpoints().length(); i++) {
 			try {
-				String endpoint = options.getEndpoints().getString(endpointIndex);
-				this.transportOptions.setEndpointHost(HUtil.getHost(endpoint));
-				this.transportOptions.setEndpointPort(HUtil.getPort(endpoint));
-				this.transportOptions.setEndpointPath(HUtil.getPath(endpoint));
+				endpoints.add(options.getEndpoints().getString(i));
 			} catch (JSONException e) {
 				logger.error("message: ", e);
 			}
-			
+		}
+		if (endpoints.size() > 0) {
+			if (this.endpointSelector == null || !this.endpointSelector.hasEndpoints(endpoints)) {
+				this.endpointSelector = new HEndpointSelector(endpoints);
+			}
+			useEndpoint(this.endpointSelector.select());
 		} else {
+			this.endpointSelector = null;
+			this.currentEndpoint = null;
 			this.transportOptions.setEndpointHost(null);
 			this.transportOptions.setEndpointPort(0);
 			this.transportOptions.setEndpointPath(null);
 		}
+		this.transportOptions.setReconnectDelay(5000);
+		// a new session : hNode authenticates it
+		this.transportOptions.setSessionToken(null);
+		this.attemptStart = System.currentTimeMillis();
+	}
+
+	private void useEndpoint(String endpoint) {
+		this.currentEndpoint = endpoint;
+		this.transportOptions.setEndpointHost(HUtil.getHost(endpoint));
+		this.transportOptions.setEndpointPort(HUtil.getPort(endpoint));
+		this.transportOptions.setEndpointPath(HUtil.getPath(endpoint));
+	}
+
+	/**
+	 * Feed the endpoint selector with the status updates of the transport. When the connection is lost, the transport
+	 * reconnects to the endpoint chosen by the selector, after the delay it chose
+	 */
+	private void onEndpointStatus(ConnectionStatus status, ConnectionError error) {
+		HEndpointSelector selector = this.endpointSelector;
+		String endpoint = this.currentEndpoint;
+		if (selector == null || endpoint == null) {
+			return;
+		}
+		if (status == ConnectionStatus.CONNECTED) {
+			selector.onSuccess(endpoint, System.currentTimeMillis() - attemptStart);
+		} else if (status == ConnectionStatus.DISCONNECTED && (error == ConnectionError.TECH_ERROR || error == ConnectionError.CONN_TIMEOUT)) {
+			selector.onFailure(endpoint);
+			long delay = selector.nextDelay();
+			useEndpoint(selector.select());
+			this.transportOptions.setReconnectDelay(delay);
+			this.attemptStart = System.currentTimeMillis() + delay;
+		}
 	}
 
 	/**
@@ -805,6 +1208,10 @@ public class HClient {
 	private void notifyStatus(ConnectionStatus status, ConnectionError error, String errorMsg) {
 		try {
 			connectionStatus = status;
+			HClientMetrics current = metrics;
+			if (current != null) {
+				current.onStatus(status, error);
+			}
 			if (this.statusDelegate != null) {
 				// create structure
 				final HStatus hstatus = new HStatus();
@@ -812,30 +1219,47 @@ public class HClient {
 				hstatus.setErrorCode(error);
 				hstatus.setErrorMsg(errorMsg);
 
-				// return status asynchronously
-				(new Thread(new Runnable() {
+				// return status asynchronously, in the order of the updates
+				final HStatusDelegate delegate = this.statusDelegate;
+				getDeliveryExecutor().execute(delegate, new Runnable() {
 					public void run() {
-						try {
-							statusDelegate.onStatus(hstatus);
-						} catch (Exception e) {
-							logger.error("message: ", e);
-						}
+						delegate.onStatus(hstatus);
 					}
-				})).start();
+				});
 			}
 		} catch (Exception e) {
 			logger.error("message", e);
 		}
 	}
 
+	/**
+	 * The delivery executor is created on connect with the HOptions values.
+	 * Callbacks issued before the first connect use the default values.
+	 * @return the executor used to call the delegates
+	 */
+	private HDeliveryExecutor getDeliveryExecutor() {
+		HDeliveryExecutor executor = this.deliveryExecutor;
+		if (executor != null) {
+			return executor;
+		}
+		synchronized (this) {
+			if (this.deliveryExecutor == null) {
+				HOptions defaultOptions = new HOptions();
+				this.deliveryExecutor = new HDeliveryExecutor(defaultOptions.getDeliveryThreads(),
+						defaultOptions.getDeliveryQueueSize(), defaultOptions.getDeliveryRejection());
+			}
+			return this.deliveryExecutor;
+		}
+	}
+
     private class MyRunnable implements Runnable {
         public HMessageDelegate delegate2Use;
         public HMessage message;
         public void run() {
-            try {
-                delegate2Use.onMessage(message);
-            } catch (Exception e) {
-                logger.error("message: ", e);
+            delegate2Use.onMessage(message);
+            HClientMetrics current = metrics;
+            if (current != null) {
+                current.tracker.record(message, HTraceStage.RECEIVE, HTraceStage.DELIVERED);
             }
         }
     }
@@ -849,27 +1273,31 @@ public class HClient {
             MyRunnable arun = new MyRunnable();
 
             // 1 we search the delegate with the ref if any
-            if (!this.messagesDelegates.isEmpty() && message.getRef() != null && this.messagesDelegates.containsKey(HUtil.getApiRef(message.getRef()))) {
-                if (this.timeoutHashtable.containsKey(HUtil.getApiRef(message.getRef()))) {
-                    Timer timeout = timeoutHashtable.get(HUtil.getApiRef(message.getRef()));
-                    if (timeout != null) {
-                        timeout.cancel();
-                    }
-                }
-                arun.delegate2Use = this.messagesDelegates.get(HUtil.getApiRef(message.getRef()));
+            if (message.getRef() != null) {
+                arun.delegate2Use = correlations.complete(HUtil.getApiRef(message.getRef()));
             }
             // 2 - if the ref can not provide a delegate, we try the parameter sent
-            if (messageDelegate != null) {
-                arun.delegate2Use = messageDelegate;
-            } else {
-                // in other cases we try the default delegate message
-                arun.delegate2Use = this.messageDelegate;
+            if (arun.delegate2Use == null) {
+                if (messageDelegate != null) {
+                    arun.delegate2Use = messageDelegate;
+                } else {
+                    // in other cases we try the default delegate message, if the message matches the local filter
+                    HMessageFilter filter = this.localFilter;
+                    if (filter != null && !filter.accept(message)) {
+                        HClientMetrics current = metrics;
+                        if (current != null) {
+                            current.filtered.inc();
+                        }
+                        return;
+                    }
+                    arun.delegate2Use = this.messageDelegate;
+                }
             }
             try {
                 if (arun.delegate2Use != null) {
-                    // return message asynchronously
+                    // return message asynchronously, in order for a same delegate
                     arun.message = message;
-                    new Thread(arun).start();
+                    getDeliveryExecutor().execute(arun.delegate2Use, arun);
                 }
             } catch (Exception e) {
                 logger.error("message: ", e);
@@ -915,6 +1343,10 @@ public class HClient {
 		 * see HTransportDelegate for more informations
 		 */
 		public void onStatus(ConnectionStatus status, ConnectionError error, String errorMsg) {
+			onEndpointStatus(status, error);
+			if (status == ConnectionStatus.CONNECTED) {
+				onConnected();
+			}
 			notifyStatus(status, error, errorMsg);
 		}
 
@@ -924,7 +1356,14 @@ public class HClient {
 		public void onData(String type, JSONObject jsonData) {
 			try {
 				if (type.equalsIgnoreCase("hmessage")) {
-					HMessage message = new HMessage(jsonData);
+					// transports decoding with HMessageCodec already provide an HMessage
+					HMessage message = (jsonData instanceof HMessage) ? (HMessage) jsonData : new HMessage(jsonData);
+					HClientMetrics current = metrics;
+					if (current != null) {
+						current.received.inc();
+						current.tracker.mark(message, HTraceStage.RECEIVE);
+						current.tracker.recordTransit(message);
+					}
 					notifyMessage(message, null);
 				}
 
@@ -932,6 +1371,54 @@ public class HClient {
 				logger.error("message: ", e);
 			}
 		}
+
+		/**
+		 * see HTransportDelegate for more information
+		 */
+		public void onUnsent(List<JSONObject> objects) {
+			List<HMessage> messages = new ArrayList<HMessage>(objects.size());
+			for (JSONObject object : objects) {
+				if (object instanceof HMessage) {
+					messages.add((HMessage) object);
+				}
+			}
+			requeue(messages);
+		}
+	}
+
+	/**
+	 * The transport opened the session : restore the session if it is a reconnection that hNode did not resume,
+	 * then send the queued messages
+	 */
+	private void onConnected() {
+		connectionStatus = ConnectionStatus.CONNECTED;
+		boolean reconnection = sessionEstablished;
+		sessionEstablished = true;
+		try {
+			if (reconnection && !transportOptions.isSessionResumed()) {
+				restoreSession();
+			}
+			if (outbound != null) {
+				replayOutbound();
+			}
+		} catch (Exception e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	/**
+	 * Messages accepted by the transport were not written : they wait for the reconnection at the head of the outbound queue,
+	 * before the messages sent since, or their senders get a NOT_CONNECTED error
+	 */
+	private void requeue(List<HMessage> messages) {
+		// requeued while the client still thinks it is connected, the messages would go straight back to the transport
+		if (outbound == null || !sessionRequested || this.connectionStatus == ConnectionStatus.CONNECTED) {
+			for (HMessage message : messages) {
+				notifyNotSent(message, null, "Connection lost, message not sent");
+			}
+			return;
+		}
+		outbound.requeue(messages);
 	}
 
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.client;
+
+import org.hubiquitus.hapi.hStructures.ConnectionError;
+import org.hubiquitus.hapi.hStructures.ConnectionStatus;
+import org.hubiquitus.hapi.metrics.HCounter;
+import org.hubiquitus.hapi.metrics.HGauge;
+import org.hubiquitus.hapi.metrics.HHistogram;
+import org.hubiquitus.hapi.metrics.HLatencyTracker;
+import org.hubiquitus.hapi.metrics.HMetricRegistry;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Metrics of a client, registered in its registry :
+ * messages.sent, messages.received, messages.notSent, messages.filtered (dropped by the local filter) and reconnects counters,
+ * requests.pending, requests.timedOut, outbound.queued and outbound.dropped gauges,
+ * the send.duration histogram (time in ns spent writing a message to the transport)
+ * and the latency histograms of the tracing : send to emit, receive to delivered, transit, and outbox to send for hubots.
+ */
+
+class HClientMetrics {
+
+	private final HMetricRegistry registry;
+	final HCounter sent;
+	final HCounter received;
+	final HCounter notSent;
+	final HCounter filtered;
+	final HCounter reconnects;
+	final HHistogram sendDuration;
+	final HLatencyTracker tracker;
+	private boolean connectedOnce = false;
+
+	HClientMetrics(HMetricRegistry registry, final HClient client) {
+		this.registry = registry;
+		this.sent = registry.counter("messages.sent");
+		this.received = registry.counter("messages.received");
+		this.notSent = registry.counter("messages.notSent");
+		this.filtered = registry.counter("messages.filtered");
+		this.reconnects = registry.counter("reconnects");
+		this.sendDuration = registry.histogram("send.duration");
+		this.tracker = new HLatencyTracker(registry);
+		registry.gauge("requests.pending", new HGauge() {
+			public long getValue() {
+				return client.pendingRequests();
+			}
+		});
+		registry.gauge("requests.timedOut", new HGauge() {
+			public long getValue() {
+				return client.timedOutRequests();
+			}
+		});
+		registry.gauge("outbound.queued", new HGauge() {
+			public long getValue() {
+				return client.queuedMessages();
+			}
+		});
+		registry.gauge("outbound.dropped", new HGauge() {
+			public long getValue() {
+				return client.droppedMessages();
+			}
+		});
+	}
+
+	HMetricRegistry getRegistry() {
+		return registry;
+	}
+
+	/* a connect while already connected is not a reconnection */
+	void onStatus(ConnectionStatus status, ConnectionError error) {
+		if (status == ConnectionStatus.CONNECTED && error != ConnectionError.ALREADY_CONNECTED) {
+			synchronized (this) {
+				if (connectedOnce) {
+					reconnects.inc();
+				}
+				connectedOnce = true;
+			}
+		}
+	}
+
+	/* the client disconnected : stop the reporters and remove the MBean until the next connect */
+	synchronized void close() {
+		registry.close();
+		connectedOnce = false;
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hubiquitus.hapi.util.HWheelTimer;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Requests waiting for an answer, indexed by msgid.
+ * An entry is removed exactly once : either by the answer or by its timeout.
+ */
+
+public class HCorrelationTable {
+
+	private final ConcurrentHashMap<String, PendingRequest> pendingRequests = new ConcurrentHashMap<String, PendingRequest>();
+	private final AtomicLong timeoutCount = new AtomicLong(0);
+	private final HWheelTimer timer;
+
+	/**
+	 * Notified when a request did not get any answer before its timeout.
+	 */
+	public interface TimeoutListener {
+		public void onTimeout(String msgid, HMessageDelegate delegate);
+	}
+
+	/**
+	 * @param timer timer used to expire the requests
+	 */
+	public HCorrelationTable(HWheelTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Register a request.
+	 * @param msgid id of the request. The answers will reference it
+	 * @param delegate the delegate to call with the answer
+	 * @param timeout delay in ms before the request expires
+	 * @param listener notified if the request expires
+	 */
+	public void register(final String msgid, HMessageDelegate delegate, long timeout, final TimeoutListener listener) {
+		final PendingRequest request = new PendingRequest(delegate);
+		pendingRequests.put(msgid, request);
+		request.timeout = timer.schedule(new Runnable() {
+			public void run() {
+				if (pendingRequests.remove(msgid, request)) {
+					timeoutCount.incrementAndGet();
+					listener.onTimeout(msgid, request.delegate);
+				}
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Remove a request because its answer arrived.
+	 * @param msgid id of the request
+	 * @return the delegate to call with the answer. NULL if the request is unknown or expired
+	 */
+	public HMessageDelegate complete(String msgid) {
+		if (msgid == null) {
+			return null;
+		}
+		PendingRequest request = pendingRequests.remove(msgid);
+		if (request == null) {
+			return null;
+		}
+		HWheelTimer.Timeout timeout = request.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		return request.delegate;
+	}
+
+	/**
+	 * @param msgid id of the request
+	 * @return true if the request is still waiting for an answer
+	 */
+	public boolean isPending(String msgid) {
+		return msgid != null && pendingRequests.containsKey(msgid);
+	}
+
+	/**
+	 * @return number of requests waiting for an answer
+	 */
+	public int size() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * @return number of requests expired since the creation of the table
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	private static class PendingRequest {
+		private final HMessageDelegate delegate;
+		private volatile HWheelTimer.Timeout timeout;
+
+		public PendingRequest(HMessageDelegate delegate) {
+			this.delegate = delegate;
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
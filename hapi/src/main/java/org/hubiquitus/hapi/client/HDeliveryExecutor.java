@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.client;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hubiquitus.hapi.hStructures.HDeliveryRejection;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Calls the delegates of an HClient on a bounded pool of worker threads.
+ * Callbacks submitted with the same key (ie : the same delegate instance) are run one at a time, in submission order.
+ * With the BLOCK policy, threads which must not wait (the delivery workers, the timer thread and the threads
+ * marked with markNonBlocking) queue their callbacks beyond the bound : a worker waiting for room it is
+ * the only one able to free would deadlock.
+ */
+
+public class HDeliveryExecutor {
+
+	final Logger logger = LoggerFactory.getLogger(HDeliveryExecutor.class);
+
+	/** max callbacks run for a key before giving the worker back to the other keys */
+	private static final int MAX_BURST = 64;
+
+	private static final AtomicInteger poolNumber = new AtomicInteger(0);
+
+	private static final ThreadLocal<Boolean> nonBlocking = new ThreadLocal<Boolean>();
+
+	private final ThreadPoolExecutor pool;
+	private final int queueSize;
+	private final HDeliveryRejection rejection;
+	private final Map<Object, SerialQueue> queues = new IdentityHashMap<Object, SerialQueue>();
+	// callbacks waiting to be run, guarded by queues
+	private int pending = 0;
+
+	/**
+	 * @param threads number of worker threads. If 0, callbacks are run by the calling thread
+	 * @param queueSize maximum number of callbacks waiting to be run
+	 * @param rejection policy applied when the queue is full
+	 */
+	public HDeliveryExecutor(int threads, int queueSize, HDeliveryRejection rejection) {
+		this.queueSize = queueSize;
+		this.rejection = (rejection != null) ? rejection : HDeliveryRejection.BLOCK;
+		if (threads > 0) {
+			final int id = poolNumber.incrementAndGet();
+			pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+						public Thread newThread(final Runnable r) {
+							Thread thread = new Thread(new Runnable() {
+								public void run() {
+									markNonBlocking();
+									r.run();
+								}
+							}, "hclient-delivery-" + id + "-" + threadNumber.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			// idle clients should not keep any thread alive
+			pool.allowCoreThreadTimeOut(true);
+		} else {
+			pool = null;
+		}
+	}
+
+	/**
+	 * Mark the current thread as never waiting for room in a delivery queue (ie : an I/O thread shared by several clients)
+	 */
+	public static void markNonBlocking() {
+		nonBlocking.set(Boolean.TRUE);
+	}
+
+	private static boolean mayWait() {
+		return nonBlocking.get() == null && !HWheelTimer.getShared().isTimerThread();
+	}
+
+	/**
+	 * Run a callback after all the callbacks previously submitted with the same key.
+	 * @param key ordering key, usually the delegate to call
+	 * @param task the callback
+	 */
+	public void execute(Object key, Runnable task) {
+		if (pool == null) {
+			runSafely(task);
+			return;
+		}
+		synchronized (queues) {
+			if (pending < queueSize || waitForRoom() || rejection == HDeliveryRejection.BLOCK) {
+				enqueue(key, task);
+				return;
+			}
+			if (rejection == HDeliveryRejection.DISCARD) {
+				logger.warn("message: delivery queue full (" + queueSize + "), callback dropped");
+				return;
+			}
+		}
+		runSafely(task);
+	}
+
+	/**
+	 * Called with the queues lock held, when the queue is full.
+	 * @return true if there is room now. False if the rejection policy applies, or if the queue overflows (BLOCK policy only)
+	 */
+	private boolean waitForRoom() {
+		if (rejection != HDeliveryRejection.BLOCK || !mayWait()) {
+			return false;
+		}
+		boolean interrupted = false;
+		while (pending >= queueSize) {
+			try {
+				queues.wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	private void enqueue(Object key, Runnable task) {
+		SerialQueue queue = queues.get(key);
+		if (queue == null) {
+			queue = new SerialQueue(key);
+			queues.put(key, queue);
+		}
+		queue.tasks.add(task);
+		pending++;
+		if (!queue.scheduled) {
+			queue.scheduled = true;
+			pool.execute(queue);
+		}
+	}
+
+	/**
+	 * @return number of callbacks waiting to be run
+	 */
+	public int pending() {
+		synchronized (queues) {
+			return pending;
+		}
+	}
+
+	private void runSafely(Runnable task) {
+		try {
+			task.run();
+		} catch (Exception e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	/**
+	 * Callbacks of one key. Scheduled at most once at a time on the pool.
+	 */
+	private class SerialQueue implements Runnable {
+		private final Object key;
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		private boolean scheduled = false;
+
+		public SerialQueue(Object key) {
+			this.key = key;
+		}
+
+		public void run() {
+			for (int i = 0; i < MAX_BURST; i++) {
+				Runnable task;
+				synchronized (queues) {
+					task = tasks.poll();
+					if (task == null) {
+						scheduled = false;
+						queues.remove(key);
+						return;
+					}
+					if (pending-- >= queueSize) {
+						queues.notifyAll();
+					}
+				}
+				runSafely(task);
+			}
+			// let the other delegates run, we will be called back later
+			synchronized (queues) {
+				if (tasks.isEmpty()) {
+					scheduled = false;
+					queues.remove(key);
+					return;
+				}
+			}
+			pool.execute(this);
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Chooses the hNode endpoint of the next connection attempt.
+ * The connection time of each endpoint (connect to hStatus) is tracked as an EWMA : two endpoints are drawn at random
+ * among the available ones and the fastest is chosen, which prefers fast endpoints while spreading the clients.
+ * An endpoint failing failureThreshold times in a row is put aside (circuit open) for a time doubling with each
+ * new opening, up to maxOpenTime. It is then tried again once (half open) : a success closes the circuit.
+ * After a failure the next attempt is made at once on another endpoint if one is available (fast failover),
+ * else after an exponential backoff with jitter.
+ */
+
+public class HEndpointSelector {
+
+	/** weight of the last connection time in its average */
+	public static final double EWMA_ALPHA = 0.3;
+	/** consecutive failures opening the circuit of an endpoint */
+	public static final int FAILURE_THRESHOLD = 2;
+	/** first time in ms an endpoint is put aside */
+	public static final long OPEN_TIME = 5000;
+	/** maximum time in ms an endpoint is put aside */
+	public static final long MAX_OPEN_TIME = 120000;
+	/** maximum delay in ms before failing over to another endpoint */
+	public static final long FAILOVER_DELAY = 250;
+	/** first backoff delay in ms, once all the endpoints failed */
+	public static final long BASE_DELAY = 1000;
+	/** maximum backoff delay in ms */
+	public static final long MAX_DELAY = 60000;
+
+	private static class Endpoint {
+		private final String uri;
+		// 0 until a first connection
+		private double averageTime = 0;
+		private int failures = 0;
+		private int openings = 0;
+		private long openUntil = 0;
+
+		Endpoint(String uri) {
+			this.uri = uri;
+		}
+
+		boolean isAvailable(long now) {
+			return openUntil <= now;
+		}
+	}
+
+	private final List<Endpoint> endpoints;
+	private final Random random = new Random();
+	// failures since the last successful connection
+	private int attempts = 0;
+
+	/**
+	 * @param uris endpoints (ie : http://localhost:8080/). At least one
+	 */
+	public HEndpointSelector(List<String> uris) {
+		if (uris.isEmpty()) {
+			throw new IllegalArgumentException("No endpoint");
+		}
+		this.endpoints = new ArrayList<Endpoint>(uris.size());
+		for (String uri : uris) {
+			endpoints.add(new Endpoint(uri));
+		}
+	}
+
+	/**
+	 * @return endpoint of the next attempt. If all the circuits are open, the endpoint which is back first
+	 */
+	public synchronized String select() {
+		long now = System.currentTimeMillis();
+		List<Endpoint> available = new ArrayList<Endpoint>(endpoints.size());
+		List<Endpoint> healthy = new ArrayList<Endpoint>(endpoints.size());
+		Endpoint first = null;
+		for (Endpoint endpoint : endpoints) {
+			if (endpoint.isAvailable(now)) {
+				available.add(endpoint);
+				if (endpoint.failures == 0) {
+					healthy.add(endpoint);
+				}
+			}
+			if (first == null || endpoint.openUntil < first.openUntil) {
+				first = endpoint;
+			}
+		}
+		if (available.isEmpty()) {
+			return first.uri;
+		}
+		// an endpoint which just failed is retried only if all the others failed too
+		if (!healthy.isEmpty()) {
+			available = healthy;
+		}
+		Endpoint a = available.get(random.nextInt(available.size()));
+		if (available.size() == 1) {
+			return a.uri;
+		}
+		Endpoint b = available.get(random.nextInt(available.size()));
+		// endpoints never connected are tried first
+		return (a.averageTime <= b.averageTime) ? a.uri : b.uri;
+	}
+
+	/**
+	 * A connection is established
+	 * @param uri endpoint of the connection
+	 * @param time time in ms from the attempt to the connection
+	 */
+	public synchronized void onSuccess(String uri, long time) {
+		Endpoint endpoint = find(uri);
+		attempts = 0;
+		if (endpoint == null) {
+			return;
+		}
+		endpoint.averageTime = (endpoint.averageTime == 0) ? time : EWMA_ALPHA * time + (1 - EWMA_ALPHA) * endpoint.averageTime;
+		endpoint.failures = 0;
+		endpoint.openings = 0;
+		endpoint.openUntil = 0;
+	}
+
+	/**
+	 * A connection attempt failed, or an established connection is lost
+	 * @param uri endpoint of the connection
+	 */
+	public synchronized void onFailure(String uri) {
+		attempts++;
+		Endpoint endpoint = find(uri);
+		if (endpoint == null) {
+			return;
+		}
+		endpoint.failures++;
+		// a failing half open endpoint is put aside again at once
+		if (endpoint.failures >= FAILURE_THRESHOLD || endpoint.openings > 0) {
+			long openTime = Math.min(MAX_OPEN_TIME, OPEN_TIME << Math.min(endpoint.openings, 16));
+			endpoint.openUntil = System.currentTimeMillis() + openTime;
+			endpoint.openings++;
+			endpoint.failures = 0;
+		}
+	}
+
+	/**
+	 * @return delay in ms before the next attempt : a short one to fail over while endpoints are available,
+	 * then a random delay between the half and the whole of an exponential backoff
+	 */
+	public synchronized long nextDelay() {
+		long now = System.currentTimeMillis();
+		int available = 0;
+		for (Endpoint endpoint : endpoints) {
+			if (endpoint.isAvailable(now)) {
+				available++;
+			}
+		}
+		if (attempts <= available) {
+			return (long) (random.nextDouble() * FAILOVER_DELAY);
+		}
+		long backoff = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempts - available - 1, 16));
+		return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+	}
+
+	/**
+	 * @param uri an endpoint
+	 * @return true if its circuit is closed or half open
+	 */
+	public synchronized boolean isAvailable(String uri) {
+		Endpoint endpoint = find(uri);
+		return endpoint != null && endpoint.isAvailable(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param uri an endpoint
+	 * @return average connection time in ms. 0 if never connected
+	 */
+	public synchronized double getAverageTime(String uri) {
+		Endpoint endpoint = find(uri);
+		return (endpoint == null) ? 0 : endpoint.averageTime;
+	}
+
+	/**
+	 * @param uris endpoints
+	 * @return true if the selector has the same endpoints, in the same order
+	 */
+	public synchronized boolean hasEndpoints(List<String> uris) {
+		if (uris.size() != endpoints.size()) {
+			return false;
+		}
+		for (int i = 0; i < uris.size(); i++) {
+			if (!uris.get(i).equals(endpoints.get(i).uri)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Endpoint find(String uri) {
+		for (Endpoint endpoint : endpoints) {
+			if (endpoint.uri.equals(uri)) {
+				return endpoint;
+			}
+		}
+		return null;
+	}
+}
+
+/**
+ * @endcond
+ */
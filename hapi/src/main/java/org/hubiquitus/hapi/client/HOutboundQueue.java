@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.hStructures.HOutboundOverflow;
+import org.hubiquitus.hapi.transport.HMessageCodec;
+import org.hubiquitus.hapi.util.HPriorityLevels;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Messages sent while the client is not connected, replayed once connected : by priority (see HPriorityLevels
+ * for the starvation protection of the low priorities), in sending order for a given priority.
+ * The queue keeps up to capacity messages in memory. When a spill directory is given, the messages
+ * which do not fit in memory are appended to a spill file instead of applying the overflow policy.
+ * Only one thread replays the queue at a time (see beginReplay).
+ * The spill file is deleted once all its messages are read back, and compacted while it is read if the producer stays ahead.
+ */
+
+public class HOutboundQueue {
+
+	final Logger logger = LoggerFactory.getLogger(HOutboundQueue.class);
+
+	private final int capacity;
+	private final HOutboundOverflow overflow;
+	private final File spillDirectory;
+
+	private final HPriorityLevels<HMessage> levels = HPriorityLevels.forMessagePriorities();
+	private boolean replaying = false;
+	private long dropped = 0;
+
+	/** read part of the spill file compacted once bigger than this, and than the unread part */
+	private static final long COMPACT_THRESHOLD = 256 * 1024;
+
+	private File spillFile = null;
+	private RandomAccessFile spill = null;
+	private long spillReadPosition = 0;
+	private int spilled = 0;
+
+	/**
+	 * @param capacity maximum number of messages kept in memory
+	 * @param overflow policy applied when the queue is full
+	 * @param spillDirectory directory of the spill file. Null to keep the messages in memory only
+	 */
+	public HOutboundQueue(int capacity, HOutboundOverflow overflow, File spillDirectory) {
+		this.capacity = capacity;
+		this.overflow = overflow;
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Queue a message.
+	 * @param message message to queue
+	 * @param maxWait maximum time in ms to wait for room in the queue (BLOCK policy only)
+	 * @return null if the message is queued. Otherwise the message dropped : either the given one or an older one (DROP_OLDEST policy)
+	 */
+	public synchronized HMessage offer(HMessage message, long maxWait) {
+		// once messages are spilled, the new ones follow them on disk to keep the order
+		if (spilled > 0 || (levels.size() >= capacity && spillDirectory != null)) {
+			if (spill(message)) {
+				return null;
+			}
+		}
+
+		if (levels.size() >= capacity) {
+			switch (overflow) {
+			case BLOCK:
+				long deadline = System.currentTimeMillis() + maxWait;
+				long remaining = maxWait;
+				while (levels.size() >= capacity && remaining > 0) {
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					remaining = deadline - System.currentTimeMillis();
+				}
+				if (levels.size() >= capacity) {
+					dropped++;
+					return message;
+				}
+				break;
+			case DROP_OLDEST:
+				HMessage evicted = levels.pollLowest(HPriorityLevels.levelOf(message));
+				dropped++;
+				if (evicted == null) {
+					return message;
+				}
+				add(message);
+				return evicted;
+			default:
+				dropped++;
+				return message;
+			}
+		}
+		add(message);
+		return null;
+	}
+
+	/**
+	 * Queue again messages given back by the transport : they go before the messages of their priority already queued,
+	 * in their order. They were accepted already, so the capacity does not apply.
+	 * @param messages messages, in sending order
+	 */
+	public synchronized void requeue(List<HMessage> messages) {
+		for (int i = messages.size() - 1; i >= 0; i--) {
+			HMessage message = messages.get(i);
+			levels.addFirst(message, HPriorityLevels.levelOf(message));
+		}
+	}
+
+	/**
+	 * Start replaying the queue.
+	 * @return false if another thread is already replaying it
+	 */
+	public synchronized boolean beginReplay() {
+		if (replaying) {
+			return false;
+		}
+		replaying = true;
+		return true;
+	}
+
+	/**
+	 * Stop replaying the queue before it is empty (ie : the connection is lost again).
+	 */
+	public synchronized void endReplay() {
+		replaying = false;
+	}
+
+	/**
+	 * Next message to replay. Spilled messages come after the ones in memory.
+	 * @return the next message. Null if the queue is empty, which also ends the replay
+	 */
+	public synchronized HMessage poll() {
+		HMessage next = levels.poll();
+		if (next != null) {
+			notifyAll();
+			return next;
+		}
+		HMessage unspilled = unspill();
+		if (unspilled == null) {
+			replaying = false;
+		}
+		return unspilled;
+	}
+
+	/**
+	 * @return true if a message can be sent directly : the queue is empty and not being replayed
+	 */
+	public synchronized boolean isIdle() {
+		return levels.size() == 0 && spilled == 0 && !replaying;
+	}
+
+	/**
+	 * Remove all the messages. The spill file, if any, is closed and deleted.
+	 * @return the removed messages
+	 */
+	public synchronized List<HMessage> clear() {
+		List<HMessage> messages = new ArrayList<HMessage>(levels.size() + spilled);
+		HMessage message;
+		while ((message = poll()) != null) {
+			messages.add(message);
+		}
+		notifyAll();
+		return messages;
+	}
+
+	/**
+	 * @return number of messages waiting to be sent
+	 */
+	public synchronized int size() {
+		return levels.size() + spilled;
+	}
+
+	/**
+	 * @param priority a priority
+	 * @return number of messages of this priority waiting in memory
+	 */
+	public synchronized int size(HMessagePriority priority) {
+		return levels.size(priority.value());
+	}
+
+	/**
+	 * @return number of messages dropped because the queue was full
+	 */
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+
+	private void add(HMessage message) {
+		levels.add(message, HPriorityLevels.levelOf(message));
+	}
+
+	/* spill file : records are the length of the json followed by the json */
+
+	private boolean spill(HMessage message) {
+		try {
+			if (spill == null) {
+				spillFile = File.createTempFile("hapi-outbound", ".spill", spillDirectory);
+				spillFile.deleteOnExit();
+				spill = new RandomAccessFile(spillFile, "rw");
+			}
+			byte[] data = HMessageCodec.encode(message);
+			spill.seek(spill.length());
+			spill.writeInt(data.length);
+			spill.write(data);
+			spilled++;
+			return true;
+		} catch (Exception e) {
+			logger.error("message: ", e);
+			return false;
+		}
+	}
+
+	private HMessage unspill() {
+		if (spilled == 0) {
+			return null;
+		}
+		try {
+			spill.seek(spillReadPosition);
+			int length = spill.readInt();
+			byte[] data = new byte[length];
+			spill.readFully(data);
+			spillReadPosition = spill.getFilePointer();
+			spilled--;
+			if (spilled == 0) {
+				closeSpill();
+			} else if (spillReadPosition > COMPACT_THRESHOLD && spillReadPosition > spill.length() / 2) {
+				compactSpill();
+			}
+			return HMessageCodec.decode(data, 0, length);
+		} catch (IOException e) {
+			logger.error("message: spill file lost, " + spilled + " messages dropped", e);
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+			return unspill();
+		}
+		dropped += spilled;
+		spilled = 0;
+		closeSpill();
+		return null;
+	}
+
+	/**
+	 * Move the unread records to the start of the file
+	 */
+	private void compactSpill() throws IOException {
+		byte[] chunk = new byte[64 * 1024];
+		long read = spillReadPosition;
+		long write = 0;
+		long end = spill.length();
+		while (read < end) {
+			int count = (int) Math.min(chunk.length, end - read);
+			spill.seek(read);
+			spill.readFully(chunk, 0, count);
+			spill.seek(write);
+			spill.write(chunk, 0, count);
+			read += count;
+			write += count;
+		}
+		spill.setLength(write);
+		spillReadPosition = 0;
+	}
+
+	private void closeSpill() {
+		spillReadPosition = 0;
+		if (spill == null) {
+			return;
+		}
+		try {
+			spill.close();
+		} catch (IOException e) {
+			logger.error("message: ", e);
+		}
+		if (!spillFile.delete()) {
+			logger.warn("message: spill file " + spillFile + " not deleted");
+		}
+		spill = null;
+		spillFile = null;
+	}
+}
+
+/**
+ * @endcond
+ */
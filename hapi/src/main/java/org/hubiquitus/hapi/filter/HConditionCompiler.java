@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.hStructures.OperandNames;
+import org.hubiquitus.hapi.util.DateISO8601;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * @version 0.5
+ * Compiles an HCondition into an HMessageFilter evaluated locally, with the semantic of the hNode filters :
+ * <ul>
+ * <li>eq, ne, gt, gte, lt, lte : {"eq" : {"publisher" : "user@domain"}}. Attributes of the payload or of the location
+ * are reached with a dotted path (ie : "payload.temperature"). The dates (published, sent, relevance) compare
+ * with ISO 8601 strings</li>
+ * <li>in, nin : {"in" : {"type" : ["alert", "measure"]}}</li>
+ * <li>and, or, nor : {"and" : [condition, condition]}, not : {"not" : condition}</li>
+ * <li>relevant : {"relevant" : true} matches the messages whose relevance is not passed</li>
+ * <li>geo : {"geo" : {"lat" : 48.85, "lng" : 2.35, "radius" : 1000}} matches the messages located
+ * less than radius meters away</li>
+ * </ul>
+ * The operands of a same condition are and-ed. An empty condition matches every message.
+ * The compiled filter resolves the attributes once (typed getters of the envelope, split paths), hashes the values
+ * of in and nin, and evaluates the operands of and, or and nor cheapest and most likely to conclude first.
+ */
+
+public final class HConditionCompiler {
+
+	/** filter accepting every message */
+	public static final HMessageFilter ALL = new HMessageFilter() {
+		public boolean accept(HMessage message) {
+			return true;
+		}
+	};
+
+	private HConditionCompiler() {
+	}
+
+	/**
+	 * @param condition a condition. Null or empty to accept every message
+	 * @return the filter of the condition
+	 * @throws IllegalArgumentException if the condition is invalid
+	 */
+	public static HMessageFilter compile(JSONObject condition) {
+		if (condition == null || condition.length() == 0) {
+			return ALL;
+		}
+		return compileCondition(condition);
+	}
+
+	/* compilation */
+
+	private static Node compileCondition(JSONObject condition) {
+		List<Node> nodes = new ArrayList<Node>();
+		Iterator<?> keys = condition.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			nodes.add(compileOperand(key, condition.opt(key)));
+		}
+		return and(nodes);
+	}
+
+	private static Node compileOperand(String operand, Object value) {
+		if (operand.equals(OperandNames.EQ.toString())) {
+			return compileComparisons(operand, value, Compare.EQ);
+		} else if (operand.equals(OperandNames.NE.toString())) {
+			return compileComparisons(operand, value, Compare.NE);
+		} else if (operand.equals(OperandNames.GT.toString())) {
+			return compileComparisons(operand, value, Compare.GT);
+		} else if (operand.equals(OperandNames.GTE.toString())) {
+			return compileComparisons(operand, value, Compare.GTE);
+		} else if (operand.equals(OperandNames.LT.toString())) {
+			return compileComparisons(operand, value, Compare.LT);
+		} else if (operand.equals(OperandNames.LTE.toString())) {
+			return compileComparisons(operand, value, Compare.LTE);
+		} else if (operand.equals(OperandNames.IN.toString()) || operand.equals(OperandNames.NIN.toString())) {
+			boolean negated = operand.equals(OperandNames.NIN.toString());
+			JSONObject attributes = attributes(operand, value);
+			List<Node> nodes = new ArrayList<Node>();
+			Iterator<?> keys = attributes.keys();
+			while (keys.hasNext()) {
+				String key = (String) keys.next();
+				JSONArray values = attributes.optJSONArray(key);
+				if (values == null) {
+					throw invalid(operand + " expects an array of values for " + key);
+				}
+				Field field = field(key);
+				Set<Object> set = new HashSet<Object>();
+				for (int i = 0; i < values.length(); i++) {
+					set.add(field.normalizeOperand(values.opt(i)));
+				}
+				Node in = new In(field, set);
+				nodes.add(negated ? new Not(in) : in);
+			}
+			return and(nodes);
+		} else if (operand.equals(OperandNames.AND.toString()) || operand.equals(OperandNames.OR.toString())
+				|| operand.equals(OperandNames.NOR.toString())) {
+			if (!(value instanceof JSONArray)) {
+				throw invalid(operand + " expects an array of conditions");
+			}
+			JSONArray conditions = (JSONArray) value;
+			List<Node> nodes = new ArrayList<Node>(conditions.length());
+			for (int i = 0; i < conditions.length(); i++) {
+				JSONObject condition = conditions.optJSONObject(i);
+				if (condition == null) {
+					throw invalid(operand + " expects an array of conditions");
+				}
+				nodes.add(compileCondition(condition));
+			}
+			if (operand.equals(OperandNames.AND.toString())) {
+				return and(nodes);
+			}
+			Node or = or(nodes);
+			return operand.equals(OperandNames.OR.toString()) ? or : new Not(or);
+		} else if (operand.equals(OperandNames.NOT.toString())) {
+			if (!(value instanceof JSONObject)) {
+				throw invalid(operand + " expects a condition");
+			}
+			return new Not(compileCondition((JSONObject) value));
+		} else if (operand.equals("relevant")) {
+			if (!(value instanceof Boolean)) {
+				throw invalid(operand + " expects a boolean");
+			}
+			return new Relevant((Boolean) value);
+		} else if (operand.equals("geo")) {
+			if (!(value instanceof JSONObject)) {
+				throw invalid(operand + " expects a position");
+			}
+			JSONObject pos = (JSONObject) value;
+			if (!(pos.opt("lat") instanceof Number) || !(pos.opt("lng") instanceof Number)
+					|| !(pos.opt("radius") instanceof Number)) {
+				throw invalid(operand + " expects lat, lng and radius");
+			}
+			return new Geo(new HGeoFence(pos.optDouble("lat"), pos.optDouble("lng"), pos.optDouble("radius")));
+		}
+		throw invalid("unknown operand " + operand);
+	}
+
+	private static Node compileComparisons(String operand, Object value, int compare) {
+		JSONObject attributes = attributes(operand, value);
+		List<Node> nodes = new ArrayList<Node>();
+		Iterator<?> keys = attributes.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			Field field = field(key);
+			nodes.add(new Comparison(field, compare, field.normalizeOperand(attributes.opt(key))));
+		}
+		return and(nodes);
+	}
+
+	private static JSONObject attributes(String operand, Object value) {
+		if (!(value instanceof JSONObject) || ((JSONObject) value).length() == 0) {
+			throw invalid(operand + " expects attributes");
+		}
+		return (JSONObject) value;
+	}
+
+	private static Node and(List<Node> nodes) {
+		if (nodes.size() == 1) {
+			return nodes.get(0);
+		}
+		Node[] children = nodes.toArray(new Node[nodes.size()]);
+		// first the operands which reject the most messages for their cost
+		Arrays.sort(children, new Comparator<Node>() {
+			public int compare(Node a, Node b) {
+				return Double.compare(a.cost / (1.0001 - a.selectivity), b.cost / (1.0001 - b.selectivity));
+			}
+		});
+		return new And(children);
+	}
+
+	private static Node or(List<Node> nodes) {
+		if (nodes.size() == 1) {
+			return nodes.get(0);
+		}
+		Node[] children = nodes.toArray(new Node[nodes.size()]);
+		// first the operands which accept the most messages for their cost
+		Arrays.sort(children, new Comparator<Node>() {
+			public int compare(Node a, Node b) {
+				return Double.compare(a.cost / (a.selectivity + 0.0001), b.cost / (b.selectivity + 0.0001));
+			}
+		});
+		return new Or(children);
+	}
+
+	private static IllegalArgumentException invalid(String message) {
+		return new IllegalArgumentException("Invalid condition : " + message);
+	}
+
+	/* values : numbers compare by value whatever their type, dates are epoch millis */
+
+	private static Object normalize(Object value) {
+		if (value == null || value == JSONObject.NULL) {
+			return null;
+		} else if (value instanceof String || value instanceof Boolean || value instanceof Long) {
+			return value;
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return Long.valueOf(((Number) value).longValue());
+		} else if (value instanceof Number) {
+			double d = ((Number) value).doubleValue();
+			if (d == Math.rint(d) && Math.abs(d) < 9.007199254740992E15) {
+				return Long.valueOf((long) d);
+			}
+			return Double.valueOf(d);
+		} else if (value instanceof DateTime) {
+			return Long.valueOf(((DateTime) value).getMillis());
+		} else if (value instanceof HMessagePriority) {
+			return Long.valueOf(((HMessagePriority) value).value());
+		}
+		return value.toString();
+	}
+
+	/* attributes of the messages */
+
+	private static Field field(String name) {
+		if (name.equals("actor")) {
+			return new Field(1) {
+				Object get(HMessage message) {
+					return message.getActor();
+				}
+			};
+		} else if (name.equals("type")) {
+			return new Field(1) {
+				Object get(HMessage message) {
+					return message.getType();
+				}
+			};
+		} else if (name.equals("convid")) {
+			return new Field(1) {
+				Object get(HMessage message) {
+					return message.getConvid();
+				}
+			};
+		} else if (name.equals("ref")) {
+			return new Field(1) {
+				Object get(HMessage message) {
+					return message.getRef();
+				}
+			};
+		} else if (name.equals("msgid")) {
+			return new Field(1) {
+				Object get(HMessage message) {
+					return message.getMsgid();
+				}
+			};
+		} else if (name.equals("priority")) {
+			return new Field(1) {
+				Object get(HMessage message) {
+					HMessagePriority priority = message.getPriority();
+					return (priority != null) ? Long.valueOf(priority.value()) : null;
+				}
+			};
+		} else if (name.equals("published")) {
+			return new DateField() {
+				boolean has(HMessage message) {
+					return message.hasPublished();
+				}
+
+				long millis(HMessage message) {
+					return message.getPublishedMillis();
+				}
+			};
+		} else if (name.equals("sent")) {
+			return new DateField() {
+				boolean has(HMessage message) {
+					return message.hasSent();
+				}
+
+				long millis(HMessage message) {
+					return message.getSentMillis();
+				}
+			};
+		} else if (name.equals("relevance")) {
+			return new DateField() {
+				boolean has(HMessage message) {
+					return message.hasRelevance();
+				}
+
+				long millis(HMessage message) {
+					return message.getRelevanceMillis();
+				}
+			};
+		}
+		final String[] path = name.split("\\.");
+		return new Field(1 + path.length) {
+			Object get(HMessage message) {
+				Object value = message;
+				for (int i = 0; i < path.length && value != null; i++) {
+					value = (value instanceof JSONObject) ? ((JSONObject) value).opt(path[i]) : null;
+				}
+				return normalize(value);
+			}
+		};
+	}
+
+	private abstract static class Field {
+		/** relative cost of a read */
+		final int cost;
+
+		Field(int cost) {
+			this.cost = cost;
+		}
+
+		/**
+		 * @return the normalized value of the attribute. Null if undefined
+		 */
+		abstract Object get(HMessage message);
+
+		/**
+		 * @return a value of the condition, normalized to compare with the values of the attribute
+		 */
+		Object normalizeOperand(Object value) {
+			return normalize(value);
+		}
+	}
+
+	private abstract static class DateField extends Field {
+
+		DateField() {
+			super(1);
+		}
+
+		abstract boolean has(HMessage message);
+
+		abstract long millis(HMessage message);
+
+		Object get(HMessage message) {
+			return has(message) ? Long.valueOf(millis(message)) : null;
+		}
+
+		@Override
+		Object normalizeOperand(Object value) {
+			if (value instanceof String) {
+				try {
+					return Long.valueOf(DateISO8601.parse((String) value));
+				} catch (IllegalArgumentException e) {
+					throw invalid("date expected : " + value);
+				}
+			}
+			return normalize(value);
+		}
+	}
+
+	/* nodes */
+
+	private abstract static class Node implements HMessageFilter {
+		/** estimated ratio of the messages accepted */
+		final double selectivity;
+		/** estimated relative cost of an evaluation */
+		final double cost;
+
+		Node(double selectivity, double cost) {
+			this.selectivity = selectivity;
+			this.cost = cost;
+		}
+	}
+
+	private static final class Compare {
+		static final int EQ = 0;
+		static final int NE = 1;
+		static final int GT = 2;
+		static final int GTE = 3;
+		static final int LT = 4;
+		static final int LTE = 5;
+
+		static double selectivity(int compare) {
+			switch (compare) {
+			case EQ:
+				return 0.1;
+			case NE:
+				return 0.9;
+			default:
+				return 0.33;
+			}
+		}
+	}
+
+	private static final class Comparison extends Node {
+		private final Field field;
+		private final int compare;
+		private final Object operand;
+
+		Comparison(Field field, int compare, Object operand) {
+			super(Compare.selectivity(compare), field.cost);
+			this.field = field;
+			this.compare = compare;
+			this.operand = operand;
+		}
+
+		public boolean accept(HMessage message) {
+			Object value = field.get(message);
+			if (compare == Compare.EQ) {
+				return (operand == null) ? value == null : operand.equals(value);
+			} else if (compare == Compare.NE) {
+				return (operand == null) ? value != null : !operand.equals(value);
+			}
+			if (value == null || operand == null) {
+				return false;
+			}
+			int order;
+			if (value instanceof Long && operand instanceof Long) {
+				long a = ((Long) value).longValue();
+				long b = ((Long) operand).longValue();
+				order = (a < b) ? -1 : ((a == b) ? 0 : 1);
+			} else if (value instanceof Number && operand instanceof Number) {
+				order = Double.compare(((Number) value).doubleValue(), ((Number) operand).doubleValue());
+			} else if (value instanceof String && operand instanceof String) {
+				order = ((String) value).compareTo((String) operand);
+			} else {
+				return false;
+			}
+			switch (compare) {
+			case Compare.GT:
+				return order > 0;
+			case Compare.GTE:
+				return order >= 0;
+			case Compare.LT:
+				return order < 0;
+			default:
+				return order <= 0;
+			}
+		}
+	}
+
+	private static final class In extends Node {
+		private final Field field;
+		private final Set<Object> values;
+
+		In(Field field, Set<Object> values) {
+			super(Math.min(0.9, 0.1 * values.size()), field.cost + 1);
+			this.field = field;
+			this.values = values;
+		}
+
+		public boolean accept(HMessage message) {
+			return values.contains(field.get(message));
+		}
+	}
+
+	private static final class Not extends Node {
+		private final Node node;
+
+		Not(Node node) {
+			super(1 - node.selectivity, node.cost);
+			this.node = node;
+		}
+
+		public boolean accept(HMessage message) {
+			return !node.accept(message);
+		}
+	}
+
+	private static final class And extends Node {
+		private final Node[] nodes;
+
+		And(Node[] nodes) {
+			super(product(nodes, false), sumOfCosts(nodes));
+			this.nodes = nodes;
+		}
+
+		public boolean accept(HMessage message) {
+			for (int i = 0; i < nodes.length; i++) {
+				if (!nodes[i].accept(message)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Or extends Node {
+		private final Node[] nodes;
+
+		Or(Node[] nodes) {
+			super(1 - product(nodes, true), sumOfCosts(nodes));
+			this.nodes = nodes;
+		}
+
+		public boolean accept(HMessage message) {
+			for (int i = 0; i < nodes.length; i++) {
+				if (nodes[i].accept(message)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static double product(Node[] nodes, boolean complement) {
+		double product = 1;
+		for (Node node : nodes) {
+			product *= complement ? 1 - node.selectivity : node.selectivity;
+		}
+		return product;
+	}
+
+	private static double sumOfCosts(Node[] nodes) {
+		double sum = 0;
+		for (Node node : nodes) {
+			sum += node.cost;
+		}
+		return sum;
+	}
+
+	private static final class Relevant extends Node {
+		private final boolean relevant;
+
+		Relevant(boolean relevant) {
+			super(0.5, 1);
+			this.relevant = relevant;
+		}
+
+		public boolean accept(HMessage message) {
+			if (!message.hasRelevance()) {
+				return !relevant;
+			}
+			return (message.getRelevanceMillis() >= System.currentTimeMillis()) == relevant;
+		}
+	}
+
+	private static final class Geo extends Node {
+		private final HGeoFence fence;
+
+		Geo(HGeoFence fence) {
+			super(0.1, 8);
+			this.fence = fence;
+		}
+
+		public boolean accept(HMessage message) {
+			JSONObject pos = HGeoFence.pos(message);
+			return pos != null && fence.contains(pos.optDouble("lat"), pos.optDouble("lng"));
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.filter;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.json.JSONObject;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Circle on the earth : a center in degrees and a radius in meters.
+ * The distance is the great-circle distance (haversine formula) on a sphere of the mean earth radius.
+ */
+
+final class HGeoFence {
+
+	static final double EARTH_RADIUS = 6371000;
+
+	final double lat;
+	final double lng;
+	final double radius;
+	private final double latRadians;
+	private final double lngRadians;
+	private final double cosLat;
+	private final double maxHaversine;
+
+	HGeoFence(double lat, double lng, double radius) {
+		if (Double.isNaN(lat) || Double.isNaN(lng) || Double.isNaN(radius) || lat < -90 || lat > 90 || radius < 0) {
+			throw new IllegalArgumentException("Invalid geo fence : lat " + lat + ", lng " + lng + ", radius " + radius);
+		}
+		this.lat = lat;
+		this.lng = lng;
+		this.radius = radius;
+		this.latRadians = Math.toRadians(lat);
+		this.lngRadians = Math.toRadians(lng);
+		this.cosLat = Math.cos(latRadians);
+		double halfAngle = Math.min(Math.PI, radius / EARTH_RADIUS) / 2;
+		this.maxHaversine = Math.sin(halfAngle) * Math.sin(halfAngle);
+	}
+
+	/**
+	 * @param lat latitude of a point, in degrees
+	 * @param lng longitude of a point, in degrees
+	 * @return true if the point is in the circle
+	 */
+	boolean contains(double lat, double lng) {
+		double otherLat = Math.toRadians(lat);
+		// haversine of the central angle, compared without the asin
+		double sinLat = Math.sin((otherLat - latRadians) / 2);
+		double sinLng = Math.sin((Math.toRadians(lng) - lngRadians) / 2);
+		double haversine = sinLat * sinLat + cosLat * Math.cos(otherLat) * sinLng * sinLng;
+		return haversine <= maxHaversine;
+	}
+
+	/**
+	 * @param message a message
+	 * @return the location.pos of the message, if it has a lat and a lng. Null otherwise
+	 */
+	static JSONObject pos(HMessage message) {
+		JSONObject location = message.optJSONObject("location");
+		JSONObject pos = (location != null) ? location.optJSONObject("pos") : null;
+		if (pos == null || !(pos.opt("lat") instanceof Number) || !(pos.opt("lng") instanceof Number)) {
+			return null;
+		}
+		return pos;
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HPos;
+import org.json.JSONObject;
+
+/**
+ * @version 0.5
+ * Index of geo fences (an HPos : lat, lng and radius in meters, as in the geo operand of an hCondition),
+ * to find the fences containing a located message without testing every fence.
+ * The earth is divided in grids of 2^level x 2^level cells (level 0 to 24). A fence is stored in the at most
+ * four cells covering it in the finest grid where it fits. A point is looked up in one cell per grid in use,
+ * then tested against the fences of these cells : the cost depends on the number of grids in use
+ * (the range of radiuses) and on the fences near the point, not on the number of fences.
+ * Reads are lock free and can run while fences are added or removed.
+ * The client does not use it (a session has a single filter) : it is meant for applications matching
+ * messages against many fences, such as a hubot routing messages by zone.
+ * @param <T> value associated to a fence (ie : a subscriber)
+ */
+
+public class HGeoIndex<T> {
+
+	private static final int MAX_LEVEL = 24;
+	private static final int MAX_CELLS = 4;
+
+	private static final class Entry<T> {
+		final T value;
+		final HGeoFence fence;
+		final int level;
+		final long[] cells;
+
+		Entry(T value, HGeoFence fence, int level, long[] cells) {
+			this.value = value;
+			this.fence = fence;
+			this.level = level;
+			this.cells = cells;
+		}
+	}
+
+	private final ConcurrentHashMap<Long, Entry<T>[]> cells = new ConcurrentHashMap<Long, Entry<T>[]>();
+	private final Map<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+	private final int[] fencesByLevel = new int[MAX_LEVEL + 1];
+	// bit i set if the grid of level i holds fences
+	private volatile int levels = 0;
+
+	/**
+	 * Add a fence. A value has one fence : adding it again replaces its fence.
+	 * @param value value returned by match for the points in the fence
+	 * @param pos center and radius of the fence
+	 * @throws IllegalArgumentException if the position is incomplete or invalid
+	 */
+	public void add(T value, HPos pos) {
+		if (!(pos.opt("lat") instanceof Number) || !(pos.opt("lng") instanceof Number)
+				|| !(pos.opt("radius") instanceof Number)) {
+			throw new IllegalArgumentException("Invalid geo fence : lat, lng and radius are mandatory");
+		}
+		add(value, pos.optDouble("lat"), pos.optDouble("lng"), pos.optDouble("radius"));
+	}
+
+	/**
+	 * Add a fence. A value has one fence : adding it again replaces its fence.
+	 * @param value value returned by match for the points in the fence
+	 * @param lat latitude of the center, in degrees
+	 * @param lng longitude of the center, in degrees
+	 * @param radius radius in meters
+	 * @throws IllegalArgumentException if the fence is invalid
+	 */
+	public synchronized void add(T value, double lat, double lng, double radius) {
+		HGeoFence fence = new HGeoFence(lat, lng, radius);
+		remove(value);
+
+		// extent of the fence in degrees. Longitudes span the whole grid near the poles
+		double latExtent = Math.toDegrees(radius / HGeoFence.EARTH_RADIUS);
+		double cosLat = Math.cos(Math.toRadians(Math.min(90, Math.abs(lat) + latExtent)));
+		double lngExtent = (cosLat > 1e-9) ? latExtent / cosLat : 360;
+
+		int level = MAX_LEVEL;
+		long[] keys;
+		while ((keys = cover(level, lat, lng, latExtent, lngExtent)) == null) {
+			level--;
+		}
+		Entry<T> entry = new Entry<T>(value, fence, level, keys);
+		entries.put(value, entry);
+		for (long key : keys) {
+			Entry<T>[] current = cells.get(key);
+			int length = (current != null) ? current.length : 0;
+			Entry<T>[] updated = newArray(length + 1);
+			if (current != null) {
+				System.arraycopy(current, 0, updated, 0, length);
+			}
+			updated[length] = entry;
+			cells.put(key, updated);
+		}
+		fencesByLevel[level]++;
+		levels |= 1 << level;
+	}
+
+	/**
+	 * Remove the fence of a value
+	 * @return true if the value had a fence
+	 */
+	public synchronized boolean remove(T value) {
+		Entry<T> entry = entries.remove(value);
+		if (entry == null) {
+			return false;
+		}
+		for (long key : entry.cells) {
+			Entry<T>[] current = cells.get(key);
+			if (current.length == 1) {
+				cells.remove(key);
+				continue;
+			}
+			Entry<T>[] updated = newArray(current.length - 1);
+			int i = 0;
+			for (Entry<T> other : current) {
+				if (other != entry) {
+					updated[i++] = other;
+				}
+			}
+			cells.put(key, updated);
+		}
+		if (--fencesByLevel[entry.level] == 0) {
+			levels &= ~(1 << entry.level);
+		}
+		return true;
+	}
+
+	/**
+	 * @param lat latitude of a point, in degrees
+	 * @param lng longitude of a point, in degrees
+	 * @return the values of the fences containing the point
+	 */
+	public List<T> match(double lat, double lng) {
+		List<T> matches = new ArrayList<T>();
+		int remaining = levels;
+		while (remaining != 0) {
+			int level = Integer.numberOfTrailingZeros(remaining);
+			remaining &= remaining - 1;
+			Entry<T>[] candidates = cells.get(key(level, row(level, lat), column(level, lng)));
+			if (candidates != null) {
+				for (Entry<T> candidate : candidates) {
+					if (candidate.fence.contains(lat, lng)) {
+						matches.add(candidate.value);
+					}
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @param message a message
+	 * @return the values of the fences containing the location.pos of the message. Empty if it is not located
+	 */
+	public List<T> match(HMessage message) {
+		JSONObject pos = HGeoFence.pos(message);
+		if (pos == null) {
+			return new ArrayList<T>(0);
+		}
+		return match(pos.optDouble("lat"), pos.optDouble("lng"));
+	}
+
+	/**
+	 * @return number of fences
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/* grids */
+
+	/**
+	 * @return keys of the cells of the grid covering the extent around the center. Null if more than MAX_CELLS
+	 */
+	private static long[] cover(int level, double lat, double lng, double latExtent, double lngExtent) {
+		int size = 1 << level;
+		int firstRow = row(level, lat - latExtent);
+		int rows = row(level, lat + latExtent) - firstRow + 1;
+		int firstColumn;
+		int columns;
+		if (lngExtent >= 180) {
+			firstColumn = 0;
+			columns = size;
+		} else {
+			// columns counted before wrapping around the date line
+			long first = (long) Math.floor((lng - lngExtent + 180) / 360 * size);
+			long last = (long) Math.floor((lng + lngExtent + 180) / 360 * size);
+			firstColumn = (int) first & (size - 1);
+			columns = (int) Math.min(size, last - first + 1);
+		}
+		if (rows * (long) columns > MAX_CELLS) {
+			return null;
+		}
+		long[] keys = new long[rows * columns];
+		int i = 0;
+		for (int row = firstRow; row < firstRow + rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				keys[i++] = key(level, row, (firstColumn + column) & (size - 1));
+			}
+		}
+		return keys;
+	}
+
+	private static int row(int level, double lat) {
+		int size = 1 << level;
+		int row = (int) Math.floor((lat + 90) / 180 * size);
+		return (row < 0) ? 0 : ((row >= size) ? size - 1 : row);
+	}
+
+	private static int column(int level, double lng) {
+		int size = 1 << level;
+		return (int) Math.floor((lng + 180) / 360 * size) & (size - 1);
+	}
+
+	private static long key(int level, int row, int column) {
+		return ((long) level << 56) | ((long) row << 28) | column;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Entry<T>[] newArray(int length) {
+		return (Entry<T>[]) new Entry<?>[length];
+	}
+}
@@ -52,11 +52,17 @@ public enum ConnectionError {
 	/**
 	 * Get constant for value
 	 * @param value
-	 * @return
+	 * @return the constant. NULL if the value is unknown
 	 */
 	public static ConnectionError constant(int value) {
 		ConnectionError [] _values = ConnectionError.values();
-		return _values[value];
+		ConnectionError _value = null;
+		for (int i = 0; i < _values.length; i++) {
+			if(_values[i].value == value){
+				_value = _values[i];
+			}
+		}
+		return _value;
 	}
 	
 }
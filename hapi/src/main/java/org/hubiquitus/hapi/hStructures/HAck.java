@@ -50,14 +50,8 @@ public class HAck extends JSONObject {
 	 * @return acknowledgement status. NULL if undefined
 	 */
 	public HAckValue getAck() {
-		HAckValue ack;
-		try {
-			String ackString = this.getString("ack");
-			ack = HAckValue.constant(ackString);
-		} catch (Exception e) {
-			ack = null;
-		}
-		return ack;
+		String ackString = this.optString("ack", null);
+		return (ackString != null) ? HAckValue.constant(ackString) : null;
 	}
 
 	public void setAck(HAckValue ack) throws MissingAttrException {
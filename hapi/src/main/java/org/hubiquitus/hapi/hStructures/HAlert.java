@@ -52,13 +52,7 @@ public class HAlert extends JSONObject {
 	 * @return alert message. NULL if undefined
 	 */
 	public String getAlert() {
-		String alert;
-		try {
-			alert = this.getString("alert");
-		} catch (Exception e) {
-			alert = null;
-		}
-		return alert;
+		return this.optString("alert", null);
 	}
 
 	public void setAlert(String alert) throws MissingAttrException {
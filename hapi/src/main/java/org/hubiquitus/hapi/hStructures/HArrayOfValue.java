@@ -18,6 +18,7 @@ public class HArrayOfValue extends JSONObject {
 	public HArrayOfValue(String name, JSONArray values){
 		super();
 		this.name = name;
+		setValues(values);
 	}
 	
 	public HArrayOfValue(String jsonString) throws JSONException{
@@ -48,13 +49,7 @@ public class HArrayOfValue extends JSONObject {
 			logger.error("message: The name of the attribute in HArrayOfValue is null or empty");
 			return null;
 		}
-		JSONArray values;
-		try {
-			values = this.getJSONArray(this.name);
-		} catch (Exception e) {
-			values = null;
-		}
-		return values;
+		return this.optJSONArray(this.name);
 	}
 	/**
 	 * Set the values of the attribute to compare with; 
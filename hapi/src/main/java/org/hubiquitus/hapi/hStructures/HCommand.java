@@ -57,13 +57,7 @@ public class HCommand extends JSONObject {
 	 * @return command. NULL if undefined
 	 */
 	public String getCmd() {
-		String cmd;
-		try {
-			cmd = this.getString("cmd");
-		} catch (JSONException e) {
-			cmd = null;
-		}
-		return cmd;
+		return this.optString("cmd", null);
 	}
 
 	public void setCmd(String cmd) throws MissingAttrException {
@@ -82,13 +76,7 @@ public class HCommand extends JSONObject {
 	 * @return params throws to the hserver. NULL if undefined
 	 */
 	public JSONObject getParams() {
-		JSONObject params;
-		try {
-			params = this.getJSONObject("params");
-		} catch (JSONException e) {
-			params = null;
-		}
-		return params;
+		return this.optJSONObject("params");
 	}
 
 	public void setParams(JSONObject params) {
@@ -1,5 +1,6 @@
 package org.hubiquitus.hapi.hStructures;
 
+import org.hubiquitus.hapi.util.HUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -28,14 +29,13 @@ public class HCondition extends JSONObject {
 			logger.error("message: \"" + operand.toString() + "\" can not apply on hValue.");
 			return null;
 		}
+		JSONObject jsonObj = this.optJSONObject(operand.toString());
+		if(!(jsonObj instanceof HValue)){
+			return null;
+		}
 		HValue value;
 		try {
-			JSONObject jsonObj = this.getJSONObject(operand.toString());
-			if(jsonObj instanceof HValue){
-				value = new HValue(this.getJSONObject(operand.toString()));
-			}else{
-				return null;
-			}
+			value = new HValue(jsonObj);
 		} catch (Exception e) {
 			value = null;
 		}
@@ -64,14 +64,13 @@ public class HCondition extends JSONObject {
 			logger.error("message: \"" + operand.toString() + "\" can not apply on hArrayOfValue.");
 			return null;
 		}
+		JSONObject jsonObj = this.optJSONObject(operand.toString());
+		if(!(jsonObj instanceof HArrayOfValue)){
+			return null;
+		}
 		HArrayOfValue values;
 		try {
-			JSONObject jsonObj = this.getJSONObject(operand.toString());
-			if(jsonObj instanceof HArrayOfValue){
-				values = new HArrayOfValue(jsonObj);
-			}else{
-				return null;
-			}
+			values = new HArrayOfValue(jsonObj);
 		} catch (Exception e) {
 			values = null;
 		}
@@ -99,14 +98,13 @@ public class HCondition extends JSONObject {
 			logger.error("message: \"" + operand.toString() + "\" can not apply on HCondition.");
 			return null;
 		}
+		JSONObject jsonObj = this.optJSONObject(operand.toString());
+		if(!(jsonObj instanceof HCondition)){
+			return null;
+		}
 		HCondition condition;
 		try {
-			JSONObject jsonObj = this.getJSONObject(operand.toString());
-			if(jsonObj instanceof HCondition){
-				condition = new HCondition(jsonObj);
-			}else{
-				return null;
-			}
+			condition = new HCondition(jsonObj);
 		} catch (Exception e) {
 			return null;
 		}
@@ -134,23 +132,22 @@ public class HCondition extends JSONObject {
 			logger.error("message: \"" + operand.toString() + "\" can not apply on HCondition Array.");
 			return null;
 		}
+		JSONArray jsonArray = this.optJSONArray(operand.toString());
+		if(jsonArray == null){
+			return null;
+		}
 		try {
-			JSONArray jsonArray = this.getJSONArray(operand.toString());
-			if(jsonArray == null){
-				return null;
-			}else{
-				JSONArray conditionArray = new JSONArray();
-				for(int i=0; i<jsonArray.length(); i++){
-					JSONObject jsonObj = jsonArray.getJSONObject(i);
-					if(jsonObj instanceof HCondition){
-						HCondition condition = new HCondition(jsonObj);
-						conditionArray.put(condition);
-					}else{
-						return null;
-					}
+			JSONArray conditionArray = new JSONArray();
+			for(int i=0; i<jsonArray.length(); i++){
+				JSONObject jsonObj = jsonArray.optJSONObject(i);
+				if(jsonObj instanceof HCondition){
+					HCondition condition = new HCondition(jsonObj);
+					conditionArray.put(condition);
+				}else{
+					return null;
 				}
-				return conditionArray;
 			}
+			return conditionArray;
 		} catch (Exception e) {
 			return null;
 		}
@@ -173,13 +170,7 @@ public class HCondition extends JSONObject {
 	}
 	
 	public Boolean getRelevant(){
-		Boolean relevant;
-		try {
-			relevant = this.getBoolean("relevant");
-		} catch (Exception e) {
-			relevant = null;
-		}
-		return relevant;
+		return HUtil.optBoolean(this, "relevant");
 	}
 	
 	public void setRelevant(Boolean relevant){
@@ -195,9 +186,13 @@ public class HCondition extends JSONObject {
 	}
 	
 	public HPos getGeo(){
+		JSONObject jsonObj = this.optJSONObject("geo");
+		if(jsonObj == null){
+			return null;
+		}
 		HPos geo;
 		try {
-			geo = new HPos(this.getJSONObject("geo"));
+			geo = new HPos(jsonObj);
 		} catch (Exception e) {
 			geo = null;
 		}
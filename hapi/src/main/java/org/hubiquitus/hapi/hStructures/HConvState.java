@@ -51,13 +51,7 @@ public class HConvState extends JSONObject {
 	 * @return topic description. NULL if undefined
 	 */
 	public String getStatus() {
-		String status;
-		try {
-			status = this.getString("status");
-		} catch (Exception e) {
-			status = null;
-		}
-		return status;
+		return this.optString("status", null);
 	}
 
 	public void setStatus(String status) throws MissingAttrException {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.hStructures;
+
+/**
+ * @version 0.5
+ * Enumeration of the policies applied when the delivery queue of the hAPI is full.
+ */
+
+public enum HDeliveryRejection {
+	/**
+	 * the transport thread waits until there is room in the delivery queue.
+	 * A delivery worker or the timer thread does not wait : its callback is queued beyond the limit
+	 */
+	BLOCK(0),
+	/**
+	 * the delegate is called directly by the transport thread (ordering is not guaranteed anymore)
+	 */
+	CALLER_RUNS(1),
+	/**
+	 * the callback is dropped and a warning is logged
+	 */
+	DISCARD(2);
+
+	private int value;
+
+	private HDeliveryRejection(int value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return int equivalent.
+	 */
+	public int value() {
+		return value;
+	}
+
+	/**
+	 * Get constant for value
+	 * @param value
+	 * @return
+	 */
+	public static HDeliveryRejection constant(int value) {
+		HDeliveryRejection [] _values = HDeliveryRejection.values();
+		return _values[value];
+	}
+}
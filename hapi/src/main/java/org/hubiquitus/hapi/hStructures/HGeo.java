@@ -1,5 +1,6 @@
 package org.hubiquitus.hapi.hStructures;
 
+import org.hubiquitus.hapi.util.HUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -29,13 +30,8 @@ public class HGeo extends JSONObject {
  * @return Longitude of the location. Null if undefined.
  */
 	public double getLng() {
-		double lng;
-		try {
-			lng = this.getDouble("lng");
-		} catch (Exception e) {
-			lng = 0;
-		}
-		return lng;
+		Double lng = HUtil.optDouble(this, "lng");
+		return (lng != null) ? lng : 0;
 	}
 
 	/**
@@ -54,13 +50,8 @@ public class HGeo extends JSONObject {
 	 * @return Latitude of the location. Null if undefined.
 	 */
 	public double getLat() {
-		double lat;
-		try {
-			lat = this.getDouble("lat");
-		} catch (Exception e) {
-			lat = 0;
-		}
-		return lat;
+		Double lat = HUtil.optDouble(this, "lat");
+		return (lat != null) ? lat : 0;
 	}
 
 	/**
@@ -46,9 +46,13 @@ public class HLocation extends JSONObject {
 	 * @return hGeo which specifies the exacte longitude and latitude of the location. Null if undefined.
 	 */
 	public HGeo getPos() {
+		JSONObject jsonObj = this.optJSONObject("pos");
+		if (jsonObj == null) {
+			return null;
+		}
 		HGeo pos;
 		try {
-			pos = new HGeo(this.getJSONObject("pos"));
+			pos = new HGeo(jsonObj);
 		} catch (Exception e) {
 			pos = null;
 		}
@@ -71,13 +75,7 @@ public class HLocation extends JSONObject {
 	 * @return the zip code of the location. NULL if undefined
 	 */
 	public String getZip() {
-		String zip;
-		try {
-			zip = this.getString("zip");
-		} catch (Exception e) {
-			zip = null;
-		}
-		return zip;
+		return this.optString("zip", null);
 	}
 
 	public void setZip(String zip) {
@@ -96,13 +94,7 @@ public class HLocation extends JSONObject {
 	 * @return the way number of the location. NULL if undefined
 	 */
 	public String getNum() {
-		String num;
-		try {
-			num = this.getString("num");
-		} catch (Exception e) {
-			num = null;
-		}
-		return num;
+		return this.optString("num", null);
 	}
 
 	public void setNum(String num) {
@@ -121,13 +113,7 @@ public class HLocation extends JSONObject {
 	 * @return the type of the way of the location. NULL if undefined
 	 */
 	public String getWayType() {
-		String wayType;
-		try {
-			wayType = this.getString("wayType");
-		} catch (Exception e) {
-			wayType = null;
-		}
-		return wayType;
+		return this.optString("wayType", null);
 	}
 
 	public void setWayType(String wayType) {
@@ -146,13 +132,7 @@ public class HLocation extends JSONObject {
 	 * @return the name of the street/way of the location. NULL if undefined
 	 */
 	public String getWay() {
-		String way;
-		try {
-			way = this.getString("way");
-		} catch (Exception e) {
-			way = null;
-		}
-		return way;
+		return this.optString("way", null);
 	}
 
 	public void setWay(String way) {
@@ -171,13 +151,7 @@ public class HLocation extends JSONObject {
 	 * @return the address complement of the location. NULL if undefined
 	 */
 	public String getAddr() {
-		String addr;
-		try {
-			addr = this.getString("addr");
-		} catch (Exception e) {
-			addr = null;
-		}
-		return addr;
+		return this.optString("addr", null);
 	}
 
 	public void setAddr(String addr) {
@@ -196,13 +170,7 @@ public class HLocation extends JSONObject {
 	 * @return the floor number of the location. NULL if undefined
 	 */
 	public String getFloor() {
-		String floor;
-		try {
-			floor = this.getString("floor");
-		} catch (Exception e) {
-			floor = null;
-		}
-		return floor;
+		return this.optString("floor", null);
 	}
 
 	public void setFloor(String floor) {
@@ -221,13 +189,7 @@ public class HLocation extends JSONObject {
 	 * @return the building’s identifier of the location. NULL if undefined
 	 */
 	public String getBuilding() {
-		String building;
-		try {
-			building = this.getString("building");
-		} catch (Exception e) {
-			building = null;
-		}
-		return building;
+		return this.optString("building", null);
 	}
 
 	public void setBuilding(String building) {
@@ -246,13 +208,7 @@ public class HLocation extends JSONObject {
 	 * @return city of the location. NULL if undefined
 	 */
 	public String getCity() {
-		String city;
-		try {
-			city = this.getString("city");
-		} catch (Exception e) {
-			city = null;
-		}
-		return city;
+		return this.optString("city", null);
 	}
 
 	public void setCity(String city) {
@@ -271,13 +227,7 @@ public class HLocation extends JSONObject {
 	 * @return countryCode of the location. NULL if undefined
 	 */
 	public String getCountryCode() {
-		String countryCode;
-		try {
-			countryCode = this.getString("countryCode");
-		} catch (Exception e) {
-			countryCode = null;
-		}
-		return countryCode;
+		return this.optString("countryCode", null);
 	}
 
 	public void setCountryCode(String countryCode) {
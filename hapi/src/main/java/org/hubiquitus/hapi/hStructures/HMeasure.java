@@ -51,13 +51,7 @@ public class HMeasure extends JSONObject {
 	 * @return unit. NULL if undefined
 	 */
 	public String getUnit() {
-		String unit;
-		try {
-			unit = this.getString("unit");
-		} catch (Exception e) {
-			unit = null;
-		}
-		return unit;
+		return this.optString("unit", null);
 	}
 
 	public void setUnit(String unit) throws MissingAttrException {
@@ -77,13 +71,7 @@ public class HMeasure extends JSONObject {
 	 * @return value. NULL if undefined
 	 */
 	public String getValue() {
-		String value;
-		try {
-			value = this.getString("value");
-		} catch (Exception e) {
-			value = null;
-		}
-		return value;
+		return this.optString("value", null);
 	}
 
 	public void setValue(String value) throws MissingAttrException {
@@ -19,7 +19,12 @@
 
 package org.hubiquitus.hapi.hStructures;
 
+import java.util.Iterator;
+
 import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.metrics.HTraceStage;
+import org.hubiquitus.hapi.util.DateISO8601;
+import org.hubiquitus.hapi.util.HUtil;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -30,18 +35,171 @@ import org.slf4j.Logger;
 /**
  * @version 0.5 
  * hAPI Command. For more info, see Hubiquitus reference
+ * The envelope attributes are kept in typed fields, updated by put and remove, so that getters do not parse the json.
+ * Dates are kept in epoch millis : the ...Millis accessors do not create date objects.
  */
 
 public class HMessage extends JSONObject {
 	
 	final Logger logger = LoggerFactory.getLogger(HMessage.class);
 
+	/* typed envelope. No initializer : they could reset values put while JSONObject is constructed */
+	private String msgid;
+	private String actor;
+	private String convid;
+	private String ref;
+	private String type;
+	private HMessagePriority priority;
+	private long timeout;
+	/* dates in epoch millis, 0 if undefined. The flags tell the epoch from an undefined date */
+	private long published;
+	private long sent;
+	private long relevance;
+	private boolean hasPublished;
+	private boolean hasSent;
+	private boolean hasRelevance;
+
+	/* in-process timestamps of the latency tracing (see HLatencyTracker). Not part of the json */
+	private long[] traceTimes;
+
+	/* typed copy of the json payload (HAlert, HResult ...), built by the first getPayloadAsXxx. Not part of the json :
+	 * getters do not write the map, as a message can be read by several threads */
+	private volatile TypedPayload typedPayload;
+
+	private static final class TypedPayload {
+		private final Object source;
+		private final JSONObject typed;
+
+		private TypedPayload(Object source, JSONObject typed) {
+			this.source = source;
+			this.typed = typed;
+		}
+	}
+
 	public HMessage() {
 		super();
 	}
 
 	public HMessage(JSONObject jsonObj) throws JSONException {
-		super(jsonObj, JSONObject.getNames(jsonObj));
+		super();
+		if (jsonObj != null) {
+			Iterator<?> it = jsonObj.keys();
+			while (it.hasNext()) {
+				String key = (String) it.next();
+				this.put(key, jsonObj.opt(key));
+			}
+		}
+	}
+
+	/* JSONObject overrides : every write goes through put(String, Object) or remove(String) */
+
+	@Override
+	public JSONObject put(String key, Object value) throws JSONException {
+		super.put(key, value);
+		if (value != null) {
+			updateEnvelope(key, value);
+		}
+		return this;
+	}
+
+	@Override
+	public Object remove(String key) {
+		Object value = super.remove(key);
+		if (key != null) {
+			updateEnvelope(key, null);
+		}
+		return value;
+	}
+
+	private void updateEnvelope(String key, Object value) {
+		if (key.equals("msgid")) {
+			msgid = toStringValue(value);
+		} else if (key.equals("actor")) {
+			actor = toStringValue(value);
+		} else if (key.equals("convid")) {
+			convid = toStringValue(value);
+		} else if (key.equals("ref")) {
+			ref = toStringValue(value);
+		} else if (key.equals("type")) {
+			type = toStringValue(value);
+		} else if (key.equals("priority")) {
+			Number priorityValue = HUtil.toNumber(value);
+			int priorityInt = (priorityValue != null) ? priorityValue.intValue() : -1;
+			if (priorityInt < 0 || priorityInt > 5) {
+				priority = null;
+			} else {
+				priority = HMessagePriority.constant(priorityInt);
+			}
+		} else if (key.equals("timeout")) {
+			Number timeoutValue = HUtil.toNumber(value);
+			timeout = (timeoutValue != null) ? timeoutValue.longValue() : 0;
+		} else if (key.equals("published")) {
+			long millis = toMillis(value);
+			hasPublished = (millis != UNDEFINED_MILLIS);
+			published = hasPublished ? millis : 0;
+		} else if (key.equals("sent")) {
+			long millis = toMillis(value);
+			hasSent = (millis != UNDEFINED_MILLIS);
+			sent = hasSent ? millis : 0;
+		} else if (key.equals("relevance")) {
+			long millis = toMillis(value);
+			hasRelevance = (millis != UNDEFINED_MILLIS);
+			relevance = hasRelevance ? millis : 0;
+		} else if (key.equals("payload")) {
+			typedPayload = null;
+		}
+	}
+
+	/**
+	 * @return the typed copy of payload built by a previous getter. NULL if none, or if payload was replaced since
+	 */
+	private JSONObject cachedPayload(Object payload) {
+		TypedPayload cached = typedPayload;
+		return (cached != null && cached.source == payload) ? cached.typed : null;
+	}
+
+	/* returned by toMillis when there is no valid date. Out of the range of the ISO 8601 dates */
+	private static final long UNDEFINED_MILLIS = Long.MIN_VALUE;
+
+	/**
+	 * Dates are DateTime when set by the application, ISO 8601 strings when received
+	 */
+	private long toMillis(Object value) {
+		if (value instanceof DateTime) {
+			return ((DateTime) value).getMillis();
+		} else if (value instanceof String) {
+			try {
+				return DateISO8601.parse((String) value);
+			} catch (IllegalArgumentException e) {
+				logger.warn("message: ", e);
+			}
+		} else if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return UNDEFINED_MILLIS;
+	}
+
+	/**
+	 * Put a date as an ISO 8601 string, without parsing it back
+	 */
+	private void putMillis(String key, long millis) {
+		try {
+			super.put(key, DateISO8601.format(millis));
+		} catch (JSONException e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	private DateTime toDateTime(String key, boolean defined, long millis) {
+		if (!defined) {
+			return null;
+		}
+		Object value = this.opt(key);
+		return (value instanceof DateTime) ? (DateTime) value : new DateTime(millis);
+	}
+
+	private static String toStringValue(Object value) {
+		return (value != null) ? value.toString() : null;
 	}
 
 	/* Getters & Setters */
@@ -51,12 +209,6 @@ public class HMessage extends JSONObject {
 	 * @return message id. NULL if undefined
 	 */
 	public String getMsgid() {
-		String msgid;
-		try {
-			msgid = this.getString("msgid");
-		} catch (Exception e) {
-			msgid = null;
-		}
 		return msgid;
 	}
 
@@ -79,12 +231,6 @@ public class HMessage extends JSONObject {
 	 * @return actor. NULL if undefined
 	 */
 	public String getActor() {
-		String actor;
-		try {
-			actor = this.getString("actor");
-		} catch (Exception e) {
-			actor = null;
-		}
 		return actor;
 	}
 
@@ -105,12 +251,6 @@ public class HMessage extends JSONObject {
 	 * @return conversation id. NULL if undefined
 	 */
 	public String getConvid() {
-		String convid;
-		try {
-			convid = this.getString("convid");
-		} catch (Exception e) {
-			convid = null;
-		}
 		return convid;
 	}
 
@@ -130,12 +270,6 @@ public class HMessage extends JSONObject {
 	 * @return reference to another hMessage msgid. NULL if undefined.
 	 */
 	public String getRef() {
-		String ref;
-		try {
-			ref = this.getString("ref");
-		} catch (Exception e) {
-			ref = null;
-		}
 		return ref;
 	}
 
@@ -156,12 +290,6 @@ public class HMessage extends JSONObject {
 	 * @return type of the message payload. NULL if undefined
 	 */
 	public String getType() {
-		String type;
-		try {
-			type = this.getString("type");
-		} catch (Exception e) {
-			type = null;
-		}
 		return type;
 	}
 
@@ -181,17 +309,6 @@ public class HMessage extends JSONObject {
 	 * @return Priority.If UNDEFINED, priority lower to 0.
 	 */
 	public HMessagePriority getPriority() {
-		HMessagePriority priority;
-		try {
-			int priorityInt = this.getInt("priority");
-			if (priorityInt < 0 || priorityInt > 5) {
-				priority = null;
-			} else {
-				priority = HMessagePriority.constant(priorityInt);
-			}
-		} catch (Exception e1) {
-			priority = null;
-		}
 		return priority;
 	}
 
@@ -212,15 +329,32 @@ public class HMessage extends JSONObject {
 	 * @return relevance. NULL if undefined
 	 */
 	public DateTime getRelevance() {
-		DateTime relevance;
-		try {
-			relevance = (DateTime)this.get("relevance");
-		} catch (Exception e) {
-			relevance = null;
-		}
+		return toDateTime("relevance", hasRelevance, relevance);
+	}
+
+	/**
+	 * @return relevance in epoch millis. 0 if undefined (see hasRelevance)
+	 */
+	public long getRelevanceMillis() {
 		return relevance;
 	}
 
+	/**
+	 * @return true if relevance is defined, even at the epoch
+	 */
+	public boolean hasRelevance() {
+		return hasRelevance;
+	}
+
+	/**
+	 * @param relevance relevance in epoch millis. Use setRelevance(null) to remove it
+	 */
+	public void setRelevanceMillis(long relevance) {
+		putMillis("relevance", relevance);
+		this.relevance = relevance;
+		this.hasRelevance = true;
+	}
+
 	public void setRelevance(DateTime relevance) {
 		try {
 			if (relevance == null) {
@@ -237,13 +371,7 @@ public class HMessage extends JSONObject {
 	 * @return persist message or not. NULL if undefined
 	 */
 	public Boolean getPersistent() {
-		Boolean persistent;
-		try {
-			persistent = this.getBoolean("persistent");
-		} catch (JSONException e) {
-			persistent = null;
-		}
-		return persistent;
+		return HUtil.optBoolean(this, "persistent");
 	}
 
 	public void setPersistent(Boolean persistent) {
@@ -263,10 +391,14 @@ public class HMessage extends JSONObject {
 	 * @return location. NULL if undefined
 	 */
 	public HLocation getLocation() {
+		JSONObject jsonObj = this.optJSONObject("location");
+		if (jsonObj == null) {
+			return null;
+		}
 		HLocation location;
 		try {
-			if(this.getJSONObject("location").length() > 0){
-				location = new HLocation(this.getJSONObject("location"));
+			if(jsonObj.length() > 0){
+				location = new HLocation(jsonObj);
 			}else{
 				location = new HLocation();
 			}
@@ -292,13 +424,7 @@ public class HMessage extends JSONObject {
 	 * @return author of this message. NULL if undefined
 	 */
 	public String getAuthor() {
-		String author;
-		try {
-			author = this.getString("author");
-		} catch (Exception e) {
-			author = null;
-		}
-		return author;
+		return this.optString("author", null);
 	}
 
 	public void setAuthor(String author) {
@@ -317,13 +443,7 @@ public class HMessage extends JSONObject {
 	 * @return publisher of this message. NULL if undefined
 	 */
 	public String getPublisher() {
-		String publisher;
-		try {
-			publisher = this.getString("publisher");
-		} catch (Exception e) {
-			publisher = null;
-		}
-		return publisher;
+		return this.optString("publisher", null);
 	}
 
 	public void setPublisher(String publisher){
@@ -342,15 +462,32 @@ public class HMessage extends JSONObject {
 	 * @return published. NULL if undefined
 	 */
 	public DateTime getPublished() {
-		DateTime published;
-		try {
-			published = (DateTime) this.get("published");
-		} catch (JSONException e) {
-			published = null;
-		}
+		return toDateTime("published", hasPublished, published);
+	}
+
+	/**
+	 * @return published in epoch millis. 0 if undefined (see hasPublished)
+	 */
+	public long getPublishedMillis() {
 		return published;
 	}
 
+	/**
+	 * @return true if published is defined, even at the epoch
+	 */
+	public boolean hasPublished() {
+		return hasPublished;
+	}
+
+	/**
+	 * @param published published in epoch millis. Use setPublished(null) to remove it
+	 */
+	public void setPublishedMillis(long published) {
+		putMillis("published", published);
+		this.published = published;
+		this.hasPublished = true;
+	}
+
 	public void setPublished(DateTime published) {
 		try {
 			if (published == null) {
@@ -368,14 +505,7 @@ public class HMessage extends JSONObject {
 	 * @return Headers. NULL if undefined
 	 */
 	public JSONObject getHeaders() {
-		// HJsonDictionnary headers = new HJsonDictionnary();
-		JSONObject headers = null;
-		try {
-			headers = this.getJSONObject("headers");
-		} catch (JSONException e) {
-			headers = null;
-		}
-		return headers;
+		return this.optJSONObject("headers");
 	}
 
 	public void setHeaders(JSONObject headers) {
@@ -395,13 +525,7 @@ public class HMessage extends JSONObject {
 	 * @return payload reference. NULL if undefined
 	 */
 	public Object getPayload() {
-		Object payload;
-		try {
-			payload = this.get("payload");
-		} catch (JSONException e) {
-			payload = null;
-		}
-		return payload;
+		return this.opt("payload");
 	}
 
 	/**
@@ -410,13 +534,7 @@ public class HMessage extends JSONObject {
 	 */
 
 	public JSONObject getPayloadAsJSONObject() {
-		JSONObject payload;
-		try {
-			payload = this.getJSONObject("payload");
-		} catch (JSONException e) {
-			payload = null;
-		}
-		return payload;
+		return this.optJSONObject("payload");
 	}
 
 	/**
@@ -424,13 +542,7 @@ public class HMessage extends JSONObject {
 	 * @return payload reference. NULL if undefined
 	 */
 	public JSONArray getPayloadAsJSONArray() {
-		JSONArray payload;
-		try {
-			payload = this.getJSONArray("payload");
-		} catch (JSONException e) {
-			payload = null;
-		}
-		return payload;
+		return this.optJSONArray("payload");
 	}
 
 	/**
@@ -438,13 +550,7 @@ public class HMessage extends JSONObject {
 	 * @return payload reference. NULL if undefined
 	 */
 	public String getPayloadAsString() {
-		String payload;
-		try {
-			payload = this.getString("payload");
-		} catch (JSONException e) {
-			payload = null;
-		}
-		return payload;
+		return this.optString("payload", null);
 	}
 
 	/**
@@ -452,13 +558,7 @@ public class HMessage extends JSONObject {
 	 * @return payload reference. Null if undefined
 	 */
 	public Boolean getPayloadAsBoolean() {
-		Boolean payload;
-		try {
-			payload = this.getBoolean("payload");
-		} catch (JSONException e) {
-			payload = null;
-		}
-		return payload;
+		return HUtil.optBoolean(this, "payload");
 	}
 
 	/**
@@ -466,13 +566,7 @@ public class HMessage extends JSONObject {
 	 * @return payload reference. Null if undefined.
 	 */
 	public Integer getPayloadAsInt() {
-		Integer payload;
-		try {
-			payload = this.getInt("payload");
-		} catch (JSONException e) {
-			payload = null;
-		}
-		return payload;
+		return HUtil.optInteger(this, "payload");
 	}
 
 	/**
@@ -480,27 +574,33 @@ public class HMessage extends JSONObject {
 	 * @return payload reference, Null if undefined.
 	 */
 	public Double getPayloadAsDouble() {
-		Double payload;
-		try {
-			payload = this.getDouble("payload");
-		} catch (JSONException e) {
-			payload = null;
-		}
-		return payload;
+		return HUtil.optDouble(this, "payload");
 	}
 
 	/**
 	 * if payload type is HAlert. if not return null.
-	 * @return HAlert copy. NULL if undefined
+	 * @return HAlert. NULL if undefined
 	 */
 	public HAlert getPayloadAsHAlert() {
+		if (!"halert".equalsIgnoreCase(this.getType())) {
+			return null;
+		}
+		Object payload = this.opt("payload");
+		if (payload instanceof HAlert) {
+			return (HAlert) payload;
+		}
+		JSONObject cached = cachedPayload(payload);
+		if (cached instanceof HAlert) {
+			return (HAlert) cached;
+		}
+		if (!(payload instanceof JSONObject)) {
+			return null;
+		}
 		try {
-			if (this.getType().toLowerCase().equalsIgnoreCase("halert")) {
-				HAlert halert = new HAlert(this.getJSONObject("payload"));
-				return halert;
-			} else {
-				return null;
-			}
+			// built once, later calls return the same copy
+			HAlert halert = new HAlert((JSONObject) payload);
+			typedPayload = new TypedPayload(payload, halert);
+			return halert;
 		} catch (Exception e) {
 			return null;
 		}
@@ -508,16 +608,28 @@ public class HMessage extends JSONObject {
 
 	/**
 	 * if payload type is HAck, if not return null.
-	 * @return HAck copy. Null if undefined.
+	 * @return HAck. Null if undefined.
 	 */
 	public HAck getPayloadAsHAck() {
+		if (!"hack".equalsIgnoreCase(this.getType())) {
+			return null;
+		}
+		Object payload = this.opt("payload");
+		if (payload instanceof HAck) {
+			return (HAck) payload;
+		}
+		JSONObject cached = cachedPayload(payload);
+		if (cached instanceof HAck) {
+			return (HAck) cached;
+		}
+		if (!(payload instanceof JSONObject)) {
+			return null;
+		}
 		try {
-			if (this.getType().toLowerCase().equalsIgnoreCase("hack")) {
-				HAck hack = new HAck(this.getJSONObject("payload"));
-				return hack;
-			} else {
-				return null;
-			}
+			// built once, later calls return the same copy
+			HAck hack = new HAck((JSONObject) payload);
+			typedPayload = new TypedPayload(payload, hack);
+			return hack;
 		} catch (Exception e) {
 			return null;
 		}
@@ -525,16 +637,28 @@ public class HMessage extends JSONObject {
 
 	/**
 	 * if payload is HMeasure, if not return null.
-	 * @return HMeasure copy. Null if undefined.
+	 * @return HMeasure. Null if undefined.
 	 */
 	public HMeasure getPayloadAsHmeasure() {
+		if (!"hmeasure".equalsIgnoreCase(this.getType())) {
+			return null;
+		}
+		Object payload = this.opt("payload");
+		if (payload instanceof HMeasure) {
+			return (HMeasure) payload;
+		}
+		JSONObject cached = cachedPayload(payload);
+		if (cached instanceof HMeasure) {
+			return (HMeasure) cached;
+		}
+		if (!(payload instanceof JSONObject)) {
+			return null;
+		}
 		try {
-			if (this.getType().toLowerCase().equalsIgnoreCase("hmeasure")) {
-				HMeasure hmeasure = new HMeasure(this.getJSONObject("payload"));
-				return hmeasure;
-			} else {
-				return null;
-			}
+			// built once, later calls return the same copy
+			HMeasure hmeasure = new HMeasure((JSONObject) payload);
+			typedPayload = new TypedPayload(payload, hmeasure);
+			return hmeasure;
 		} catch (Exception e) {
 			return null;
 		}
@@ -542,17 +666,28 @@ public class HMessage extends JSONObject {
 
 	/**
 	 * if payload is HConvState, if not return null.
-	 * @return HConvState copy. Null if undefined.
+	 * @return HConvState. Null if undefined.
 	 */
 	public HConvState getPayloadAsHConvState() {
+		if (!"hconvstate".equalsIgnoreCase(this.getType())) {
+			return null;
+		}
+		Object payload = this.opt("payload");
+		if (payload instanceof HConvState) {
+			return (HConvState) payload;
+		}
+		JSONObject cached = cachedPayload(payload);
+		if (cached instanceof HConvState) {
+			return (HConvState) cached;
+		}
+		if (!(payload instanceof JSONObject)) {
+			return null;
+		}
 		try {
-			if (this.getType().toLowerCase().equalsIgnoreCase("hconvstate")) {
-				HConvState hconvstate = new HConvState(
-						this.getJSONObject("payload"));
-				return hconvstate;
-			} else {
-				return null;
-			}
+			// built once, later calls return the same copy
+			HConvState hconvstate = new HConvState((JSONObject) payload);
+			typedPayload = new TypedPayload(payload, hconvstate);
+			return hconvstate;
 		} catch (Exception e) {
 			return null;
 		}
@@ -560,16 +695,28 @@ public class HMessage extends JSONObject {
 
 	/**
 	 * if payload is HResult, if not return null.
-	 * @return HResult copy. Null if undefined.
+	 * @return HResult. Null if undefined.
 	 */
 	public HResult getPayloadAsHResult() {
+		if (!"hresult".equalsIgnoreCase(this.getType())) {
+			return null;
+		}
+		Object payload = this.opt("payload");
+		if (payload instanceof HResult) {
+			return (HResult) payload;
+		}
+		JSONObject cached = cachedPayload(payload);
+		if (cached instanceof HResult) {
+			return (HResult) cached;
+		}
+		if (!(payload instanceof JSONObject)) {
+			return null;
+		}
 		try {
-			if (this.getType().toLowerCase().equalsIgnoreCase("hresult")) {
-				HResult hresult = new HResult(this.getJSONObject("payload"));
-				return hresult;
-			} else {
-				return null;
-			}
+			// built once, later calls return the same copy
+			HResult hresult = new HResult((JSONObject) payload);
+			typedPayload = new TypedPayload(payload, hresult);
+			return hresult;
 		} catch (Exception e) {
 			return null;
 		}
@@ -577,16 +724,28 @@ public class HMessage extends JSONObject {
 
 	/**
 	 * if payload is HCommand, if not return null.
-	 * @return HCommand copy. Null if undefined.
+	 * @return HCommand. Null if undefined.
 	 */
 	public HCommand getPayloadAsHCommand() {
+		if (!"hcommand".equalsIgnoreCase(this.getType())) {
+			return null;
+		}
+		Object payload = this.opt("payload");
+		if (payload instanceof HCommand) {
+			return (HCommand) payload;
+		}
+		JSONObject cached = cachedPayload(payload);
+		if (cached instanceof HCommand) {
+			return (HCommand) cached;
+		}
+		if (!(payload instanceof JSONObject)) {
+			return null;
+		}
 		try {
-			if (this.getType().toLowerCase().equalsIgnoreCase("hcommand")) {
-				HCommand hcommand = new HCommand(this.getJSONObject("payload"));
-				return hcommand;
-			} else {
-				return null;
-			}
+			// built once, later calls return the same copy
+			HCommand hcommand = new HCommand((JSONObject) payload);
+			typedPayload = new TypedPayload(payload, hcommand);
+			return hcommand;
 		} catch (Exception e) {
 			return null;
 		}
@@ -755,12 +914,6 @@ public class HMessage extends JSONObject {
 	 * @return timeout. 0 if undefined.
 	 */
 	public long getTimeout() {
-		Integer timeout;
-		try {
-			timeout = this.getInt("timeout");
-		} catch (Exception e) {
-			timeout = 0;
-		}
 		return timeout;
 	}
 
@@ -780,15 +933,32 @@ public class HMessage extends JSONObject {
 	 * @return sent. Null if undefined.
 	 */
 	public DateTime getSent() {
-		DateTime sent;
-		try {
-			sent = (DateTime) this.get("sent");
-		} catch (Exception e) {
-			sent = null;
-		}
+		return toDateTime("sent", hasSent, sent);
+	}
+
+	/**
+	 * @return sent in epoch millis. 0 if undefined (see hasSent)
+	 */
+	public long getSentMillis() {
 		return sent;
 	}
 
+	/**
+	 * @return true if sent is defined, even at the epoch
+	 */
+	public boolean hasSent() {
+		return hasSent;
+	}
+
+	/**
+	 * @param sent sent in epoch millis. Use setSent(null) to remove it
+	 */
+	public void setSentMillis(long sent) {
+		putMillis("sent", sent);
+		this.sent = sent;
+		this.hasSent = true;
+	}
+
 	public void setSent(DateTime sent){
 		try {
 			if (sent == null) {
@@ -800,4 +970,25 @@ public class HMessage extends JSONObject {
 			logger.warn("message: ", e);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @param stage a stage of the latency tracing
+	 * @return System.nanoTime() when the message reached this stage in this process. 0 if not traced
+	 */
+	public long getTraceTime(HTraceStage stage) {
+		long[] times = traceTimes;
+		return (times == null) ? 0 : times[stage.ordinal()];
+	}
+
+	/**
+	 * Kept in memory only : trace times are not sent with the message
+	 * @param stage a stage of the latency tracing
+	 * @param nanos System.nanoTime() when the message reached this stage
+	 */
+	public void setTraceTime(HTraceStage stage, long nanos) {
+		if (traceTimes == null) {
+			traceTimes = new long[HTraceStage.values().length];
+		}
+		traceTimes[stage.ordinal()] = nanos;
+	}
+}
@@ -19,6 +19,7 @@
 
 package org.hubiquitus.hapi.hStructures;
 
+import org.hubiquitus.hapi.util.HUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -45,21 +46,25 @@ public class HOptions extends JSONObject {
 		this.setEndpoints(options.getEndpoints());
 		this.setTransport(options.getTransport());
 		this.setTimeout(options.getTimeout());
+		this.setDeliveryThreads(options.getDeliveryThreads());
+		this.setDeliveryQueueSize(options.getDeliveryQueueSize());
+		this.setDeliveryRejection(options.getDeliveryRejection());
+		this.setBatchSize(options.getBatchSize());
+		this.setBatchWindow(options.getBatchWindow());
+		this.setSessionsPerConnection(options.getSessionsPerConnection());
+		this.setOutboundQueueSize(options.getOutboundQueueSize());
+		this.setOutboundOverflow(options.getOutboundOverflow());
+		this.setOutboundSpillDirectory(options.getOutboundSpillDirectory());
+		this.setMetrics(options.getMetrics());
 	}
 
 	/* Getters & Setters */
 
 	/**
-	 * Transport layer used to connect to hNode (ie : socketio)
+	 * Transport layer used to connect to hNode (ie : socketio, websocket for the non blocking client sharing one selector thread, loopback for an in-process hNode)
 	 */
 	public String getTransport() {
-		String transport;
-		try {
-			transport = this.getString("transport");
-		} catch (Exception e) {
-			transport = "socketio";
-		}
-		return transport;
+		return this.optString("transport", "socketio");
 	}
 
 	public void setTransport(String transport) {
@@ -78,10 +83,8 @@ public class HOptions extends JSONObject {
 
 	
 	public JSONArray getEndpoints() {
-		JSONArray endpoints;
-		try {
-			endpoints = this.getJSONArray("endpoints");
-		} catch (Exception e) {
+		JSONArray endpoints = this.optJSONArray("endpoints");
+		if (endpoints == null) {
 			logger.warn("message: endpoints is null or empty while it is mandatory. so an endpoints with http://localhost:8080 is returned");
 			endpoints = new JSONArray();
 			endpoints.put("http://localhost:8080");
@@ -102,13 +105,8 @@ public class HOptions extends JSONObject {
 	}
 	
 	public int getTimeout(){
-		int timeout;
-		try {
-			timeout = this.getInt("timeout");
-		} catch (Exception e) {
-			timeout = 30000;
-		}
-		return timeout;
+		Integer timeout = HUtil.optInteger(this, "timeout");
+		return (timeout != null) ? timeout : 30000;
 	}
 	
 	public void setTimeout(int timeout){
@@ -123,5 +121,223 @@ public class HOptions extends JSONObject {
 		}
 	}
 
+	/**
+	 * Number of threads used to call the message and status delegates.
+	 * 0 means delegates are called directly by the transport thread.
+	 * @return number of delivery threads. By default, the number of available processors
+	 */
+	public int getDeliveryThreads(){
+		Integer deliveryThreads = HUtil.optInteger(this, "deliveryThreads");
+		return (deliveryThreads != null) ? deliveryThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	public void setDeliveryThreads(int deliveryThreads){
+		try {
+			if(deliveryThreads >= 0){
+				this.put("deliveryThreads", deliveryThreads);
+			}else{
+				this.remove("deliveryThreads");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Maximum number of callbacks waiting to be delivered to the delegates.
+	 * @return delivery queue size. 10000 by default
+	 */
+	public int getDeliveryQueueSize(){
+		Integer deliveryQueueSize = HUtil.optInteger(this, "deliveryQueueSize");
+		return (deliveryQueueSize != null) ? deliveryQueueSize : 10000;
+	}
+
+	public void setDeliveryQueueSize(int deliveryQueueSize){
+		try {
+			if(deliveryQueueSize > 0){
+				this.put("deliveryQueueSize", deliveryQueueSize);
+			}else{
+				this.put("deliveryQueueSize", 10000);
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Policy applied when the delivery queue is full.
+	 * @return delivery rejection policy. BLOCK by default
+	 */
+	public HDeliveryRejection getDeliveryRejection(){
+		Integer deliveryRejection = HUtil.optInteger(this, "deliveryRejection");
+		if (deliveryRejection == null || deliveryRejection < 0 || deliveryRejection >= HDeliveryRejection.values().length) {
+			return HDeliveryRejection.BLOCK;
+		}
+		return HDeliveryRejection.constant(deliveryRejection);
+	}
+
+	public void setDeliveryRejection(HDeliveryRejection deliveryRejection){
+		try {
+			if(deliveryRejection != null){
+				this.put("deliveryRejection", deliveryRejection.value());
+			}else{
+				this.remove("deliveryRejection");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Maximum number of messages coalesced by the transport in one frame.
+	 * Batching is used only if batchSize is greater than 1 and batchWindow is set. It requires an hNode accepting arrays of hMessages.
+	 * @return batch size. 1 (no batching) by default
+	 */
+	public int getBatchSize(){
+		Integer batchSize = HUtil.optInteger(this, "batchSize");
+		return (batchSize != null) ? batchSize : 1;
+	}
+
+	public void setBatchSize(int batchSize){
+		try {
+			if(batchSize > 1){
+				this.put("batchSize", batchSize);
+			}else{
+				this.remove("batchSize");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Maximum time in ms a message waits for the batch to fill before the batch is sent.
+	 * @return batch window in ms. 0 (no batching) by default
+	 */
+	public long getBatchWindow(){
+		Long batchWindow = HUtil.optLong(this, "batchWindow");
+		return (batchWindow != null) ? batchWindow : 0;
+	}
+
+	public void setBatchWindow(long batchWindow){
+		try {
+			if(batchWindow > 0){
+				this.put("batchWindow", batchWindow);
+			}else{
+				this.remove("batchWindow");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Maximum number of clients of the process sharing one connection to an hNode endpoint (websocket transport only).
+	 * Each client keeps its own session, on the socket.io namespace of its full jid under the endpoint path
+	 * (ie : /user@domain/resource) : the hNode must serve these namespaces.
+	 * @return sessions per connection. 1 (one connection per client) by default
+	 */
+	public int getSessionsPerConnection(){
+		Integer sessionsPerConnection = HUtil.optInteger(this, "sessionsPerConnection");
+		return (sessionsPerConnection != null) ? sessionsPerConnection : 1;
+	}
+
+	public void setSessionsPerConnection(int sessionsPerConnection){
+		try {
+			if(sessionsPerConnection > 1){
+				this.put("sessionsPerConnection", sessionsPerConnection);
+			}else{
+				this.remove("sessionsPerConnection");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Maximum number of messages kept while the client is connecting or reconnecting. They are sent once connected.
+	 * 0 means messages sent while not connected are refused with a NOT_CONNECTED error, as without the queue.
+	 * @return outbound queue size. 0 (no queue) by default
+	 */
+	public int getOutboundQueueSize(){
+		Integer outboundQueueSize = HUtil.optInteger(this, "outboundQueueSize");
+		return (outboundQueueSize != null) ? outboundQueueSize : 0;
+	}
+
+	public void setOutboundQueueSize(int outboundQueueSize){
+		try {
+			if(outboundQueueSize >= 0){
+				this.put("outboundQueueSize", outboundQueueSize);
+			}else{
+				this.remove("outboundQueueSize");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Policy applied when the outbound queue is full.
+	 * @return outbound overflow policy. FAIL_FAST by default
+	 */
+	public HOutboundOverflow getOutboundOverflow(){
+		Integer outboundOverflow = HUtil.optInteger(this, "outboundOverflow");
+		if (outboundOverflow == null || outboundOverflow < 0 || outboundOverflow >= HOutboundOverflow.values().length) {
+			return HOutboundOverflow.FAIL_FAST;
+		}
+		return HOutboundOverflow.constant(outboundOverflow);
+	}
+
+	public void setOutboundOverflow(HOutboundOverflow outboundOverflow){
+		try {
+			if(outboundOverflow != null){
+				this.put("outboundOverflow", outboundOverflow.value());
+			}else{
+				this.remove("outboundOverflow");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Directory where the messages which do not fit in the outbound queue are written, instead of applying the overflow policy.
+	 * @return spill directory. Null (no spill) by default
+	 */
+	public String getOutboundSpillDirectory(){
+		return this.optString("outboundSpillDirectory", null);
+	}
+
+	public void setOutboundSpillDirectory(String outboundSpillDirectory){
+		try {
+			if(outboundSpillDirectory != null && outboundSpillDirectory.length() > 0){
+				this.put("outboundSpillDirectory", outboundSpillDirectory);
+			}else{
+				this.remove("outboundSpillDirectory");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * Collect the metrics of the client (see HClient.getMetrics) and expose them in JMX. False by default.
+	 */
+	public boolean getMetrics(){
+		Boolean metrics = HUtil.optBoolean(this, "metrics");
+		return (metrics != null) ? metrics : false;
+	}
+
+	public void setMetrics(boolean metrics){
+		try {
+			if(metrics){
+				this.put("metrics", true);
+			}else{
+				this.remove("metrics");
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
 
-}
\ No newline at end of file
+}
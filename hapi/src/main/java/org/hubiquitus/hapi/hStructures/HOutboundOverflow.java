@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.hStructures;
+
+/**
+ * @version 0.5
+ * Enumeration of the policies applied when the outbound queue of the hAPI is full.
+ * The outbound queue keeps the messages sent while the connection is being established or restored.
+ */
+
+public enum HOutboundOverflow {
+	/**
+	 * the sender waits until there is room in the queue, at most the timeout of the HOptions
+	 */
+	BLOCK(0),
+	/**
+	 * the message is refused : its delegate gets an hResult NOT_CONNECTED
+	 */
+	FAIL_FAST(1),
+	/**
+	 * the oldest message of the lowest priority is dropped to make room (or the new message if all the queued messages have a higher priority)
+	 */
+	DROP_OLDEST(2);
+
+	private int value;
+
+	private HOutboundOverflow(int value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return int equivalent.
+	 */
+	public int value() {
+		return value;
+	}
+
+	/**
+	 * Get constant for value
+	 * @param value
+	 * @return
+	 */
+	public static HOutboundOverflow constant(int value) {
+		HOutboundOverflow [] _values = HOutboundOverflow.values();
+		return _values[value];
+	}
+}
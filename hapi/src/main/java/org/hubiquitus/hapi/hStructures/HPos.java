@@ -1,5 +1,6 @@
 package org.hubiquitus.hapi.hStructures;
 
+import org.hubiquitus.hapi.util.HUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -22,12 +23,9 @@ public class HPos extends JSONObject {
 	 * The latitude . Mandatory
 	 */
 	public Double getLat() {
-		Double lat;
-		try {
-			lat = this.getDouble("lat");
-		} catch (Exception e) {
+		Double lat = HUtil.optDouble(this, "lat");
+		if (lat == null) {
 			logger.error("messag: lat is mandatory in HPos.");
-			lat = null;
 		}
 		return lat;
 	}
@@ -44,12 +42,9 @@ public class HPos extends JSONObject {
 	 * The longitude. Mandatory
 	 */
 	public Double getLng() {
-		Double lng;
-		try {
-			lng = this.getDouble("lng");
-		} catch (Exception e) {
+		Double lng = HUtil.optDouble(this, "lng");
+		if (lng == null) {
 			logger.error("messag: lng is mandatory in HPos.");
-			lng = null;
 		}
 		return lng;
 	}
@@ -66,12 +61,9 @@ public class HPos extends JSONObject {
 	 * The radius expressed in meters. Mandatory
 	 */
 	public Double getRadius() {
-		Double radius;
-		try {
-			radius = this.getDouble("radius");
-		} catch (Exception e) {
+		Double radius = HUtil.optDouble(this, "radius");
+		if (radius == null) {
 			logger.error("messag: lat is mandatory in HPos.");
-			radius = null;
 		}
 		return radius;
 	}
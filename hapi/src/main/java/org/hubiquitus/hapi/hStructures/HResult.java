@@ -20,6 +20,7 @@
 package org.hubiquitus.hapi.hStructures;
 
 import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.util.HUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -50,13 +51,11 @@ public class HResult extends JSONObject {
 	 * @return status. NULL if undefined
 	 */
 	public ResultStatus getStatus() {
-		ResultStatus reqid;
-		try {
-			reqid = ResultStatus.constant(this.getInt("status"));
-		} catch (Exception e1) {
-			reqid = null;
+		Integer reqid = HUtil.optInteger(this, "status");
+		if (reqid == null) {
+			return null;
 		}
-		return reqid;
+		return ResultStatus.constant(reqid);
 	}
 
 	public void setStatus(ResultStatus status) throws MissingAttrException {
@@ -76,13 +75,7 @@ public class HResult extends JSONObject {
 	 * @return result of a command operation or a subscriptions operation.
 	 */
 	public Object getResult() {
-		Object result;
-		try {
-			result = this.get("result");
-		} catch (JSONException e) {
-			result = null;
-		}
-		return result;
+		return this.opt("result");
 	}
 	
 	/**
@@ -90,26 +83,14 @@ public class HResult extends JSONObject {
 	 * @return result of a command operation or a subscriptions operation.
 	 */
 	public JSONObject getResultAsJSONObject() {
-		JSONObject result;
-		try {
-			result = this.getJSONObject("result");
-		} catch (JSONException e) {
-			result = null;
-		}
-		return result;
+		return this.optJSONObject("result");
 	}
 
 	/**
 	 * if result type is a JSONArray
 	 */
 	public JSONArray getResultAsJSONArray() {
-		JSONArray result;
-		try {
-			result = this.getJSONArray("result");
-		} catch (JSONException e) {
-			result = null;
-		}
-		return result;
+		return this.optJSONArray("result");
 	}
 
 	/**
@@ -117,52 +98,28 @@ public class HResult extends JSONObject {
 	 * @return result of a command operation or a subscriptions operation.
 	 */
 	public String getResultAsString() {
-		String result;
-		try {
-			result = this.getString("result");
-		} catch (JSONException e) {
-			result = null;
-		}
-		return result;
+		return this.optString("result", null);
 	}
 
 	/**
 	 * if result type is Boolean
 	 */
 	public Boolean getResultAsBoolean() {
-		Boolean result;
-		try {
-			result = this.getBoolean("result");
-		} catch (JSONException e) {
-			result = null;
-		}
-		return result;
+		return HUtil.optBoolean(this, "result");
 	}
 
 	/**
 	 * if result type is Integer
 	 */
 	public Integer getResultAsInt() {
-		Integer result;
-		try {
-			result = this.getInt("result");
-		} catch (JSONException e) {
-			result = null;
-		}
-		return result;
+		return HUtil.optInteger(this, "result");
 	}
 
 	/**
 	 * if result type is Double
 	 */
 	public Double getResultAsDouble() {
-		Double result;
-		try {
-			result = this.getDouble("result");
-		} catch (JSONException e) {
-			result = null;
-		}
-		return result;
+		return HUtil.optDouble(this, "result");
 	}
 
 	
@@ -20,6 +20,7 @@
 package org.hubiquitus.hapi.hStructures;
 
 import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.util.HUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -56,13 +57,17 @@ public class HStatus extends JSONObject {
 	 * @return status. NULL if undefined
 	 */
 	public ConnectionStatus getStatus() {
-		ConnectionStatus status;
-		try {
-			status = ConnectionStatus.constant(this.getInt("status"));
-		} catch (Exception e) {
-			status = null;
+		Integer status = HUtil.optInteger(this, "status");
+		if (status == null) {
+			return null;
+		}
+		// values are sparse : look up by value, unknown values are undefined
+		for (ConnectionStatus candidate : ConnectionStatus.values()) {
+			if (candidate.value() == status) {
+				return candidate;
+			}
 		}
-		return status;
+		return null;
 	}
 
 	public void setStatus(ConnectionStatus status) throws MissingAttrException {
@@ -82,13 +87,11 @@ public class HStatus extends JSONObject {
 	 * @return error code. NULL if undefined
 	 */
 	public ConnectionError getErrorCode() {
-		ConnectionError errorCode;
-		try {
-			errorCode = ConnectionError.constant(this.getInt("errorCode"));
-		} catch (Exception e) {
-			errorCode = null;
+		Integer errorCode = HUtil.optInteger(this, "errorCode");
+		if (errorCode == null) {
+			return null;
 		}
-		return errorCode;
+		return ConnectionError.constant(errorCode);
 	}
 
 	public void setErrorCode(ConnectionError errorCode) throws MissingAttrException {
@@ -108,13 +111,7 @@ public class HStatus extends JSONObject {
 	 * @return error message. NULL if undefined
 	 */
 	public String getErrorMsg() {
-		String errorMsg;
-		try {
-			errorMsg = this.getString("errorMsg");
-		} catch (JSONException e) {
-			errorMsg = null;
-		}
-		return errorMsg;
+		return this.optString("errorMsg", null);
 	}
 
 	public void setErrorMsg(String errorMsg) {
@@ -128,4 +125,46 @@ public class HStatus extends JSONObject {
 			logger.error("message: ", e);
 		}
 	}
+
+	/**
+	 * Token of the session, given by hNode with the connected status. Sent back in hConnect on reconnection
+	 * so that hNode can resume the session instead of authenticating again.
+	 * @return session token. NULL if undefined
+	 */
+	public String getSession() {
+		return this.optString("session", null);
+	}
+
+	public void setSession(String session) {
+		try {
+			if (session == null) {
+				this.remove("session");
+			} else {
+				this.put("session", session);
+			}
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	/**
+	 * Given by hNode with the connected status : true if it resumed the session of the token sent in hConnect,
+	 * false if it opened a new one.
+	 * @return session resumed or not. NULL if undefined
+	 */
+	public Boolean getResumed() {
+		return HUtil.optBoolean(this, "resumed");
+	}
+
+	public void setResumed(Boolean resumed) {
+		try {
+			if (resumed == null) {
+				this.remove("resumed");
+			} else {
+				this.put("resumed", resumed);
+			}
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+		}
+	}
 }
@@ -55,13 +55,7 @@ public class HValue extends JSONObject {
 			logger.error("message: The name of the attribute in HValue is null or empty");
 			return null;
 		}
-		Object value;
-		try {
-			value  = this.get(this.name);
-		} catch (Exception e) {
-			value = null;
-		}
-		return value;
+		return this.opt(this.name);
 	}
 	/**
 	 * Set the value of the attribute to compare with.
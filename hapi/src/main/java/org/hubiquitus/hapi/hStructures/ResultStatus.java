@@ -55,6 +55,12 @@ public enum ResultStatus {
 	 */
 	public static ResultStatus constant(int value) {
 		ResultStatus [] _values = ResultStatus.values();
-		return _values[value];
+		ResultStatus _value = null;
+		for (int i = 0; i < _values.length; i++) {
+			if(_values[i].value == value){
+				_value = _values[i];
+			}
+		}
+		return _value;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @version 0.5
+ * Distribution of positive values (ie : durations in nanoseconds), with a fixed memory footprint.
+ * Values are counted in log-linear buckets : each power of two is split in 16 buckets,
+ * so percentiles are accurate within about 6% (values below 32 are exact).
+ * Recording is lock-free. Percentiles are computed over all the values recorded since the last reset.
+ */
+
+public class HHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_COUNT = SUB_COUNT >> 1;
+	private static final int BUCKET_COUNT = SUB_COUNT + (63 - SUB_BITS) * HALF_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong sum = new AtomicLong(0);
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * @param value value to record. Negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return mean of the values. 0 if none
+	 */
+	public double getMean() {
+		long n = count.get();
+		return (n == 0) ? 0 : (double) sum.get() / n;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile between 0 and 100 (ie : 99.9)
+	 * @return the smallest value such as percentile % of the values are lower or equal, within the bucket precision. 0 if none
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forget all the recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+		int sub = (int) (value >>> shift);
+		return SUB_COUNT + (shift - 1) * HALF_COUNT + (sub - HALF_COUNT);
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+		long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
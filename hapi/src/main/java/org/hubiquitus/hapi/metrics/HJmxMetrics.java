@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Read-only MBean whose attributes are the values of a registry (see HMetricRegistry.values)
+ */
+
+class HJmxMetrics implements DynamicMBean {
+
+	private final HMetricRegistry registry;
+
+	HJmxMetrics(HMetricRegistry registry) {
+		this.registry = registry;
+	}
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number value = registry.value(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		SortedMap<String, Number> values = registry.values();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Number value = values.get(attribute);
+			if (value != null) {
+				list.add(new Attribute(attribute, value));
+			}
+		}
+		return list;
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Number> entry : registry.values().entrySet()) {
+			attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+					entry.getKey(), true, false, false));
+		}
+		return new MBeanInfo(HJmxMetrics.class.getName(), "Metrics of " + registry.getName(),
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+	}
+
+	public void setAttribute(Attribute attribute) {
+		throw new UnsupportedOperationException("Metrics are read only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException(actionName);
+	}
+}
+
+/**
+ * @endcond
+ */
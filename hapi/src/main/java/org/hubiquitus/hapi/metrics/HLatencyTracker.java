@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+
+/**
+ * @version 0.5
+ * Latency tracing : stamps messages when they reach a stage (see HTraceStage) and records the time between two stages
+ * in the histogram latency.(from stage).(to stage) of a registry, in ns.
+ * The time is also broken down by message type and actor in latency.(from stage).(to stage).(message type).(actor),
+ * for the first maxBreakdowns (type, actor) pairs of each couple of stages only : the other messages are only in the total.
+ * Transit times between processes are based on the sent date of the messages (latency.transit and latency.transit.(type).(actor)),
+ * so they include the clock difference between the hosts.
+ */
+
+public class HLatencyTracker {
+
+	/** default maximum number of (type, actor) histograms per couple of stages */
+	public static final int DEFAULT_MAX_BREAKDOWNS = 256;
+
+	private static final int STAGES = HTraceStage.values().length;
+
+	private final HMetricRegistry registry;
+	private final int maxBreakdowns;
+	/* by from stage * STAGES + to stage. The last one is the transit */
+	private final AtomicReferenceArray<Latency> latencies = new AtomicReferenceArray<Latency>(STAGES * STAGES + 1);
+
+	/* histograms of a couple of stages */
+	private final class Latency {
+		final String name;
+		final HHistogram total;
+		final ConcurrentMap<String, ConcurrentMap<String, HHistogram>> byType = new ConcurrentHashMap<String, ConcurrentMap<String, HHistogram>>();
+		final AtomicInteger breakdowns = new AtomicInteger(0);
+
+		Latency(String name) {
+			this.name = name;
+			this.total = registry.histogram(name);
+		}
+
+		void record(HMessage message, long elapsed) {
+			total.record(elapsed);
+			if (maxBreakdowns <= 0) {
+				return;
+			}
+			String type = String.valueOf(message.getType());
+			String actor = String.valueOf(message.getActor());
+			ConcurrentMap<String, HHistogram> byActor = byType.get(type);
+			HHistogram histogram = (byActor != null) ? byActor.get(actor) : null;
+			if (histogram == null) {
+				histogram = breakdown(type, actor);
+			}
+			if (histogram != null) {
+				histogram.record(elapsed);
+			}
+		}
+
+		/* histogram of a (type, actor) pair, created if the cap allows it. Null otherwise */
+		private synchronized HHistogram breakdown(String type, String actor) {
+			ConcurrentMap<String, HHistogram> byActor = byType.get(type);
+			if (byActor == null) {
+				byActor = new ConcurrentHashMap<String, HHistogram>();
+				byType.put(type, byActor);
+			}
+			HHistogram histogram = byActor.get(actor);
+			if (histogram == null && breakdowns.get() < maxBreakdowns) {
+				histogram = registry.histogram(name + "." + type + "." + actor);
+				byActor.put(actor, histogram);
+				breakdowns.incrementAndGet();
+			}
+			return histogram;
+		}
+	}
+
+	/**
+	 * @param registry registry of the latency histograms
+	 */
+	public HLatencyTracker(HMetricRegistry registry) {
+		this(registry, DEFAULT_MAX_BREAKDOWNS);
+	}
+
+	/**
+	 * @param registry registry of the latency histograms
+	 * @param maxBreakdowns maximum number of (type, actor) histograms per couple of stages. 0 to only record the totals
+	 */
+	public HLatencyTracker(HMetricRegistry registry, int maxBreakdowns) {
+		this.registry = registry;
+		this.maxBreakdowns = maxBreakdowns;
+	}
+
+	/**
+	 * The message reaches a stage
+	 * @param message the message
+	 * @param stage the stage
+	 */
+	public void mark(HMessage message, HTraceStage stage) {
+		message.setTraceTime(stage, System.nanoTime());
+	}
+
+	/**
+	 * The message reaches a stage : record the time elapsed since a previous stage, if the message reached it
+	 * @param message the message
+	 * @param from the previous stage
+	 * @param to the stage reached
+	 */
+	public void record(HMessage message, HTraceStage from, HTraceStage to) {
+		long now = System.nanoTime();
+		message.setTraceTime(to, now);
+		long start = message.getTraceTime(from);
+		if (start != 0) {
+			latency(from.ordinal() * STAGES + to.ordinal(), from, to).record(message, now - start);
+		}
+	}
+
+	/**
+	 * Record the time elapsed since the message was sent by its publisher
+	 * @param message a received message
+	 */
+	public void recordTransit(HMessage message) {
+		if (message.hasSent()) {
+			long elapsed = System.currentTimeMillis() - message.getSentMillis();
+			latency(STAGES * STAGES, null, null).record(message, TimeUnit.MILLISECONDS.toNanos(elapsed));
+		}
+	}
+
+	private Latency latency(int index, HTraceStage from, HTraceStage to) {
+		Latency latency = latencies.get(index);
+		if (latency == null) {
+			String name = (from == null) ? "latency.transit" : "latency." + from.metricName() + "." + to.metricName();
+			latencies.compareAndSet(index, null, new Latency(name));
+			latency = latencies.get(index);
+		}
+		return latency;
+	}
+}
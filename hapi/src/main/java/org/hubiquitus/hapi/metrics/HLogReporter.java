@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @version 0.5
+ * Reporter writing the metrics to the slf4j log, one line per report
+ */
+
+public class HLogReporter implements HMetricReporter {
+
+	final Logger logger = LoggerFactory.getLogger(HLogReporter.class);
+
+	public void report(String registryName, SortedMap<String, Number> values) {
+		StringBuilder line = new StringBuilder(registryName).append(" :");
+		for (Map.Entry<String, Number> entry : values.entrySet()) {
+			line.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		logger.info(line.toString());
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @version 0.5
+ * Named counters, gauges and histograms of a client or a hubot.
+ * Metrics are created on first use and shared by name. Their values can be read with values(),
+ * from JMX once registerJmx() is called (domain org.hubiquitus, type metrics), or pushed to reporters.
+ * Instrumented code only records metrics when a registry is given, so disabled metrics cost a null check.
+ */
+
+public class HMetricRegistry {
+
+	final Logger logger = LoggerFactory.getLogger(HMetricRegistry.class);
+
+	/** percentiles reported for each histogram */
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+	// one reporting thread is shared by all the registries
+	private static ScheduledExecutorService reportingExecutor = null;
+
+	private final String name;
+	private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+	private final List<ScheduledFuture<?>> reporters = new ArrayList<ScheduledFuture<?>>();
+	private ObjectName jmxName = null;
+
+	/**
+	 * @param name name of the registry (ie : the jid of a client)
+	 */
+	public HMetricRegistry(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name name of the counter
+	 * @return the counter with this name, created if needed
+	 */
+	public HCounter counter(String name) {
+		Object metric = metrics.get(name);
+		if (metric == null) {
+			metrics.putIfAbsent(name, new HCounter());
+			metric = metrics.get(name);
+		}
+		return (HCounter) metric;
+	}
+
+	/**
+	 * @param name name of the histogram
+	 * @return the histogram with this name, created if needed
+	 */
+	public HHistogram histogram(String name) {
+		Object metric = metrics.get(name);
+		if (metric == null) {
+			metrics.putIfAbsent(name, new HHistogram());
+			metric = metrics.get(name);
+		}
+		return (HHistogram) metric;
+	}
+
+	/**
+	 * Register a gauge, replacing the metric with the same name if any
+	 * @param name name of the gauge
+	 * @param gauge the gauge
+	 */
+	public void gauge(String name, HGauge gauge) {
+		metrics.put(name, gauge);
+	}
+
+	/**
+	 * @param name name of a metric
+	 */
+	public void remove(String name) {
+		metrics.remove(name);
+	}
+
+	/**
+	 * Current values of the metrics : a counter gives its count, a gauge its value,
+	 * a histogram gives name.count, name.mean, name.max, name.p50, name.p90, name.p99 and name.p999
+	 * @return values by name
+	 */
+	public SortedMap<String, Number> values() {
+		SortedMap<String, Number> values = new TreeMap<String, Number>();
+		for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+			String metricName = entry.getKey();
+			Object metric = entry.getValue();
+			try {
+				if (metric instanceof HCounter) {
+					values.put(metricName, ((HCounter) metric).getCount());
+				} else if (metric instanceof HGauge) {
+					values.put(metricName, ((HGauge) metric).getValue());
+				} else if (metric instanceof HHistogram) {
+					HHistogram histogram = (HHistogram) metric;
+					values.put(metricName + ".count", histogram.getCount());
+					values.put(metricName + ".mean", histogram.getMean());
+					values.put(metricName + ".max", histogram.getMax());
+					for (int i = 0; i < PERCENTILES.length; i++) {
+						values.put(metricName + "." + PERCENTILE_NAMES[i], histogram.getPercentile(PERCENTILES[i]));
+					}
+				}
+			} catch (Exception e) {
+				logger.warn("message: ", e);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @param metricName name of a value, as given by values()
+	 * @return the value. Null if unknown
+	 */
+	public Number value(String metricName) {
+		return values().get(metricName);
+	}
+
+	/**
+	 * Report the values periodically
+	 * @param reporter the reporter
+	 * @param period time in ms between two reports
+	 */
+	public void addReporter(final HMetricReporter reporter, long period) {
+		Runnable report = new Runnable() {
+			public void run() {
+				try {
+					reporter.report(name, values());
+				} catch (Exception e) {
+					logger.warn("message: ", e);
+				}
+			}
+		};
+		synchronized (reporters) {
+			reporters.add(getReportingExecutor().scheduleAtFixedRate(report, period, period, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * Expose the values as the attributes of an MBean named org.hubiquitus:type=metrics,name=(name of the registry).
+	 * If another registry already uses this name, the name is suffixed with -2, -3 ... (see getJmxName)
+	 */
+	public synchronized void registerJmx() {
+		if (jmxName != null) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (int i = 1; jmxName == null; i++) {
+				String mbeanName = (i == 1) ? name : name + "-" + i;
+				ObjectName objectName = new ObjectName("org.hubiquitus:type=metrics,name=" + ObjectName.quote(mbeanName));
+				try {
+					server.registerMBean(new HJmxMetrics(this), objectName);
+					jmxName = objectName;
+				} catch (InstanceAlreadyExistsException e) {
+					// name used by another registry, try the next one
+				}
+			}
+			if (!name.equals(ObjectName.unquote(jmxName.getKeyProperty("name")))) {
+				logger.warn("metrics " + name + " already registered in JMX, registered as " + jmxName);
+			}
+		} catch (Exception e) {
+			logger.warn("message: ", e);
+		}
+	}
+
+	/**
+	 * @return name of the MBean of the registry. Null if not registered
+	 */
+	public synchronized ObjectName getJmxName() {
+		return jmxName;
+	}
+
+	/**
+	 * Stop the reporters and remove the MBean, if any
+	 */
+	public void close() {
+		synchronized (reporters) {
+			for (ScheduledFuture<?> reporter : reporters) {
+				reporter.cancel(false);
+			}
+			reporters.clear();
+		}
+		synchronized (this) {
+			if (jmxName != null) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxName);
+				} catch (Exception e) {
+					logger.warn("message: ", e);
+				}
+				jmxName = null;
+			}
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getReportingExecutor() {
+		if (reportingExecutor == null) {
+			reportingExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "hapi-metrics-reporter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return reportingExecutor;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.metrics;
+
+/**
+ * @version 0.5
+ * Stages of a message inside a process, timed by the latency tracing (see HLatencyTracker).
+ * Outbound : DISPATCH (Hubot.send), OUTBOX (taken from the outbox by its adapter), SEND (HClient.send), EMIT (written to the transport).
+ * Inbound : RECEIVE (read from the transport), INGEST (put in the hubot inbox by an adapter),
+ * PROCESS (taken from the inbox by the actor), DELIVERED (the delegate of the client returned).
+ */
+
+public enum HTraceStage {
+	DISPATCH, OUTBOX, SEND, EMIT, RECEIVE, INGEST, PROCESS, DELIVERED;
+
+	/**
+	 * @return name of the stage in the metrics (ie : dispatch)
+	 */
+	public String metricName() {
+		return name().toLowerCase();
+	}
+}
@@ -19,22 +19,31 @@
 
 package org.hubiquitus.hapi.structures;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @cond internal
  * @version 0.5
  *  JabberID contain the different part of the jid and some method to use it 
  *  A JabberID should look like : my_user@domain/resource
+ *  The bare and full forms are computed once, when the jid is set.
+ *  Frequently used jids can be shared with intern : interned instances are read only.
  */
 
 public class JabberID {
 	
+	/** maximum number of interned jids. The cache is emptied when it is full */
+	public static final int INTERN_CACHE_SIZE = 1024;
+	
+	private static final ConcurrentMap<String, JabberID> interned = new ConcurrentHashMap<String, JabberID>();
 	
 	private String username = "";
 	private String domain = "";
 	private String resource = "";
+	private String bareJID = "@";
+	private String fullJID = "@";
+	private boolean readOnly = false;
 	
 	/**
 	 * constructor
@@ -45,44 +54,98 @@ public class JabberID {
 		this.setJID(jid);
 	}
 	
+	/**
+	 * Shared instance of a jid, parsed once. Its setters throw an UnsupportedOperationException.
+	 * @param jid - jabber id (ie : my_user@domain.com/resource)
+	 * @return the jabber id
+	 * @throws Exception - throw exception if invalid jid format
+	 */
+	public static JabberID intern(String jid) throws Exception {
+		if (jid == null) {
+			throw new Exception("Invalid jid : null");
+		}
+		JabberID jabberID = interned.get(jid);
+		if (jabberID == null) {
+			jabberID = new JabberID(jid);
+			jabberID.readOnly = true;
+			if (interned.size() >= INTERN_CACHE_SIZE) {
+				interned.clear();
+			}
+			interned.put(jid, jabberID);
+		}
+		return jabberID;
+	}
+	
 	/**
 	 * @return bare jid (ie : my_user@domain)
 	 */
 	public String getBareJID() {
-		return this.username + "@" + this.domain;
+		return bareJID;
 	}
 	
 	/**
 	 * @return full jid (ie : my_user@domain/resource)
 	 */
 	public String getFullJID() {
-		if(resource != "")
-			return this.username + "@" + this.domain + "/" + this.resource;
-		else
-			return getBareJID();
+		return fullJID;
 	}
 
 	/**
 	 * Set jid (either full or bare)
+	 * Same syntax as the pattern ^(?:([^@/<>'"]+)@)([^@/<>'"]+)(?:/([^<>'"]*))?$ without the regex engine
 	 * @param jid - jid (ie : my_user@domain or my_user@domain/resource)
 	 * @throws Exception - throw exception if invalid jid format
 	 */
 	public void setJID(String jid) throws Exception {
-		if (jid != null) {
-			Pattern pattern = Pattern.compile("^(?:([^@/<>'\"]+)@)?([^@/<>'\"]+)(?:/([^<>'\"]*))?$");
-			Matcher matcher = pattern.matcher(jid);
-			if (matcher.find() && matcher.groupCount() >= 2 && matcher.groupCount() <= 3 && matcher.group(1) != null) {
-				setUsername(matcher.group(1));
-				setDomain(matcher.group(2));
-				if (matcher.groupCount() >= 3) {
-					setResource(matcher.group(3));
-				}
-			} else {
-				throw new Exception();
-			}
+		checkWritable();
+		if (jid == null) {
+			throw new Exception("Invalid jid : null");
+		}
+		int length = jid.length();
+		int at = jid.indexOf('@');
+		if (at <= 0 || !isValid(jid, 0, at, true)) {
+			throw new Exception("Invalid jid : " + jid);
+		}
+		int slash = jid.indexOf('/', at + 1);
+		int domainEnd = (slash < 0) ? length : slash;
+		if (domainEnd == at + 1 || !isValid(jid, at + 1, domainEnd, true)) {
+			throw new Exception("Invalid jid : " + jid);
+		}
+		if (slash >= 0 && !isValid(jid, slash + 1, length, false)) {
+			throw new Exception("Invalid jid : " + jid);
+		}
+		this.username = jid.substring(0, at);
+		this.domain = jid.substring(at + 1, domainEnd);
+		this.resource = (slash < 0) ? "" : jid.substring(slash + 1);
+		if (slash < 0) {
+			this.bareJID = jid;
+			this.fullJID = jid;
 		} else {
-			throw new Exception();
+			this.bareJID = jid.substring(0, slash);
+			this.fullJID = (resource.length() > 0) ? jid : bareJID;
+		}
+	}
+	
+	/* chars forbidden in a jid : <>'" everywhere, @ and / in the username and the domain */
+	private static boolean isValid(String jid, int start, int end, boolean node) {
+		for (int i = start; i < end; i++) {
+			char c = jid.charAt(i);
+			if (c == '<' || c == '>' || c == '\'' || c == '"' || (node && (c == '@' || c == '/'))) {
+				return false;
+			}
 		}
+		return true;
+	}
+	
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Interned jids are read only");
+		}
+	}
+	
+	private void updateForms() {
+		this.bareJID = this.username + "@" + this.domain;
+		this.fullJID = (resource.length() > 0) ? bareJID + "/" + resource : bareJID;
 	}
 	
 	/* Getter & setter */
@@ -92,10 +155,12 @@ public class JabberID {
 	}
 
 	public void setUsername(String username) {
+		checkWritable();
 		if(username != null)
 			this.username = username;
 		else 
 			this.username = "";
+		updateForms();
 	}
 
 	public String getDomain() {
@@ -104,10 +169,12 @@ public class JabberID {
 
 	
 	public void setDomain(String domain) {
+		checkWritable();
 		if(domain != null)
 			this.domain = domain;
 		else 
 			this.domain = "";
+		updateForms();
 	}
 
 	public String getResource() {
@@ -115,10 +182,12 @@ public class JabberID {
 	}
 
 	public void setResource(String resource) {
+		checkWritable();
 		if(resource != null)
 			this.resource = resource;
 		else 
 			this.resource = "";
+		updateForms();
 	}
 
 	@Override
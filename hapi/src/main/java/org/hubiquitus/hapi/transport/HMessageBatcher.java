@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Coalesces outgoing messages : a batch is flushed when it holds batchSize messages,
+ * or batchWindow ms after its first message (rounded up to the timer tick), whichever comes first.
+ * A message with a priority of ALERT or more is not delayed : it flushes the batch with it.
+ * Batches are flushed one at a time, in the order of the messages, without holding the lock of the current batch :
+ * a slow write does not block add. The end of the window is flushed on the executor, never on the timer thread.
+ */
+
+public class HMessageBatcher {
+
+	final Logger logger = LoggerFactory.getLogger(HMessageBatcher.class);
+
+	/**
+	 * Writes a batch to the transport
+	 */
+	public interface Flusher {
+		/**
+		 * @param batch messages to write, in sending order. Never empty
+		 */
+		void flush(List<JSONObject> batch);
+	}
+
+	private final int batchSize;
+	private final long batchWindow;
+	private final HWheelTimer timer;
+	private final Executor executor;
+	private final Flusher flusher;
+	private List<JSONObject> pending;
+	/* batches taken from pending and not written yet, in order */
+	private final LinkedList<List<JSONObject>> ready = new LinkedList<List<JSONObject>>();
+	/* held while writing : the ready batches are written by one thread at a time */
+	private final Object writeLock = new Object();
+	private HWheelTimer.Timeout windowTimeout = null;
+
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	private final Runnable windowTask = new Runnable() {
+		public void run() {
+			executor.execute(flushTask);
+		}
+	};
+
+	/**
+	 * @param batchSize maximum number of messages in a batch
+	 * @param batchWindow maximum time in ms a message waits for its batch to be flushed
+	 * @param timer timer used for the batch window
+	 * @param executor runs the flushes at the end of the window (ie : the callback threads of the transport)
+	 * @param flusher writes the batches
+	 */
+	public HMessageBatcher(int batchSize, long batchWindow, HWheelTimer timer, Executor executor, Flusher flusher) {
+		this.batchSize = batchSize;
+		this.batchWindow = batchWindow;
+		this.timer = timer;
+		this.executor = executor;
+		this.flusher = flusher;
+		this.pending = new ArrayList<JSONObject>(batchSize);
+	}
+
+	/**
+	 * Add a message to the current batch. Flushes the batch if it is full.
+	 * @param object message to send
+	 */
+	public void add(JSONObject object) {
+		boolean full;
+		synchronized (this) {
+			pending.add(object);
+			full = pending.size() >= batchSize || isUrgent(object);
+			if (full) {
+				takeBatch();
+			} else if (windowTimeout == null) {
+				windowTimeout = timer.schedule(windowTask, batchWindow);
+			}
+		}
+		if (full) {
+			write();
+		}
+	}
+
+	/**
+	 * Flush the current batch, if any.
+	 */
+	public void flush() {
+		synchronized (this) {
+			takeBatch();
+		}
+		write();
+	}
+
+	/**
+	 * Remove the batches not written yet (ie : the connection is lost).
+	 * @return their messages, in sending order. Empty if none
+	 */
+	public synchronized List<JSONObject> drain() {
+		takeBatch();
+		List<JSONObject> drained = new ArrayList<JSONObject>();
+		while (!ready.isEmpty()) {
+			drained.addAll(ready.removeFirst());
+		}
+		return drained;
+	}
+
+	/* move the current batch behind the ready ones. Called with the lock held */
+	private void takeBatch() {
+		if (windowTimeout != null) {
+			windowTimeout.cancel();
+			windowTimeout = null;
+		}
+		if (!pending.isEmpty()) {
+			ready.addLast(pending);
+			pending = new ArrayList<JSONObject>(batchSize);
+		}
+	}
+
+	private synchronized List<JSONObject> nextReady() {
+		return ready.poll();
+	}
+
+	/* write the ready batches, in order, without holding the lock of the current batch */
+	private void write() {
+		synchronized (writeLock) {
+			List<JSONObject> batch;
+			while ((batch = nextReady()) != null) {
+				try {
+					flusher.flush(batch);
+				} catch (Exception e) {
+					logger.error("message: ", e);
+				}
+			}
+		}
+	}
+
+	private boolean isUrgent(JSONObject object) {
+		if (object instanceof HMessage) {
+			HMessagePriority priority = ((HMessage) object).getPriority();
+			return priority != null && priority.value() >= HMessagePriority.ALERT.value();
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of messages not written yet
+	 */
+	public synchronized int size() {
+		int size = pending.size();
+		for (List<JSONObject> batch : ready) {
+			size += batch.size();
+		}
+		return size;
+	}
+}
+
+/**
+ * @endcond
+ */
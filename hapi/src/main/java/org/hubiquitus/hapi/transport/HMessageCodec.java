@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Streaming json codec for hMessages.
+ * Encodes straight from the message to the wire and decodes straight from the wire into an HMessage,
+ * without building an intermediate json tree. Output buffers are reused by each thread.
+ */
+
+public final class HMessageCodec {
+
+	private static final JsonFactory factory = new JsonFactory();
+
+	/** buffers bigger than this are not kept between two calls */
+	private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+	private static final ThreadLocal<ByteArrayOutputStream> byteBuffers = new ThreadLocal<ByteArrayOutputStream>();
+	private static final ThreadLocal<CharArrayWriter> charBuffers = new ThreadLocal<CharArrayWriter>();
+
+	private HMessageCodec() {
+	}
+
+	/**
+	 * Encode a message (or any json object) in UTF-8.
+	 * @param object message to encode
+	 * @return the json bytes
+	 * @throws JSONException if the object can not be encoded
+	 */
+	public static byte[] encode(JSONObject object) throws JSONException {
+		ByteArrayOutputStream buffer = byteBuffers.get();
+		if (buffer == null) {
+			buffer = new ByteArrayOutputStream(1024);
+		}
+		byteBuffers.set(null);
+		try {
+			JsonGenerator generator = factory.createJsonGenerator(buffer, JsonEncoding.UTF8);
+			writeObject(generator, object);
+			generator.close();
+			return buffer.toByteArray();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		} finally {
+			if (buffer.size() <= MAX_RETAINED_BUFFER) {
+				buffer.reset();
+				byteBuffers.set(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Encode a message (or any json object) as a string.
+	 * @param object message to encode
+	 * @return the json text
+	 * @throws JSONException if the object can not be encoded
+	 */
+	public static String encodeToString(JSONObject object) throws JSONException {
+		return encodeValueToString(object);
+	}
+
+	/**
+	 * Encode a batch of messages as a json array.
+	 * @param objects messages to encode
+	 * @return the json text
+	 * @throws JSONException if a message can not be encoded
+	 */
+	public static String encodeToString(List<? extends JSONObject> objects) throws JSONException {
+		return encodeValueToString(objects);
+	}
+
+	private static String encodeValueToString(Object value) throws JSONException {
+		CharArrayWriter buffer = charBuffers.get();
+		if (buffer == null) {
+			buffer = new CharArrayWriter(1024);
+		}
+		charBuffers.set(null);
+		try {
+			JsonGenerator generator = factory.createJsonGenerator(buffer);
+			writeValue(generator, value);
+			generator.close();
+			return buffer.toString();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		} finally {
+			if (buffer.size() <= MAX_RETAINED_BUFFER) {
+				buffer.reset();
+				charBuffers.set(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Wrap a message so that org.json (and the socket.io client) serializes it with this codec.
+	 * @param object message to encode
+	 * @return a JSONString encoding the message when it is serialized
+	 */
+	public static JSONString asJSONString(final JSONObject object) {
+		return new JSONString() {
+			public String toJSONString() {
+				try {
+					return encodeToString(object);
+				} catch (JSONException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap a batch of messages so that org.json (and the socket.io client) serializes it with this codec, as a json array.
+	 * @param objects messages to encode
+	 * @return a JSONString encoding the messages when it is serialized
+	 */
+	public static JSONString asJSONString(final List<? extends JSONObject> objects) {
+		return new JSONString() {
+			public String toJSONString() {
+				try {
+					return encodeToString(objects);
+				} catch (JSONException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Decode a message from UTF-8 json bytes.
+	 * @param data buffer holding the json
+	 * @param offset offset of the json in the buffer
+	 * @param length length of the json
+	 * @return the decoded message
+	 * @throws JSONException if the json is not a valid object
+	 */
+	public static HMessage decode(byte[] data, int offset, int length) throws JSONException {
+		try {
+			JsonParser parser = factory.createJsonParser(data, offset, length);
+			try {
+				return decode(parser);
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	/**
+	 * Decode a message from json text.
+	 * @param data the json
+	 * @return the decoded message
+	 * @throws JSONException if the json is not a valid object
+	 */
+	public static HMessage decode(String data) throws JSONException {
+		try {
+			JsonParser parser = factory.createJsonParser(data);
+			try {
+				return decode(parser);
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	/**
+	 * Encode a socket.io event in UTF-8 : {"name" : name, "args" : [arg]}.
+	 * @param name name of the event (ie : hMessage)
+	 * @param arg argument of the event : a message, or a list of messages for a batch
+	 * @return the json bytes
+	 * @throws JSONException if the argument can not be encoded
+	 */
+	public static byte[] encodeEvent(String name, Object arg) throws JSONException {
+		ByteArrayOutputStream buffer = byteBuffers.get();
+		if (buffer == null) {
+			buffer = new ByteArrayOutputStream(1024);
+		}
+		byteBuffers.set(null);
+		try {
+			JsonGenerator generator = factory.createJsonGenerator(buffer, JsonEncoding.UTF8);
+			generator.writeStartObject();
+			generator.writeStringField("name", name);
+			generator.writeFieldName("args");
+			generator.writeStartArray();
+			writeValue(generator, arg);
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.close();
+			return buffer.toByteArray();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		} finally {
+			if (buffer.size() <= MAX_RETAINED_BUFFER) {
+				buffer.reset();
+				byteBuffers.set(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Decode a socket.io event : {"name" : name, "args" : [arg, ...]}. Arguments which are objects
+	 * are decoded as HMessages, arrays of objects as JSONArrays of HMessages (batches).
+	 * @param in UTF-8 json of the event, read until the end of the event
+	 * @param args filled with the arguments of the event
+	 * @return name of the event. Null if it has none
+	 * @throws JSONException if the json is not a valid event
+	 */
+	public static String decodeEvent(InputStream in, List<Object> args) throws JSONException {
+		try {
+			JsonParser parser = factory.createJsonParser(in);
+			try {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new JSONException("A socket.io event must be a json object");
+				}
+				String name = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					JsonToken token = parser.nextToken();
+					if (field.equals("name") && token == JsonToken.VALUE_STRING) {
+						name = parser.getText();
+					} else if (field.equals("args") && token == JsonToken.START_ARRAY) {
+						while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+							args.add(readArgument(parser, token));
+						}
+					} else {
+						parser.skipChildren();
+					}
+				}
+				return name;
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	private static Object readArgument(JsonParser parser, JsonToken token) throws IOException, JSONException {
+		if (token == JsonToken.START_OBJECT) {
+			HMessage message = new HMessage();
+			readFields(parser, message);
+			return message;
+		} else if (token == JsonToken.START_ARRAY) {
+			JSONArray array = new JSONArray();
+			JsonToken next;
+			while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+				if (next == JsonToken.START_OBJECT) {
+					HMessage message = new HMessage();
+					readFields(parser, message);
+					array.put(message);
+				} else {
+					array.put(readValue(parser, next));
+				}
+			}
+			return array;
+		}
+		return readValue(parser, token);
+	}
+
+	private static HMessage decode(JsonParser parser) throws IOException, JSONException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JSONException("A hMessage must be a json object");
+		}
+		HMessage message = new HMessage();
+		readFields(parser, message);
+		return message;
+	}
+
+	/* decoding */
+
+	private static void readFields(JsonParser parser, JSONObject object) throws IOException, JSONException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			object.put(name, readValue(parser, parser.nextToken()));
+		}
+	}
+
+	private static Object readValue(JsonParser parser, JsonToken token) throws IOException, JSONException {
+		if (token == null) {
+			throw new JSONException("Unexpected end of json");
+		}
+		switch (token) {
+		case START_OBJECT:
+			JSONObject object = new JSONObject();
+			readFields(parser, object);
+			return object;
+		case START_ARRAY:
+			JSONArray array = new JSONArray();
+			JsonToken next;
+			while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+				array.put(readValue(parser, next));
+			}
+			return array;
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_NUMBER_INT:
+			switch (parser.getNumberType()) {
+			case INT:
+				return Integer.valueOf(parser.getIntValue());
+			case LONG:
+				return Long.valueOf(parser.getLongValue());
+			default:
+				return Double.valueOf(parser.getDoubleValue());
+			}
+		case VALUE_NUMBER_FLOAT:
+			return Double.valueOf(parser.getDoubleValue());
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NULL:
+			return JSONObject.NULL;
+		default:
+			throw new JSONException("Unexpected json token " + token);
+		}
+	}
+
+	/* encoding */
+
+	private static void writeObject(JsonGenerator generator, JSONObject object) throws IOException {
+		generator.writeStartObject();
+		Iterator<?> it = object.keys();
+		while (it.hasNext()) {
+			String key = it.next().toString();
+			generator.writeFieldName(key);
+			writeValue(generator, object.opt(key));
+		}
+		generator.writeEndObject();
+	}
+
+	private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+		if (value == null || JSONObject.NULL.equals(value)) {
+			generator.writeNull();
+		} else if (value instanceof String) {
+			generator.writeString((String) value);
+		} else if (value instanceof JSONObject) {
+			writeObject(generator, (JSONObject) value);
+		} else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			generator.writeStartArray();
+			for (int i = 0; i < array.length(); i++) {
+				writeValue(generator, array.opt(i));
+			}
+			generator.writeEndArray();
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			generator.writeNumber(((Number) value).longValue());
+		} else if (value instanceof BigDecimal) {
+			// exact, as org.json does
+			generator.writeNumber((BigDecimal) value);
+		} else if (value instanceof BigInteger) {
+			generator.writeNumber((BigInteger) value);
+		} else if (value instanceof Number) {
+			generator.writeNumber(((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			generator.writeBoolean(((Boolean) value).booleanValue());
+		} else if (value instanceof JSONString) {
+			generator.writeRawValue(((JSONString) value).toJSONString());
+		} else if (value instanceof Map) {
+			generator.writeStartObject();
+			for (Object entry : ((Map<?, ?>) value).entrySet()) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+				generator.writeFieldName(String.valueOf(e.getKey()));
+				writeValue(generator, e.getValue());
+			}
+			generator.writeEndObject();
+		} else if (value instanceof Collection) {
+			generator.writeStartArray();
+			for (Object item : (Collection<?>) value) {
+				writeValue(generator, item);
+			}
+			generator.writeEndArray();
+		} else {
+			// same as org.json : DateTime and other objects are written with toString
+			generator.writeString(value.toString());
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -19,6 +19,8 @@
 
 package org.hubiquitus.hapi.transport;
 
+import java.util.List;
+
 import org.hubiquitus.hapi.hStructures.ConnectionError;
 import org.hubiquitus.hapi.hStructures.ConnectionStatus;
 import org.json.JSONObject;
@@ -45,6 +47,13 @@ public interface HTransportDelegate {
 	 * @param jsonData serialized hapi object
 	 */
 	public void onData(String type, JSONObject jsonData); 
+
+	/**
+	 * transport layer callback to give back the objects accepted by sendObject but not written (ie : the connection
+	 * was lost while they were waiting in a batch)
+	 * @param objects objects not sent, in sending order
+	 */
+	public void onUnsent(List<JSONObject> objects);
 }
 
 /**
@@ -19,6 +19,7 @@
 
 package org.hubiquitus.hapi.transport;
 
+import org.hubiquitus.hapi.hStructures.HStatus;
 import org.hubiquitus.hapi.structures.JabberID;
 
 /** 
@@ -34,6 +35,12 @@ public class HTransportOptions {
 	private int endpointPort = 0;
 	private String endpointPath = null;
 	private String hserver = "hnode";
+	private int batchSize = 1;
+	private long batchWindow = 0;
+	private int sessionsPerConnection = 1;
+	private long reconnectDelay = 5000;
+	private volatile String sessionToken = null;
+	private volatile boolean sessionResumed = false;
 	
 	public HTransportOptions() {
 		super();
@@ -155,6 +162,86 @@ public class HTransportOptions {
 	public void setHserver(String hserver) {
 		this.hserver = hserver;
 	}
+
+	/**
+	 * @return maximum number of messages sent in one frame (1 : no batching)
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return maximum time in ms a message waits for its batch to be sent (0 : no batching)
+	 */
+	public long getBatchWindow() {
+		return batchWindow;
+	}
+
+	public void setBatchWindow(long batchWindow) {
+		this.batchWindow = batchWindow;
+	}
+
+	/**
+	 * @return maximum number of sessions sharing one connection (1 : no multiplexing)
+	 */
+	public int getSessionsPerConnection() {
+		return sessionsPerConnection;
+	}
+
+	public void setSessionsPerConnection(int sessionsPerConnection) {
+		this.sessionsPerConnection = sessionsPerConnection;
+	}
+
+	/**
+	 * @return delay in ms before the transport tries to reconnect after losing its connection. 5s by default
+	 */
+	public long getReconnectDelay() {
+		return reconnectDelay;
+	}
+
+	public void setReconnectDelay(long reconnectDelay) {
+		this.reconnectDelay = reconnectDelay;
+	}
+
+	/**
+	 * @return token of the session given by hNode, sent in hConnect to resume the session. Null for a new session
+	 */
+	public String getSessionToken() {
+		return sessionToken;
+	}
+
+	public void setSessionToken(String sessionToken) {
+		this.sessionToken = sessionToken;
+	}
+
+	/**
+	 * @return true if hNode resumed the session of the token sent in hConnect, keeping its subscriptions and filter.
+	 * False for a new session
+	 */
+	public boolean isSessionResumed() {
+		return sessionResumed;
+	}
+
+	/**
+	 * Keeps the session given by hNode with the connected status. When hNode does not say if it resumed the session,
+	 * it is resumed if the token is the one sent in hConnect.
+	 * @param status the connected status
+	 */
+	public void setSession(HStatus status) {
+		Boolean resumed = status.getResumed();
+		if (resumed == null) {
+			resumed = status.getSession() != null && status.getSession().equals(sessionToken);
+		}
+		sessionResumed = resumed;
+		if (status.getSession() != null) {
+			sessionToken = status.getSession();
+		}
+	}
+
 	/* overrides */
 	
 	@Override
@@ -162,13 +249,17 @@ public class HTransportOptions {
 		return "HTransportOptions [jid=" + jid + ", password=" + password
 				+ ", endpointHost=" + endpointHost + ", endpointPort="
 				+ endpointPort + ", endpointPath=" + endpointPath + ", hNode="
-				+ hserver + "]";
+				+ hserver + ", batchSize=" + batchSize + ", batchWindow="
+				+ batchWindow + ", sessionsPerConnection=" + sessionsPerConnection + "]";
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		result = prime * result + batchSize;
+		result = prime * result + (int) (batchWindow ^ (batchWindow >>> 32));
+		result = prime * result + sessionsPerConnection;
 		result = prime * result
 				+ ((endpointHost == null) ? 0 : endpointHost.hashCode());
 		result = prime * result
@@ -190,6 +281,12 @@ public class HTransportOptions {
 		if (getClass() != obj.getClass())
 			return false;
 		HTransportOptions other = (HTransportOptions) obj;
+		if (batchSize != other.batchSize)
+			return false;
+		if (batchWindow != other.batchWindow)
+			return false;
+		if (sessionsPerConnection != other.sessionsPerConnection)
+			return false;
 		if (endpointHost == null) {
 			if (other.endpointHost != null)
 				return false;
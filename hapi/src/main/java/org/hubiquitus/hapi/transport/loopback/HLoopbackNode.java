@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport.loopback;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.hStructures.HCommand;
+import org.hubiquitus.hapi.hStructures.HConvState;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HResult;
+import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.hubiquitus.hapi.util.HUtil;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * In-JVM stand-in for the hNode serving a domain. Loopback transports of the same domain share a node :
+ * messages published on a channel are routed to its subscribers, messages sent to a jid are routed to the local sessions of that jid,
+ * and hCommands (hsubscribe, hunsubscribe, hgetlastmessages, hgetsubscriptions, hgetthread, hgetthreads, hRelevantMessages, hSetFilter) are answered with an hResult.
+ * Channels are created on first use and anybody may publish or subscribe. Only persistent messages are kept for hgetlastmessages.
+ * Messages are delivered on the thread of the sender.
+ */
+
+public class HLoopbackNode {
+
+	/** number of persistent messages kept per channel */
+	public static final int MAX_LAST_MESSAGES = 100;
+	/** number of messages returned by hgetlastmessages if nbLastMsg is not provided */
+	public static final int DEFAULT_NB_LAST_MESSAGES = 10;
+
+	private static final ConcurrentMap<String, HLoopbackNode> nodes = new ConcurrentHashMap<String, HLoopbackNode>();
+
+	final Logger logger = LoggerFactory.getLogger(HLoopbackNode.class);
+
+	private final String domain;
+	private final String hserverService;
+	/** connected sessions by bare jid */
+	private final ConcurrentMap<String, List<HTransportLoopback>> sessions = new ConcurrentHashMap<String, List<HTransportLoopback>>();
+	private final ConcurrentMap<String, Channel> channels = new ConcurrentHashMap<String, Channel>();
+
+	/**
+	 * Subscribers and persistent history of a channel
+	 */
+	private static class Channel {
+		private final CopyOnWriteArraySet<String> subscribers = new CopyOnWriteArraySet<String>();
+		private final LinkedList<HMessage> history = new LinkedList<HMessage>();
+
+		private synchronized void store(HMessage message) {
+			history.addLast(message);
+			if (history.size() > MAX_LAST_MESSAGES) {
+				history.removeFirst();
+			}
+		}
+
+		private synchronized List<HMessage> history() {
+			return new ArrayList<HMessage>(history);
+		}
+	}
+
+	private HLoopbackNode(String domain) {
+		this.domain = domain;
+		this.hserverService = "hnode@" + domain;
+	}
+
+	/**
+	 * @param domain domain of the jids served by the node
+	 * @return the node shared by all the loopback transports of this domain
+	 */
+	public static HLoopbackNode forDomain(String domain) {
+		HLoopbackNode node = nodes.get(domain);
+		if (node == null) {
+			HLoopbackNode created = new HLoopbackNode(domain);
+			node = nodes.putIfAbsent(domain, created);
+			if (node == null) {
+				node = created;
+			}
+		}
+		return node;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	/**
+	 * @return number of connected sessions
+	 */
+	public int sessionCount() {
+		int count = 0;
+		for (List<HTransportLoopback> bareSessions : sessions.values()) {
+			count += bareSessions.size();
+		}
+		return count;
+	}
+
+	void open(HTransportLoopback session) {
+		String bareJid = session.getJid().getBareJID();
+		List<HTransportLoopback> bareSessions = sessions.get(bareJid);
+		if (bareSessions == null) {
+			List<HTransportLoopback> created = new CopyOnWriteArrayList<HTransportLoopback>();
+			bareSessions = sessions.putIfAbsent(bareJid, created);
+			if (bareSessions == null) {
+				bareSessions = created;
+			}
+		}
+		bareSessions.add(session);
+	}
+
+	void close(HTransportLoopback session) {
+		List<HTransportLoopback> bareSessions = sessions.get(session.getJid().getBareJID());
+		if (bareSessions != null) {
+			bareSessions.remove(session);
+		}
+	}
+
+	/**
+	 * Handles a message sent by a session, as the hNode does. See HClient.send
+	 * @param from session which sent the message
+	 * @param message message sent
+	 */
+	void receive(HTransportLoopback from, HMessage message) {
+		String actor = message.getActor();
+		if (actor == null) {
+			answer(from, message, ResultStatus.MISSING_ATTR, errorMsg("Actor not found in message"));
+			return;
+		}
+
+		if ("hcommand".equalsIgnoreCase(message.getType())) {
+			handleCommand(from, message);
+		} else if (actor.equals("session") || actor.equals(hserverService)) {
+			answer(from, message, ResultStatus.NOT_AUTHORIZED, errorMsg("Only hCommands are handled by " + actor));
+		} else if (actor.startsWith("#")) {
+			publish(from, message);
+		} else {
+			relay(from, message);
+		}
+	}
+
+	private void publish(HTransportLoopback from, HMessage message) {
+		if (!message.hasPublished()) {
+			message.setPublishedMillis(System.currentTimeMillis());
+		}
+		Channel channel = channel(message.getActor());
+		if (Boolean.TRUE.equals(message.getPersistent())) {
+			channel.store(copy(message));
+		}
+		for (String subscriber : channel.subscribers) {
+			deliver(sessions.get(subscriber), null, message);
+		}
+		answer(from, message, ResultStatus.NO_ERROR, message);
+	}
+
+	private void relay(HTransportLoopback from, HMessage message) {
+		String actor = message.getActor();
+		int slash = actor.indexOf('/');
+		String bareJid = (slash < 0) ? actor : actor.substring(0, slash);
+		String fullJid = (slash < 0) ? null : actor;
+		if (deliver(sessions.get(bareJid), fullJid, message) == 0) {
+			answer(from, message, ResultStatus.NOT_AVAILABLE, errorMsg(actor + " is not connected"));
+		}
+	}
+
+	/**
+	 * deliver a copy of the message to each session, or only to the one with the given full jid
+	 * @return number of sessions reached
+	 */
+	private int deliver(List<HTransportLoopback> targets, String fullJid, HMessage message) {
+		int count = 0;
+		if (targets != null) {
+			for (HTransportLoopback target : targets) {
+				if (fullJid == null || fullJid.equals(target.getJid().getFullJID())) {
+					target.deliver(copy(message));
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private void handleCommand(HTransportLoopback from, HMessage message) {
+		HCommand command = message.getPayloadAsHCommand();
+		String cmd = (command == null) ? null : command.getCmd();
+		if (cmd == null) {
+			answer(from, message, ResultStatus.MISSING_ATTR, errorMsg("cmd is missing"));
+			return;
+		}
+		JSONObject params = command.getParams();
+		String publisher = from.getJid().getBareJID();
+		String actor = message.getActor();
+
+		if (cmd.equalsIgnoreCase("hsubscribe")) {
+			if (channel(actor).subscribers.add(publisher)) {
+				answer(from, message, ResultStatus.NO_ERROR, null);
+			} else {
+				answer(from, message, ResultStatus.NOT_AUTHORIZED, errorMsg("already subscribed to " + actor));
+			}
+		} else if (cmd.equalsIgnoreCase("hunsubscribe")) {
+			Channel channel = channels.get(actor);
+			if (channel != null && channel.subscribers.remove(publisher)) {
+				answer(from, message, ResultStatus.NO_ERROR, null);
+			} else {
+				answer(from, message, ResultStatus.NOT_AUTHORIZED, errorMsg("not subscribed to " + actor));
+			}
+		} else if (cmd.equalsIgnoreCase("hgetsubscriptions")) {
+			JSONArray subscriptions = new JSONArray();
+			for (Map.Entry<String, Channel> entry : channels.entrySet()) {
+				if (entry.getValue().subscribers.contains(publisher)) {
+					subscriptions.put(entry.getKey());
+				}
+			}
+			answer(from, message, ResultStatus.NO_ERROR, subscriptions);
+		} else if (cmd.equalsIgnoreCase("hgetlastmessages")) {
+			Integer nbLastMsg = (params == null) ? null : HUtil.optInteger(params, "nbLastMsg");
+			if (nbLastMsg == null || nbLastMsg <= 0) {
+				nbLastMsg = DEFAULT_NB_LAST_MESSAGES;
+			}
+			List<HMessage> history = channel(actor).history();
+			JSONArray lastMessages = new JSONArray();
+			// most recent first, as the hNode does
+			for (int i = history.size() - 1; i >= 0 && lastMessages.length() < nbLastMsg; i--) {
+				lastMessages.put(history.get(i));
+			}
+			answer(from, message, ResultStatus.NO_ERROR, lastMessages);
+		} else if (cmd.equalsIgnoreCase("hgetthread")) {
+			String convid = (params == null) ? null : params.optString("convid", null);
+			JSONArray thread = new JSONArray();
+			for (HMessage stored : channel(actor).history()) {
+				if (convid != null && convid.equals(stored.getConvid())) {
+					thread.put(stored);
+				}
+			}
+			answer(from, message, ResultStatus.NO_ERROR, thread);
+		} else if (cmd.equalsIgnoreCase("hgetthreads")) {
+			String status = (params == null) ? null : params.optString("status", null);
+			// last known hConvState status of each conversation
+			Map<String, String> states = new HashMap<String, String>();
+			for (HMessage stored : channel(actor).history()) {
+				HConvState convState = stored.getPayloadAsHConvState();
+				if (convState != null && stored.getConvid() != null) {
+					states.put(stored.getConvid(), convState.getStatus());
+				}
+			}
+			JSONArray convids = new JSONArray();
+			for (Map.Entry<String, String> entry : states.entrySet()) {
+				if (status != null && status.equals(entry.getValue())) {
+					convids.put(entry.getKey());
+				}
+			}
+			answer(from, message, ResultStatus.NO_ERROR, convids);
+		} else if (cmd.equalsIgnoreCase("hrelevantmessages")) {
+			long now = System.currentTimeMillis();
+			JSONArray relevants = new JSONArray();
+			for (HMessage stored : channel(actor).history()) {
+				if (stored.hasRelevance() && stored.getRelevanceMillis() > now) {
+					relevants.put(stored);
+				}
+			}
+			answer(from, message, ResultStatus.NO_ERROR, relevants);
+		} else if (cmd.equalsIgnoreCase("hsetfilter")) {
+			// filters are accepted but not applied by the loopback node
+			answer(from, message, ResultStatus.NO_ERROR, null);
+		} else {
+			answer(from, message, ResultStatus.NOT_AVAILABLE, errorMsg("Unknown command " + cmd));
+		}
+	}
+
+	/**
+	 * Answer with an hResult to a message sent with a timeout
+	 */
+	private void answer(HTransportLoopback to, HMessage message, ResultStatus status, Object result) {
+		if (message.getTimeout() <= 0) {
+			return;
+		}
+		HResult hresult = new HResult();
+		HMessage resultMessage = new HMessage();
+		try {
+			hresult.setStatus(status);
+			hresult.setResult(result);
+			resultMessage.setActor(to.getJid().getBareJID());
+		} catch (MissingAttrException e) {
+			logger.error("message: ", e);
+		}
+		resultMessage.setPublisher(hserverService);
+		resultMessage.setRef(message.getMsgid());
+		resultMessage.setConvid(message.getConvid());
+		resultMessage.setType("hResult");
+		resultMessage.setPayload(hresult);
+		resultMessage.setPublishedMillis(System.currentTimeMillis());
+		to.deliver(resultMessage);
+	}
+
+	private Channel channel(String actor) {
+		Channel channel = channels.get(actor);
+		if (channel == null) {
+			Channel created = new Channel();
+			channel = channels.putIfAbsent(actor, created);
+			if (channel == null) {
+				channel = created;
+			}
+		}
+		return channel;
+	}
+
+	private HMessage copy(HMessage message) {
+		try {
+			return new HMessage(message);
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+			return message;
+		}
+	}
+
+	private JSONObject errorMsg(String errorMsg) {
+		JSONObject obj = new JSONObject();
+		try {
+			obj.put("errorMsg", errorMsg);
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+		}
+		return obj;
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport.loopback;
+
+import java.util.Collections;
+
+import org.hubiquitus.hapi.hStructures.ConnectionError;
+import org.hubiquitus.hapi.hStructures.ConnectionStatus;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.structures.JabberID;
+import org.hubiquitus.hapi.transport.HTransport;
+import org.hubiquitus.hapi.transport.HTransportDelegate;
+import org.hubiquitus.hapi.transport.HTransportOptions;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * HTransportLoopback is an in-process transport layer : sessions are opened on the HLoopbackNode of the jid domain
+ * instead of a remote hNode. Used to run HClients and hubots without network (tests, load tests).
+ * Selected with HOptions.setTransport("loopback").
+ */
+
+public class HTransportLoopback implements HTransport {
+
+	final Logger logger = LoggerFactory.getLogger(HTransportLoopback.class);
+	private HTransportDelegate callback = null;
+	private HLoopbackNode node = null;
+	private JabberID jid = null;
+	private volatile ConnectionStatus connectionStatus = ConnectionStatus.DISCONNECTED;
+
+	public HTransportLoopback() {
+	}
+
+	/**
+	 * open a session on the loopback node of the jid domain. Connection is immediate.
+	 * @param callback - see HTransportCallback for more informations
+	 * @param options - transport options
+	 */
+	public void connect(HTransportDelegate callback, HTransportOptions options) {
+		this.callback = callback;
+		this.jid = options.getJid();
+		if (jid == null) {
+			updateStatus(ConnectionStatus.DISCONNECTED, ConnectionError.JID_MALFORMAT, "jid is missing");
+			return;
+		}
+		this.node = HLoopbackNode.forDomain(jid.getDomain());
+		node.open(this);
+		updateStatus(ConnectionStatus.CONNECTED, ConnectionError.NO_ERROR, null);
+	}
+
+	/**
+	 * close the session on the loopback node
+	 */
+	public void disconnect() {
+		if (node != null) {
+			node.close(this);
+		}
+		updateStatus(ConnectionStatus.DISCONNECTED, ConnectionError.NO_ERROR, null);
+	}
+
+	public void sendObject(JSONObject object) {
+		if (connectionStatus == ConnectionStatus.CONNECTED) {
+			try {
+				HMessage message = (object instanceof HMessage) ? (HMessage) object : new HMessage(object);
+				node.receive(this, message);
+			} catch (JSONException e) {
+				logger.error("message: ", e);
+			}
+		} else {
+			logger.warn("message: Not connected");
+			HTransportDelegate current = callback;
+			if (current != null) {
+				current.onUnsent(Collections.singletonList(object));
+			}
+		}
+	}
+
+	/**
+	 * @return jid of the session
+	 */
+	public JabberID getJid() {
+		return jid;
+	}
+
+	/**
+	 * called by the node to push a message to the session
+	 */
+	void deliver(HMessage message) {
+		if (connectionStatus == ConnectionStatus.CONNECTED) {
+			callback.onData("hmessage", message);
+		}
+	}
+
+	private void updateStatus(ConnectionStatus status, ConnectionError error, String errorMsg) {
+		this.connectionStatus = status;
+		if (callback != null) {
+			callback.onStatus(status, error, errorMsg);
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
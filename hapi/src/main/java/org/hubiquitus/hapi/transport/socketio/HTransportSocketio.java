@@ -19,21 +19,30 @@
 
 package org.hubiquitus.hapi.transport.socketio;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
 import io.socket.IOAcknowledge;
 import io.socket.IOCallback;
 import io.socket.SocketIO;
 import io.socket.SocketIOException;
 
+import org.hubiquitus.hapi.client.HDeliveryExecutor;
 import org.hubiquitus.hapi.hStructures.ConnectionError;
 import org.hubiquitus.hapi.hStructures.ConnectionStatus;
+import org.hubiquitus.hapi.hStructures.HDeliveryRejection;
 import org.hubiquitus.hapi.hStructures.HStatus;
+import org.hubiquitus.hapi.transport.HMessageBatcher;
+import org.hubiquitus.hapi.transport.HMessageCodec;
 import org.hubiquitus.hapi.transport.HTransport;
 import org.hubiquitus.hapi.transport.HTransportDelegate;
 import org.hubiquitus.hapi.transport.HTransportOptions;
+import org.hubiquitus.hapi.util.HWheelTimer;
 import org.joda.time.DateTime;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +56,13 @@ import org.slf4j.LoggerFactory;
 public class HTransportSocketio implements HTransport, IOCallback {
 
 	final Logger logger = LoggerFactory.getLogger(HTransportSocketio.class);
+
+	/* flushes of the batch windows queued beyond this bound by the timer thread, which never waits */
+	private static final int FLUSH_QUEUE_SIZE = 10000;
+
+	/* writes the batches at the end of their window : socket.io writes are synchronous, the timer thread must not wait for them */
+	private static HDeliveryExecutor flushes = null;
+
 	private HTransportDelegate callback = null;
 	private HTransportOptions options = null;
 	private SocketIO socketio = null;
@@ -54,6 +70,7 @@ public class HTransportSocketio implements HTransport, IOCallback {
 	private Timer timeoutTimer = null;
 	private Timer autoReconnectTimer = new Timer();
 	private ReconnectTask autoReconnectTask = null;
+	private HMessageBatcher batcher = null;
 	
 	private class ReconnectTask extends TimerTask{
 
@@ -82,6 +99,23 @@ public class HTransportSocketio implements HTransport, IOCallback {
 		
 		this.callback = callback;
 		this.options = options;
+		if (options.getBatchSize() > 1 && options.getBatchWindow() > 0) {
+			if (batcher == null) {
+				final Object key = this;
+				Executor executor = new Executor() {
+					public void execute(Runnable task) {
+						getFlushes().execute(key, task);
+					}
+				};
+				batcher = new HMessageBatcher(options.getBatchSize(), options.getBatchWindow(), HWheelTimer.getShared(), executor, new HMessageBatcher.Flusher() {
+					public void flush(List<JSONObject> batch) {
+						emitBatch(batch);
+					}
+				});
+			}
+		} else {
+			batcher = null;
+		}
 		
 		String endpointHost = options.getEndpointHost();
 		int endpointPort = options.getEndpointPort();
@@ -141,12 +175,35 @@ public class HTransportSocketio implements HTransport, IOCallback {
 		} else {
 			throw new NullPointerException("Error : " + this.getClass().getName() + " requires a callback");
 		}
+		// the current batch can not be written anymore
+		HMessageBatcher current = batcher;
+		if (status == ConnectionStatus.DISCONNECTED && current != null) {
+			giveBack(current.drain());
+		}
+	}
+
+	private static synchronized HDeliveryExecutor getFlushes() {
+		if (flushes == null) {
+			int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			flushes = new HDeliveryExecutor(threads, FLUSH_QUEUE_SIZE, HDeliveryRejection.BLOCK);
+		}
+		return flushes;
+	}
+
+	private void giveBack(List<JSONObject> objects) {
+		if (!objects.isEmpty()) {
+			callback.onUnsent(objects);
+		}
 	}
 
 	/**
 	 * Disconnect from server 
 	 */
 	public void disconnect() {
+		// send what is waiting in the current batch before leaving
+		if (batcher != null) {
+			batcher.flush();
+		}
 		this.connectionStatus = ConnectionStatus.DISCONNECTING;
 		if(autoReconnectTask != null){
 			autoReconnectTask.cancel();
@@ -186,11 +243,32 @@ public class HTransportSocketio implements HTransport, IOCallback {
 
 	public void sendObject(JSONObject object) {
 		if( connectionStatus == ConnectionStatus.CONNECTED) {
-			socketio.emit("hMessage",object);
+			if (batcher != null) {
+				batcher.add(object);
+			} else {
+				// serialized by the streaming codec when the socket.io client writes the frame
+				socketio.emit("hMessage", HMessageCodec.asJSONString(object));
+			}
 		} else {
 			logger.warn("message: Not connected");
+			giveBack(Collections.singletonList(object));
 		}		
 	}
+
+	/**
+	 * send a batch of messages in one frame, as an array of hMessages. A single message is sent as is.
+	 */
+	private void emitBatch(List<JSONObject> batch) {
+		SocketIO socket = socketio;
+		if (socket == null || !(connectionStatus == ConnectionStatus.CONNECTED || connectionStatus == ConnectionStatus.DISCONNECTING)) {
+			logger.warn("message: Not connected, " + batch.size() + " messages not sent");
+			giveBack(batch);
+		} else if (batch.size() == 1) {
+			socket.emit("hMessage", HMessageCodec.asJSONString(batch.get(0)));
+		} else {
+			socket.emit("hMessage", HMessageCodec.asJSONString(batch));
+		}
+	}
 	
 	/* Socket io  delegate callback*/
 	public void on(String type, IOAcknowledge arg1, Object... arg2) {
@@ -203,6 +281,9 @@ public class HTransportSocketio implements HTransport, IOCallback {
 					timeoutTimer.cancel();
 					timeoutTimer = null;
 				}
+				if (status.getStatus() == ConnectionStatus.CONNECTED) {
+					options.setSession(status);
+				}
 				updateStatus(status.getStatus(), status.getErrorCode(), status.getErrorMsg());
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -228,6 +309,23 @@ public class HTransportSocketio implements HTransport, IOCallback {
 					timeoutTimer = null;
 				}
 			}
+		} else if (type.equalsIgnoreCase("hMessage") && arg2 != null && arg2[0] instanceof JSONArray){
+			// batch of hMessages : delivered one by one, in order
+			JSONArray batch = (JSONArray)arg2[0];
+			if (timeoutTimer != null) {
+				timeoutTimer.cancel();
+				timeoutTimer = null;
+			}
+			for (int i = 0; i < batch.length(); i++) {
+				JSONObject data = batch.optJSONObject(i);
+				if (data != null) {
+					try {
+						callback.onData(type, data);
+					} catch (Exception e) {
+						logger.error("message: ", e);
+					}
+				}
+			}
 		}
 	}
 	
@@ -242,6 +340,10 @@ public class HTransportSocketio implements HTransport, IOCallback {
 			data.put("publisher", publisher);
 			data.put("password", password);
             data.put("sent", DateTime.now());
+			if (options.getSessionToken() != null) {
+				// lets hNode resume the previous session
+				data.put("session", options.getSessionToken());
+			}
 			//send the event
 			socketio.emit("hConnect", data);
 		} catch (Exception e) {
@@ -303,15 +405,17 @@ public class HTransportSocketio implements HTransport, IOCallback {
 	}
 	
 	/**
-	 * Called in onError. try to reconnect in 5s. if socketio can't connect, it will be called every 5s. 
+	 * Called in onError. try to reconnect after the reconnect delay of the options (5s by default).
+	 * If socketio can't connect, it will be called again.
 	 */
 	public void reconnect(){
-		updateStatus(connectionStatus, ConnectionError.NOT_CONNECTED, "Lost connection, try to reconnect in 5s.");
+		long delay = options.getReconnectDelay();
+		updateStatus(connectionStatus, ConnectionError.NOT_CONNECTED, "Lost connection, try to reconnect in " + delay + "ms.");
 		if(autoReconnectTask != null){
 			autoReconnectTask.cancel();
 		}
 		autoReconnectTask = new ReconnectTask();
-		autoReconnectTimer.schedule(autoReconnectTask, 5000);
+		autoReconnectTimer.schedule(autoReconnectTask, delay);
 	}
 		
 }
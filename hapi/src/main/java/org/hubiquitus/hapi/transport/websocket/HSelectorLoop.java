@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport.websocket;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hubiquitus.hapi.client.HDeliveryExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Selector thread running the I/O of many connections. The channels, their keys and the state of the
+ * connections are only used by this thread : other threads hand tasks to it with execute.
+ * Handlers must not block : a handler blocking delays the I/O of all the connections of the loop.
+ */
+
+public class HSelectorLoop implements Runnable {
+
+	final Logger logger = LoggerFactory.getLogger(HSelectorLoop.class);
+
+	/**
+	 * Called by the loop thread when a channel is ready
+	 */
+	public interface Handler {
+		/**
+		 * @param key key of the channel, with its ready operations
+		 */
+		void onReady(SelectionKey key);
+	}
+
+	private static HSelectorLoop shared = null;
+
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicBoolean wakenUp = new AtomicBoolean(false);
+
+	/**
+	 * @param name name of the thread of the loop
+	 * @throws IOException if the selector can not be opened
+	 */
+	public HSelectorLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * @return the loop shared by the clients of the process. Created on first use
+	 * @throws IOException if the selector can not be opened
+	 */
+	public static synchronized HSelectorLoop getShared() throws IOException {
+		if (shared == null) {
+			shared = new HSelectorLoop("hapi-selector");
+		}
+		return shared;
+	}
+
+	/**
+	 * Run a task on the loop thread : immediately if called by the loop thread, else at the next wake up
+	 * @param task a task. Must not block
+	 */
+	public void execute(Runnable task) {
+		if (inLoop()) {
+			task.run();
+			return;
+		}
+		tasks.add(task);
+		if (wakenUp.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * @return true if the current thread is the loop thread
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Register a channel. To be called by the loop thread
+	 * @param channel a non blocking channel
+	 * @param ops operations of interest
+	 * @param handler handler of the channel
+	 * @return the key of the channel
+	 * @throws IOException if the channel is closed
+	 */
+	public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+		return channel.register(selector, ops, handler);
+	}
+
+	public void run() {
+		// the callbacks of the sessions are handed off, never waited for
+		HDeliveryExecutor.markNonBlocking();
+		while (true) {
+			try {
+				selector.select();
+				wakenUp.set(false);
+				runTasks();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					try {
+						((Handler) key.attachment()).onReady(key);
+					} catch (Exception e) {
+						logger.error("message: ", e);
+					}
+				}
+			} catch (Exception e) {
+				logger.error("message: ", e);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (Exception e) {
+				logger.error("message: ", e);
+			}
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport.websocket;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.hubiquitus.hapi.client.HDeliveryExecutor;
+import org.hubiquitus.hapi.hStructures.ConnectionError;
+import org.hubiquitus.hapi.hStructures.ConnectionStatus;
+import org.hubiquitus.hapi.hStructures.HDeliveryRejection;
+import org.hubiquitus.hapi.hStructures.HStatus;
+import org.hubiquitus.hapi.transport.HMessageBatcher;
+import org.hubiquitus.hapi.transport.HTransport;
+import org.hubiquitus.hapi.transport.HTransportDelegate;
+import org.hubiquitus.hapi.transport.HTransportOptions;
+import org.hubiquitus.hapi.util.DateISO8601;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * HTransportWebsocket is a non blocking transport layer speaking the socket.io protocol of hNode over websocket (RFC 6455).
+ * The I/O of all the connections runs on one selector thread (see HSelectorLoop), with direct buffers.
+ * Frames are parsed in place in the read buffer and the events are decoded from it by the streaming codec.
+ * Timeouts and reconnections use the shared HWheelTimer. Selected with HOptions.setTransport("websocket").
+ * With sessionsPerConnection greater than 1, the session shares its connection (see HWebsocketPool) with the
+ * sessions of other clients : it then uses the namespace of its full jid under the endpoint path, which hNode must serve
+ * (socket.io multiplexing). Against an hNode without these namespaces, keep the default of one session per connection.
+ * The selector thread never runs the transport callbacks : it hands them to a pool of callback threads shared by the
+ * sessions, which runs the callbacks of a session one at a time, in order. A client blocking in a callback
+ * (ie : replaying its outbound queue) then only delays its own session.
+ */
+
+public class HTransportWebsocket implements HTransport, HWebsocketLink.Session {
+
+	final Logger logger = LoggerFactory.getLogger(HTransportWebsocket.class);
+
+	private static final long CONNECT_TIMEOUT = 10000;
+
+	/* callbacks queued beyond this bound by the selector and timer threads, which never wait */
+	private static final int CALLBACK_QUEUE_SIZE = 10000;
+
+	private static HDeliveryExecutor callbacks = null;
+
+	private HTransportDelegate callback = null;
+	private HTransportOptions options = null;
+	private HWebsocketPool pool = null;
+	private volatile ConnectionStatus connectionStatus = ConnectionStatus.DISCONNECTED;
+	private volatile HWebsocketLink link = null;
+	private volatile String endpoint = "";
+	private volatile HWheelTimer.Timeout connectTimeout = null;
+	private volatile HWheelTimer.Timeout reconnectTimeout = null;
+	// set when the session is lost, until the transport connects again or the user disconnects
+	private volatile boolean reconnectPending = false;
+	private HMessageBatcher batcher = null;
+
+	public HTransportWebsocket() {
+	}
+
+	/**
+	 * @param pool pool of the connections. The shared pool by default
+	 */
+	public HTransportWebsocket(HWebsocketPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * connect to a socket.io hnode gateway
+	 * @param callback - see HTransportCallback for more informations
+	 * @param options - transport options
+	 */
+	public void connect(HTransportDelegate callback, HTransportOptions options) {
+		this.connectionStatus = ConnectionStatus.CONNECTING;
+		this.callback = callback;
+		this.options = options;
+		reconnectPending = false;
+		cancelReconnect();
+		if (options.getBatchSize() > 1 && options.getBatchWindow() > 0) {
+			if (batcher == null) {
+				// the ends of the windows are written on the callback threads, after the callbacks of this session
+				Executor executor = new Executor() {
+					public void execute(Runnable task) {
+						deliver(task);
+					}
+				};
+				batcher = new HMessageBatcher(options.getBatchSize(), options.getBatchWindow(), HWheelTimer.getShared(), executor, new HMessageBatcher.Flusher() {
+					public void flush(List<JSONObject> batch) {
+						emit((batch.size() == 1) ? batch.get(0) : batch);
+					}
+				});
+			}
+		} else {
+			batcher = null;
+		}
+
+		try {
+			if (pool == null) {
+				pool = HWebsocketPool.getShared();
+			}
+			releaseLink();
+			String host = (options.getEndpointHost() != null) ? options.getEndpointHost() : "localhost";
+			int port = (options.getEndpointPort() > 0) ? options.getEndpointPort() : 80;
+			String path = options.getEndpointPath();
+			String namespace = (path == null || path.equals("/")) ? "" : path;
+			int sessionsPerConnection = Math.max(1, options.getSessionsPerConnection());
+			endpoint = (sessionsPerConnection > 1) ? namespace + "/" + options.getJid().getFullJID() : namespace;
+
+			final HWebsocketLink next = pool.acquire(host, port, sessionsPerConnection, endpoint);
+			link = next;
+			connectTimeout = HWheelTimer.getShared().schedule(new Runnable() {
+				public void run() {
+					if (link == next && connectionStatus == ConnectionStatus.CONNECTING) {
+						lost(next, ConnectionError.CONN_TIMEOUT, null);
+					}
+				}
+			}, CONNECT_TIMEOUT);
+			next.attach(this);
+		} catch (Exception e) {
+			lost(null, ConnectionError.TECH_ERROR, e.getMessage());
+		}
+	}
+
+	/**
+	 * Disconnect from server
+	 */
+	public void disconnect() {
+		// send what is waiting in the current batch before leaving
+		if (batcher != null) {
+			batcher.flush();
+		}
+		this.connectionStatus = ConnectionStatus.DISCONNECTING;
+		reconnectPending = false;
+		cancelReconnect();
+		releaseLink();
+		updateStatus(ConnectionStatus.DISCONNECTED, ConnectionError.NO_ERROR, null);
+	}
+
+	public void sendObject(JSONObject object) {
+		if (connectionStatus == ConnectionStatus.CONNECTED) {
+			if (batcher != null) {
+				batcher.add(object);
+			} else {
+				emit(object);
+			}
+		} else {
+			logger.warn("message: Not connected");
+			giveBack(Collections.singletonList(object));
+		}
+	}
+
+	/**
+	 * send a message, or a batch of messages in one frame as an array of hMessages
+	 */
+	@SuppressWarnings("unchecked")
+	private void emit(Object arg) {
+		HWebsocketLink current = link;
+		if (current == null || !(connectionStatus == ConnectionStatus.CONNECTED || connectionStatus == ConnectionStatus.DISCONNECTING)) {
+			logger.warn("message: Not connected, message not sent");
+			giveBack((arg instanceof List) ? (List<JSONObject>) arg : Collections.singletonList((JSONObject) arg));
+			return;
+		}
+		try {
+			current.sendEvent(endpoint, "hMessage", arg);
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	/* session of the link, called by the loop thread */
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public void onOpen(HWebsocketLink openLink) {
+		if (openLink != link) {
+			return;
+		}
+		try {
+			JSONObject data = new JSONObject();
+			data.put("publisher", options.getJid().getFullJID());
+			data.put("password", options.getPassword());
+			data.put("sent", DateISO8601.now());
+			if (options.getSessionToken() != null) {
+				// lets hNode resume the previous session
+				data.put("session", options.getSessionToken());
+			}
+			openLink.sendEvent(endpoint, "hConnect", data);
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	public void onEvent(HWebsocketLink eventLink, String name, Object arg) {
+		if (eventLink != link) {
+			return;
+		}
+		try {
+			if ("hStatus".equalsIgnoreCase(name) && arg instanceof JSONObject) {
+				HStatus status = new HStatus((JSONObject) arg);
+				if (status.getStatus() == ConnectionStatus.CONNECTED) {
+					cancelConnectTimeout();
+					options.setSession(status);
+				}
+				updateStatus(status.getStatus(), status.getErrorCode(), status.getErrorMsg());
+			} else if ("hMessage".equalsIgnoreCase(name) && arg instanceof JSONObject) {
+				final JSONObject data = (JSONObject) arg;
+				final HTransportDelegate current = callback;
+				deliver(new Runnable() {
+					public void run() {
+						current.onData("hmessage", data);
+					}
+				});
+			} else if ("hMessage".equalsIgnoreCase(name) && arg instanceof JSONArray) {
+				// batch of hMessages : delivered one by one, in order
+				final JSONArray batch = (JSONArray) arg;
+				final HTransportDelegate current = callback;
+				deliver(new Runnable() {
+					public void run() {
+						for (int i = 0; i < batch.length(); i++) {
+							JSONObject data = batch.optJSONObject(i);
+							if (data != null) {
+								try {
+									current.onData("hmessage", data);
+								} catch (Exception e) {
+									logger.error("message: ", e);
+								}
+							}
+						}
+					}
+				});
+			}
+		} catch (JSONException e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	public void onClosed(HWebsocketLink closedLink, ConnectionError error, String errorMsg) {
+		lost(closedLink, error, errorMsg);
+	}
+
+	/**
+	 * change current status and notify delegate through callback
+	 */
+	private void updateStatus(final ConnectionStatus status, final ConnectionError error, final String errorMsg) {
+		this.connectionStatus = status;
+		final HTransportDelegate current = callback;
+		if (current != null) {
+			deliver(new Runnable() {
+				public void run() {
+					current.onStatus(status, error, errorMsg);
+				}
+			});
+		}
+		// the current batch can not be written anymore
+		HMessageBatcher currentBatcher = batcher;
+		if (status == ConnectionStatus.DISCONNECTED && currentBatcher != null) {
+			giveBack(currentBatcher.drain());
+		}
+	}
+
+	private void giveBack(final List<JSONObject> objects) {
+		final HTransportDelegate current = callback;
+		if (!objects.isEmpty() && current != null) {
+			deliver(new Runnable() {
+				public void run() {
+					current.onUnsent(objects);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Run a callback on the callback threads, after the callbacks of this session already queued
+	 */
+	private void deliver(Runnable task) {
+		getCallbacks().execute(this, task);
+	}
+
+	private static synchronized HDeliveryExecutor getCallbacks() {
+		if (callbacks == null) {
+			int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			callbacks = new HDeliveryExecutor(threads, CALLBACK_QUEUE_SIZE, HDeliveryRejection.BLOCK);
+		}
+		return callbacks;
+	}
+
+	/**
+	 * The session is lost or could not be opened : notify and try to reconnect after the reconnect delay, unless the user disconnected
+	 */
+	private void lost(HWebsocketLink lostLink, ConnectionError error, String errorMsg) {
+		synchronized (this) {
+			if (lostLink != link || connectionStatus == ConnectionStatus.DISCONNECTING) {
+				return;
+			}
+			releaseLink();
+			reconnectPending = true;
+		}
+		updateStatus(ConnectionStatus.DISCONNECTED, error, errorMsg);
+		// once the client got the notification : it may choose another endpoint and delay
+		deliver(new Runnable() {
+			public void run() {
+				scheduleReconnect();
+			}
+		});
+	}
+
+	private void scheduleReconnect() {
+		if (!reconnectPending) {
+			return;
+		}
+		long delay = options.getReconnectDelay();
+		updateStatus(ConnectionStatus.DISCONNECTED, ConnectionError.NOT_CONNECTED, "Lost connection, try to reconnect in " + delay + "ms.");
+		reconnectTimeout = HWheelTimer.getShared().schedule(new Runnable() {
+			public void run() {
+				reconnectTimeout = null;
+				if (reconnectPending && connectionStatus == ConnectionStatus.DISCONNECTED && link == null) {
+					connect(callback, options);
+				}
+			}
+		}, delay);
+	}
+
+	/**
+	 * leave the current link, if any
+	 */
+	private synchronized void releaseLink() {
+		cancelConnectTimeout();
+		HWebsocketLink current = link;
+		link = null;
+		if (current != null) {
+			current.detach(this);
+			pool.release(current, endpoint);
+		}
+	}
+
+	private void cancelConnectTimeout() {
+		HWheelTimer.Timeout timeout = connectTimeout;
+		if (timeout != null) {
+			timeout.cancel();
+			connectTimeout = null;
+		}
+	}
+
+	private void cancelReconnect() {
+		HWheelTimer.Timeout timeout = reconnectTimeout;
+		if (timeout != null) {
+			timeout.cancel();
+			reconnectTimeout = null;
+		}
+	}
+
+	public String toString() {
+		return "HTransportWebsocket [callback=" + callback + ", options=" + options
+				+ ", connectionStatus=" + connectionStatus + "]";
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,803 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hubiquitus.hapi.hStructures.ConnectionError;
+import org.hubiquitus.hapi.transport.HMessageCodec;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * A websocket connection to an hNode : socket.io handshake over http, websocket upgrade (RFC 6455),
+ * then socket.io packets in text frames. It carries the sessions of one or more clients, each on its own
+ * socket.io endpoint : a link never carries two sessions of the same endpoint (see HWebsocketPool).
+ * Inbound packets are routed to the session of their endpoint only.
+ * The state of the link is only used by the loop thread, except the queue of frames to write.
+ */
+
+class HWebsocketLink implements HSelectorLoop.Handler {
+
+	final Logger logger = LoggerFactory.getLogger(HWebsocketLink.class);
+
+	/**
+	 * A client session carried by the link. Called by the loop thread
+	 */
+	interface Session {
+		/**
+		 * @return socket.io endpoint of the session. Empty for the default namespace
+		 */
+		String getEndpoint();
+
+		/**
+		 * the endpoint of the session is connected : the session can authenticate
+		 */
+		void onOpen(HWebsocketLink link);
+
+		void onEvent(HWebsocketLink link, String name, Object arg);
+
+		/**
+		 * the session is closed by the server, or the link is lost
+		 */
+		void onClosed(HWebsocketLink link, ConnectionError error, String errorMsg);
+	}
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	private static final long CONNECT_TIMEOUT = 10000;
+
+	private static final int OPCODE_CONTINUATION = 0x0;
+	private static final int OPCODE_TEXT = 0x1;
+	private static final int OPCODE_CLOSE = 0x8;
+	private static final int OPCODE_PING = 0x9;
+	private static final int OPCODE_PONG = 0xA;
+
+	private enum Phase {
+		HANDSHAKE, UPGRADE, OPEN, CLOSED
+	}
+
+	private final HSelectorLoop loop;
+	private final InetSocketAddress address;
+	private final String authority;
+	private final Random random = new Random();
+
+	// sessions by endpoint
+	private final Map<String, Session> sessions = new HashMap<String, Session>();
+	// endpoints of the sessions given to clients by the pool. Guarded by the pool
+	final Set<String> reserved = new HashSet<String>();
+
+	private volatile Phase phase = Phase.HANDSHAKE;
+	private boolean connected = false;
+	private SocketChannel channel = null;
+	private SelectionKey key = null;
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	// frames and requests to write, queued by any thread
+	private final ConcurrentLinkedQueue<byte[]> out = new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private byte[] writing = null;
+	private int writingOffset = 0;
+
+	// frame bigger than the read buffer, or fragmented message, being received
+	private ByteBuffer largeFrame = null;
+	private int largeFrameOpcode = 0;
+	private boolean largeFrameFin = false;
+	private ByteBuffer fragments = null;
+	private int fragmentsOpcode = 0;
+
+	private final BufferInputStream input = new BufferInputStream();
+	private String websocketKey = null;
+	private long heartbeatTimeout = 0;
+	private long lastReceived = 0;
+	private HWheelTimer.Timeout timeout = null;
+
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			flushScheduled.set(false);
+			flush();
+		}
+	};
+
+	/**
+	 * Open a link. Sessions are connected once the link is open
+	 * @param loop loop running the I/O of the link
+	 * @param address address of the hNode
+	 * @param authority host:port of the hNode, for the http headers
+	 */
+	HWebsocketLink(HSelectorLoop loop, InetSocketAddress address, String authority) {
+		this.loop = loop;
+		this.address = address;
+		this.authority = authority;
+		loop.execute(new Runnable() {
+			public void run() {
+				start();
+			}
+		});
+	}
+
+	/* any thread */
+
+	/**
+	 * Add a session to the link. It is closed at once if the link is lost
+	 */
+	void attach(final Session session) {
+		loop.execute(new Runnable() {
+			public void run() {
+				if (phase == Phase.CLOSED) {
+					session.onClosed(HWebsocketLink.this, ConnectionError.TECH_ERROR, "Connection lost");
+					return;
+				}
+				sessions.put(session.getEndpoint(), session);
+				if (connected) {
+					openSession(session);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Remove a session from the link, and disconnect its endpoint
+	 */
+	void detach(final Session session) {
+		loop.execute(new Runnable() {
+			public void run() {
+				String endpoint = session.getEndpoint();
+				if (sessions.get(endpoint) != session) {
+					return;
+				}
+				sessions.remove(endpoint);
+				if (phase == Phase.OPEN && endpoint.length() > 0) {
+					sendPacket("0::" + endpoint, null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Disconnect the link : socket.io disconnect packet and websocket close frame. The sessions left are not notified
+	 */
+	void shutdown() {
+		loop.execute(new Runnable() {
+			public void run() {
+				sessions.clear();
+				if (phase == Phase.OPEN) {
+					sendPacket("0::", null);
+					send(OPCODE_CLOSE, new byte[0], null);
+					flush();
+				}
+				close();
+			}
+		});
+	}
+
+	boolean isClosed() {
+		return phase == Phase.CLOSED;
+	}
+
+	/**
+	 * send an event to an endpoint
+	 * @param endpoint socket.io endpoint. Empty for the default namespace
+	 * @param name name of the event
+	 * @param arg argument of the event : a JSONObject or a list of JSONObjects
+	 */
+	void sendEvent(String endpoint, String name, Object arg) throws JSONException {
+		sendPacket("5::" + endpoint + ":", HMessageCodec.encodeEvent(name, arg));
+	}
+
+	private void sendPacket(String prefix, byte[] data) {
+		send(OPCODE_TEXT, prefix.getBytes(ASCII), data);
+	}
+
+	/**
+	 * queue a masked frame of the concatenation of head and tail (tail may be null)
+	 */
+	private void send(int opcode, byte[] head, byte[] tail) {
+		int length = head.length + ((tail != null) ? tail.length : 0);
+		int header = (length < 126) ? 2 : ((length < 65536) ? 4 : 10);
+		byte[] frame = new byte[header + 4 + length];
+		frame[0] = (byte) (0x80 | opcode);
+		if (length < 126) {
+			frame[1] = (byte) (0x80 | length);
+		} else if (length < 65536) {
+			frame[1] = (byte) (0x80 | 126);
+			frame[2] = (byte) (length >>> 8);
+			frame[3] = (byte) length;
+		} else {
+			frame[1] = (byte) (0x80 | 127);
+			for (int i = 0; i < 8; i++) {
+				frame[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+			}
+		}
+		int mask = random.nextInt();
+		byte[] maskBytes = {(byte) (mask >>> 24), (byte) (mask >>> 16), (byte) (mask >>> 8), (byte) mask};
+		System.arraycopy(maskBytes, 0, frame, header, 4);
+		int offset = header + 4;
+		for (int i = 0; i < head.length; i++) {
+			frame[offset + i] = (byte) (head[i] ^ maskBytes[i & 3]);
+		}
+		if (tail != null) {
+			for (int i = 0, j = head.length; i < tail.length; i++, j++) {
+				frame[offset + j] = (byte) (tail[i] ^ maskBytes[j & 3]);
+			}
+		}
+		out.add(frame);
+		if (flushScheduled.compareAndSet(false, true)) {
+			loop.execute(flushTask);
+		}
+	}
+
+	/* loop thread */
+
+	private void start() {
+		timeout = HWheelTimer.getShared().schedule(new Runnable() {
+			public void run() {
+				loop.execute(new Runnable() {
+					public void run() {
+						if (!connected) {
+							fail(ConnectionError.CONN_TIMEOUT, null);
+						}
+					}
+				});
+			}
+		}, CONNECT_TIMEOUT);
+		// socket.io handshake : http 1.0 so that the session id is the whole body until the end of the stream
+		open("GET /socket.io/1/?t=" + System.currentTimeMillis() + " HTTP/1.0\r\n"
+				+ "Host: " + authority + "\r\n\r\n");
+	}
+
+	private void open(String request) {
+		try {
+			readBuffer.clear();
+			writeBuffer.clear();
+			writing = null;
+			out.clear();
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			out.add(request.getBytes(ASCII));
+			if (channel.connect(address)) {
+				key = loop.register(channel, SelectionKey.OP_READ, this);
+				flush();
+			} else {
+				key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+			}
+		} catch (IOException e) {
+			fail(ConnectionError.TECH_ERROR, e.getMessage());
+		}
+	}
+
+	private void openSession(Session session) {
+		if (session.getEndpoint().length() == 0) {
+			session.onOpen(this);
+		} else {
+			sendPacket("1::" + session.getEndpoint(), null);
+		}
+	}
+
+	public void onReady(SelectionKey readyKey) {
+		if (readyKey != key || phase == Phase.CLOSED) {
+			return;
+		}
+		try {
+			if (readyKey.isConnectable()) {
+				channel.finishConnect();
+				key.interestOps(SelectionKey.OP_READ);
+				flush();
+			}
+			if (readyKey.isValid() && readyKey.isWritable()) {
+				flush();
+			}
+			if (readyKey.isValid() && readyKey.isReadable()) {
+				int read = channel.read(readBuffer);
+				if (read < 0) {
+					onEndOfStream();
+				} else if (read > 0) {
+					lastReceived = System.currentTimeMillis();
+					onRead();
+				}
+			}
+		} catch (Exception e) {
+			fail(ConnectionError.TECH_ERROR, e.getMessage());
+		}
+	}
+
+	private void onEndOfStream() throws IOException {
+		if (phase == Phase.HANDSHAKE) {
+			onHandshake();
+		} else {
+			fail(ConnectionError.TECH_ERROR, "Connection closed by the server");
+		}
+	}
+
+	private void onRead() throws Exception {
+		if (phase == Phase.HANDSHAKE) {
+			if (!readBuffer.hasRemaining()) {
+				fail(ConnectionError.TECH_ERROR, "Handshake response too long");
+			}
+		} else if (phase == Phase.UPGRADE) {
+			onUpgrade();
+		} else if (phase == Phase.OPEN) {
+			readFrames();
+		}
+	}
+
+	private void onHandshake() throws IOException {
+		readBuffer.flip();
+		byte[] bytes = new byte[readBuffer.remaining()];
+		readBuffer.get(bytes);
+		String response = new String(bytes, ASCII);
+		int body = response.indexOf("\r\n\r\n");
+		if (!response.startsWith("HTTP/1.") || response.indexOf(" 200 ") < 0 || body < 0) {
+			fail(ConnectionError.TECH_ERROR, "Handshake refused : " + response.split("\r\n")[0]);
+			return;
+		}
+		// sid:heartbeat timeout:close timeout:transports
+		String[] session = response.substring(body + 4).trim().split(":");
+		if (session.length < 4 || !session[3].contains("websocket")) {
+			fail(ConnectionError.TECH_ERROR, "Websocket transport not available");
+			return;
+		}
+		heartbeatTimeout = session[1].length() > 0 ? Long.parseLong(session[1]) * 1000 : 0;
+		channel.close();
+
+		byte[] nonce = new byte[16];
+		random.nextBytes(nonce);
+		websocketKey = base64(nonce);
+		phase = Phase.UPGRADE;
+		open("GET /socket.io/1/websocket/" + session[0] + " HTTP/1.1\r\n"
+				+ "Host: " + authority + "\r\n"
+				+ "Upgrade: websocket\r\n"
+				+ "Connection: Upgrade\r\n"
+				+ "Origin: http://" + authority + "\r\n"
+				+ "Sec-WebSocket-Key: " + websocketKey + "\r\n"
+				+ "Sec-WebSocket-Version: 13\r\n\r\n");
+	}
+
+	private void onUpgrade() throws Exception {
+		int end = -1;
+		for (int i = 3; i < readBuffer.position(); i++) {
+			if (readBuffer.get(i - 3) == '\r' && readBuffer.get(i - 2) == '\n' && readBuffer.get(i - 1) == '\r' && readBuffer.get(i) == '\n') {
+				end = i + 1;
+				break;
+			}
+		}
+		if (end < 0) {
+			if (!readBuffer.hasRemaining()) {
+				fail(ConnectionError.TECH_ERROR, "Upgrade response too long");
+			}
+			return;
+		}
+		byte[] bytes = new byte[end];
+		readBuffer.flip();
+		readBuffer.get(bytes);
+		readBuffer.compact();
+		String response = new String(bytes, ASCII);
+		MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+		String accept = base64(sha1.digest((websocketKey + WEBSOCKET_GUID).getBytes(ASCII)));
+		if (!response.startsWith("HTTP/1.1 101") || !response.contains(accept)) {
+			fail(ConnectionError.TECH_ERROR, "Websocket upgrade refused : " + response.split("\r\n")[0]);
+			return;
+		}
+		phase = Phase.OPEN;
+		readFrames();
+	}
+
+	/**
+	 * parse the frames of the read buffer, in place. Incomplete frames are kept for the next read
+	 */
+	private void readFrames() throws Exception {
+		readBuffer.flip();
+		try {
+			if (largeFrame != null) {
+				readLargeFrame();
+			}
+			while (largeFrame == null && phase == Phase.OPEN && readBuffer.remaining() >= 2) {
+				int start = readBuffer.position();
+				int first = readBuffer.get(start) & 0xff;
+				int second = readBuffer.get(start + 1) & 0xff;
+				long length = second & 0x7f;
+				int header = 2;
+				if (length == 126) {
+					if (readBuffer.remaining() < 4) {
+						break;
+					}
+					length = readBuffer.getShort(start + 2) & 0xffff;
+					header = 4;
+				} else if (length == 127) {
+					if (readBuffer.remaining() < 10) {
+						break;
+					}
+					length = readBuffer.getLong(start + 2);
+					header = 10;
+				}
+				if ((second & 0x80) != 0 || length < 0 || length > MAX_FRAME_SIZE) {
+					fail(ConnectionError.TECH_ERROR, "Invalid websocket frame");
+					return;
+				}
+				boolean fin = (first & 0x80) != 0;
+				int opcode = first & 0x0f;
+				if (header + length > readBuffer.capacity()) {
+					readBuffer.position(start + header);
+					largeFrame = ByteBuffer.allocate((int) length);
+					largeFrameOpcode = opcode;
+					largeFrameFin = fin;
+					readLargeFrame();
+					continue;
+				}
+				if (readBuffer.remaining() < header + length) {
+					break;
+				}
+				int limit = readBuffer.limit();
+				int end = start + header + (int) length;
+				readBuffer.limit(end);
+				readBuffer.position(start + header);
+				onFrame(fin, opcode, readBuffer);
+				readBuffer.limit(limit);
+				readBuffer.position(end);
+			}
+		} finally {
+			if (phase != Phase.CLOSED) {
+				readBuffer.compact();
+			}
+		}
+	}
+
+	private void readLargeFrame() throws Exception {
+		int count = Math.min(largeFrame.remaining(), readBuffer.remaining());
+		int limit = readBuffer.limit();
+		readBuffer.limit(readBuffer.position() + count);
+		largeFrame.put(readBuffer);
+		readBuffer.limit(limit);
+		if (!largeFrame.hasRemaining()) {
+			ByteBuffer frame = largeFrame;
+			largeFrame = null;
+			frame.flip();
+			onFrame(largeFrameFin, largeFrameOpcode, frame);
+		}
+	}
+
+	/**
+	 * @param payload the payload of the frame, between its position and its limit
+	 */
+	private void onFrame(boolean fin, int opcode, ByteBuffer payload) throws Exception {
+		switch (opcode) {
+		case OPCODE_TEXT:
+			if (fin) {
+				onPacket(payload);
+			} else {
+				fragmentsOpcode = opcode;
+				fragments = ByteBuffer.allocate(Math.max(payload.remaining() * 2, 1024));
+				fragments.put(payload);
+			}
+			break;
+		case OPCODE_CONTINUATION:
+			if (fragments == null) {
+				break;
+			}
+			if (fragments.remaining() < payload.remaining()) {
+				if (fragments.position() + payload.remaining() > MAX_FRAME_SIZE) {
+					fail(ConnectionError.TECH_ERROR, "Websocket message too long");
+					return;
+				}
+				ByteBuffer bigger = ByteBuffer.allocate((fragments.position() + payload.remaining()) * 2);
+				fragments.flip();
+				bigger.put(fragments);
+				fragments = bigger;
+			}
+			fragments.put(payload);
+			if (fin) {
+				ByteBuffer message = fragments;
+				fragments = null;
+				message.flip();
+				if (fragmentsOpcode == OPCODE_TEXT) {
+					onPacket(message);
+				}
+			}
+			break;
+		case OPCODE_PING:
+			byte[] data = new byte[payload.remaining()];
+			payload.get(data);
+			send(OPCODE_PONG, data, null);
+			break;
+		case OPCODE_CLOSE:
+			fail(ConnectionError.TECH_ERROR, "Connection closed by the server");
+			break;
+		default:
+			// pong and binary frames are ignored
+			break;
+		}
+	}
+
+	/**
+	 * socket.io packet : type:id:endpoint[:data]
+	 */
+	private void onPacket(ByteBuffer packet) throws Exception {
+		int start = packet.position();
+		int type = packet.get(start) - '0';
+		int idEnd = indexOf(packet, ':', start + 1);
+		int endpointStart = (idEnd < 0) ? -1 : indexOf(packet, ':', idEnd + 1) + 1;
+		if (endpointStart <= 0) {
+			logger.warn("message: invalid socket.io packet");
+			return;
+		}
+		int dataStart = indexOf(packet, ':', endpointStart);
+		int endpointEnd = (dataStart < 0) ? packet.limit() : dataStart;
+		String endpoint = ascii(packet, endpointStart, endpointEnd);
+		switch (type) {
+		case 0:
+			if (endpoint.length() == 0) {
+				fail(ConnectionError.TECH_ERROR, "Disconnected by the server");
+			} else {
+				Session session = sessions.remove(endpoint);
+				if (session != null) {
+					session.onClosed(this, ConnectionError.TECH_ERROR, "Disconnected by the server");
+				}
+			}
+			break;
+		case 1:
+			if (endpoint.length() == 0) {
+				onConnected();
+			} else if (sessions.containsKey(endpoint)) {
+				sessions.get(endpoint).onOpen(this);
+			}
+			break;
+		case 2:
+			sendPacket("2::", null);
+			break;
+		case 5:
+			if (dataStart >= 0) {
+				packet.position(dataStart + 1);
+				input.reset(packet);
+				List<Object> args = new ArrayList<Object>(1);
+				String name = HMessageCodec.decodeEvent(input, args);
+				route(endpoint, name, args.isEmpty() ? null : args.get(0));
+			}
+			break;
+		case 7:
+			String reason = (dataStart >= 0) ? ascii(packet, dataStart + 1, packet.limit()) : "";
+			fail(ConnectionError.TECH_ERROR, "socket.io error " + reason);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void onConnected() {
+		connected = true;
+		cancelTimeout();
+		scheduleHeartbeatCheck();
+		for (Session session : new ArrayList<Session>(sessions.values())) {
+			openSession(session);
+		}
+	}
+
+	/**
+	 * deliver an event to the session of its endpoint. Events of an endpoint without session are dropped :
+	 * the link can not tell which session they are for
+	 */
+	private void route(String endpoint, String name, Object arg) {
+		Session session = sessions.get(endpoint);
+		if (session != null) {
+			dispatch(session, name, arg);
+		} else {
+			logger.warn("message: " + name + " event of the endpoint '" + endpoint + "' without session dropped");
+		}
+	}
+
+	private void dispatch(Session session, String name, Object arg) {
+		try {
+			session.onEvent(this, name, arg);
+		} catch (Exception e) {
+			logger.error("message: ", e);
+		}
+	}
+
+	private void scheduleHeartbeatCheck() {
+		if (heartbeatTimeout <= 0) {
+			return;
+		}
+		timeout = HWheelTimer.getShared().schedule(new Runnable() {
+			public void run() {
+				loop.execute(new Runnable() {
+					public void run() {
+						if (phase != Phase.OPEN) {
+							return;
+						}
+						if (System.currentTimeMillis() - lastReceived > heartbeatTimeout) {
+							fail(ConnectionError.TECH_ERROR, "Heartbeat timeout");
+						} else {
+							scheduleHeartbeatCheck();
+						}
+					}
+				});
+			}
+		}, heartbeatTimeout);
+	}
+
+	private void cancelTimeout() {
+		if (timeout != null) {
+			timeout.cancel();
+			timeout = null;
+		}
+	}
+
+	/**
+	 * write the queued bytes, through the direct write buffer. Waits for OP_WRITE when the socket is full
+	 */
+	private void flush() {
+		if (phase == Phase.CLOSED || channel == null || !channel.isConnected()) {
+			return;
+		}
+		try {
+			while (true) {
+				while (writeBuffer.hasRemaining() && (writing != null || (writing = out.poll()) != null)) {
+					int count = Math.min(writeBuffer.remaining(), writing.length - writingOffset);
+					writeBuffer.put(writing, writingOffset, count);
+					writingOffset += count;
+					if (writingOffset == writing.length) {
+						writing = null;
+						writingOffset = 0;
+					}
+				}
+				writeBuffer.flip();
+				channel.write(writeBuffer);
+				boolean written = !writeBuffer.hasRemaining();
+				writeBuffer.compact();
+				if (!written) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				if (writing == null && out.isEmpty()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+		} catch (IOException e) {
+			fail(ConnectionError.TECH_ERROR, e.getMessage());
+		}
+	}
+
+	/**
+	 * close on error, and notify the sessions
+	 */
+	private void fail(ConnectionError error, String errorMsg) {
+		if (phase == Phase.CLOSED) {
+			return;
+		}
+		close();
+		List<Session> lost = new ArrayList<Session>(sessions.values());
+		sessions.clear();
+		for (Session session : lost) {
+			try {
+				session.onClosed(this, error, errorMsg);
+			} catch (Exception e) {
+				logger.error("message: ", e);
+			}
+		}
+	}
+
+	private void close() {
+		phase = Phase.CLOSED;
+		cancelTimeout();
+		out.clear();
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			logger.debug("message: ", e);
+		}
+	}
+
+	/* helpers */
+
+	private static String base64(byte[] data) {
+		final char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+		StringBuilder builder = new StringBuilder((data.length + 2) / 3 * 4);
+		for (int i = 0; i < data.length; i += 3) {
+			int b = (data[i] & 0xff) << 16;
+			b |= (i + 1 < data.length) ? (data[i + 1] & 0xff) << 8 : 0;
+			b |= (i + 2 < data.length) ? (data[i + 2] & 0xff) : 0;
+			builder.append(alphabet[(b >> 18) & 0x3f]).append(alphabet[(b >> 12) & 0x3f]);
+			builder.append((i + 1 < data.length) ? alphabet[(b >> 6) & 0x3f] : '=');
+			builder.append((i + 2 < data.length) ? alphabet[b & 0x3f] : '=');
+		}
+		return builder.toString();
+	}
+
+	private static int indexOf(ByteBuffer buffer, char c, int from) {
+		for (int i = from; i < buffer.limit(); i++) {
+			if (buffer.get(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String ascii(ByteBuffer buffer, int start, int end) {
+		if (start >= end) {
+			return "";
+		}
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = (char) buffer.get(i);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Reads the remaining bytes of a buffer, without copying them first
+	 */
+	private static final class BufferInputStream extends InputStream {
+		private ByteBuffer buffer;
+
+		void reset(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.transport.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Websocket links of the process, by hNode endpoint. A link carries up to maxSessions sessions, on distinct
+ * socket.io endpoints : a new link is opened when all the links of the hNode are full, lost, or already carry the endpoint. A link is shut down when its last session is released.
+ */
+
+public class HWebsocketPool {
+
+	private static HWebsocketPool shared = null;
+
+	private final HSelectorLoop loop;
+	private final Map<String, List<HWebsocketLink>> links = new HashMap<String, List<HWebsocketLink>>();
+
+	/**
+	 * @param loop loop running the I/O of the links
+	 */
+	public HWebsocketPool(HSelectorLoop loop) {
+		this.loop = loop;
+	}
+
+	/**
+	 * @return the pool shared by the clients of the process, on the shared selector loop
+	 * @throws IOException if the selector can not be opened
+	 */
+	public static synchronized HWebsocketPool getShared() throws IOException {
+		if (shared == null) {
+			shared = new HWebsocketPool(HSelectorLoop.getShared());
+		}
+		return shared;
+	}
+
+	/**
+	 * Reserve a session on a link to an hNode. To be released with release
+	 * @param host host of the hNode
+	 * @param port port of the hNode
+	 * @param maxSessions maximum number of sessions on a link
+	 * @param endpoint socket.io endpoint of the session : a link carries one session per endpoint
+	 * @return a link with room for the session
+	 */
+	HWebsocketLink acquire(String host, int port, int maxSessions, String endpoint) {
+		String authority = host + ":" + port;
+		synchronized (this) {
+			HWebsocketLink link = reserve(authority, maxSessions, endpoint);
+			if (link != null) {
+				return link;
+			}
+		}
+		// resolved out of the lock : a slow name resolution does not hold the other clients
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		synchronized (this) {
+			// a link may have been opened meanwhile
+			HWebsocketLink link = reserve(authority, maxSessions, endpoint);
+			if (link == null) {
+				link = new HWebsocketLink(loop, address, authority);
+				links.get(authority).add(link);
+				link.reserved.add(endpoint);
+			}
+			return link;
+		}
+	}
+
+	/**
+	 * @return a link of the hNode with room for the session, reserved. Null if none
+	 */
+	private HWebsocketLink reserve(String authority, int maxSessions, String endpoint) {
+		List<HWebsocketLink> endpointLinks = links.get(authority);
+		if (endpointLinks == null) {
+			endpointLinks = new ArrayList<HWebsocketLink>();
+			links.put(authority, endpointLinks);
+		}
+		HWebsocketLink link = null;
+		Iterator<HWebsocketLink> it = endpointLinks.iterator();
+		while (it.hasNext()) {
+			HWebsocketLink candidate = it.next();
+			if (candidate.isClosed()) {
+				it.remove();
+			} else if (link == null && candidate.reserved.size() < maxSessions && !candidate.reserved.contains(endpoint)) {
+				link = candidate;
+			}
+		}
+		if (link != null) {
+			link.reserved.add(endpoint);
+		}
+		return link;
+	}
+
+	/**
+	 * Release a session reserved by acquire. The link is shut down if it has no session left
+	 */
+	synchronized void release(HWebsocketLink link, String endpoint) {
+		link.reserved.remove(endpoint);
+		if (!link.reserved.isEmpty()) {
+			return;
+		}
+		for (List<HWebsocketLink> endpointLinks : links.values()) {
+			endpointLinks.remove(link);
+		}
+		link.shutdown();
+	}
+
+	/**
+	 * @return number of links opened and not lost
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (List<HWebsocketLink> endpointLinks : links.values()) {
+			for (HWebsocketLink link : endpointLinks) {
+				if (!link.isClosed()) {
+					size++;
+				}
+			}
+		}
+		return size;
+	}
+}
+
+/**
+ * @endcond
+ */
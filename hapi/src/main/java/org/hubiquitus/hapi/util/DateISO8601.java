@@ -1,46 +1,209 @@
 package org.hubiquitus.hapi.util;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.GregorianCalendar;
 
 /**
- * Helper class for handling ISO 8601 strings of the following format:
- * "2008-03-01T13:00:00+01:00". It also supports parsing the "Z" timezone.
+ * Codec of the ISO 8601 date-times of the messages, to and from epoch millis.
+ * Dates are formatted in UTC as "2008-03-01T12:00:00.000Z". Parsing accepts "2008-03-01T13:00:00+01:00",
+ * with or without milliseconds, with a "Z", "+01:00", "+0100" or "+01" offset (UTC if none).
+ * Formatters and parsers are hand written : thread safe and without intermediate objects.
  */
 public final class DateISO8601 {
-    /** Transform Calendar to ISO 8601 string. */
-    public static String fromCalendar(final Calendar calendar) {
-        Date date = calendar.getTime();
-        String formatted = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
-            .format(date);
-        return formatted;
-    }
-
-    /** Get current date and time formatted as ISO 8601 string. */
-    public static String now() {
-        return fromCalendar(GregorianCalendar.getInstance());
-    }
-
-    /** Transform ISO 8601 string to Calendar. */
-    public static Calendar toCalendar(final String iso8601string) {
-        Calendar calendar = GregorianCalendar.getInstance();
-        String s = iso8601string.replace("Z", "+0000");
-        try {
-            s = s.substring(0, 22) + s.substring(23);
-        } catch (IndexOutOfBoundsException e) {
-            e.printStackTrace();
-        }
-        Date date;
-		try {
-			date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").parse(s);
-			calendar.setTime(date);
-		} catch (ParseException e) {
-			e.printStackTrace();
-		}
-        
-        return calendar;
-    }
-}
\ No newline at end of file
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	/** days from 0000-03-01 to 1970-01-01 */
+	private static final long DAYS_0000_TO_1970 = 719468L;
+
+	private DateISO8601() {
+	}
+
+	/**
+	 * @param millis epoch millis, of a year between 0 and 9999
+	 * @return the date-time in UTC : "yyyy-MM-ddTHH:mm:ss.SSSZ"
+	 */
+	public static String format(long millis) {
+		long days = floorDiv(millis, MILLIS_PER_DAY);
+		int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+
+		// civil date of a day count (proleptic gregorian, eras of 400 years starting on march 1st)
+		long z = days + DAYS_0000_TO_1970;
+		long era = floorDiv(z, 146097);
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = (shiftedMonth < 10) ? shiftedMonth + 3 : shiftedMonth - 9;
+		long year = era * 400 + yearOfEra + ((month <= 2) ? 1 : 0);
+		if (year < 0 || year > 9999) {
+			throw new IllegalArgumentException("Year out of range : " + year);
+		}
+
+		char[] buffer = new char[24];
+		write(buffer, 0, (int) year, 4);
+		buffer[4] = '-';
+		write(buffer, 5, month, 2);
+		buffer[7] = '-';
+		write(buffer, 8, day, 2);
+		buffer[10] = 'T';
+		write(buffer, 11, millisOfDay / 3600000, 2);
+		buffer[13] = ':';
+		write(buffer, 14, (millisOfDay / 60000) % 60, 2);
+		buffer[16] = ':';
+		write(buffer, 17, (millisOfDay / 1000) % 60, 2);
+		buffer[19] = '.';
+		write(buffer, 20, millisOfDay % 1000, 3);
+		buffer[23] = 'Z';
+		return new String(buffer);
+	}
+
+	/**
+	 * @param text an ISO 8601 date-time : "yyyy-MM-ddTHH:mm:ss[.SSS][Z|+HH:mm|+HHmm|+HH]"
+	 * @return epoch millis of the date-time
+	 * @throws IllegalArgumentException if the text is not in this format
+	 */
+	public static long parse(String text) {
+		int length = (text == null) ? 0 : text.length();
+		if (length < 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+				|| text.charAt(13) != ':' || text.charAt(16) != ':') {
+			throw invalid(text);
+		}
+		int year = read(text, 0, 4);
+		int month = read(text, 5, 2);
+		int day = read(text, 8, 2);
+		int hour = read(text, 11, 2);
+		int minute = read(text, 14, 2);
+		int second = read(text, 17, 2);
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59) {
+			throw invalid(text);
+		}
+
+		int index = 19;
+		int millis = 0;
+		if (index < length && text.charAt(index) == '.') {
+			index++;
+			int start = index;
+			while (index < length && isDigit(text.charAt(index))) {
+				// digits after the milliseconds are truncated
+				if (index - start < 3) {
+					millis = millis * 10 + (text.charAt(index) - '0');
+				}
+				index++;
+			}
+			if (index == start) {
+				throw invalid(text);
+			}
+			for (int digits = index - start; digits < 3; digits++) {
+				millis *= 10;
+			}
+		}
+
+		int offsetMinutes = 0;
+		if (index < length) {
+			char sign = text.charAt(index);
+			if (sign == 'Z' && index + 1 == length) {
+				index++;
+			} else if (sign == '+' || sign == '-') {
+				int remaining = length - index - 1;
+				int offsetHour;
+				int offsetMinute = 0;
+				if (remaining == 2) {
+					offsetHour = read(text, index + 1, 2);
+				} else if (remaining == 4) {
+					offsetHour = read(text, index + 1, 2);
+					offsetMinute = read(text, index + 3, 2);
+				} else if (remaining == 5 && text.charAt(index + 3) == ':') {
+					offsetHour = read(text, index + 1, 2);
+					offsetMinute = read(text, index + 4, 2);
+				} else {
+					throw invalid(text);
+				}
+				if (offsetHour > 23 || offsetMinute > 59) {
+					throw invalid(text);
+				}
+				offsetMinutes = offsetHour * 60 + offsetMinute;
+				if (sign == '-') {
+					offsetMinutes = -offsetMinutes;
+				}
+			} else {
+				throw invalid(text);
+			}
+		}
+
+		long days = daysFromCivil(year, month, day);
+		return days * MILLIS_PER_DAY + hour * 3600000L + (minute - offsetMinutes) * 60000L + second * 1000L + millis;
+	}
+
+	/** Transform Calendar to ISO 8601 string, in UTC. */
+	public static String fromCalendar(final Calendar calendar) {
+		return format(calendar.getTimeInMillis());
+	}
+
+	/** Get current date and time formatted as ISO 8601 string, in UTC. */
+	public static String now() {
+		return format(System.currentTimeMillis());
+	}
+
+	/**
+	 * Transform ISO 8601 string to Calendar.
+	 * @throws IllegalArgumentException if the string is not an ISO 8601 date-time (see parse)
+	 */
+	public static Calendar toCalendar(final String iso8601string) {
+		Calendar calendar = GregorianCalendar.getInstance();
+		calendar.setTimeInMillis(parse(iso8601string));
+		return calendar;
+	}
+
+	/* helpers */
+
+	private static int daysInMonth(int year, int month) {
+		if (month == 2) {
+			boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+			return leap ? 29 : 28;
+		}
+		return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+	}
+
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = (month <= 2) ? year - 1 : year;
+		long era = floorDiv(y, 400);
+		int yearOfEra = (int) (y - era * 400);
+		int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - DAYS_0000_TO_1970;
+	}
+
+	private static long floorDiv(long value, long divisor) {
+		long quotient = value / divisor;
+		return (value % divisor < 0) ? quotient - 1 : quotient;
+	}
+
+	private static void write(char[] buffer, int offset, int value, int digits) {
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private static int read(String text, int offset, int digits) {
+		int value = 0;
+		for (int i = offset; i < offset + digits; i++) {
+			char c = text.charAt(i);
+			if (!isDigit(c)) {
+				throw invalid(text);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static IllegalArgumentException invalid(String text) {
+		return new IllegalArgumentException("Invalid ISO 8601 date : " + text);
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Multi-level fifo : elements are taken from the highest level first, in insertion order within a level.
+ * Starvation protection : each time a level is passed over while not empty, its skip count grows.
+ * A level skipped maxSkips times is served next (so a level gets at least one element out of maxSkips + 1).
+ * Not thread safe.
+ */
+
+public class HPriorityLevels<E> implements Iterable<E> {
+
+	/** default number of times a level can be passed over before being served */
+	public static final int DEFAULT_MAX_SKIPS = 8;
+
+	private final List<E>[] levels;
+	private final int[] skips;
+	private final int maxSkips;
+	private int size = 0;
+
+	/**
+	 * @param levelCount number of levels. Level levelCount - 1 is the highest
+	 * @param maxSkips number of times a non empty level can be passed over before being served
+	 */
+	public HPriorityLevels(int levelCount, int maxSkips) {
+		this.levels = newLevels(levelCount);
+		this.skips = new int[levelCount];
+		this.maxSkips = maxSkips;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E> List<E>[] newLevels(int levelCount) {
+		List<E>[] levels = (List<E>[]) new List<?>[levelCount];
+		for (int i = 0; i < levelCount; i++) {
+			levels[i] = new LinkedList<E>();
+		}
+		return levels;
+	}
+
+	/**
+	 * @return levels for the hMessage priorities (TRACE .. PANIC)
+	 */
+	public static <E> HPriorityLevels<E> forMessagePriorities() {
+		return new HPriorityLevels<E>(HMessagePriority.values().length, DEFAULT_MAX_SKIPS);
+	}
+
+	/**
+	 * @param message a message
+	 * @return level of the message priority. Messages without priority are handled as INFO
+	 */
+	public static int levelOf(HMessage message) {
+		HMessagePriority priority = (message == null) ? null : message.getPriority();
+		return (priority == null) ? HMessagePriority.INFO.value() : priority.value();
+	}
+
+	public void add(E element, int level) {
+		levels[level].add(element);
+		size++;
+	}
+
+	/**
+	 * Add an element before the other elements of its level
+	 * @param element
+	 * @param level
+	 */
+	public void addFirst(E element, int level) {
+		levels[level].add(0, element);
+		size++;
+	}
+
+	/**
+	 * @return the next element, without removing it. Null if empty
+	 */
+	public E peek() {
+		int level = nextLevel();
+		return (level < 0 || levels[level].isEmpty()) ? null : levels[level].get(0);
+	}
+
+	/**
+	 * @return the next element. Null if empty
+	 */
+	public E poll() {
+		int level = nextLevel();
+		if (level < 0) {
+			return null;
+		}
+		skips[level] = 0;
+		for (int i = 0; i < levels.length; i++) {
+			if (i != level && !levels[i].isEmpty()) {
+				skips[i]++;
+			}
+		}
+		size--;
+		return levels[level].remove(0);
+	}
+
+	/**
+	 * Remove the oldest element of the lowest non empty level, if this level is not above maxLevel
+	 * @param maxLevel highest level allowed
+	 * @return the element removed. Null if none
+	 */
+	public E pollLowest(int maxLevel) {
+		for (int i = 0; i <= maxLevel && i < levels.length; i++) {
+			if (!levels[i].isEmpty()) {
+				size--;
+				E element = levels[i].remove(0);
+				if (levels[i].isEmpty()) {
+					skips[i] = 0;
+				}
+				return element;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remove an element
+	 * @return true if the element was found
+	 */
+	public boolean remove(Object element) {
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i].remove(element)) {
+				size--;
+				if (levels[i].isEmpty()) {
+					skips[i] = 0;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param level a level
+	 * @return number of elements at this level
+	 */
+	public int size(int level) {
+		return levels[level].size();
+	}
+
+	/**
+	 * @return number of elements of each level, lowest level first
+	 */
+	public int[] sizes() {
+		int[] sizes = new int[levels.length];
+		for (int i = 0; i < levels.length; i++) {
+			sizes[i] = levels[i].size();
+		}
+		return sizes;
+	}
+
+	public void clear() {
+		for (int i = 0; i < levels.length; i++) {
+			levels[i].clear();
+			skips[i] = 0;
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return all the elements, highest level first. The iterator does not support remove
+	 */
+	public Iterator<E> iterator() {
+		List<E> elements = new ArrayList<E>(size);
+		for (int i = levels.length - 1; i >= 0; i--) {
+			elements.addAll(levels[i]);
+		}
+		return elements.iterator();
+	}
+
+	/**
+	 * level served by the next poll : the highest starved level if any, else the highest non empty level
+	 */
+	private int nextLevel() {
+		int highest = -1;
+		for (int i = levels.length - 1; i >= 0; i--) {
+			if (!levels[i].isEmpty()) {
+				if (skips[i] >= maxSkips) {
+					return i;
+				}
+				if (highest < 0) {
+					highest = i;
+				}
+			}
+		}
+		return highest;
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -22,6 +22,7 @@ package org.hubiquitus.hapi.util;
 import java.net.URI;
 
 import org.json.JSONArray;
+import org.json.JSONObject;
 
 /**
  * @cond internal
@@ -112,12 +113,87 @@ public class HUtil {
 	 */
 	public static String getApiRef(String ref) {
 		if (ref != null) {
-			return ref.split("#")[0];
+			int index = ref.indexOf('#');
+			return (index < 0) ? ref : ref.substring(0, index);
 		} else {
 			return null;
 		}
 	}
 
+
+	/**
+	 * Same conversion as JSONObject.getInt, without throwing when the key is missing.
+	 * @param jsonObj
+	 * @param key
+	 * @return the value as an Integer. NULL if undefined or not a number
+	 */
+	public static Integer optInteger(JSONObject jsonObj, String key) {
+		Number number = toNumber(jsonObj.opt(key));
+		return (number != null) ? Integer.valueOf(number.intValue()) : null;
+	}
+
+	/**
+	 * Same conversion as JSONObject.getLong, without throwing when the key is missing.
+	 * @param jsonObj
+	 * @param key
+	 * @return the value as a Long. NULL if undefined or not a number
+	 */
+	public static Long optLong(JSONObject jsonObj, String key) {
+		Number number = toNumber(jsonObj.opt(key));
+		return (number != null) ? Long.valueOf(number.longValue()) : null;
+	}
+
+	/**
+	 * Same conversion as JSONObject.getDouble, without throwing when the key is missing.
+	 * @param jsonObj
+	 * @param key
+	 * @return the value as a Double. NULL if undefined or not a number
+	 */
+	public static Double optDouble(JSONObject jsonObj, String key) {
+		Number number = toNumber(jsonObj.opt(key));
+		return (number != null) ? Double.valueOf(number.doubleValue()) : null;
+	}
+
+	/**
+	 * Same conversion as JSONObject.getBoolean, without throwing when the key is missing.
+	 * @param jsonObj
+	 * @param key
+	 * @return the value as a Boolean. NULL if undefined or not a boolean
+	 */
+	public static Boolean optBoolean(JSONObject jsonObj, String key) {
+		Object value = jsonObj.opt(key);
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		if (value instanceof String) {
+			if (((String) value).equalsIgnoreCase("true")) {
+				return Boolean.TRUE;
+			}
+			if (((String) value).equalsIgnoreCase("false")) {
+				return Boolean.FALSE;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Number conversion used by JSONObject : numbers as is, strings parsed.
+	 * @param value
+	 * @return the number. NULL if the value is not a number
+	 */
+	public static Number toNumber(Object value) {
+		if (value instanceof Number) {
+			return (Number) value;
+		}
+		if (value instanceof String) {
+			try {
+				return Double.valueOf((String) value);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
 }
 
 /**
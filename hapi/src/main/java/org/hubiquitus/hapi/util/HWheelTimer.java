@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @cond internal
+ * @version 0.5
+ * Hashed wheel timer : one thread runs all the timeouts, scheduling and cancelling a timeout are O(1).
+ * Timeouts are fired with a precision of one tick (10ms for the shared timer).
+ * Tasks are run by the timer thread, so they must be short.
+ */
+public class HWheelTimer {
+
+	final Logger logger = LoggerFactory.getLogger(HWheelTimer.class);
+
+	private static HWheelTimer shared = null;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+	private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+	private final String name;
+	private volatile Thread worker = null;
+	private long startTime;
+	private long tick = 0;
+
+	/**
+	 * @param name name of the timer thread
+	 * @param tickDuration duration of one tick
+	 * @param unit unit of the tick duration
+	 * @param ticksPerWheel number of buckets. Rounded up to a power of 2
+	 */
+	public HWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		this.name = name;
+		this.tickNanos = unit.toNanos(tickDuration);
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			this.wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @return the timer shared by all the hAPI clients of the JVM
+	 */
+	public static synchronized HWheelTimer getShared() {
+		if (shared == null) {
+			shared = new HWheelTimer("hapi-timer", 10, TimeUnit.MILLISECONDS, 512);
+		}
+		return shared;
+	}
+
+	/**
+	 * Schedule a task.
+	 * @param task the task to run once the delay expired
+	 * @param delay delay in ms
+	 * @return a handle to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		start();
+		Timeout timeout = new Timeout(task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delay));
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @return number of timeouts scheduled and not fired nor cancelled yet
+	 */
+	public int size() {
+		int size = 0;
+		for (Bucket bucket : wheel) {
+			size += bucket.size;
+		}
+		return size + scheduled.size();
+	}
+
+	/**
+	 * @return true if called by the timer thread (ie : from a scheduled task)
+	 */
+	public boolean isTimerThread() {
+		return Thread.currentThread() == worker;
+	}
+
+	private synchronized void start() {
+		if (worker == null) {
+			startTime = System.nanoTime();
+			worker = new Thread(new Worker(), name);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Handle on a scheduled task.
+	 */
+	public final class Timeout {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(ST_INIT);
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel the task if it did not run yet
+		 * @return true if the task will not run
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == ST_EXPIRED;
+		}
+
+		private void expire() {
+			if (state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+				try {
+					task.run();
+				} catch (Exception e) {
+					logger.error("message: ", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of timeouts, only accessed by the worker thread.
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+		private int size;
+
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+			size++;
+		}
+
+		private void remove(Timeout timeout) {
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			} else {
+				head = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			} else {
+				tail = timeout.prev;
+			}
+			timeout.next = null;
+			timeout.prev = null;
+			timeout.bucket = null;
+			size--;
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		public void run() {
+			while (true) {
+				waitForNextTick();
+				transferScheduled();
+				removeCancelled();
+				expire(wheel[(int) (tick & mask)]);
+				tick++;
+			}
+		}
+
+		private void waitForNextTick() {
+			long deadline = tickNanos * (tick + 1);
+			while (true) {
+				long current = System.nanoTime() - startTime;
+				long sleepMs = (deadline - current + 999999) / 1000000;
+				if (sleepMs <= 0) {
+					return;
+				}
+				try {
+					Thread.sleep(sleepMs);
+				} catch (InterruptedException e) {
+					// keep on ticking
+				}
+			}
+		}
+
+		private void transferScheduled() {
+			Timeout timeout;
+			while ((timeout = scheduled.poll()) != null) {
+				if (timeout.state.get() != Timeout.ST_INIT) {
+					continue;
+				}
+				long ticks = timeout.deadline / tickNanos;
+				timeout.remainingRounds = (ticks - tick) / wheel.length;
+				// do not schedule in the past
+				long slot = Math.max(ticks, tick);
+				wheel[(int) (slot & mask)].add(timeout);
+			}
+		}
+
+		private void removeCancelled() {
+			Timeout timeout;
+			while ((timeout = cancelled.poll()) != null) {
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+
+		private void expire(Bucket bucket) {
+			Timeout timeout = bucket.head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					bucket.remove(timeout);
+					timeout.expire();
+				} else if (timeout.isCancelled()) {
+					bucket.remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hubiquitus.hapi.client.HClient;
+import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.exceptions.MissingAttrException;
+import org.hubiquitus.hapi.hStructures.ConnectionStatus;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessageOptions;
+import org.hubiquitus.hapi.hStructures.HOptions;
+import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * HClient against the in-process hNode of the loopback transport. Callbacks are run by the sending thread.
+ */
+
+public class HClientLoopbackTest {
+
+	private static class Inbox implements HMessageDelegate {
+		private List<HMessage> messages = new ArrayList<HMessage>();
+
+		public void onMessage(HMessage message) {
+			messages.add(message);
+		}
+
+		private HMessage last() {
+			return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+		}
+	}
+
+	private HClient connect(String jid, Inbox inbox) {
+		HOptions options = new HOptions();
+		options.setTransport("loopback");
+		options.setDeliveryThreads(0);
+		HClient client = new HClient();
+		client.onMessage(inbox);
+		client.connect(jid, "password", options);
+		return client;
+	}
+
+	@Test
+	public void connectTest() {
+		HClient client = connect("user@connecttest/res", new Inbox());
+		Assert.assertEquals(ConnectionStatus.CONNECTED, client.status());
+		client.disconnect();
+		Assert.assertEquals(ConnectionStatus.DISCONNECTED, client.status());
+	}
+
+	@Test
+	public void subscribeAndPublishTest() throws Exception {
+		Inbox publisherInbox = new Inbox();
+		Inbox subscriberInbox = new Inbox();
+		HClient publisher = connect("publisher@publishtest/res", publisherInbox);
+		HClient subscriber = connect("subscriber@publishtest/res", subscriberInbox);
+
+		Inbox results = new Inbox();
+		subscriber.subscribe("#channel@publishtest", results);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.last().getPayloadAsHResult().getStatus());
+		subscriber.subscribe("#channel@publishtest", results);
+		Assert.assertEquals(ResultStatus.NOT_AUTHORIZED, results.last().getPayloadAsHResult().getStatus());
+
+		HMessageOptions messageOptions = new HMessageOptions();
+		messageOptions.setPersistent(true);
+		HMessage message = publisher.buildMessage("#channel@publishtest", "string", "payload", messageOptions);
+		message.setTimeout(1000);
+		Inbox ack = new Inbox();
+		publisher.send(message, ack);
+
+		Assert.assertEquals(ResultStatus.NO_ERROR, ack.last().getPayloadAsHResult().getStatus());
+		Assert.assertEquals(message.getMsgid(), ack.last().getRef());
+		Assert.assertEquals(1, subscriberInbox.messages.size());
+		Assert.assertEquals("payload", subscriberInbox.last().getPayloadAsString());
+		Assert.assertEquals("publisher@publishtest", subscriberInbox.last().getPublisher());
+		Assert.assertTrue(publisherInbox.messages.isEmpty());
+		Assert.assertEquals(0, publisher.pendingRequests());
+
+		subscriber.getLastMessages("#channel@publishtest", results);
+		JSONArray lastMessages = results.last().getPayloadAsHResult().getResultAsJSONArray();
+		Assert.assertEquals(1, lastMessages.length());
+
+		subscriber.getSubscriptions(results);
+		Assert.assertEquals("#channel@publishtest", results.last().getPayloadAsHResult().getResultAsJSONArray().getString(0));
+
+		subscriber.unsubscribe("#channel@publishtest", results);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.last().getPayloadAsHResult().getStatus());
+		publisher.send(publisher.buildMessage("#channel@publishtest", "string", "payload", null), null);
+		Assert.assertEquals(1, subscriberInbox.messages.size());
+	}
+
+	@Test
+	public void bulkTest() throws Exception {
+		Inbox publisherInbox = new Inbox();
+		Inbox subscriberInbox = new Inbox();
+		HClient publisher = connect("publisher@bulktest/res", publisherInbox);
+		HClient subscriber = connect("subscriber@bulktest/res", subscriberInbox);
+		List<String> channels = Arrays.asList("#a@bulktest", "#b@bulktest", "#c@bulktest");
+
+		Inbox results = new Inbox();
+		subscriber.subscribe(channels, results);
+		Assert.assertEquals(1, results.messages.size());
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.last().getPayloadAsHResult().getStatus());
+		Assert.assertEquals(3, results.last().getPayloadAsHResult().getResultAsJSONObject().length());
+
+		// one channel already subscribed : the first error is reported, the other results are kept
+		subscriber.subscribe(Arrays.asList("#d@bulktest", "#b@bulktest"), results);
+		Assert.assertEquals(2, results.messages.size());
+		Assert.assertEquals(ResultStatus.NOT_AUTHORIZED, results.last().getPayloadAsHResult().getStatus());
+		JSONObject byActor = results.last().getPayloadAsHResult().getResultAsJSONObject();
+		Assert.assertEquals(ResultStatus.NO_ERROR.value(), byActor.getJSONObject("#d@bulktest").getInt("status"));
+
+		// a channel given twice is subscribed once
+		subscriber.subscribe(Arrays.asList("#e@bulktest", "#e@bulktest"), results);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.last().getPayloadAsHResult().getStatus());
+		Assert.assertEquals(1, results.last().getPayloadAsHResult().getResultAsJSONObject().length());
+
+		for (String channel : channels) {
+			HMessageOptions messageOptions = new HMessageOptions();
+			messageOptions.setPersistent(true);
+			publisher.send(publisher.buildMessage(channel, "string", channel, messageOptions), null);
+		}
+		Assert.assertEquals(3, subscriberInbox.messages.size());
+
+		subscriber.getLastMessages(channels, 10, results);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.last().getPayloadAsHResult().getStatus());
+		byActor = results.last().getPayloadAsHResult().getResultAsJSONObject();
+		Assert.assertEquals(1, byActor.getJSONObject("#c@bulktest").getJSONArray("result").length());
+
+		subscriber.unsubscribe(channels, results);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.last().getPayloadAsHResult().getStatus());
+		publisher.send(publisher.buildMessage("#a@bulktest", "string", "payload", null), null);
+		Assert.assertEquals(3, subscriberInbox.messages.size());
+
+		subscriber.subscribe(new ArrayList<String>(), results);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.last().getPayloadAsHResult().getStatus());
+	}
+
+	@Test
+	public void invalidBulkTest() throws Exception {
+		HClient subscriber = connect("subscriber@invalidbulktest/res", new Inbox());
+		Inbox results = new Inbox();
+		try {
+			subscriber.subscribe(Arrays.asList("#a@invalidbulktest", ""), results);
+			Assert.fail("empty actor accepted");
+		} catch (MissingAttrException e) {
+			// expected
+		}
+		// nothing was sent : the first channel is not subscribed
+		subscriber.getSubscriptions(results);
+		Assert.assertEquals(0, results.last().getPayloadAsHResult().getResultAsJSONArray().length());
+		Assert.assertEquals(1, results.messages.size());
+		Assert.assertEquals(0, subscriber.pendingRequests());
+	}
+
+	@Test
+	public void relayTest() throws Exception {
+		Inbox senderInbox = new Inbox();
+		Inbox receiverInbox = new Inbox();
+		HClient sender = connect("sender@relaytest/res", senderInbox);
+		connect("receiver@relaytest/res", receiverInbox);
+
+		sender.send(sender.buildMessage("receiver@relaytest", "string", "hello", null), null);
+		Assert.assertEquals("hello", receiverInbox.last().getPayloadAsString());
+
+		HMessage message = sender.buildMessage("nobody@relaytest", "string", "hello", null);
+		message.setTimeout(1000);
+		Inbox result = new Inbox();
+		sender.send(message, result);
+		Assert.assertEquals(ResultStatus.NOT_AVAILABLE, result.last().getPayloadAsHResult().getStatus());
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hubiquitus.hapi.client.HCorrelationTable;
+import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Correlation table : a request is removed exactly once, by its answer or by its timeout.
+ */
+
+public class HCorrelationTableTest {
+
+	private static final long WAIT = 5000;
+
+	private static final HMessageDelegate DELEGATE = new HMessageDelegate() {
+		public void onMessage(HMessage message) {
+		}
+	};
+
+	private static class Timeouts implements HCorrelationTable.TimeoutListener {
+		private final AtomicInteger count = new AtomicInteger(0);
+		// one permit per timeout fired
+		private final Semaphore fired = new Semaphore(0);
+
+		public void onTimeout(String msgid, HMessageDelegate delegate) {
+			count.incrementAndGet();
+			fired.release();
+		}
+	}
+
+	private HWheelTimer newTimer() {
+		return new HWheelTimer("test-timer", 1, TimeUnit.MILLISECONDS, 64);
+	}
+
+	@Test
+	public void completeTest() throws Exception {
+		HCorrelationTable table = new HCorrelationTable(newTimer());
+		Timeouts timeouts = new Timeouts();
+		table.register("a", DELEGATE, 50, timeouts);
+		Assert.assertTrue(table.isPending("a"));
+		Assert.assertEquals(1, table.size());
+
+		Assert.assertSame(DELEGATE, table.complete("a"));
+		Assert.assertFalse(table.isPending("a"));
+		Assert.assertNull(table.complete("a"));
+		Assert.assertNull(table.complete(null));
+		Assert.assertEquals(0, table.size());
+
+		// the timeout was cancelled
+		Assert.assertFalse(timeouts.fired.tryAcquire(150, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, timeouts.count.get());
+	}
+
+	@Test
+	public void timeoutTest() throws Exception {
+		HCorrelationTable table = new HCorrelationTable(newTimer());
+		Timeouts timeouts = new Timeouts();
+		table.register("a", DELEGATE, 10, timeouts);
+		Assert.assertTrue(timeouts.fired.tryAcquire(WAIT, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(1, table.getTimeoutCount());
+		Assert.assertFalse(table.isPending("a"));
+		// a late answer finds no delegate
+		Assert.assertNull(table.complete("a"));
+		Assert.assertEquals(1, timeouts.count.get());
+	}
+
+	@Test
+	public void raceTest() throws Exception {
+		final HCorrelationTable table = new HCorrelationTable(newTimer());
+		final int requests = 5000;
+		final Timeouts timeouts = new Timeouts();
+		for (int i = 0; i < requests; i++) {
+			table.register("msg" + i, DELEGATE, 1 + (i % 5), timeouts);
+		}
+		// answers arrive while the timeouts are firing
+		int completed = 0;
+		for (int i = 0; i < requests; i++) {
+			if (table.complete("msg" + i) != null) {
+				completed++;
+			}
+		}
+		// the requests not completed time out
+		Assert.assertTrue(timeouts.fired.tryAcquire(requests - completed, WAIT, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(requests, completed + timeouts.count.get());
+		Assert.assertEquals(timeouts.count.get(), table.getTimeoutCount());
+		Assert.assertEquals(0, table.size());
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hubiquitus.hapi.client.HDeliveryExecutor;
+import org.hubiquitus.hapi.hStructures.HDeliveryRejection;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Delivery executor : ordering per key, and the policies applied when the queue is full.
+ */
+
+public class HDeliveryExecutorTest {
+
+	private static final long WAIT = 5000;
+
+	/**
+	 * Occupies the single worker until released
+	 */
+	private static class Gate implements Runnable {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		public void run() {
+			started.countDown();
+			try {
+				released.await(WAIT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void orderPerKeyTest() throws Exception {
+		HDeliveryExecutor executor = new HDeliveryExecutor(4, 10000, HDeliveryRejection.BLOCK);
+		final int keys = 8;
+		final int perKey = 500;
+		final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+		final CountDownLatch done = new CountDownLatch(keys * perKey);
+		for (int k = 0; k < keys; k++) {
+			runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+		for (int i = 0; i < perKey; i++) {
+			for (int k = 0; k < keys; k++) {
+				final List<Integer> run = runs.get(k);
+				final int seq = i;
+				executor.execute(run, new Runnable() {
+					public void run() {
+						run.add(seq);
+						done.countDown();
+					}
+				});
+			}
+		}
+		Assert.assertTrue(done.await(WAIT, TimeUnit.MILLISECONDS));
+		for (List<Integer> run : runs) {
+			Assert.assertEquals(perKey, run.size());
+			for (int i = 0; i < perKey; i++) {
+				Assert.assertEquals(i, run.get(i).intValue());
+			}
+		}
+		Assert.assertEquals(0, executor.pending());
+	}
+
+	@Test
+	public void blockTest() throws Exception {
+		final HDeliveryExecutor executor = new HDeliveryExecutor(1, 1, HDeliveryRejection.BLOCK);
+		Gate gate = new Gate();
+		executor.execute("gate", gate);
+		Assert.assertTrue(gate.started.await(WAIT, TimeUnit.MILLISECONDS));
+		CountDownLatch first = new CountDownLatch(1);
+		executor.execute("a", countDown(first));
+
+		// the queue is full : the next caller waits for the worker
+		final CountDownLatch second = new CountDownLatch(1);
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				executor.execute("a", countDown(second));
+				submitted.countDown();
+			}
+		});
+		producer.start();
+		Assert.assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+		gate.released.countDown();
+		Assert.assertTrue(submitted.await(WAIT, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(first.await(WAIT, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(second.await(WAIT, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void blockReentrantTest() throws Exception {
+		final HDeliveryExecutor executor = new HDeliveryExecutor(1, 1, HDeliveryRejection.BLOCK);
+		final CountDownLatch done = new CountDownLatch(10);
+		// a callback submitting callbacks while the queue is full must not wait for itself
+		executor.execute("a", new Runnable() {
+			public void run() {
+				for (int i = 0; i < 10; i++) {
+					executor.execute("b", countDown(done));
+				}
+			}
+		});
+		Assert.assertTrue(done.await(WAIT, TimeUnit.MILLISECONDS));
+
+		// neither must the timer thread
+		Gate gate = new Gate();
+		executor.execute("gate", gate);
+		Assert.assertTrue(gate.started.await(WAIT, TimeUnit.MILLISECONDS));
+		Gate queued = new Gate();
+		executor.execute("a", queued);
+		final CountDownLatch timedOut = new CountDownLatch(1);
+		final CountDownLatch delivered = new CountDownLatch(1);
+		HWheelTimer.getShared().schedule(new Runnable() {
+			public void run() {
+				executor.execute("c", countDown(delivered));
+				timedOut.countDown();
+			}
+		}, 10);
+		Assert.assertTrue(timedOut.await(WAIT, TimeUnit.MILLISECONDS));
+		gate.released.countDown();
+		queued.released.countDown();
+		Assert.assertTrue(delivered.await(WAIT, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void callerRunsTest() throws Exception {
+		HDeliveryExecutor executor = new HDeliveryExecutor(1, 1, HDeliveryRejection.CALLER_RUNS);
+		Gate gate = new Gate();
+		executor.execute("gate", gate);
+		Assert.assertTrue(gate.started.await(WAIT, TimeUnit.MILLISECONDS));
+		executor.execute("a", new Runnable() {
+			public void run() {
+			}
+		});
+		final Thread caller = Thread.currentThread();
+		final AtomicInteger ranByCaller = new AtomicInteger(0);
+		executor.execute("a", new Runnable() {
+			public void run() {
+				if (Thread.currentThread() == caller) {
+					ranByCaller.incrementAndGet();
+				}
+			}
+		});
+		Assert.assertEquals(1, ranByCaller.get());
+		gate.released.countDown();
+	}
+
+	@Test
+	public void discardTest() throws Exception {
+		HDeliveryExecutor executor = new HDeliveryExecutor(1, 1, HDeliveryRejection.DISCARD);
+		Gate gate = new Gate();
+		executor.execute("gate", gate);
+		Assert.assertTrue(gate.started.await(WAIT, TimeUnit.MILLISECONDS));
+		final CountDownLatch kept = new CountDownLatch(1);
+		final AtomicInteger discarded = new AtomicInteger(0);
+		executor.execute("a", countDown(kept));
+		executor.execute("a", new Runnable() {
+			public void run() {
+				discarded.incrementAndGet();
+			}
+		});
+		Assert.assertEquals(1, executor.pending());
+		gate.released.countDown();
+		Assert.assertTrue(kept.await(WAIT, TimeUnit.MILLISECONDS));
+		// the tasks of a key run in order : the discarded one would have run before this one
+		CountDownLatch last = new CountDownLatch(1);
+		executor.execute("a", countDown(last));
+		Assert.assertTrue(last.await(WAIT, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, discarded.get());
+	}
+}
+
+/**
+ * @endcond
+ */
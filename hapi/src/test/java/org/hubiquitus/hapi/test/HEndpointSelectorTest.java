@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hubiquitus.hapi.client.HEndpointSelector;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Endpoint selection : fastest endpoints preferred, failing endpoints put aside, failover then backoff.
+ */
+
+public class HEndpointSelectorTest {
+
+	private static final String FAST = "http://fast:8080/";
+	private static final String SLOW = "http://slow:8080/";
+	private static final String DOWN = "http://down:8080/";
+
+	@Test
+	public void selectTest() {
+		HEndpointSelector selector = new HEndpointSelector(Arrays.asList(FAST, SLOW, DOWN));
+		selector.onSuccess(FAST, 10);
+		selector.onSuccess(SLOW, 500);
+		selector.onSuccess(DOWN, 10);
+		Assert.assertEquals(10, selector.getAverageTime(FAST), 0);
+
+		// two failures in a row put an endpoint aside
+		selector.onFailure(DOWN);
+		Assert.assertTrue(selector.isAvailable(DOWN));
+		selector.onFailure(DOWN);
+		Assert.assertFalse(selector.isAvailable(DOWN));
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < 1000; i++) {
+			String endpoint = selector.select();
+			counts.put(endpoint, (counts.containsKey(endpoint) ? counts.get(endpoint) : 0) + 1);
+		}
+		Assert.assertNull(counts.get(DOWN));
+		// the slow endpoint is chosen only when drawn twice
+		Assert.assertTrue(counts.get(FAST) > 600);
+		Assert.assertTrue(counts.get(SLOW) > 100);
+	}
+
+	@Test
+	public void failoverTest() {
+		HEndpointSelector selector = new HEndpointSelector(Arrays.asList(FAST, SLOW));
+
+		// an endpoint which just failed is not chosen again while another one is healthy
+		selector.onFailure(FAST);
+		Assert.assertTrue(selector.nextDelay() <= HEndpointSelector.FAILOVER_DELAY);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(SLOW, selector.select());
+		}
+
+		// both endpoints aside : exponential backoff, on the endpoint back first
+		selector.onFailure(SLOW);
+		selector.onFailure(FAST);
+		selector.onFailure(SLOW);
+		Assert.assertFalse(selector.isAvailable(FAST));
+		Assert.assertFalse(selector.isAvailable(SLOW));
+		Assert.assertEquals(FAST, selector.select());
+		long delay = selector.nextDelay();
+		Assert.assertTrue(delay >= 4000 && delay <= 8000);
+		selector.onFailure(FAST);
+		delay = selector.nextDelay();
+		Assert.assertTrue(delay >= 8000 && delay <= 16000);
+
+		// a success closes the circuit and resets the backoff
+		selector.onSuccess(FAST, 20);
+		Assert.assertTrue(selector.isAvailable(FAST));
+		Assert.assertTrue(selector.nextDelay() <= HEndpointSelector.FAILOVER_DELAY);
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.hubiquitus.hapi.client.HClient;
+import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.filter.HConditionCompiler;
+import org.hubiquitus.hapi.filter.HGeoIndex;
+import org.hubiquitus.hapi.filter.HMessageFilter;
+import org.hubiquitus.hapi.hStructures.HCondition;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.hStructures.HOptions;
+import org.hubiquitus.hapi.hStructures.HPos;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ */
+
+public class HFilterTest {
+
+	private static HMessage message(String json) throws Exception {
+		return new HMessage(new JSONObject(json));
+	}
+
+	private static boolean accept(String condition, HMessage message) throws Exception {
+		return HConditionCompiler.compile(new HCondition(condition)).accept(message);
+	}
+
+	@Test
+	public void compileTest() throws Exception {
+		HMessage message = message("{\"actor\":\"#channel@domain\",\"type\":\"measure\",\"priority\":2,"
+				+ "\"publisher\":\"user@domain\",\"published\":\"2012-09-14T14:07:00.123Z\","
+				+ "\"payload\":{\"value\":21.5,\"unit\":\"C\",\"count\":3},"
+				+ "\"location\":{\"pos\":{\"lat\":48.8566,\"lng\":2.3522}}}");
+
+		Assert.assertTrue(accept("{}", message));
+		Assert.assertTrue(accept("{\"eq\":{\"type\":\"measure\",\"publisher\":\"user@domain\"}}", message));
+		Assert.assertFalse(accept("{\"eq\":{\"type\":\"measure\",\"publisher\":\"other@domain\"}}", message));
+		Assert.assertTrue(accept("{\"ne\":{\"convid\":\"conv\"}}", message));
+		Assert.assertTrue(accept("{\"eq\":{\"priority\":2.0,\"payload.count\":3}}", message));
+		Assert.assertTrue(accept("{\"gt\":{\"payload.value\":21},\"lte\":{\"payload.value\":21.5}}", message));
+		Assert.assertFalse(accept("{\"lt\":{\"payload.unit\":\"A\"}}", message));
+		Assert.assertFalse(accept("{\"gt\":{\"payload.missing\":0}}", message));
+		Assert.assertTrue(accept("{\"in\":{\"type\":[\"alert\",\"measure\"]}}", message));
+		Assert.assertTrue(accept("{\"nin\":{\"priority\":[3,4,5]}}", message));
+		Assert.assertTrue(accept("{\"gte\":{\"published\":\"2012-09-14T16:07:00.123+02:00\"}}", message));
+		Assert.assertFalse(accept("{\"gt\":{\"published\":\"2012-09-14T14:07:00.123Z\"}}", message));
+
+		Assert.assertTrue(accept("{\"or\":[{\"eq\":{\"type\":\"alert\"}},{\"eq\":{\"payload.unit\":\"C\"}}]}", message));
+		Assert.assertFalse(accept("{\"and\":[{\"eq\":{\"type\":\"alert\"}},{\"eq\":{\"payload.unit\":\"C\"}}]}", message));
+		Assert.assertTrue(accept("{\"nor\":[{\"eq\":{\"type\":\"alert\"}},{\"eq\":{\"payload.unit\":\"F\"}}]}", message));
+		Assert.assertTrue(accept("{\"not\":{\"eq\":{\"type\":\"alert\"}}}", message));
+
+		Assert.assertTrue(accept("{\"geo\":{\"lat\":48.8584,\"lng\":2.2945,\"radius\":5000}}", message));
+		Assert.assertFalse(accept("{\"geo\":{\"lat\":48.8584,\"lng\":2.2945,\"radius\":3000}}", message));
+
+		Assert.assertFalse(accept("{\"relevant\":true}", message));
+		message.setRelevanceMillis(System.currentTimeMillis() + 60000);
+		Assert.assertTrue(accept("{\"relevant\":true}", message));
+		message.setPriority(HMessagePriority.PANIC);
+		Assert.assertTrue(accept("{\"eq\":{\"priority\":5}}", message));
+
+		String[] invalids = {"{\"eq\":\"type\"}", "{\"in\":{\"type\":\"alert\"}}", "{\"and\":{}}", "{\"unknown\":{}}",
+				"{\"gt\":{\"published\":\"yesterday\"}}", "{\"geo\":{\"lat\":1}}"};
+		for (String invalid : invalids) {
+			try {
+				HConditionCompiler.compile(new HCondition(invalid));
+				fail("Invalid condition accepted : " + invalid);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test
+	public void geoIndexTest() throws Exception {
+		// the index matches the same fences as the geo filters, around the date line and the poles too
+		Random random = new Random(42);
+		HGeoIndex<Integer> index = new HGeoIndex<Integer>();
+		List<HMessageFilter> fences = new ArrayList<HMessageFilter>();
+		for (int i = 0; i < 2000; i++) {
+			double lat = (i % 10 == 0) ? 89 - random.nextDouble() : random.nextDouble() * 180 - 90;
+			double lng = (i % 10 == 1) ? 179.9 : random.nextDouble() * 360 - 180;
+			double radius = Math.pow(10, 1 + random.nextDouble() * 6);
+			HPos pos = new HPos();
+			pos.setLat(lat);
+			pos.setLng(lng);
+			pos.setRadius(radius);
+			index.add(i, pos);
+			fences.add(HConditionCompiler.compile(new JSONObject().put("geo", pos)));
+		}
+		Assert.assertEquals(2000, index.size());
+		for (int i = 0; i < 500; i++) {
+			double lat = random.nextDouble() * 180 - 90;
+			double lng = (i % 10 == 1) ? -179.95 : random.nextDouble() * 360 - 180;
+			HMessage message = message("{\"location\":{\"pos\":{\"lat\":" + lat + ",\"lng\":" + lng + "}}}");
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int j = 0; j < fences.size(); j++) {
+				if (fences.get(j).accept(message)) {
+					expected.add(j);
+				}
+			}
+			List<Integer> matches = index.match(message);
+			Collections.sort(matches);
+			Assert.assertEquals(expected, matches);
+		}
+
+		Assert.assertTrue(index.remove(0));
+		Assert.assertFalse(index.remove(0));
+		index.add(1, 0, 0, 1000);
+		Assert.assertEquals(1999, index.size());
+		Assert.assertTrue(index.match(0.005, 0.005).contains(1));
+		Assert.assertFalse(index.match(0.02, 0.02).contains(1));
+		Assert.assertTrue(index.match(message("{}")).isEmpty());
+	}
+
+	@Test
+	public void localFilterTest() throws Exception {
+		final List<HMessage> received = new ArrayList<HMessage>();
+		HOptions options = new HOptions();
+		options.setTransport("loopback");
+		options.setDeliveryThreads(0);
+		HClient sender = new HClient();
+		sender.connect("sender@filtertest/res", "password", options);
+		HClient receiver = new HClient();
+		receiver.onMessage(new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+				received.add(message);
+			}
+		});
+		receiver.connect("receiver@filtertest/res", "password", options);
+		receiver.setLocalFilter(new HCondition("{\"eq\":{\"type\":\"wanted\"}}"));
+
+		sender.send(sender.buildMessage("receiver@filtertest", "unwanted", "payload", null), null);
+		sender.send(sender.buildMessage("receiver@filtertest", "wanted", "payload", null), null);
+		Assert.assertEquals(1, received.size());
+		Assert.assertEquals("wanted", received.get(0).getType());
+
+		receiver.setLocalFilter(null);
+		sender.send(sender.buildMessage("receiver@filtertest", "unwanted", "payload", null), null);
+		Assert.assertEquals(2, received.size());
+		sender.disconnect();
+		receiver.disconnect();
+	}
+}
+
+/**
+ * @endcond
+ */
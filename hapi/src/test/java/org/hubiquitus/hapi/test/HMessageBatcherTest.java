@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.transport.HMessageBatcher;
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Outbound batches : flushed when full, at the end of the window, or by an urgent message.
+ */
+
+public class HMessageBatcherTest {
+
+	private static final ExecutorService flushes = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "test-flush");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final HWheelTimer timer = HWheelTimer.getShared();
+
+	private static class Batches implements HMessageBatcher.Flusher {
+		private final List<List<JSONObject>> batches = Collections.synchronizedList(new ArrayList<List<JSONObject>>());
+		private final BlockingQueue<List<JSONObject>> written = new LinkedBlockingQueue<List<JSONObject>>();
+
+		public void flush(List<JSONObject> batch) {
+			batches.add(batch);
+			written.add(batch);
+		}
+	}
+
+	/* waits until the timeouts scheduled before, up to delay, expired and their flushes ran */
+	private static void awaitFlushes(long delay) throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		timer.schedule(new Runnable() {
+			public void run() {
+				flushes.execute(new Runnable() {
+					public void run() {
+						done.countDown();
+					}
+				});
+			}
+		}, delay);
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void sizeTest() {
+		Batches batches = new Batches();
+		HMessageBatcher batcher = new HMessageBatcher(3, 10000, timer, flushes, batches);
+		for (int i = 0; i < 7; i++) {
+			batcher.add(HTestFixtures.message("message" + i, null));
+		}
+		Assert.assertEquals(2, batches.batches.size());
+		Assert.assertEquals(1, batcher.size());
+		Assert.assertEquals("message3", ((HMessage) batches.batches.get(1).get(0)).getPayloadAsString());
+		batcher.flush();
+		Assert.assertEquals(3, batches.batches.size());
+		Assert.assertEquals(0, batcher.size());
+		// nothing to flush
+		batcher.flush();
+		Assert.assertEquals(3, batches.batches.size());
+	}
+
+	@Test
+	public void windowTest() throws Exception {
+		Batches batches = new Batches();
+		HMessageBatcher batcher = new HMessageBatcher(100, 20, timer, flushes, batches);
+		batcher.add(HTestFixtures.message("first", null));
+		batcher.add(HTestFixtures.message("second", null));
+		List<JSONObject> batch = batches.written.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(batch);
+		Assert.assertEquals(2, batch.size());
+		Assert.assertEquals(1, batches.batches.size());
+	}
+
+	@Test
+	public void slowWriteTest() throws Exception {
+		final BlockingQueue<String> threads = new LinkedBlockingQueue<String>();
+		final CountDownLatch written = new CountDownLatch(1);
+		HMessageBatcher batcher = new HMessageBatcher(100, 20, timer, flushes, new HMessageBatcher.Flusher() {
+			public void flush(List<JSONObject> batch) {
+				threads.add(Thread.currentThread().getName());
+				try {
+					written.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		batcher.add(HTestFixtures.message("first", null));
+		// the end of the window is written on the executor, not on the timer thread
+		Assert.assertEquals("test-flush", threads.poll(5, TimeUnit.SECONDS));
+
+		// while the write waits : the other timeouts of the timer expire, and messages are added without waiting
+		final CountDownLatch expired = new CountDownLatch(1);
+		timer.schedule(new Runnable() {
+			public void run() {
+				expired.countDown();
+			}
+		}, 10);
+		Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+		batcher.add(HTestFixtures.message("second", null));
+		Assert.assertEquals(1, batcher.size());
+		written.countDown();
+	}
+
+	@Test
+	public void urgentTest() {
+		Batches batches = new Batches();
+		HMessageBatcher batcher = new HMessageBatcher(100, 10000, timer, flushes, batches);
+		batcher.add(HTestFixtures.message("info", HMessagePriority.INFO));
+		batcher.add(HTestFixtures.message("alert", HMessagePriority.ALERT));
+		// flushed with the messages before it, in order
+		Assert.assertEquals(1, batches.batches.size());
+		Assert.assertEquals("info", ((HMessage) batches.batches.get(0).get(0)).getPayloadAsString());
+		Assert.assertEquals("alert", ((HMessage) batches.batches.get(0).get(1)).getPayloadAsString());
+	}
+
+	@Test
+	public void drainTest() throws Exception {
+		Batches batches = new Batches();
+		HMessageBatcher batcher = new HMessageBatcher(100, 20, timer, flushes, batches);
+		batcher.add(HTestFixtures.message("first", null));
+		batcher.add(HTestFixtures.message("second", null));
+		List<JSONObject> drained = batcher.drain();
+		Assert.assertEquals(2, drained.size());
+		Assert.assertEquals(0, batcher.size());
+		// the window of a drained batch does not flush anything
+		awaitFlushes(40);
+		Assert.assertTrue(batches.batches.isEmpty());
+		Assert.assertTrue(batcher.drain().isEmpty());
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.transport.HMessageCodec;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Streaming codec : same json as org.json, both ways.
+ */
+
+public class HMessageCodecTest {
+
+	private HMessage sample() throws Exception {
+		HMessage message = new HMessage();
+		message.setMsgid("msgid");
+		message.setActor("#channel@domain");
+		message.setType("sample");
+		message.setTimeout(30000);
+		message.setSentMillis(1347631620123L);
+		JSONObject payload = new JSONObject();
+		payload.put("text", "quote \" backslash \\ slash / tab \t newline \n unicode é中 \u0001");
+		payload.put("int", Integer.MIN_VALUE);
+		payload.put("long", Long.MAX_VALUE);
+		payload.put("double", 0.1);
+		payload.put("integral", 1.0);
+		payload.put("small", 1.5e-300);
+		payload.put("decimal", new BigDecimal("0.1000000000000000000001"));
+		payload.put("bigint", new BigInteger("12345678901234567890123"));
+		payload.put("bool", true);
+		payload.put("null", JSONObject.NULL);
+		JSONArray array = new JSONArray();
+		array.put(1);
+		array.put("two");
+		array.put(new JSONObject("{\"three\":[3]}"));
+		array.put(new JSONArray());
+		payload.put("array", array);
+		payload.put("empty", new JSONObject());
+		message.setPayload(payload);
+		return message;
+	}
+
+	@Test
+	public void encodeTest() throws Exception {
+		HMessage message = sample();
+		String encoded = HMessageCodec.encodeToString(message);
+		assertSameJson(new JSONObject(message.toString()), new JSONObject(encoded));
+		Assert.assertEquals(encoded, new String(HMessageCodec.encode(message), "UTF-8"));
+
+		// exact numbers are written as is
+		JSONObject payload = new JSONObject(encoded).getJSONObject("payload");
+		Assert.assertTrue(encoded.contains("0.1000000000000000000001"));
+		Assert.assertTrue(encoded.contains("12345678901234567890123"));
+		Assert.assertEquals(Long.MAX_VALUE, payload.getLong("long"));
+	}
+
+	@Test
+	public void decodeTest() throws Exception {
+		String json = sample().toString();
+		HMessage decoded = HMessageCodec.decode(json);
+		assertSameJson(new JSONObject(json), decoded);
+		Assert.assertEquals("#channel@domain", decoded.getActor());
+		Assert.assertEquals(30000, decoded.getTimeout());
+		Assert.assertEquals(1347631620123L, decoded.getSentMillis());
+
+		byte[] data = HMessageCodec.encode(decoded);
+		assertSameJson(decoded, HMessageCodec.decode(data, 0, data.length));
+	}
+
+	/**
+	 * Compare two json values, numbers by value
+	 */
+	private static void assertSameJson(Object expected, Object actual) throws Exception {
+		if (expected instanceof JSONObject) {
+			Assert.assertTrue(actual instanceof JSONObject);
+			JSONObject expectedObject = (JSONObject) expected;
+			JSONObject actualObject = (JSONObject) actual;
+			Assert.assertEquals(expectedObject.length(), actualObject.length());
+			Iterator<?> it = expectedObject.keys();
+			while (it.hasNext()) {
+				String key = (String) it.next();
+				Assert.assertTrue("missing " + key, actualObject.has(key));
+				assertSameJson(expectedObject.get(key), actualObject.get(key));
+			}
+		} else if (expected instanceof JSONArray) {
+			Assert.assertTrue(actual instanceof JSONArray);
+			JSONArray expectedArray = (JSONArray) expected;
+			JSONArray actualArray = (JSONArray) actual;
+			Assert.assertEquals(expectedArray.length(), actualArray.length());
+			for (int i = 0; i < expectedArray.length(); i++) {
+				assertSameJson(expectedArray.get(i), actualArray.get(i));
+			}
+		} else if (expected instanceof Number) {
+			Assert.assertTrue(actual instanceof Number);
+			Assert.assertEquals(0, new BigDecimal(expected.toString()).compareTo(new BigDecimal(actual.toString())));
+		} else {
+			Assert.assertEquals(expected, actual);
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
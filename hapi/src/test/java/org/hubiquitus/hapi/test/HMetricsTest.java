@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.hubiquitus.hapi.client.HClient;
+import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HOptions;
+import org.hubiquitus.hapi.metrics.HHistogram;
+import org.hubiquitus.hapi.metrics.HLatencyTracker;
+import org.hubiquitus.hapi.metrics.HMetricRegistry;
+import org.hubiquitus.hapi.metrics.HTraceStage;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ */
+
+public class HMetricsTest {
+
+	@Test
+	public void histogramTest() {
+		HHistogram histogram = new HHistogram();
+		Assert.assertEquals(0, histogram.getPercentile(99));
+		for (long i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000);
+		}
+		Assert.assertEquals(10000, histogram.getCount());
+		Assert.assertEquals(10000000, histogram.getMax());
+		Assert.assertEquals(5000500, histogram.getMean(), 1);
+		long p50 = histogram.getPercentile(50);
+		long p99 = histogram.getPercentile(99);
+		Assert.assertTrue(p50 >= 5000000 && p50 <= 5000000 * 1.07);
+		Assert.assertTrue(p99 >= 9900000 && p99 <= 10000000);
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getCount());
+	}
+
+	@Test
+	public void clientMetricsTest() {
+		HOptions options = new HOptions();
+		options.setTransport("loopback");
+		options.setDeliveryThreads(0);
+		options.setMetrics(true);
+		HClient client = new HClient();
+		client.connect("sender@metricstest/res", "password", options);
+		HClient receiver = new HClient();
+		receiver.onMessage(new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+			}
+		});
+		receiver.connect("receiver@metricstest/res", "password", options);
+		try {
+			client.send(client.buildMessage("receiver@metricstest", "string", "hello", null), null);
+			HMetricRegistry metrics = client.getMetrics();
+			Assert.assertEquals(1L, metrics.value("messages.sent"));
+			Assert.assertEquals(1L, receiver.getMetrics().value("messages.received"));
+			Assert.assertEquals(1L, metrics.value("send.duration.count"));
+			Assert.assertEquals(0L, metrics.value("requests.pending"));
+			Assert.assertEquals(1L, metrics.value("latency.send.emit.string.receiver@metricstest.count"));
+			Assert.assertEquals(1L, receiver.getMetrics().value("latency.receive.delivered.string.receiver@metricstest.count"));
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		} finally {
+			client.disconnect();
+			receiver.disconnect();
+			client.getMetrics().close();
+			receiver.getMetrics().close();
+		}
+		Assert.assertNull(new HClient().getMetrics());
+	}
+
+	@Test
+	public void latencyBreakdownTest() throws Exception {
+		HMetricRegistry registry = new HMetricRegistry("latencytest");
+		HLatencyTracker tracker = new HLatencyTracker(registry, 2);
+		HLatencyTracker totalsOnly = new HLatencyTracker(registry, 0);
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 2; j++) {
+				HMessage message = new HMessage();
+				message.setType("string");
+				message.setActor("actor" + i);
+				tracker.mark(message, HTraceStage.SEND);
+				tracker.record(message, HTraceStage.SEND, HTraceStage.EMIT);
+				totalsOnly.mark(message, HTraceStage.RECEIVE);
+				totalsOnly.record(message, HTraceStage.RECEIVE, HTraceStage.DELIVERED);
+			}
+		}
+		Assert.assertEquals(6L, registry.value("latency.send.emit.count"));
+		Assert.assertEquals(2L, registry.value("latency.send.emit.string.actor0.count"));
+		Assert.assertEquals(2L, registry.value("latency.send.emit.string.actor1.count"));
+		// over the cap : only in the total
+		Assert.assertNull(registry.value("latency.send.emit.string.actor2.count"));
+
+		Assert.assertEquals(6L, registry.value("latency.receive.delivered.count"));
+		Assert.assertNull(registry.value("latency.receive.delivered.string.actor0.count"));
+	}
+
+	@Test
+	public void jmxNameTest() {
+		HMetricRegistry first = new HMetricRegistry("jmxtest");
+		HMetricRegistry second = new HMetricRegistry("jmxtest");
+		first.registerJmx();
+		second.registerJmx();
+		try {
+			Assert.assertEquals("jmxtest", ObjectName.unquote(first.getJmxName().getKeyProperty("name")));
+			Assert.assertEquals("jmxtest-2", ObjectName.unquote(second.getJmxName().getKeyProperty("name")));
+			Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(second.getJmxName()));
+		} finally {
+			first.close();
+			second.close();
+		}
+		Assert.assertNull(first.getJmxName());
+		Assert.assertNull(second.getJmxName());
+	}
+
+	@Test
+	public void clientJmxTest() {
+		HOptions options = new HOptions();
+		options.setTransport("loopback");
+		options.setDeliveryThreads(0);
+		options.setMetrics(true);
+		HClient client = new HClient();
+		client.connect("jmx@metricstest/res", "password", options);
+		HMetricRegistry metrics = client.getMetrics();
+		ObjectName jmxName = metrics.getJmxName();
+		Assert.assertNotNull(jmxName);
+		Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(jmxName));
+		// already connected : not a reconnection
+		client.connect("jmx@metricstest/res", "password", options);
+		Assert.assertEquals(0L, metrics.value("reconnects"));
+
+		client.disconnect();
+		Assert.assertNull(metrics.getJmxName());
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(jmxName));
+
+		// registered again by the next connect, still not a reconnection
+		client.connect("jmx@metricstest/res", "password", options);
+		Assert.assertSame(metrics, client.getMetrics());
+		Assert.assertNotNull(metrics.getJmxName());
+		Assert.assertEquals(0L, metrics.value("reconnects"));
+		client.disconnect();
+		Assert.assertNull(metrics.getJmxName());
+	}
+}
+
+/**
+ * @endcond
+ */
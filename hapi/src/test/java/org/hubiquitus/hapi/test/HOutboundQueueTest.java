@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hubiquitus.hapi.client.HOutboundQueue;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.hStructures.HOutboundOverflow;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Outbound queue : overflow policies, replay order and spill file.
+ */
+
+public class HOutboundQueueTest {
+
+	private File spillDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		spillDirectory = File.createTempFile("hapi-outbound-test", "");
+		spillDirectory.delete();
+		spillDirectory.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : spillDirectory.listFiles()) {
+			file.delete();
+		}
+		spillDirectory.delete();
+	}
+
+	private static String next(HOutboundQueue queue) {
+		HMessage message = queue.poll();
+		return (message == null) ? null : message.getPayloadAsString();
+	}
+
+	@Test
+	public void replayOrderTest() {
+		HOutboundQueue queue = new HOutboundQueue(10, HOutboundOverflow.FAIL_FAST, null);
+		Assert.assertTrue(queue.isIdle());
+		queue.offer(HTestFixtures.message("info1", HMessagePriority.INFO), 0);
+		queue.offer(HTestFixtures.message("panic", HMessagePriority.PANIC), 0);
+		queue.offer(HTestFixtures.message("info2", null), 0);
+		queue.offer(HTestFixtures.message("trace", HMessagePriority.TRACE), 0);
+		Assert.assertFalse(queue.isIdle());
+		Assert.assertEquals(2, queue.size(HMessagePriority.INFO));
+
+		Assert.assertTrue(queue.beginReplay());
+		Assert.assertFalse(queue.beginReplay());
+		Assert.assertEquals("panic", next(queue));
+		Assert.assertEquals("info1", next(queue));
+		Assert.assertEquals("info2", next(queue));
+		Assert.assertEquals("trace", next(queue));
+		// an empty poll ends the replay
+		Assert.assertNull(queue.poll());
+		Assert.assertTrue(queue.isIdle());
+		Assert.assertTrue(queue.beginReplay());
+		queue.endReplay();
+	}
+
+	@Test
+	public void requeueTest() {
+		HOutboundQueue queue = new HOutboundQueue(2, HOutboundOverflow.FAIL_FAST, null);
+		queue.offer(HTestFixtures.message("sent later", null), 0);
+		queue.offer(HTestFixtures.message("sent later too", null), 0);
+		// given back by the transport : replayed first, in their order, even beyond the capacity
+		List<HMessage> unsent = new ArrayList<HMessage>();
+		unsent.add(HTestFixtures.message("unsent1", null));
+		unsent.add(HTestFixtures.message("unsent2", null));
+		queue.requeue(unsent);
+		Assert.assertEquals(4, queue.size());
+		Assert.assertEquals("unsent1", next(queue));
+		Assert.assertEquals("unsent2", next(queue));
+		Assert.assertEquals("sent later", next(queue));
+		Assert.assertEquals("sent later too", next(queue));
+	}
+
+	@Test
+	public void failFastTest() {
+		HOutboundQueue queue = new HOutboundQueue(2, HOutboundOverflow.FAIL_FAST, null);
+		Assert.assertNull(queue.offer(HTestFixtures.message("first", null), 0));
+		Assert.assertNull(queue.offer(HTestFixtures.message("second", null), 0));
+		HMessage refused = HTestFixtures.message("third", HMessagePriority.PANIC);
+		Assert.assertSame(refused, queue.offer(refused, 1000));
+		Assert.assertEquals(2, queue.size());
+		Assert.assertEquals(1, queue.getDroppedCount());
+	}
+
+	@Test
+	public void blockTest() throws Exception {
+		final HOutboundQueue queue = new HOutboundQueue(1, HOutboundOverflow.BLOCK, null);
+		queue.offer(HTestFixtures.message("first", null), 0);
+		// nobody polls : refused after the wait
+		long start = System.currentTimeMillis();
+		HMessage refused = HTestFixtures.message("refused", null);
+		Assert.assertSame(refused, queue.offer(refused, 50));
+		Assert.assertTrue(System.currentTimeMillis() - start >= 45);
+
+		// room is made while waiting
+		final Thread producer = Thread.currentThread();
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				while (producer.getState() != Thread.State.TIMED_WAITING) {
+					Thread.yield();
+				}
+				queue.poll();
+			}
+		});
+		consumer.start();
+		Assert.assertNull(queue.offer(HTestFixtures.message("second", null), 5000));
+		consumer.join();
+		Assert.assertEquals("second", next(queue));
+		Assert.assertEquals(1, queue.getDroppedCount());
+	}
+
+	@Test
+	public void dropOldestTest() {
+		HOutboundQueue queue = new HOutboundQueue(3, HOutboundOverflow.DROP_OLDEST, null);
+		queue.offer(HTestFixtures.message("info1", HMessagePriority.INFO), 0);
+		queue.offer(HTestFixtures.message("trace", HMessagePriority.TRACE), 0);
+		queue.offer(HTestFixtures.message("info2", HMessagePriority.INFO), 0);
+
+		// the oldest message of the lowest priority makes room
+		Assert.assertEquals("trace", queue.offer(HTestFixtures.message("alert", HMessagePriority.ALERT), 0).getPayloadAsString());
+		Assert.assertEquals("info1", queue.offer(HTestFixtures.message("info3", HMessagePriority.INFO), 0).getPayloadAsString());
+		// nothing below the new message : the new message is dropped
+		HMessage trace = HTestFixtures.message("trace2", HMessagePriority.TRACE);
+		Assert.assertSame(trace, queue.offer(trace, 0));
+
+		Assert.assertEquals(3, queue.getDroppedCount());
+		Assert.assertEquals("alert", next(queue));
+		Assert.assertEquals("info2", next(queue));
+		Assert.assertEquals("info3", next(queue));
+	}
+
+	@Test
+	public void spillTest() {
+		HOutboundQueue queue = new HOutboundQueue(2, HOutboundOverflow.FAIL_FAST, spillDirectory);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertNull(queue.offer(HTestFixtures.message("message" + i, null), 0));
+		}
+		Assert.assertEquals(10, queue.size());
+		Assert.assertEquals(1, spillDirectory.listFiles().length);
+		// spilled messages come after the ones in memory, in order
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals("message" + i, next(queue));
+		}
+		Assert.assertNull(queue.poll());
+		// drained : the file is closed and deleted
+		Assert.assertEquals(0, spillDirectory.listFiles().length);
+
+		queue.offer(HTestFixtures.message("a", null), 0);
+		queue.offer(HTestFixtures.message("b", null), 0);
+		queue.offer(HTestFixtures.message("c", null), 0);
+		Assert.assertEquals(1, spillDirectory.listFiles().length);
+		Assert.assertEquals(3, queue.clear().size());
+		Assert.assertEquals(0, spillDirectory.listFiles().length);
+	}
+
+	@Test
+	public void spillCompactionTest() {
+		HOutboundQueue queue = new HOutboundQueue(1, HOutboundOverflow.FAIL_FAST, spillDirectory);
+		StringBuilder payload = new StringBuilder();
+		while (payload.length() < 1000) {
+			payload.append("0123456789");
+		}
+		// the producer stays ahead : the file never drains
+		for (int i = 0; i < 10; i++) {
+			queue.offer(HTestFixtures.message(payload + "-" + i, null), 0);
+		}
+		long maxLength = 0;
+		for (int i = 10; i < 3000; i++) {
+			queue.offer(HTestFixtures.message(payload + "-" + i, null), 0);
+			Assert.assertEquals(payload + "-" + (i - 10), next(queue));
+			maxLength = Math.max(maxLength, spillDirectory.listFiles()[0].length());
+		}
+		Assert.assertTrue("spill file grew to " + maxLength, maxLength < 1024 * 1024);
+		Assert.assertEquals(10, queue.size());
+	}
+}
+
+/**
+ * @endcond
+ */
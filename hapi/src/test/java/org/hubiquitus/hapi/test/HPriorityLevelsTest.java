@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import org.hubiquitus.hapi.util.HPriorityLevels;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Multi-level fifo : highest level first, starvation protection, eviction of the lowest level.
+ */
+
+public class HPriorityLevelsTest {
+
+	@Test
+	public void orderTest() {
+		HPriorityLevels<String> levels = new HPriorityLevels<String>(3, HPriorityLevels.DEFAULT_MAX_SKIPS);
+		levels.add("low1", 0);
+		levels.add("high1", 2);
+		levels.add("low2", 0);
+		levels.add("high2", 2);
+		levels.add("mid", 1);
+		Assert.assertEquals(5, levels.size());
+		Assert.assertEquals("high1", levels.peek());
+		Assert.assertEquals("high1", levels.poll());
+		Assert.assertEquals("high2", levels.poll());
+		Assert.assertEquals("mid", levels.poll());
+		Assert.assertEquals("low1", levels.poll());
+		Assert.assertEquals("low2", levels.poll());
+		Assert.assertNull(levels.poll());
+		Assert.assertNull(levels.peek());
+	}
+
+	@Test
+	public void starvationTest() {
+		HPriorityLevels<String> levels = new HPriorityLevels<String>(3, 2);
+		levels.add("low", 0);
+		levels.add("mid", 1);
+		for (int i = 0; i < 10; i++) {
+			levels.add("high" + i, 2);
+		}
+		// a level passed over maxSkips times is served next
+		Assert.assertEquals("high0", levels.poll());
+		Assert.assertEquals("high1", levels.poll());
+		Assert.assertEquals("mid", levels.peek());
+		Assert.assertEquals("mid", levels.poll());
+		Assert.assertEquals("low", levels.poll());
+		Assert.assertEquals("high2", levels.poll());
+		Assert.assertArrayEquals(new int[] {0, 0, 7}, levels.sizes());
+	}
+
+	@Test
+	public void pollLowestTest() {
+		HPriorityLevels<String> levels = new HPriorityLevels<String>(3, HPriorityLevels.DEFAULT_MAX_SKIPS);
+		levels.add("mid1", 1);
+		levels.add("high", 2);
+		levels.add("mid2", 1);
+		// oldest of the lowest non empty level, not above the given level
+		Assert.assertNull(levels.pollLowest(0));
+		Assert.assertEquals("mid1", levels.pollLowest(2));
+		Assert.assertEquals("mid2", levels.pollLowest(1));
+		Assert.assertNull(levels.pollLowest(1));
+		Assert.assertEquals("high", levels.pollLowest(2));
+		Assert.assertEquals(0, levels.size());
+
+		levels.add("a", 0);
+		Assert.assertTrue(levels.remove("a"));
+		Assert.assertFalse(levels.remove("a"));
+		Assert.assertEquals(0, levels.size());
+	}
+}
+
+/**
+ * @endcond
+ */
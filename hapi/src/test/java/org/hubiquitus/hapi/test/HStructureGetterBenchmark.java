@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.hubiquitus.hapi.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hubiquitus.hapi.hStructures.HLocation;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HOptions;
+import org.hubiquitus.hapi.hStructures.HResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @cond internal
+ * Cost of the getters when the optional attribute is missing (ref, location, result ...).
+ * The "exception" benchmarks reproduce the former try / getX / catch getters.
+ * Run with : mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.hubiquitus.hapi.test.HStructureGetterBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HStructureGetterBenchmark {
+
+	private HMessage message;
+	private HResult result;
+	private HOptions options;
+
+	@Setup
+	public void setup() throws JSONException {
+		message = new HMessage();
+		message.setMsgid("msgid");
+		message.setPublisher("publisher@domain");
+		message.setPayload(new JSONObject());
+		result = new HResult();
+		options = new HOptions();
+	}
+
+	@Benchmark
+	public Object missingRefException() {
+		try {
+			return message.getString("ref");
+		} catch (JSONException e) {
+			return null;
+		}
+	}
+
+	@Benchmark
+	public Object missingRef() {
+		return message.getRef();
+	}
+
+	@Benchmark
+	public Object missingAuthorException() {
+		try {
+			return message.getString("author");
+		} catch (JSONException e) {
+			return null;
+		}
+	}
+
+	@Benchmark
+	public Object missingAuthor() {
+		return message.getAuthor();
+	}
+
+	@Benchmark
+	public Object missingLocationException() {
+		try {
+			return new HLocation(message.getJSONObject("location"));
+		} catch (JSONException e) {
+			return null;
+		}
+	}
+
+	@Benchmark
+	public Object missingLocation() {
+		return message.getLocation();
+	}
+
+	@Benchmark
+	public Object missingResultException() {
+		try {
+			return result.getInt("result");
+		} catch (JSONException e) {
+			return null;
+		}
+	}
+
+	@Benchmark
+	public Object missingResult() {
+		return result.getResultAsInt();
+	}
+
+	@Benchmark
+	public int defaultTimeoutException() {
+		try {
+			return options.getInt("timeout");
+		} catch (JSONException e) {
+			return 30000;
+		}
+	}
+
+	@Benchmark
+	public int defaultTimeout() {
+		return options.getTimeout();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(HStructureGetterBenchmark.class.getSimpleName()).build()).run();
+	}
+}
+
+/**
+ * @endcond
+ */
@@ -41,7 +41,10 @@ import org.hubiquitus.hapi.hStructures.HStatus;
 import org.hubiquitus.hapi.hStructures.HValue;
 import org.hubiquitus.hapi.hStructures.OperandNames;
 import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.hubiquitus.hapi.structures.JabberID;
+import org.hubiquitus.hapi.util.DateISO8601;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -636,6 +639,145 @@ public class HStructureTest {
 	
 	
 	
+
+	@Test
+	public void JabberIDTest() throws Exception {
+		JabberID jid = new JabberID("user@domain/res/with@chars");
+		Assert.assertEquals("user", jid.getUsername());
+		Assert.assertEquals("domain", jid.getDomain());
+		Assert.assertEquals("res/with@chars", jid.getResource());
+		Assert.assertEquals("user@domain", jid.getBareJID());
+		Assert.assertEquals("user@domain/res/with@chars", jid.getFullJID());
+		jid.setResource("other");
+		Assert.assertEquals("user@domain/other", jid.getFullJID());
+		Assert.assertEquals("user@domain", new JabberID("user@domain/").getFullJID());
+
+		String[] invalids = {"domain", "@domain", "user@", "user@do@main", "us/er@domain", "user@domain/<res>", null};
+		for (String invalid : invalids) {
+			try {
+				new JabberID(invalid);
+				fail("Invalid jid accepted : " + invalid);
+			} catch (Exception e) {
+			}
+		}
+
+		JabberID interned = JabberID.intern("user@domain/res");
+		Assert.assertSame(interned, JabberID.intern("user@domain/res"));
+		Assert.assertEquals(new JabberID("user@domain/res"), interned);
+		try {
+			interned.setResource("other");
+			fail("Interned jid modified");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void HMessageEnvelopeTest() throws Exception {
+		HMessage message = new HMessage(new JSONObject("{\"actor\":\"#channel@domain\",\"priority\":3,\"timeout\":1000,"
+				+ "\"type\":\"hResult\",\"payload\":{\"status\":0,\"result\":\"first\"}}"));
+		Assert.assertEquals("#channel@domain", message.getActor());
+		Assert.assertEquals(HMessagePriority.ALERT, message.getPriority());
+		Assert.assertEquals(1000, message.getTimeout());
+
+		// put and remove keep the typed envelope in sync with the json
+		message.put("actor", "#other@domain");
+		Assert.assertEquals("#other@domain", message.getActor());
+		message.remove("actor");
+		Assert.assertNull(message.getActor());
+		message.put("priority", 5);
+		Assert.assertEquals(HMessagePriority.PANIC, message.getPriority());
+		message.remove("priority");
+		Assert.assertNull(message.getPriority());
+		message.remove("timeout");
+		Assert.assertEquals(0, message.getTimeout());
+
+		// the typed payload is built once, without writing the json
+		Object json = message.get("payload");
+		HResult result = message.getPayloadAsHResult();
+		Assert.assertEquals("first", result.getResultAsString());
+		Assert.assertSame(result, message.getPayloadAsHResult());
+		Assert.assertSame(json, message.get("payload"));
+		Assert.assertNull(message.getPayloadAsHAck());
+
+		// a new payload replaces the typed one
+		message.put("payload", new JSONObject("{\"status\":0,\"result\":\"second\"}"));
+		Assert.assertEquals("second", message.getPayloadAsHResult().getResultAsString());
+		message.remove("payload");
+		Assert.assertNull(message.getPayloadAsHResult());
+	}
+
+	@Test
+	public void statusLookupTest() throws Exception {
+		// status values are sparse : every constant reads back as itself
+		for (ConnectionStatus status : ConnectionStatus.values()) {
+			HStatus hstatus = new HStatus();
+			hstatus.setStatus(status);
+			Assert.assertEquals(status, new HStatus(new JSONObject(hstatus.toString())).getStatus());
+		}
+		for (ConnectionError error : ConnectionError.values()) {
+			HStatus hstatus = new HStatus();
+			hstatus.setErrorCode(error);
+			Assert.assertEquals(error, new HStatus(new JSONObject(hstatus.toString())).getErrorCode());
+		}
+		for (ResultStatus status : ResultStatus.values()) {
+			HResult hresult = new HResult();
+			hresult.setStatus(status);
+			Assert.assertEquals(status, new HResult(new JSONObject(hresult.toString())).getStatus());
+		}
+		HStatus unknown = new HStatus(new JSONObject("{\"status\":3,\"errorCode\":42}"));
+		Assert.assertNull(unknown.getStatus());
+		Assert.assertNull(unknown.getErrorCode());
+		Assert.assertNull(new HResult(new JSONObject("{\"status\":2}")).getStatus());
+	}
+
+	@Test
+	public void DateISO8601Test() throws Exception {
+		DateTime date = new DateTime(2012, 9, 14, 16, 7, 0, 123, DateTimeZone.forOffsetHours(2));
+		Assert.assertEquals("2012-09-14T14:07:00.123Z", DateISO8601.format(date.getMillis()));
+		Assert.assertEquals(date.getMillis(), DateISO8601.parse(date.toString()));
+		Assert.assertEquals(date.getMillis(), DateISO8601.parse("2012-09-14T16:07:00.123+0200"));
+		Assert.assertEquals(date.getMillis() - 123, DateISO8601.parse("2012-09-14T14:07:00Z"));
+		Assert.assertEquals("1969-12-31T23:59:59.999Z", DateISO8601.format(-1));
+		try {
+			DateISO8601.parse("2012-09-14 16:07:00");
+			fail("Invalid date accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		// days are checked against the length of the month
+		Assert.assertEquals("2012-02-29T00:00:00.000Z", DateISO8601.format(DateISO8601.parse("2012-02-29T00:00:00Z")));
+		Assert.assertEquals("2000-02-29T00:00:00.000Z", DateISO8601.format(DateISO8601.parse("2000-02-29T00:00:00Z")));
+		String[] invalidDays = {"2013-02-31T00:00:00Z", "2013-02-29T00:00:00Z", "1900-02-29T00:00:00Z", "2013-04-31T00:00:00Z"};
+		for (String invalidDay : invalidDays) {
+			try {
+				DateISO8601.parse(invalidDay);
+				fail("Invalid day accepted : " + invalidDay);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+
+		// dates received as strings are read as millis and DateTime
+		HMessage message = new HMessage(new JSONObject("{\"published\":\"2012-09-14T14:07:00.123Z\"}"));
+		Assert.assertEquals(date.getMillis(), message.getPublishedMillis());
+		Assert.assertEquals(date.getMillis(), message.getPublished().getMillis());
+		message.setSentMillis(date.getMillis());
+		Assert.assertEquals("2012-09-14T14:07:00.123Z", message.getString("sent"));
+		Assert.assertEquals(date.getMillis(), message.getSentMillis());
+		message.setSent(null);
+		Assert.assertEquals(0, message.getSentMillis());
+		Assert.assertNull(message.getSent());
+		Assert.assertFalse(message.hasSent());
+
+		// the epoch is a date, not an undefined one
+		message.setSentMillis(0);
+		Assert.assertTrue(message.hasSent());
+		Assert.assertEquals("1970-01-01T00:00:00.000Z", message.getString("sent"));
+		Assert.assertEquals(0, message.getSent().getMillis());
+		HMessage received = new HMessage(new JSONObject("{\"relevance\":\"1970-01-01T00:00:00.000Z\",\"sent\":\"not a date\"}"));
+		Assert.assertTrue(received.hasRelevance());
+		Assert.assertEquals(0, received.getRelevanceMillis());
+		Assert.assertFalse(received.hasSent());
+		Assert.assertFalse(received.hasPublished());
+	}
 }
 
 /**
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hubiquitus.hapi.test;
+
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+
+/**
+ * @cond internal
+ * Messages shared by the tests.
+ */
+
+final class HTestFixtures {
+
+	private HTestFixtures() {
+	}
+
+	/**
+	 * @param payload string payload of the message
+	 * @param priority priority of the message. Null for the default one
+	 */
+	static HMessage message(String payload, HMessagePriority priority) {
+		HMessage message = new HMessage();
+		message.setPayload(payload);
+		message.setPriority(priority);
+		return message;
+	}
+}
+
+/**
+ * @endcond
+ */
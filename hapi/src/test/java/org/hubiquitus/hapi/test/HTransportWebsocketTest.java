@@ -0,0 +1,593 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hubiquitus.hapi.client.HClient;
+import org.hubiquitus.hapi.client.HMessageDelegate;
+import org.hubiquitus.hapi.client.HStatusDelegate;
+import org.hubiquitus.hapi.hStructures.ConnectionError;
+import org.hubiquitus.hapi.hStructures.ConnectionStatus;
+import org.hubiquitus.hapi.hStructures.HCondition;
+import org.hubiquitus.hapi.hStructures.HMessage;
+import org.hubiquitus.hapi.hStructures.HMessagePriority;
+import org.hubiquitus.hapi.hStructures.HOptions;
+import org.hubiquitus.hapi.hStructures.HStatus;
+import org.hubiquitus.hapi.hStructures.ResultStatus;
+import org.hubiquitus.hapi.structures.JabberID;
+import org.hubiquitus.hapi.transport.HTransportDelegate;
+import org.hubiquitus.hapi.transport.HTransportOptions;
+import org.hubiquitus.hapi.transport.websocket.HSelectorLoop;
+import org.hubiquitus.hapi.transport.websocket.HTransportWebsocket;
+import org.hubiquitus.hapi.transport.websocket.HWebsocketPool;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * HTransportWebsocket against a fake hNode : socket.io handshake, websocket upgrade, then hConnect answered
+ * by an hStatus and hMessage events echoed back, on the namespace of each session.
+ */
+
+public class HTransportWebsocketTest {
+
+	private FakeHNode hnode;
+	private HWebsocketPool pool;
+	private List<Client> clients = new ArrayList<Client>();
+
+	private static class Client implements HTransportDelegate {
+		private HTransportWebsocket transport;
+		private BlockingQueue<ConnectionStatus> statuses = new LinkedBlockingQueue<ConnectionStatus>();
+		private BlockingQueue<JSONObject> received = new LinkedBlockingQueue<JSONObject>();
+		private BlockingQueue<JSONObject> unsent = new LinkedBlockingQueue<JSONObject>();
+		// onData waits for it when set
+		private volatile CountDownLatch gate = null;
+
+		public void onStatus(ConnectionStatus status, ConnectionError error, String errorMsg) {
+			statuses.add(status);
+		}
+
+		public void onData(String type, JSONObject jsonData) {
+			CountDownLatch current = gate;
+			if (current != null) {
+				try {
+					current.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			received.add(jsonData);
+		}
+
+		public void onUnsent(List<JSONObject> objects) {
+			unsent.addAll(objects);
+		}
+
+		private String nextPayload() throws Exception {
+			JSONObject data = received.poll(5, TimeUnit.SECONDS);
+			return (data == null) ? null : new HMessage(data).getPayloadAsString();
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		hnode = new FakeHNode();
+		hnode.start();
+		pool = new HWebsocketPool(HSelectorLoop.getShared());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (Client client : clients) {
+			client.transport.disconnect();
+		}
+		hnode.close();
+	}
+
+	private Client connect(String jid, int batchSize, int sessionsPerConnection) throws Exception {
+		HTransportOptions options = new HTransportOptions();
+		options.setJid(new JabberID(jid));
+		options.setPassword("password");
+		options.setEndpointHost("localhost");
+		options.setEndpointPort(hnode.getPort());
+		options.setEndpointPath("/");
+		options.setBatchSize(batchSize);
+		options.setBatchWindow(batchSize > 1 ? 1000 : 0);
+		options.setSessionsPerConnection(sessionsPerConnection);
+		Client client = new Client();
+		client.transport = new HTransportWebsocket(pool);
+		clients.add(client);
+		client.transport.connect(client, options);
+		Assert.assertEquals(ConnectionStatus.CONNECTED, client.statuses.poll(5, TimeUnit.SECONDS));
+		return client;
+	}
+
+	private HMessage message(String payload) throws Exception {
+		HMessage message = new HMessage();
+		message.setActor("#channel@websockettest");
+		message.setType("string");
+		message.setPayload(payload);
+		return message;
+	}
+
+	@Test
+	public void connectAndEchoTest() throws Exception {
+		Client client = connect("user@websockettest/res", 1, 1);
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).contains("user@websockettest/res"));
+
+		// heartbeats and pings are answered by the client
+		hnode.sendText("2::");
+		Assert.assertEquals("2::", hnode.packets.poll(5, TimeUnit.SECONDS));
+		hnode.sendFrame(0x9, "ping".getBytes("UTF-8"));
+		Assert.assertEquals("pong:ping", hnode.packets.poll(5, TimeUnit.SECONDS));
+
+		client.transport.sendObject(message("hello"));
+		Assert.assertEquals("hello", client.nextPayload());
+
+		// bigger than the read buffer of the client
+		StringBuilder large = new StringBuilder();
+		while (large.length() < 100000) {
+			large.append("0123456789");
+		}
+		client.transport.sendObject(message(large.toString()));
+		Assert.assertEquals(large.toString(), client.nextPayload());
+	}
+
+	@Test
+	public void batchTest() throws Exception {
+		Client client = connect("user@websockettest/res", 3, 1);
+		hnode.packets.poll(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 3; i++) {
+			client.transport.sendObject(message("message" + i));
+		}
+		// one event for the batch, echoed as one event too
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).contains("\"args\":[["));
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals("message" + i, client.nextPayload());
+		}
+	}
+
+	@Test
+	public void unsentBatchTest() throws Exception {
+		Client client = connect("user@websockettest/res", 10, 1);
+		hnode.packets.poll(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 3; i++) {
+			client.transport.sendObject(message("message" + i));
+		}
+		// the connection is lost before the batch window : the batch is given back to the client, in order
+		hnode.drop();
+		for (int i = 0; i < 3; i++) {
+			JSONObject unsent = client.unsent.poll(5, TimeUnit.SECONDS);
+			Assert.assertNotNull(unsent);
+			Assert.assertEquals("message" + i, new HMessage(unsent).getPayloadAsString());
+		}
+		Assert.assertTrue(client.received.isEmpty());
+	}
+
+	@Test
+	public void disconnectTest() throws Exception {
+		Client client = connect("user@websockettest/res", 1, 1);
+		hnode.packets.poll(5, TimeUnit.SECONDS);
+		client.transport.disconnect();
+		Assert.assertEquals(ConnectionStatus.DISCONNECTED, client.statuses.poll(5, TimeUnit.SECONDS));
+		Assert.assertEquals("0::", hnode.packets.poll(5, TimeUnit.SECONDS));
+		Assert.assertEquals("close", hnode.packets.poll(5, TimeUnit.SECONDS));
+		Assert.assertEquals(0, pool.size());
+	}
+
+	@Test
+	public void newSessionTest() throws Exception {
+		final BlockingQueue<ConnectionStatus> statuses = new LinkedBlockingQueue<ConnectionStatus>();
+		final BlockingQueue<HMessage> results = new LinkedBlockingQueue<HMessage>();
+		HClient client = subscribedClient(statuses, results);
+
+		// network failure : the client reconnects at once, hNode opens a new session, the client restores its filter and subscriptions
+		hnode.packets.clear();
+		hnode.drop();
+		waitFor(statuses, ConnectionStatus.CONNECTED);
+		String hConnect = hnode.packets.poll(5, TimeUnit.SECONDS);
+		Assert.assertTrue(hConnect.contains("\"session\":\"token-1\""));
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).contains("\"cmd\":\"hSetFilter\""));
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).contains("\"cmd\":\"hsubscribe\""));
+		// the results of the restore are not delivered to the application
+		Assert.assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+		client.disconnect();
+	}
+
+	@Test
+	public void resumeTest() throws Exception {
+		final BlockingQueue<ConnectionStatus> statuses = new LinkedBlockingQueue<ConnectionStatus>();
+		final BlockingQueue<HMessage> results = new LinkedBlockingQueue<HMessage>();
+		HClient client = subscribedClient(statuses, results);
+
+		// network failure : hNode resumes the session from its token, it still has the filter and the subscriptions
+		hnode.resume = true;
+		hnode.packets.clear();
+		hnode.drop();
+		waitFor(statuses, ConnectionStatus.CONNECTED);
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).contains("\"session\":\"token-1\""));
+		client.send(client.buildMessage("user@websockettest", "string", "resumed", null), null);
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).contains("\"payload\":\"resumed\""));
+		client.disconnect();
+		// nothing sent between the hConnect and the message
+		Assert.assertEquals("0::", hnode.packets.poll(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * A client connected to hnode, subscribed to a channel and with a filter set
+	 */
+	private HClient subscribedClient(final BlockingQueue<ConnectionStatus> statuses, final BlockingQueue<HMessage> results) throws Exception {
+		HMessageDelegate resultDelegate = new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+				results.add(message);
+			}
+		};
+		HOptions options = new HOptions();
+		options.setTransport("websocket");
+		options.setDeliveryThreads(0);
+		options.setEndpoints(new JSONArray().put("http://localhost:" + hnode.getPort() + "/"));
+		HClient client = new HClient();
+		client.onStatus(new HStatusDelegate() {
+			public void onStatus(HStatus status) {
+				statuses.add(status.getStatus());
+			}
+		});
+		client.connect("user@websockettest/res", "password", options);
+		waitFor(statuses, ConnectionStatus.CONNECTED);
+		Assert.assertFalse(hnode.packets.poll(5, TimeUnit.SECONDS).contains("session"));
+
+		client.subscribe("#channel@websockettest", resultDelegate);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.poll(5, TimeUnit.SECONDS).getPayloadAsHResult().getStatus());
+		client.setFilter(new HCondition("{\"eq\":{\"priority\":2}}"), resultDelegate);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.poll(5, TimeUnit.SECONDS).getPayloadAsHResult().getStatus());
+		return client;
+	}
+
+	@Test
+	public void alreadyConnectedTest() throws Exception {
+		final BlockingQueue<ConnectionStatus> statuses = new LinkedBlockingQueue<ConnectionStatus>();
+		final BlockingQueue<HMessage> results = new LinkedBlockingQueue<HMessage>();
+		HMessageDelegate resultDelegate = new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+				results.add(message);
+			}
+		};
+		HOptions options = new HOptions();
+		options.setTransport("websocket");
+		options.setDeliveryThreads(0);
+		options.setEndpoints(new JSONArray().put("http://localhost:" + hnode.getPort() + "/"));
+		HClient client = new HClient();
+		client.onStatus(new HStatusDelegate() {
+			public void onStatus(HStatus status) {
+				statuses.add(status.getStatus());
+			}
+		});
+		client.connect("user@websockettest/res", "password", options);
+		waitFor(statuses, ConnectionStatus.CONNECTED);
+		client.subscribe("#channel@websockettest", resultDelegate);
+		Assert.assertEquals(ResultStatus.NO_ERROR, results.poll(5, TimeUnit.SECONDS).getPayloadAsHResult().getStatus());
+
+		// no reconnection : nothing to restore
+		hnode.packets.clear();
+		client.connect("user@websockettest/res", "password", options);
+		waitFor(statuses, ConnectionStatus.CONNECTED);
+		Assert.assertNull(hnode.packets.poll(200, TimeUnit.MILLISECONDS));
+		client.disconnect();
+	}
+
+	@Test
+	public void requeueTest() throws Exception {
+		final BlockingQueue<ConnectionStatus> statuses = new LinkedBlockingQueue<ConnectionStatus>();
+		final BlockingQueue<HMessage> inbox = new LinkedBlockingQueue<HMessage>();
+		HOptions options = new HOptions();
+		options.setTransport("websocket");
+		options.setDeliveryThreads(0);
+		options.setBatchSize(10);
+		options.setBatchWindow(60000);
+		options.setOutboundQueueSize(100);
+		options.setEndpoints(new JSONArray().put("http://localhost:" + hnode.getPort() + "/"));
+		HClient client = new HClient();
+		client.onStatus(new HStatusDelegate() {
+			public void onStatus(HStatus status) {
+				statuses.add(status.getStatus());
+			}
+		});
+		client.onMessage(new HMessageDelegate() {
+			public void onMessage(HMessage message) {
+				inbox.add(message);
+			}
+		});
+		client.connect("user@websockettest/res", "password", options);
+		waitFor(statuses, ConnectionStatus.CONNECTED);
+
+		// lost in the current batch : queued again and sent once reconnected
+		client.send(client.buildMessage("user@websockettest", "string", "batched", null), null);
+		hnode.drop();
+		waitFor(statuses, ConnectionStatus.CONNECTED);
+		// an alert flushes the batch at once
+		HMessage alert = client.buildMessage("user@websockettest", "string", "alert", null);
+		alert.setPriority(HMessagePriority.ALERT);
+		client.send(alert, null);
+		Assert.assertEquals("batched", inbox.poll(5, TimeUnit.SECONDS).getPayloadAsString());
+		Assert.assertEquals("alert", inbox.poll(5, TimeUnit.SECONDS).getPayloadAsString());
+		client.disconnect();
+	}
+
+	private static void waitFor(BlockingQueue<ConnectionStatus> statuses, ConnectionStatus expected) throws InterruptedException {
+		ConnectionStatus status;
+		do {
+			status = statuses.poll(5, TimeUnit.SECONDS);
+		} while (status != null && status != expected);
+		Assert.assertEquals(expected, status);
+	}
+
+	@Test
+	public void multiplexTest() throws Exception {
+		// the fake hNode serves one connection at a time
+		Client first = connect("first@websockettest/res", 1, 2);
+		Client second = connect("second@websockettest/res", 1, 2);
+		Assert.assertEquals(1, pool.size());
+		Assert.assertEquals("1::/first@websockettest/res", hnode.packets.poll(5, TimeUnit.SECONDS));
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).startsWith("5::/first@websockettest/res:"));
+		Assert.assertEquals("1::/second@websockettest/res", hnode.packets.poll(5, TimeUnit.SECONDS));
+		Assert.assertTrue(hnode.packets.poll(5, TimeUnit.SECONDS).startsWith("5::/second@websockettest/res:"));
+
+		// messages come back on the namespace of their session
+		first.transport.sendObject(message("to first"));
+		second.transport.sendObject(message("to second"));
+		Assert.assertEquals("to first", first.nextPayload());
+		Assert.assertEquals("to second", second.nextPayload());
+
+		// messages of a namespace without session are dropped, whatever their actor
+		hnode.sendText("5:::{\"name\":\"hMessage\",\"args\":[{\"actor\":\"second@websockettest\",\"type\":\"string\",\"payload\":\"dropped\"}]}");
+		second.transport.sendObject(message("after"));
+		Assert.assertEquals("after", second.nextPayload());
+		Assert.assertTrue(first.received.isEmpty());
+
+		// the connection is kept until its last session leaves
+		hnode.packets.clear();
+		first.transport.disconnect();
+		Assert.assertEquals("0::/first@websockettest/res", hnode.packets.poll(5, TimeUnit.SECONDS));
+		second.transport.sendObject(message("still there"));
+		Assert.assertEquals("still there", second.nextPayload());
+		second.transport.disconnect();
+		Assert.assertEquals(0, pool.size());
+	}
+
+	@Test
+	public void blockingCallbackTest() throws Exception {
+		Client first = connect("first@websockettest/res", 1, 2);
+		Client second = connect("second@websockettest/res", 1, 2);
+		hnode.packets.clear();
+
+		// the first session blocks in its callback : the connection and the other session go on
+		CountDownLatch gate = new CountDownLatch(1);
+		first.gate = gate;
+		first.transport.sendObject(message("blocked"));
+		first.transport.sendObject(message("after blocked"));
+		second.transport.sendObject(message("to second"));
+		Assert.assertEquals("to second", second.nextPayload());
+		hnode.packets.clear();
+		hnode.sendText("2::");
+		Assert.assertEquals("2::", hnode.packets.poll(5, TimeUnit.SECONDS));
+		Assert.assertTrue(first.received.isEmpty());
+
+		// released, in order
+		gate.countDown();
+		Assert.assertEquals("blocked", first.nextPayload());
+		Assert.assertEquals("after blocked", first.nextPayload());
+	}
+
+	/**
+	 * socket.io 0.9 server for one connection at a time, on blocking sockets. Commands are answered with a success.
+	 * Packets received are queued (control frames as "pong:data" and "close"), hMessage events are echoed
+	 */
+	private static class FakeHNode extends Thread {
+		private final ServerSocket server = new ServerSocket(0);
+		private static final Pattern PACKET = Pattern.compile("(\\d):[^:]*:([^:]*):?(.*)", Pattern.DOTALL);
+		private final BlockingQueue<String> packets = new LinkedBlockingQueue<String>();
+		private volatile OutputStream out;
+		private volatile Socket socket;
+		private int sessions = 0;
+		// resume the session of the token given in hConnect instead of opening a new one
+		private volatile boolean resume = false;
+
+		FakeHNode() throws IOException {
+			setDaemon(true);
+		}
+
+		int getPort() {
+			return server.getLocalPort();
+		}
+
+		void close() throws IOException {
+			server.close();
+		}
+
+		private static String readRequest(InputStream in) throws IOException {
+			ByteArrayOutputStream request = new ByteArrayOutputStream();
+			int c;
+			while ((c = in.read()) >= 0) {
+				request.write(c);
+				String text = request.toString("US-ASCII");
+				if (text.endsWith("\r\n\r\n")) {
+					return text;
+				}
+			}
+			throw new IOException("connection closed");
+		}
+
+		@Override
+		public void run() {
+			while (!server.isClosed()) {
+				try {
+					serve();
+				} catch (Exception e) {
+					// dropped or closed by the test
+				}
+			}
+		}
+
+		/**
+		 * close the current connection, as a network failure would
+		 */
+		void drop() throws IOException {
+			socket.close();
+		}
+
+		private void serve() throws Exception {
+			Socket handshake = server.accept();
+			readRequest(handshake.getInputStream());
+			handshake.getOutputStream().write("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\nsid:60:60:websocket,xhr-polling".getBytes("US-ASCII"));
+			handshake.close();
+
+			socket = server.accept();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			out = socket.getOutputStream();
+			String request = readRequest(in);
+			String key = request.replaceAll("(?s).*Sec-WebSocket-Key: ([^\r]*)\r.*", "$1");
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes("US-ASCII"));
+			out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+					+ base64(digest) + "\r\n\r\n").getBytes("US-ASCII"));
+			sendText("1::");
+
+			while (true) {
+				int opcode = in.readUnsignedByte() & 0x0f;
+				long length = in.readUnsignedByte() & 0x7f;
+				if (length == 126) {
+					length = in.readUnsignedShort();
+				} else if (length == 127) {
+					length = in.readLong();
+				}
+				byte[] mask = new byte[4];
+				in.readFully(mask);
+				byte[] data = new byte[(int) length];
+				in.readFully(data);
+				for (int i = 0; i < data.length; i++) {
+					data[i] ^= mask[i & 3];
+				}
+				String text = new String(data, "UTF-8");
+				if (opcode == 0x8) {
+					packets.add("close");
+					return;
+				} else if (opcode == 0xA) {
+					packets.add("pong:" + text);
+					continue;
+				}
+				packets.add(text);
+				// type:id:endpoint:data
+				Matcher packet = PACKET.matcher(text);
+				if (!packet.matches()) {
+					continue;
+				}
+				String endpoint = packet.group(2);
+				if (packet.group(1).equals("1") && endpoint.length() > 0) {
+					sendText("1::" + endpoint);
+				} else if (packet.group(1).equals("5") && packet.group(3).startsWith("{\"name\":\"hConnect\"")) {
+					String token = new JSONObject(packet.group(3)).getJSONArray("args").getJSONObject(0).optString("session", null);
+					String resumed = "";
+					if (resume && token != null) {
+						resumed = ",\"resumed\":true";
+					} else {
+						token = "token-" + (++sessions);
+					}
+					sendText("5::" + endpoint + ":{\"name\":\"hStatus\",\"args\":[{\"status\":2,\"errorCode\":0,\"session\":\"" + token + "\"" + resumed + "}]}");
+				} else if (packet.group(1).equals("5") && packet.group(3).startsWith("{\"name\":\"hMessage\"")) {
+					JSONObject message = new JSONObject(packet.group(3)).getJSONArray("args").optJSONObject(0);
+					if (message != null && "hCommand".equalsIgnoreCase(message.optString("type"))) {
+						// commands succeed
+						JSONObject result = new JSONObject();
+						result.put("cmd", message.getJSONObject("payload").getString("cmd"));
+						result.put("status", 0);
+						JSONObject answer = new JSONObject();
+						answer.put("msgid", "answer-" + message.getString("msgid"));
+						answer.put("ref", message.getString("msgid"));
+						answer.put("actor", message.getString("publisher"));
+						answer.put("type", "hResult");
+						answer.put("payload", result);
+						sendText("5::" + endpoint + ":{\"name\":\"hMessage\",\"args\":[" + answer + "]}");
+					} else {
+						sendText(text);
+					}
+				}
+			}
+		}
+
+		private static String base64(byte[] data) {
+			String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < data.length; i += 3) {
+				int b = ((data[i] & 0xff) << 16) | ((i + 1 < data.length ? data[i + 1] & 0xff : 0) << 8) | (i + 2 < data.length ? data[i + 2] & 0xff : 0);
+				builder.append(alphabet.charAt((b >> 18) & 0x3f)).append(alphabet.charAt((b >> 12) & 0x3f));
+				builder.append(i + 1 < data.length ? alphabet.charAt((b >> 6) & 0x3f) : '=');
+				builder.append(i + 2 < data.length ? alphabet.charAt(b & 0x3f) : '=');
+			}
+			return builder.toString();
+		}
+
+		void sendText(String text) throws IOException {
+			sendFrame(0x1, text.getBytes("UTF-8"));
+		}
+
+		synchronized void sendFrame(int opcode, byte[] data) throws IOException {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write(0x80 | opcode);
+			if (data.length < 126) {
+				frame.write(data.length);
+			} else if (data.length < 65536) {
+				frame.write(126);
+				frame.write(data.length >>> 8);
+				frame.write(data.length);
+			} else {
+				frame.write(127);
+				for (int i = 7; i >= 0; i--) {
+					frame.write((int) ((long) data.length >>> (8 * i)));
+				}
+			}
+			frame.write(data);
+			out.write(frame.toByteArray());
+			out.flush();
+		}
+	}
+}
+
+/**
+ * @endcond
+ */
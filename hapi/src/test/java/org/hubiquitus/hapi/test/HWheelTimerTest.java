@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Novedia Group 2012.
+ *
+ *     This file is part of Hubiquitus.
+ *
+ *     Hubiquitus is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Hubiquitus is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Hubiquitus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.hubiquitus.hapi.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hubiquitus.hapi.util.HWheelTimer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @cond internal
+ * Hashed wheel timer : firing order, cancellation, and delays longer than one turn of the wheel.
+ */
+
+public class HWheelTimerTest {
+
+	private static final long WAIT = 5000;
+
+	@Test
+	public void orderTest() throws Exception {
+		HWheelTimer timer = new HWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 16);
+		final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(100);
+		// same tick : fired in scheduling order
+		for (int i = 0; i < 100; i++) {
+			final int seq = i;
+			timer.schedule(new Runnable() {
+				public void run() {
+					fired.add(seq);
+					done.countDown();
+				}
+			}, 20);
+		}
+		Assert.assertTrue(done.await(WAIT, TimeUnit.MILLISECONDS));
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(i, fired.get(i).intValue());
+		}
+		Assert.assertEquals(0, timer.size());
+	}
+
+	@Test
+	public void cancelTest() throws Exception {
+		HWheelTimer timer = new HWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 16);
+		final AtomicInteger runs = new AtomicInteger(0);
+		Runnable task = new Runnable() {
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+		HWheelTimer.Timeout cancelled = timer.schedule(task, 30);
+		Assert.assertTrue(cancelled.cancel());
+		Assert.assertTrue(cancelled.isCancelled());
+		Assert.assertFalse(cancelled.cancel());
+
+		final CountDownLatch done = new CountDownLatch(1);
+		HWheelTimer.Timeout expired = timer.schedule(new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		}, 60);
+		Assert.assertTrue(done.await(WAIT, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(expired.isExpired());
+		Assert.assertFalse(expired.cancel());
+		Assert.assertEquals(0, runs.get());
+		Assert.assertEquals(0, timer.size());
+	}
+
+	@Test
+	public void roundsTest() throws Exception {
+		// 8 ticks of 5ms : one turn of the wheel is 40ms
+		HWheelTimer timer = new HWheelTimer("test-timer", 5, TimeUnit.MILLISECONDS, 8);
+		final List<String> fired = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(2);
+		final long start = System.nanoTime();
+		final long[] elapsed = new long[1];
+		timer.schedule(new Runnable() {
+			public void run() {
+				elapsed[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				fired.add("long");
+				done.countDown();
+			}
+		}, 130);
+		// lands in the same bucket, one turn earlier
+		timer.schedule(new Runnable() {
+			public void run() {
+				fired.add("short");
+				done.countDown();
+			}
+		}, 10);
+		Assert.assertTrue(done.await(WAIT, TimeUnit.MILLISECONDS));
+		Assert.assertEquals("short", fired.get(0));
+		Assert.assertEquals("long", fired.get(1));
+		Assert.assertTrue("fired after " + elapsed[0] + "ms", elapsed[0] >= 125);
+	}
+}
+
+/**
+ * @endcond
+ */